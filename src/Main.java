@@ -7,6 +7,8 @@ import file.GameState;
 import map.Cell;
 import map.CityMap;
 import map.MapLoader;
+import map.TmxModel;
+import map.MovementProfile;
 import map.Hospital;
 import playercontrol.DecisionInterface;
 import strategy.AStarPathFinder;
@@ -23,9 +25,6 @@ import victim.VictimManager;
 
 import javax.swing.*;
 import java.awt.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
@@ -61,6 +60,15 @@ public class Main {
 
                     // 1.2) لود CollisionMap به‌صورت ایمن
                     final CollisionMap collisionMap = safeLoadCollisionMap(TMX_PATH, cityMap);
+                    // پایان خواندن TMX (نقشه، ماسک‌ها، برخورد از یک مدل)؛ مدل در کش نمی‌ماند
+                    TmxModel.release(TMX_PATH);
+
+                    // 1.3) برچسب مؤلفه‌های همبند (road-only/پیاده را AgentController خودش می‌سازد)
+                    cityMap.precomputeComponentLabels(MovementProfile.DEFAULT, MovementProfile.RESCUER, MovementProfile.VEHICLE);
+
+                    // 1.4) نشانه‌های ALT برای A*: فقط در اولین جست‌وجوی واقعی از فایل کش همین TMX map یا ساخته می‌شود
+                    final AStarPathFinder pathFinder = new AStarPathFinder(cityMap);
+                    pathFinder.setLandmarkSource(TMX_PATH, 8);
 
                     // 2) اسپاون «فقط روی ROAD»
                     Position preferred = new Position(cityMap.getWidth() - 2, cityMap.getHeight() - 2);
@@ -99,13 +107,16 @@ public class Main {
                     VictimManager victimManager = new VictimManager();
                     for (int i = 0; i < victims.size(); i++) { victimManager.addInjured(victims.get(i)); }
                     List<Hospital> hospitals = scanHospitalsFromMask(cityMap);
+                    // ثبت پیش از ساخت RescueCoordinator: AgentController میدان نزدیک‌ترین بیمارستان جاده‌ای خودش را
+                    // در سازنده پیش‌محاسبه می‌کند و همان میدان مشترک نقشه را به کار می‌برد
+                    cityMap.registerHospitals(hospitals);
                     RescueCoordinator rescueCoordinator = new RescueCoordinator(
                             agentManager,
                             victimManager,
                             hospitals,
                             cityMap,
                             collisionMap,
-                            new AStarPathFinder(cityMap),
+                            pathFinder,
                             new InjuryPrioritySelector()
                     );
                     GameState gameState = new GameState(cityMap, rescuers, victims, hospitals, ScoreManager.getScore());
@@ -274,7 +285,7 @@ public class Main {
         }
     }
 
-    /** RoadMask را از TMX می‌خواند و در CityMap ست می‌کند (CSV → int[][] → setRoadMaskFromInts). */
+    /** RoadMask را از TMX می‌خواند و در CityMap ست می‌کند (لایهٔ TmxModel → int[][] → setRoadMaskFromInts). */
     private static void ensureRoadMaskLoadedFromTMX(CityMap map, String tmxPath) {
         try {
             boolean[][] existing = map.getBinaryLayer("RoadMask");
@@ -286,21 +297,9 @@ public class Main {
         } catch (Throwable ignored) {}
 
         try {
-            String xml = new String(Files.readAllBytes(Paths.get(tmxPath)), StandardCharsets.UTF_8);
-            String tag = "name=\"RoadMask\"";
-            int i = xml.indexOf(tag);
-            if (i < 0) { System.err.println("[RoadMask] layer not found in TMX."); return; }
-            int layerStart = xml.lastIndexOf("<layer", i);
-            int layerEnd = xml.indexOf("</layer>", i);
-            if (layerStart < 0 || layerEnd < 0) { System.err.println("[RoadMask] malformed layer block."); return; }
-            String layerBlock = xml.substring(layerStart, layerEnd);
-            int d1 = layerBlock.indexOf("<data");
-            int d2 = layerBlock.indexOf("</data>");
-            if (d1 < 0 || d2 < 0) { System.err.println("[RoadMask] data tag not found."); return; }
-            int gt = layerBlock.indexOf('>', d1);
-            if (gt < 0 || gt >= d2) { System.err.println("[RoadMask] data tag malformed."); return; }
-            String csv = layerBlock.substring(gt + 1, d2).trim();
-            int[][] grid01 = parseCSVToGrid(csv, map.getWidth(), map.getHeight());
+            TmxModel.Layer layer = TmxModel.load(tmxPath).getLayer("RoadMask");
+            if (layer == null) { System.err.println("[RoadMask] layer not found in TMX."); return; }
+            int[][] grid01 = layerToGrid(layer, map.getWidth(), map.getHeight());
             if (grid01 != null) {
                 map.setRoadMaskFromInts(grid01);
                 int cnt = countNonZero(grid01);
@@ -323,21 +322,9 @@ public class Main {
         } catch (Throwable ignored) {}
 
         try {
-            String xml = new String(Files.readAllBytes(Paths.get(tmxPath)), StandardCharsets.UTF_8);
-            String tag = "name=\"HospitalMask\"";
-            int i = xml.indexOf(tag);
-            if (i < 0) { System.err.println("[HospitalMask] layer not found in TMX."); return; }
-            int layerStart = xml.lastIndexOf("<layer", i);
-            int layerEnd = xml.indexOf("</layer>", i);
-            if (layerStart < 0 || layerEnd < 0) { System.err.println("[HospitalMask] malformed layer block."); return; }
-            String layerBlock = xml.substring(layerStart, layerEnd);
-            int d1 = layerBlock.indexOf("<data");
-            int d2 = layerBlock.indexOf("</data>");
-            if (d1 < 0 || d2 < 0) { System.err.println("[HospitalMask] data tag not found."); return; }
-            int gt = layerBlock.indexOf('>', d1);
-            if (gt < 0 || gt >= d2) { System.err.println("[HospitalMask] data tag malformed."); return; }
-            String csv = layerBlock.substring(gt + 1, d2).trim();
-            int[][] grid01 = parseCSVToGrid(csv, map.getWidth(), map.getHeight());
+            TmxModel.Layer layer = TmxModel.load(tmxPath).getLayer("HospitalMask");
+            if (layer == null) { System.err.println("[HospitalMask] layer not found in TMX."); return; }
+            int[][] grid01 = layerToGrid(layer, map.getWidth(), map.getHeight());
             if (grid01 != null) {
                 map.setHospitalMaskFromInts(grid01);
                 int cnt = countNonZero(grid01);
@@ -348,29 +335,14 @@ public class Main {
         }
     }
 
-    /** پارس CSV به آرایهٔ [height][width] با ۰/۱. */
-    private static int[][] parseCSVToGrid(String csv, int width, int height) {
-        if (csv == null) return null;
-        String[] lines = csv.split("\\r?\\n");
+    /** لایهٔ TmxModel به آرایهٔ [height][width] با ۰/۱ (gid غیرصفر = ۱). */
+    private static int[][] layerToGrid(TmxModel.Layer layer, int width, int height) {
+        if (layer == null) return null;
         int[][] out = new int[height][width];
-        int y = 0;
-        for (int li = 0; li < lines.length && y < height; li++) {
-            String line = lines[li].trim();
-            if (line.length() == 0) continue;
-            String[] toks = line.split(",");
-            int x = 0;
-            for (int ti = 0; ti < toks.length && x < width; ti++) {
-                String t = toks[ti].trim();
-                if (t.length() == 0) continue;
-                try {
-                    int v = Integer.parseInt(t);
-                    out[y][x] = (v != 0) ? 1 : 0;
-                } catch (NumberFormatException nfe) {
-                    out[y][x] = 0;
-                }
-                x++;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                out[y][x] = (layer.gid(x, y) != 0) ? 1 : 0;
             }
-            y++;
         }
         return out;
     }
@@ -4,24 +4,37 @@ package agent;
 import map.Cell;
 import map.CityMap;
 import map.Hospital;
+import map.HospitalDistanceField;
+import map.MapChangeJournal;
+import map.MovementProfile;
 import util.CollisionMap;
+import util.CompactPath;
 import util.MoveGuard;
 import util.Position;
+import util.SpatialHash;
 import util.Logger;
 import victim.Injured;
 import victim.VictimManager;
+import strategy.CachingPathFinder;
+import strategy.ContractionHierarchyPathFinder;
+import strategy.CooperativePathFinder;
+import strategy.DStarLitePlanner;
+import strategy.GridAStarPathFinder;
 import strategy.IPathFinder;
 import strategy.IAgentDecision;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * کنترل حرکت عامل‌ها روی شبکه.
  * - نزدیک شدن به مجروح → ورود به حالت آمبولانس و ضمیمه کردن مجروح
  * - حالت آمبولانس → حرکت فقط روی ROAD به یکی از کاشی‌های مجاور نزدیک‌ترین بیمارستان
+ *   (شیب HospitalDistanceField، سپس مسیر CH، سپس D* Lite؛ جزئیات در ambulancePath)
  * - رسیدن کنار بیمارستان → deliverVictimAtHospital() (نجات + پاداش 2×t0)
  * - از MoveGuard برای اعمال حرکت و occupancy استفاده می‌شود.
  * - collisionMap می‌تواند null باشد.
@@ -39,7 +52,7 @@ public class AgentController {
     private final CollisionMap collisionMap; // می‌تواند null باشد
 
     // مراجع قابل‌تزریق (اختیاری)
-    private IPathFinder pathFinderRef;   // اگر بخواهی به جای BFS داخلی از A* استفاده کنی
+    private IPathFinder pathFinderRef;   // فقط نگه داشته می‌شود (سازگاری با RescueCoordinator)؛ مسیرها از walkPath و ambulancePath می‌آیند
     private IAgentDecision decisionRef;  // اگر بخواهی منطق انتخاب قربانی را بیرونی کنی
 
     // Logger اختیاری
@@ -49,6 +62,32 @@ public class AgentController {
     private VictimManager victimManager;      // اختیاری: اگر null باشد باید candidates دستی داده شود
     private List<Hospital> hospitalsRef;      // اختیاری: اگر null باشد سعی می‌کنیم از map.getHospitals() بخوانیم
 
+    // پروفایل‌های حرکت؛ یک نمونه تا برچسب مؤلفه‌های CityMap مشترک بماند
+    private final MovementProfile roadProfile;   // MovementProfile.roadOnly (آمبولانس)
+    private final MovementProfile footProfile;   // MovementProfile.onFoot (پیاده)
+
+    // میدان فاصلهٔ جاده‌ای تا بیمارستان‌ها (تنبل؛ برای همان فهرستی که آخرین بار دیده شد)
+    private HospitalDistanceField hospitalField;
+    private boolean hospitalFieldShared;   // true یعنی میدان مال CityMap است و نباید dispose شود
+    private List<Hospital> hospitalFieldSource;
+    private int hospitalFieldSourceSize;
+
+    // کش مسیرهای پیاده (حالت عادی)؛ در حلقهٔ AI مسیر به همان مجروح بارها تکرار می‌شود
+    private volatile CachingPathFinder walkPathCache;
+
+    // سلسله‌مراتب انقباضی شبکهٔ جاده (پروفایل roadProfile)؛ تنبل، برای هدف‌هایی که میدان بیمارستان پوشش نمی‌دهد
+    private volatile ContractionHierarchyPathFinder roadRouter;
+
+    // برنامه‌ریز همکارانهٔ آمبولانس‌ها (WHCA*)؛ null یعنی هر آمبولانس مستقل برنامه‌ریزی می‌کند
+    private volatile CooperativePathFinder cooperative;
+    private volatile long cooperativeTime;
+
+    // سقف نامزدهای هدف (setTargetCandidateLimit)؛ 0 یعنی همهٔ مجروح‌های آزاد (سیاست کامل کم‌زمان‌ترین)
+    private volatile int targetCandidateLimit = 0;
+
+    // برنامه‌ریزهای D* Lite آمبولانس به‌ازای هر ریسکیور (هدف = تایل تحویل انتخاب‌شده)
+    private final Map<Integer, DStarLitePlanner> ambulancePlanners = new HashMap<Integer, DStarLitePlanner>();
+
     private Thread aiThread;                  // نخِ داخلی
     private volatile boolean aiRunning;       // فلگ اجرا
     private Rescuer aiRescuer;                // ریسکیور تحت کنترل AI
@@ -65,6 +104,8 @@ public class AgentController {
     public AgentController(CityMap map, CollisionMap cm, IPathFinder pathFinder, IAgentDecision decisionLogic) {
         this.map = map;
         this.collisionMap = cm;
+        this.roadProfile = MovementProfile.roadOnly(cm);
+        this.footProfile = MovementProfile.onFoot(cm);
         this.pathFinderRef = pathFinder;
         this.decisionRef = decisionLogic;
         this.logger = null;
@@ -74,12 +115,32 @@ public class AgentController {
         this.aiThread = null;
         this.aiRunning = false;
         this.aiRescuer = null;
+
+        // برچسب مؤلفه‌ها از همین حالا (نه در اولین حرکت) ساخته شوند
+        if (map != null) map.precomputeComponentLabels(roadProfile, footProfile);
+        // برچسب نزدیک‌ترین بیمارستان جاده‌ای (اگر بیمارستان‌ها قبلاً روی نقشه ثبت شده‌اند)
+        if (map != null && !map.getHospitals().isEmpty()) map.precomputeHospitalFields(roadProfile);
     }
 
     /* ==============================
        تزریق وابستگی‌ها / سازگاری با RescueCoordinator
        ============================== */
 
+    /**
+     * فعال‌سازی برنامه‌ریزی همکارانهٔ آمبولانس‌ها (null = غیرفعال). پروفایل آن باید با قواعد آمبولانس
+     * (getRoadProfile) یکی باشد. در این حالت برنامه‌های DRIVE زمان‌دارند و باید هم‌گام اعمال شوند.
+     */
+    public void setCooperativePlanner(CooperativePathFinder planner) {
+        this.cooperative = planner;
+    }
+
+    public CooperativePathFinder getCooperativePlanner() { return cooperative; }
+
+    /** زمان شروع پنجرهٔ برنامه‌ریزی همکارانهٔ تیک جاری (واحد: گام حرکت). */
+    public void beginCooperativeStep(long t0) {
+        this.cooperativeTime = t0;
+    }
+
     /** تزریق لاگر (اختیاری) */
     public void setLogger(Logger logger) {
         this.logger = logger;
@@ -103,6 +164,17 @@ public class AgentController {
         this.aiStepDelayMs = stepMs;
     }
 
+    /**
+     * سقف نامزدهای هدف: k>0 یعنی کم‌زمان‌ترین فقط بین k نزدیک‌ترین مجروح آزاد و در دسترس (شاخص مکانی
+     * VictimManager) انتخاب می‌شود؛ هزینه مستقل از تعداد کل مجروح‌ها است ولی مجروح کم‌زمانِ دورتر
+     * از k نزدیک‌ترین نادیده می‌ماند. 0 (پیش‌فرض) یعنی همهٔ مجروح‌های آزاد، یعنی همان سیاست کامل کم‌زمان‌ترین.
+     */
+    public void setTargetCandidateLimit(int k) {
+        this.targetCandidateLimit = Math.max(0, k);
+    }
+
+    public int getTargetCandidateLimit() { return targetCandidateLimit; }
+
     /** برای سازگاری با RescueCoordinator — ذخیره‌ی PathFinder (فعلاً الزام به استفاده نیست) */
     public void setPathFinder(IPathFinder pf) {
         this.pathFinderRef = pf;
@@ -143,12 +215,10 @@ public class AgentController {
                         if (rescuer.isAmbulanceMode()) {
                             Hospital h = selectNearestHospital(rescuer.getPosition()); // ← میان‌بر جدید
                             if (h != null) {
-                                Position goal = pickBestAdjacentRoadTile(h, rescuer.getPosition());
-                                if (goal != null) {
-                                    List<Position> path = bfs(rescuer.getPosition(), goal, true);
-                                    if (!path.isEmpty()) moveAlongPath(rescuer, path);
-                                }
+                                List<Position> path = ambulancePath(rescuer, h, hospitalsRef);
+                                if (path != null && !path.isEmpty()) moveAlongPath(rescuer, path);
                                 if (canDeliverFrom(rescuer.getPosition(), h)) {
+                                    releasePlanner(rescuer);
                                     Injured v = rescuer.getCarryingVictim();
                                     if (v != null && logger != null) {
                                         try {
@@ -168,7 +238,7 @@ public class AgentController {
                         }
 
                         // 2) حالت عادی: هدف = کم‌زمان‌ترین قربانی آزاد
-                        List<Injured> candidates = gatherRescuableCandidates();
+                        List<Injured> candidates = gatherRescuableCandidates(rescuer.getPosition());
                         if (candidates == null || candidates.isEmpty()) {
                             Thread.sleep(aiIdleDelayMs);
                             continue;
@@ -199,7 +269,7 @@ public class AgentController {
                         // در غیر این صورت، به یکی از همسایه‌های قابل عبورِ هدف حرکت کن
                         Position adj = pickBestAdjacentWalkable(target.getPosition(), rescuer.getPosition());
                         if (adj != null) {
-                            List<Position> path = bfs(rescuer.getPosition(), adj, false);
+                            List<Position> path = walkPath(rescuer.getPosition(), adj);
                             if (!path.isEmpty()) moveAlongPath(rescuer, path);
                         }
 
@@ -234,62 +304,231 @@ public class AgentController {
     public void performAction(Rescuer rescuer,
                               List<Injured> candidates,
                               List<Hospital> hospitals) {
+        // اعمال فوری و تکی: برنامهٔ زمان‌دار (که فرض هم‌گامی دارد) این‌جا معنا ندارد
+        commitAction(planAction(rescuer, candidates, hospitals, false));
+    }
 
-        if (rescuer == null) return;
+    /**
+     * برنامهٔ یک اکشن (خروجی فاز برنامه‌ریزی). فاز برنامه‌ریزی فقط می‌خواند و مسیر می‌سازد؛
+     * هیچ حرکتی، سوار کردن یا تحویلی انجام نمی‌دهد.
+     * برنامه‌ای که با نسخهٔ پایه ساخته شده (planAction با basisVersion) در commitAction دوباره سنجیده می‌شود.
+     */
+    public static final class ActionPlan {
+        public enum Kind { NONE, DRIVE, PICKUP, WALK }
+
+        private final Rescuer rescuer;
+        private final Kind kind;
+        private final List<Position> path;
+        private final Injured target;
+        private final Hospital hospital;
+        private final boolean timed;
+        private long basisVersion = -1L; // پیش از انتشار برنامه ست می‌شود
+
+        ActionPlan(Rescuer rescuer, Kind kind, List<Position> path, Injured target, Hospital hospital) {
+            this(rescuer, kind, path, target, hospital, false);
+        }
 
-        // --- حالت آمبولانس: فقط ROAD → حرکت به سمت مجاورِ نزدیک‌ترین بیمارستان ---
-        if (rescuer.isAmbulanceMode()) {
-            Hospital h = findNearestHospital(hospitals, rescuer.getPosition());
-            if (h == null) return;
+        ActionPlan(Rescuer rescuer, Kind kind, List<Position> path, Injured target, Hospital hospital, boolean timed) {
+            this.timed = timed;
+            this.rescuer = rescuer;
+            this.kind = kind;
+            this.path = (path != null) ? path : Collections.<Position>emptyList();
+            this.target = target;
+            this.hospital = hospital;
+        }
 
-            Position goal = pickBestAdjacentRoadTile(h, rescuer.getPosition());
-            if (goal == null) return;
+        public Rescuer getRescuer() { return rescuer; }
+        public Kind getKind() { return kind; }
+        public List<Position> getPath() { return path; }
+        public Injured getTarget() { return target; }
+        public Hospital getHospital() { return hospital; }
+        /** مسیر زمان‌دار (WHCA*): عنصر k محل عامل در گام k+1 است و تکرار یک تایل یعنی ماندن. */
+        public boolean isTimed() { return timed; }
+        /** نسخهٔ دفترچهٔ تغییرات نقشه پیش از شروع برنامه‌ریزی؛ -1 یعنی بدون اعتبارسنجی دوباره. */
+        public long getBasisVersion() { return basisVersion; }
+    }
 
-            List<Position> path = bfs(rescuer.getPosition(), goal, true); // فقط ROAD
-            if (!path.isEmpty()) moveAlongPath(rescuer, path);
+    /**
+     * نسخهٔ فعلی دفترچهٔ تغییرات نقشه، برای گرفتن پیش از یک فاز برنامه‌ریزی.
+     * برنامه‌ریزها همچنان حالت زندهٔ نقشه را می‌خوانند (نخ‌های AI و Swing هم‌زمان آن را تغییر می‌دهند)؛
+     * این نسخه فقط به commitAction اجازه می‌دهد برنامه‌ای را که روی تغییرات بعدی ساخته شده تشخیص دهد.
+     */
+    public long planningVersion() {
+        return (map != null) ? map.getChangeJournal().getVersion() : -1L;
+    }
 
-            if (canDeliverFrom(rescuer.getPosition(), h)) {
-                Injured v = rescuer.getCarryingVictim();
-                if (v != null && logger != null) {
-                    try {
-                        int reward = 2 * Math.max(0, v.getInitialTimeLimit());
-                        rescuer.deliverVictimAtHospital();
-                        logger.logAmbulanceDeliver(rescuer.getId(), rescuer.getPosition(), v.getId(), reward, controller.ScoreManager.getScore());
-                    } catch (Exception ex) {
-                        logger.logError("AgentController.performAction/DeliverLog", ex);
-                    }
-                } else {
-                    rescuer.deliverVictimAtHospital();
-                }
-            }
-            return;
+    /**
+     * فاز برنامه‌ریزی performAction: انتخاب هدف و جست‌وجوی مسیر، بدون تغییر نقشه یا عامل.
+     * برای ریسکیورهای مختلف هم‌زمان قابل فراخوانی است (جست‌وجوها روی بافر هر نخ و کش‌ها/برچسب‌ها قفل‌دار).
+     * در حالت همکارانه تنها اثر جانبی، رزرو خانه‌های برنامهٔ آمبولانس در جدول رزرو (بدون قفل) است.
+     */
+    public ActionPlan planAction(Rescuer rescuer,
+                                 List<Injured> candidates,
+                                 List<Hospital> hospitals) {
+        return planAction(rescuer, candidates, hospitals, true);
+    }
+
+    /** همان planAction که نسخهٔ پایه (planningVersion پیش از فاز برنامه‌ریزی) را روی برنامه ثبت می‌کند. */
+    public ActionPlan planAction(Rescuer rescuer,
+                                 List<Injured> candidates,
+                                 List<Hospital> hospitals,
+                                 long basisVersion) {
+        ActionPlan plan = planAction(rescuer, candidates, hospitals, true);
+        if (plan != null) plan.basisVersion = basisVersion;
+        return plan;
+    }
+
+    private ActionPlan planAction(Rescuer rescuer,
+                                  List<Injured> candidates,
+                                  List<Hospital> hospitals,
+                                  boolean allowCooperative) {
+        if (rescuer == null) return null;
+
+        // --- حالت آمبولانس: فقط ROAD → حرکت به سمت مجاورِ نزدیک‌ترین بیمارستان ---
+        if (rescuer.isAmbulanceMode()) {
+            Hospital h = findNearestHospital(hospitals, rescuer.getPosition());
+            if (h == null) return new ActionPlan(rescuer, ActionPlan.Kind.NONE, null, null, null);
+            CooperativePathFinder coop = allowCooperative ? cooperative : null;
+            if (coop != null) return cooperativeDrive(coop, rescuer, h);
+            List<Position> path = ambulancePath(rescuer, h, hospitals); // فقط ROAD
+            if (path == null) return new ActionPlan(rescuer, ActionPlan.Kind.NONE, null, null, h);
+            return new ActionPlan(rescuer, ActionPlan.Kind.DRIVE, path, null, h);
         }
 
         // --- حالت عادی: به سمت مجروح قابل نجات برو ---
-        if (candidates == null || candidates.isEmpty()) return;
+        if (candidates == null || candidates.isEmpty()) return new ActionPlan(rescuer, ActionPlan.Kind.NONE, null, null, null);
 
         Injured target = chooseLeastTime(rescuer.getPosition(), candidates);
-        if (target == null) return;
+        if (target == null) return new ActionPlan(rescuer, ActionPlan.Kind.NONE, null, null, null);
 
         if (rescuer.getPosition() != null && rescuer.getPosition().isAdjacent4(target.getPosition())) {
-            rescuer.enterAmbulanceModeWith(target);
-            if (logger != null) {
-                try {
-                    String sev = target.getSeverity() != null ? target.getSeverity().name() : "null";
-                    logger.logAmbulancePickup(rescuer.getId(), rescuer.getPosition(), target.getId(), sev, target.getInitialTimeLimit());
-                } catch (Exception ex) {
-                    logger.logError("AgentController.performAction/PickupLog", ex);
-                }
-            }
-            warpAmbulanceToRoad(rescuer);
-            return;
+            return new ActionPlan(rescuer, ActionPlan.Kind.PICKUP, null, target, null);
         }
 
         Position adj = pickBestAdjacentWalkable(target.getPosition(), rescuer.getPosition());
-        if (adj == null) return;
+        if (adj == null) return new ActionPlan(rescuer, ActionPlan.Kind.NONE, null, target, null);
+
+        List<Position> path = walkPath(rescuer.getPosition(), adj); // walkable عادی
+        return new ActionPlan(rescuer, ActionPlan.Kind.WALK, path, target, null);
+    }
+
+    /**
+     * فاز اعمال: حرکت گام‌به‌گام با MoveGuard، سوار کردن و تحویل. باید سریالی صدا زده شود.
+     * برنامه‌ها ممکن است با اعمال برنامه‌های قبلی همین تیک کهنه شده باشند: MoveGuard قدم بسته را رد می‌کند
+     * و سوار کردن فقط وقتی انجام می‌شود که مجروح هنوز آزاد و مجاور باشد.
+     * برنامه‌ای که isPlanCurrent رد کند اصلاً اعمال نمی‌شود.
+     *
+     * @return false اگر برنامه کهنه بود و کاری انجام نشد (فراخواننده می‌تواند دوباره برنامه‌ریزی کند)
+     */
+    public boolean commitAction(ActionPlan plan) {
+        if (plan == null || plan.getRescuer() == null) return false;
+        if (!isPlanCurrent(plan)) return false;
+        Rescuer rescuer = plan.getRescuer();
+        if (plan.getKind() == ActionPlan.Kind.DRIVE && rescuer.isAmbulanceMode() && !plan.getPath().isEmpty()) {
+            moveAlongPath(rescuer, plan.getPath());
+        }
+        completeAction(plan);
+        return true;
+    }
+
+    /**
+     * اعتبارسنجی دوبارهٔ برنامه در برابر نسخهٔ پایه‌اش:
+     * - هدف PICKUP/WALK هنوز زنده، نجات‌نشده و درحال‌نجات‌نبودن باشد؛
+     * - هیچ تایل مسیر بعد از نسخهٔ پایه نوع سلول یا برخوردش عوض نشده باشد
+     *   (اگر دفترچه نتواند فهرست تایل‌ها را بدهد، برنامه کهنه حساب می‌شود).
+     * تغییر اشغال این‌جا سنجیده نمی‌شود؛ MoveGuard هر قدم را روی اشغال فعلی می‌سنجد.
+     * برنامهٔ بدون نسخهٔ پایه (performAction) همیشه معتبر است.
+     */
+    public boolean isPlanCurrent(ActionPlan plan) {
+        if (plan == null) return false;
+        Injured target = plan.getTarget();
+        if (target != null && (plan.getKind() == ActionPlan.Kind.PICKUP || plan.getKind() == ActionPlan.Kind.WALK)) {
+            if (target.isDead() || target.isRescued() || target.isBeingRescued()) return false;
+        }
+        long basis = plan.getBasisVersion();
+        if (basis < 0 || map == null) return true;
+        MapChangeJournal journal = map.getChangeJournal();
+        long terrain = journal.getVersion(MapChangeJournal.TERRAIN);
+        if (terrain <= basis) return true;
+        MapChangeJournal.ChangeSet cs = journal.changesSince(basis, MapChangeJournal.TERRAIN);
+        if (cs.isFull() || cs.getVersion() < terrain) return false;
+        List<Position> path = plan.getPath();
+        int w = map.getWidth();
+        for (int i = 0; i < path.size(); i++) {
+            Position p = path.get(i);
+            if (containsTile(cs, p.getY() * w + p.getX())) return false;
+        }
+        return true;
+    }
+
+    /** جست‌وجوی دودویی در تایل‌های مرتب یک ChangeSet */
+    private static boolean containsTile(MapChangeJournal.ChangeSet cs, int tile) {
+        int lo = 0, hi = cs.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int t = cs.getTile(mid);
+            if (t < tile) lo = mid + 1;
+            else if (t > tile) hi = mid - 1;
+            else return true;
+        }
+        return false;
+    }
 
-        List<Position> path = bfs(rescuer.getPosition(), adj, false); // walkable عادی
-        if (!path.isEmpty()) moveAlongPath(rescuer, path);
+    /**
+     * بخش پس از حرکتِ commitAction: تحویل (DRIVE)، سوار کردن (PICKUP) و راه رفتن (WALK).
+     * وقتی قدم‌های برنامه‌های زمان‌دار بیرون از این کلاس هم‌گام اعمال شده‌اند (stepTo)، به‌جای commitAction صدا زده می‌شود.
+     */
+    public void completeAction(ActionPlan plan) {
+        if (plan == null || plan.getRescuer() == null) return;
+        Rescuer rescuer = plan.getRescuer();
+
+        switch (plan.getKind()) {
+            case DRIVE: {
+                if (!rescuer.isAmbulanceMode()) return;
+                Hospital h = plan.getHospital();
+
+                if (canDeliverFrom(rescuer.getPosition(), h)) {
+                    releasePlanner(rescuer);
+                    Injured v = rescuer.getCarryingVictim();
+                    if (v != null && logger != null) {
+                        try {
+                            int reward = 2 * Math.max(0, v.getInitialTimeLimit());
+                            rescuer.deliverVictimAtHospital();
+                            logger.logAmbulanceDeliver(rescuer.getId(), rescuer.getPosition(), v.getId(), reward, controller.ScoreManager.getScore());
+                        } catch (Exception ex) {
+                            logger.logError("AgentController.performAction/DeliverLog", ex);
+                        }
+                    } else {
+                        rescuer.deliverVictimAtHospital();
+                    }
+                }
+                return;
+            }
+            case PICKUP: {
+                Injured target = plan.getTarget();
+                if (rescuer.isAmbulanceMode() || target == null) return;
+                if (target.isDead() || target.isRescued() || target.isBeingRescued()) return;
+                if (rescuer.getPosition() == null || !rescuer.getPosition().isAdjacent4(target.getPosition())) return;
+                rescuer.enterAmbulanceModeWith(target);
+                if (logger != null) {
+                    try {
+                        String sev = target.getSeverity() != null ? target.getSeverity().name() : "null";
+                        logger.logAmbulancePickup(rescuer.getId(), rescuer.getPosition(), target.getId(), sev, target.getInitialTimeLimit());
+                    } catch (Exception ex) {
+                        logger.logError("AgentController.performAction/PickupLog", ex);
+                    }
+                }
+                warpAmbulanceToRoad(rescuer);
+                return;
+            }
+            case WALK: {
+                if (rescuer.isAmbulanceMode()) return;
+                if (!plan.getPath().isEmpty()) moveAlongPath(rescuer, plan.getPath());
+                return;
+            }
+            default:
+                return;
+        }
     }
 
     /** پس از سوار کردن مجروح، آمبولانس را به نزدیک‌ترین جاده منتقل می‌کند. */
@@ -336,9 +575,68 @@ public class AgentController {
         return null;
     }
 
+    /**
+     * برنامهٔ زمان‌دار آمبولانس با WHCA*: هدف = بهترین تایل تحویل آزادِ h. اگر برنامه‌ای رزرو نشد،
+     * آمبولانس این پنجره را در جا می‌ماند (رزرو بهترین‌تلاش) و تیک بعد دوباره برنامه‌ریزی می‌کند.
+     */
+    private ActionPlan cooperativeDrive(CooperativePathFinder coop, Rescuer rescuer, Hospital h) {
+        Position from = rescuer.getPosition();
+        long t0 = cooperativeTime;
+        if (canDeliverFrom(from, h)) {
+            coop.hold(rescuer.getId(), from, t0);
+            return new ActionPlan(rescuer, ActionPlan.Kind.DRIVE, null, null, h, true);
+        }
+        Position goal = pickBestAdjacentRoadTile(h, from);
+        List<Position> path = (goal != null) ? coop.plan(rescuer.getId(), from, goal, t0) : null;
+        if (path == null) {
+            coop.hold(rescuer.getId(), from, t0);
+            return new ActionPlan(rescuer, ActionPlan.Kind.NONE, null, null, h);
+        }
+        return new ActionPlan(rescuer, ActionPlan.Kind.DRIVE, path, null, h, true);
+    }
+
     /* ==============================
        حرکت روی مسیر (گام‌به‌گام با MoveGuard)
        ============================== */
+
+    /**
+     * یک قدم (بدون مکث) برای اعمال هم‌گام برنامه‌های زمان‌دار؛ next برابر خانهٔ فعلی یعنی ماندن.
+     * false اگر MoveGuard قدم را رد کرد.
+     */
+    public boolean stepTo(Rescuer rescuer, Position next) {
+        if (rescuer == null || next == null) return false;
+        Position current = rescuer.getPosition();
+        if (current != null && current.getX() == next.getX() && current.getY() == next.getY()) return true;
+        return MoveGuard.tryMoveTo(map, collisionMap, rescuer, next.getX(), next.getY(), determineDirection(current, next));
+    }
+
+    /** مکث بین دو گام هم‌گام (همان aiStepDelayMs در moveAlongPath). */
+    public void stepPause() {
+        try { Thread.sleep(aiStepDelayMs); } catch (InterruptedException ignored) { }
+    }
+
+    /** همان moveAlongPath برای مسیر فشرده، بدون ساخت Position برای هر قدم. */
+    public boolean moveAlongPath(Rescuer rescuer, CompactPath path) {
+        if (rescuer == null || path == null || path.isEmpty()) return false;
+        CompactPath.Cursor c = path.cursor();
+        Position current = rescuer.getPosition();
+        if (current == null || current.getX() != c.getX() || current.getY() != c.getY()) {
+            return moveAlongPath(rescuer, path.asList()); // شروع مسیر روی عامل نیست: رفتار عمومی
+        }
+        while (c.hasNext()) {
+            int dir = c.next();
+            if (dir == CompactPath.WAIT) continue;
+            boolean ok = MoveGuard.tryMoveTo(map, collisionMap, rescuer, c.getX(), c.getY(), dir);
+            if (!ok) {
+                CachingPathFinder cache = walkPathCache;
+                if (cache != null) cache.reportBlocked(c.getX(), c.getY());
+                return false;
+            }
+            try { Thread.sleep(aiStepDelayMs); } catch (InterruptedException ignored) { }
+        }
+        return true;
+    }
+
     public boolean moveAlongPath(Rescuer rescuer, List<Position> path) {
         if (rescuer == null || path == null || path.isEmpty()) return false;
 
@@ -359,7 +657,11 @@ public class AgentController {
                     step.getY(),
                     dir
             );
-            if (!ok) return false;
+            if (!ok) {
+                CachingPathFinder cache = walkPathCache;
+                if (cache != null) cache.reportBlocked(step.getX(), step.getY());
+                return false;
+            }
 
             current = step;
 
@@ -372,8 +674,21 @@ public class AgentController {
        انتخاب هدف‌ها و ابزارها
        ============================== */
 
-    private List<Injured> gatherRescuableCandidates() {
+    /** فیلتر نامزد هدف برای شاخص مکانی: زنده، نجات‌نشده، درحال‌نجات‌نبودن و در دسترس پیاده از from */
+    public SpatialHash.Filter<Injured> rescuableFrom(final Position from) {
+        return new SpatialHash.Filter<Injured>() {
+            @Override
+            public boolean accept(Injured v) {
+                if (v == null || !v.isAlive() || v.isRescued() || v.isBeingRescued()) return false;
+                return from == null || isVictimReachable(from, v.getPosition());
+            }
+        };
+    }
+
+    private List<Injured> gatherRescuableCandidates(Position from) {
         if (victimManager == null) return null;
+        int k = targetCandidateLimit;
+        if (k > 0 && from != null) return victimManager.findNearestFree(from, k, rescuableFrom(from));
         List<Injured> all = victimManager.getAllVictimsSafe();
         if (all == null || all.isEmpty()) return all;
         ArrayList<Injured> out = new ArrayList<Injured>();
@@ -388,6 +703,21 @@ public class AgentController {
         return out;
     }
 
+    /** پروفایل حرکت پیاده (MovementProfile.onFoot) برای سرویس‌های هم‌قاعده مثل ماتریس فاصله. */
+    public MovementProfile getWalkProfile() { return footProfile; }
+
+    /** پروفایل حرکت آمبولانس (MovementProfile.roadOnly). */
+    public MovementProfile getRoadProfile() { return roadProfile; }
+
+    /**
+     * آیا پیاده از from به کنار مجروح (یکی از چهار همسایه‌اش) راه دارد؟
+     * O(1) با برچسب مؤلفه‌ها؛ اشغال موقت را درنظر نمی‌گیرد.
+     */
+    public boolean isVictimReachable(Position from, Position victim) {
+        if (from == null || victim == null || map == null) return false;
+        return map.getComponentLabels(footProfile).canReachAdjacent(from, victim);
+    }
+
     private Injured chooseLeastTime(Position from, List<Injured> list) {
         if (list == null || list.isEmpty()) return null;
         Injured best = null;
@@ -397,6 +727,7 @@ public class AgentController {
             Injured inj = list.get(i);
             if (inj == null) continue;
             if (inj.isDead() || inj.isRescued() || inj.getPosition() == null) continue;
+            if (!isVictimReachable(from, inj.getPosition())) continue;
             int rem = inj.getRemainingTime();
             int d = manhattan(from, inj.getPosition());
             if (rem < bestTime || (rem == bestTime && d < bestDist)) {
@@ -410,6 +741,15 @@ public class AgentController {
 
     private Hospital findNearestHospital(List<Hospital> hospitals, Position from) {
         if (from == null) return null;
+        List<Hospital> hs = resolveHospitals(hospitals);
+        if (hs == null || hs.isEmpty()) return null;
+
+        // فاصلهٔ جاده‌ای واقعی؛ اگر از این تایل راهی نبود → منهتنی
+        return Hospital.findNearest(hs, from, hospitalFieldFor(hs));
+    }
+
+    /** فهرست مؤثر بیمارستان‌ها: ورودی ← hospitalsRef ← map.getHospitals() */
+    private List<Hospital> resolveHospitals(List<Hospital> hospitals) {
         List<Hospital> hs = hospitals;
         if ((hs == null || hs.isEmpty()) && this.hospitalsRef != null) hs = this.hospitalsRef;
         if ((hs == null || hs.isEmpty())) {
@@ -418,20 +758,115 @@ public class AgentController {
                 if (fromMap != null && !fromMap.isEmpty()) hs = fromMap;
             } catch (Throwable ignored) {}
         }
+        return hs;
+    }
+
+    /**
+     * میدان فاصلهٔ جاده‌ای برای فهرست hs (پروفایل roadProfile).
+     * اگر hs همان بیمارستان‌های ثبت‌شده در CityMap باشد، میدان مشترک نقشه استفاده می‌شود.
+     * اگر فهرست عوض شده باشد (مرجع یا اندازه)، میدان قبلی کنار گذاشته و دوباره ساخته/گرفته می‌شود.
+     */
+    private synchronized HospitalDistanceField hospitalFieldFor(List<Hospital> hs) {
         if (hs == null || hs.isEmpty()) return null;
+        if (hospitalField != null && hospitalFieldSource == hs && hospitalFieldSourceSize == hs.size()) {
+            return hospitalField;
+        }
+        if (hospitalField != null && !hospitalFieldShared) hospitalField.dispose();
+        hospitalFieldShared = sameHospitals(hs, map.getHospitals());
+        hospitalField = hospitalFieldShared
+                ? map.getHospitalField(roadProfile)
+                : new HospitalDistanceField(map, hs, roadProfile);
+        if (collisionMap != null && collisionMap != map.getCollisionMap()) {
+            hospitalField.watchCollisionMap(collisionMap);
+        }
+        hospitalFieldSource = hs;
+        hospitalFieldSourceSize = hs.size();
+        return hospitalField;
+    }
 
-        Hospital best = null;
-        int bestD = Integer.MAX_VALUE;
-        for (int i = 0; i < hs.size(); i++) {
-            Hospital h = hs.get(i);
-            if (h == null) continue;
-            int d = manhattan(from, h.getPosition());
-            if (d < bestD) {
-                bestD = d;
-                best = h;
+    /** آیا دو فهرست همان بیمارستان‌ها را به همان ترتیب دارند؟ (برچسب‌های میدان اندیس فهرست‌اند) */
+    private static boolean sameHospitals(List<Hospital> a, List<Hospital> b) {
+        if (a == b) return true;
+        if (a == null || b == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            Hospital x = a.get(i), y = b.get(i);
+            if (x == null ? y != null : !x.equals(y)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * مسیر آمبولانس تا تایل تحویلِ h. ترتیب نهایی فالبک‌ها (همه با roadProfile، یعنی فقط ROAD):
+     * 1) شیب HospitalDistanceField (با پرهیز از تایل‌های اشغال): فقط اگر به تایلی مجاورِ همین h برسد
+     *    پذیرفته می‌شود؛ میدان نزدیک‌ترین بیمارستان را دنبال می‌کند، پس برای h دیگر یا مسیر بسته (null)
+     *    به مرحلهٔ بعد می‌رود. خروجی بدون خانهٔ فعلی است.
+     * 2) مسیر ایستای سلسله‌مراتب انقباضی (roadRouter) تا بهترین مجاورِ جاده‌ایِ آزاد h (pickBestAdjacentRoadTile)؛
+     *    CH اشغال را نمی‌بیند، پس فقط وقتی پذیرفته می‌شود که همهٔ تایل‌هایش همین حالا قابل ورود باشند
+     *    (isRoadPathClear). خروجی بدون خانهٔ فعلی است.
+     * 3) برنامه‌ریز D* Lite همین ریسکیور تا همان مجاور (plannerFor): اشغال را درنظر می‌گیرد و بین فراخوانی‌ها
+     *    فقط ناحیهٔ تغییرکرده را دوباره می‌گردد. خروجی شامل خانهٔ فعلی است (moveAlongPath ردش می‌کند)
+     *    و اگر راهی نباشد لیست خالی است.
+     * null یعنی مرحلهٔ ۱ نتیجه نداد و هیچ تایل جاده‌ای مجاور و آزادی برای h نیست.
+     */
+    private List<Position> ambulancePath(Rescuer rescuer, Hospital h, List<Hospital> hs) {
+        Position from = rescuer.getPosition();
+        if (h == null || from == null) return null;
+        HospitalDistanceField field = hospitalFieldFor(resolveHospitals(hs));
+        if (field != null) {
+            List<Position> p = field.pathFrom(from, true);
+            if (p != null) {
+                Position end = p.isEmpty() ? from : p.get(p.size() - 1);
+                if (manhattan(end, h.getPosition()) == 1) return p;
             }
         }
-        return best;
+        Position goal = pickBestAdjacentRoadTile(h, from);
+        if (goal == null) return null;
+        List<Position> routed = roadRouter().findPath(from, goal);
+        if (!routed.isEmpty() && isRoadPathClear(routed)) return routed.subList(1, routed.size());
+        return plannerFor(rescuer, goal).plan(from);
+    }
+
+    private ContractionHierarchyPathFinder roadRouter() {
+        ContractionHierarchyPathFinder r = roadRouter;
+        if (r != null) return r;
+        synchronized (this) {
+            if (roadRouter == null) roadRouter = new ContractionHierarchyPathFinder(map, roadProfile);
+            return roadRouter;
+        }
+    }
+
+    /** آیا همهٔ تایل‌های مسیر (به‌جز خانهٔ فعلی) الان قابل ورود با roadProfile هستند؟ (اشغال + cm) */
+    private boolean isRoadPathClear(List<Position> path) {
+        for (int i = 1; i < path.size(); i++) {
+            Position p = path.get(i);
+            if (!roadProfile.canEnter(map, p.getX(), p.getY())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * برنامه‌ریز D* Lite برای جفت (ریسکیور، هدف). تا وقتی هدف عوض نشود همان نمونه می‌ماند و
+     * با تغییرات اشغال CityMap فقط ناحیهٔ تغییرکرده را دوباره جست‌وجو می‌کند
+     * (به‌جای جست‌وجوی کامل از نو بعد از هر ردشدن قدم در moveAlongPath).
+     */
+    private DStarLitePlanner plannerFor(Rescuer rescuer, Position goal) {
+        synchronized (ambulancePlanners) {
+            Integer id = Integer.valueOf(rescuer.getId());
+            DStarLitePlanner p = ambulancePlanners.get(id);
+            if (p != null && p.getGoal().equals(goal)) return p;
+            if (p != null) p.dispose();
+            p = new DStarLitePlanner(map, roadProfile, goal);
+            ambulancePlanners.put(id, p);
+            return p;
+        }
+    }
+
+    /** آزادسازی برنامه‌ریز آمبولانس (پس از تحویل). */
+    private void releasePlanner(Rescuer rescuer) {
+        synchronized (ambulancePlanners) {
+            DStarLitePlanner p = ambulancePlanners.remove(Integer.valueOf(rescuer.getId()));
+            if (p != null) p.dispose();
+        }
     }
 
     /** ← میان‌بر جدید: نزدیک‌ترین بیمارستان بر اساس hospitalsRef یا map */
@@ -461,7 +896,8 @@ public class AgentController {
             if (c.isHospital()) continue;
             if (!isRoadCell(c)) continue; // فقط ROAD
             if (collisionMap != null && !collisionMap.isWalkable(p.getX(), p.getY())) continue;
-            if (c.isOccupied()) continue;
+            if (map.isOccupied(p.getX(), p.getY())) continue;
+            if (from != null && !map.isReachable(from, p, roadProfile)) continue;
 
             int d = manhattan(from, p);
             if (d < bestD) { bestD = d; best = p; }
@@ -490,7 +926,8 @@ public class AgentController {
             if (!c.isWalkable()) continue;
             if (c.isHospital()) continue;
             if (collisionMap != null && !collisionMap.isWalkable(p.getX(), p.getY())) continue;
-            if (c.isOccupied()) continue;
+            if (map.isOccupied(p.getX(), p.getY())) continue;
+            if (from != null && !map.isReachable(from, p, footProfile)) continue;
 
             int d = manhattan(from, p);
             if (d < bestD) { bestD = d; best = p; }
@@ -498,72 +935,21 @@ public class AgentController {
         return best;
     }
 
-    /* === BFS ساده چهارجهته === */
     /**
-     * BFS با قید نوع حرکت:
-     *  - roadOnly=false → هر سلول walkable
-     *  - roadOnly=true  → فقط سلول‌هایی که ROAD هستند
+     * مسیر پیاده (قواعد footProfile) از کش؛ خروجی شامل خانهٔ شروع است
+     * که moveAlongPath خودش رد می‌کند.
      */
-    private List<Position> bfs(Position start, Position goal, boolean roadOnly) {
-        List<Position> empty = Collections.emptyList();
-        if (start == null || goal == null) return empty;
-
-        int w = map.getWidth(), h = map.getHeight();
-        boolean[][] vis = new boolean[h][w];
-        Position[][] prev = new Position[h][w];
-
-        ArrayDeque<Position> q = new ArrayDeque<Position>();
-        q.add(start);
-        vis[start.getY()][start.getX()] = true;
-
-        final int[] dx = new int[] { 0, -1, 1, 0 };
-        final int[] dy = new int[] { 1, 0, 0, -1 };
-
-        while (!q.isEmpty()) {
-            Position cur = q.removeFirst();
-            if (cur.getX() == goal.getX() && cur.getY() == goal.getY()) break;
-
-            for (int k = 0; k < 4; k++) {
-                int nx = cur.getX() + dx[k];
-                int ny = cur.getY() + dy[k];
-
-                if (!map.isValid(nx, ny)) continue;
-                if (vis[ny][nx]) continue;
-
-                Cell c = map.getCell(nx, ny);
-                if (c == null) continue;
-                if (c.isHospital()) continue; // خود کاشی بیمارستان ممنوع
-                if (c.isOccupied()) continue;
-
-                boolean pass;
-                if (roadOnly) {
-                    pass = isRoadCell(c);
-                } else {
-                    pass = c.isWalkable();
-                }
-                if (!pass) continue;
-
-                if (collisionMap != null && !collisionMap.isWalkable(nx, ny)) continue;
-
-                vis[ny][nx] = true;
-                prev[ny][nx] = cur;
-                q.addLast(new Position(nx, ny));
+    private List<Position> walkPath(Position start, Position goal) {
+        if (start == null || goal == null) return Collections.emptyList();
+        if (!map.isReachable(start, goal, footProfile)) return Collections.emptyList();
+        CachingPathFinder cache;
+        synchronized (this) {
+            if (walkPathCache == null) {
+                walkPathCache = new CachingPathFinder(new GridAStarPathFinder(map, footProfile), map, footProfile);
             }
+            cache = walkPathCache;
         }
-
-        if (!map.isValid(goal.getX(), goal.getY())) return empty;
-        if (goal.getY() < 0 || goal.getY() >= h || goal.getX() < 0 || goal.getX() >= w) return empty;
-        if (!vis[goal.getY()][goal.getX()]) return empty; // قابل دسترس نیست
-
-        ArrayList<Position> path = new ArrayList<Position>();
-        Position cur = goal;
-        while (cur != null && !(cur.getX() == start.getX() && cur.getY() == start.getY())) {
-            path.add(cur);
-            Position p = prev[cur.getY()][cur.getX()];
-            cur = p;
-        }
-        Collections.reverse(path);
-        return path;
+        return cache.findPath(start, goal);
     }
 
     /** آیا از همین خانه می‌توان تحویل انجام داد؟ (مجاورِ بیمارستان و روی جاده) */
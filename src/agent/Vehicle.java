@@ -3,15 +3,17 @@ package agent;
 import map.Cell;
 import map.CityMap;
 import util.CollisionMap;
+import util.CompactPath;
 import util.MoveGuard;
 import util.Position;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * مدل سادهٔ وسیله (آمبولانس) روی شبکهٔ تایل.
- * - پشتیبانی از حرکت مسیر‌محور (path) با گام‌های یک‌خانه‌ای.
+ * - پشتیبانی از حرکت مسیر‌محور (path) با گام‌های یک‌خانه‌ای؛ مسیر پیوسته فشرده (CompactPath) نگه داشته می‌شود.
  * - در حالت پیش‌فرض فقط روی ROAD حرکت می‌کند (roadOnly=true).
  * - برای اعمال حرکتِ ایمن (اشغال/برخورد/مرز) از MoveGuard.tryMoveToVehicle استفاده کنید.
  */
@@ -21,7 +23,7 @@ public class Vehicle {
     private CollisionMap collisionMap;     // اگر لایهٔ برخورد جدا برای ماشین داری
 
     // مسیر اختیاری برای حرکت خودکار
-    private List<Position> path = new ArrayList<Position>();
+    private List<Position> path = Collections.emptyList();
     private int pathIndex = 0;
 
     // فقط روی جاده حرکت کند؟
@@ -71,15 +73,26 @@ public class Vehicle {
 
     /* ================= مسیر خودکار ================= */
 
+    /** مسیر پیوسته فشرده می‌شود؛ فقط مسیر ناپیوسته (نقاط راه دور از هم) مثل قبل کپی می‌شود. */
     public void setPath(List<Position> newPath) {
-        this.path = (newPath != null) ? new ArrayList<Position>(newPath) : new ArrayList<Position>();
+        if (newPath == null) {
+            clearPath();
+            return;
+        }
+        CompactPath compact = CompactPath.fromList(newPath);
+        this.path = (compact != null) ? compact.asList() : new ArrayList<Position>(newPath);
+        this.pathIndex = 0;
+    }
+
+    public void setPath(CompactPath newPath) {
+        this.path = (newPath != null) ? newPath.asList() : Collections.<Position>emptyList();
         this.pathIndex = 0;
     }
 
     public boolean hasPath() { return pathIndex < path.size(); }
 
     public void clearPath() {
-        this.path = new ArrayList<Position>();
+        this.path = Collections.emptyList();
         this.pathIndex = 0;
     }
 
@@ -169,14 +182,15 @@ public class Vehicle {
         if (map == null) return false;
         if (!map.isValid(nx, ny)) return false;
 
-        Cell dest = map.getCell(nx, ny);
+        // فقط نوع سلول خوانده می‌شود (بدون ساخت Cell/ reflection)؛ همان قاعدهٔ MovementProfile.roadOnly/onFoot
+        Cell.Type dest = map.getCellType(nx, ny);
         if (dest == null) return false;
         if (dest.isHospital()) return false;    // ورود به خود بیمارستان ممنوع
-        if (dest.isOccupied()) return false;    // روی خانهٔ اشغال‌شده حرکت نکن
+        if (map.isOccupied(nx, ny)) return false; // روی خانهٔ اشغال‌شده حرکت نکن
 
         boolean pass;
         if (roadOnly) {
-            pass = isRoadCell(dest);
+            pass = (dest == Cell.Type.ROAD);
         } else {
             pass = dest.isWalkable();
         }
@@ -187,25 +201,4 @@ public class Vehicle {
 
         return true;
     }
-
-    /** تشخیص «جاده بودن» سلول با متد مستقیم یا نام نوع. */
-    private boolean isRoadCell(Cell c) {
-        if (c == null) return false;
-        try {
-            // اگر Cell متدی به نام isRoad() داشته باشد
-            java.lang.reflect.Method m = c.getClass().getMethod("isRoad");
-            Object r = m.invoke(c);
-            if (r instanceof Boolean) return ((Boolean) r).booleanValue();
-        } catch (Throwable ignored) { }
-        // fallback: بر اساس نوع/نام
-        try {
-            java.lang.reflect.Method m2 = c.getClass().getMethod("getType");
-            Object t = m2.invoke(c);
-            if (t != null) {
-                String name = t.toString();
-                if (name != null && name.toUpperCase().indexOf("ROAD") >= 0) return true;
-            }
-        } catch (Throwable ignored) { }
-        return false;
-    }
 }
@@ -3,10 +3,12 @@ package controller;
 import agent.AgentManager;
 import agent.Rescuer;
 import map.Hospital;
+import strategy.DistanceMatrixService;
 import strategy.IAgentDecision;
 import victim.Injured;
 import victim.VictimManager;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -21,21 +23,34 @@ public class MissionPlanner {
     private final AgentManager agentManager;
     private final VictimManager victimManager;
     private final IAgentDecision decisionLogic;
+    private final DistanceMatrixService distances; // اختیاری: ماتریس مشترک با RescueCoordinator
 
     public MissionPlanner(AgentManager agentManager,
                           VictimManager victimManager,
                           IAgentDecision decisionLogic) {
+        this(agentManager, victimManager, decisionLogic, null);
+    }
+
+    public MissionPlanner(AgentManager agentManager,
+                          VictimManager victimManager,
+                          IAgentDecision decisionLogic,
+                          DistanceMatrixService distances) {
         this.agentManager = agentManager;
         this.victimManager = victimManager;
         this.decisionLogic = decisionLogic;
+        this.distances = distances;
     }
 
     // برای هر Rescuer یک مجروح مناسب انتخاب می‌کنه و لیست تخصیص رو برمی‌گردونه
     public Map<Rescuer, Injured> planInitialMissions() {
         Map<Rescuer, Injured> assignments = new HashMap<>();
         List<Injured> available = victimManager.getRescuableVictims();
+        List<Rescuer> rescuers = new ArrayList<Rescuer>(agentManager.getAllRescuers());
+
+        // کل ماتریس یک‌جا (BFS از سمت کوچک‌تر)؛ انتخابگر با distance(...) از همین کش می‌خواند
+        if (distances != null) distances.rescuersToVictims(rescuers, available);
 
-        for (Rescuer rescuer : agentManager.getAllRescuers()) {
+        for (Rescuer rescuer : rescuers) {
             Injured target = decisionLogic.selectVictim(rescuer, available);
             if (target != null) {
                 assignments.put(rescuer, target);
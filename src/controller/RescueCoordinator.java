@@ -6,6 +6,8 @@ import agent.Rescuer;
 import map.CityMap;
 import map.Hospital;
 import strategy.AStarPathFinder;
+import strategy.CooperativePathFinder;
+import strategy.DistanceMatrixService;
 import strategy.InjuryPrioritySelector;
 import util.CollisionMap;
 import util.Position;
@@ -15,7 +17,10 @@ import victim.VictimManager;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * --------------------
@@ -23,8 +28,15 @@ import java.util.List;
  * --------------------
  * هماهنگ‌کننده‌ی عملیات نجات بین عامل‌ها، مجروح‌ها و بیمارستان‌ها.
  * - ساخت لیست کاندیدهای قابل‌نجات برای هر Rescuer
- * - مرتب‌سازی بر اساس اولویت (TTL کمتر، سپس فاصله کمتر)
- * - واگذاری اجرای حرکت/حمل/تحویل به AgentController.performAction(...)
+ * - مرتب‌سازی بر اساس اولویت (TTL کمتر، سپس فاصلهٔ واقعی پیاده کمتر)
+ * - ماتریس فاصلهٔ ریسکیور × مجروح یک‌بار در هر تیک (DistanceMatrixService) و اشتراک آن با انتخابگر
+ * - هر تیک دو فاز دارد: برنامه‌ریزی موازی همهٔ ریسکیورها روی ForkJoinPool (AgentController.planAction؛
+ *   بدون حرکت، ولی روی حالت زندهٔ نقشه که نخ‌های AI و Swing هم‌زمان تغییرش می‌دهند) و سپس اعمال سریالی
+ *   روی همین نخ (AgentController.commitAction → MoveGuard). نسخهٔ دفترچهٔ تغییرات پیش از برنامه‌ریزی
+ *   گرفته می‌شود و برنامه‌ای که مسیرش بعد از آن عوض شده، در اعمال رد و روی همین نخ دوباره ساخته می‌شود
+ * - آمبولانس‌ها با WHCA* (CooperativePathFinder) برنامه‌ریزی می‌کنند: هر برنامه خانه‌های (tile, گام) خود را
+ *   در جدول رزرو مشترک می‌گیرد، پس برنامه‌ها از همان ابتدا بی‌برخوردند و قدم‌هایشان در فاز اعمال
+ *   هم‌گام (گام k همهٔ آمبولانس‌ها، سپس گام k+1) اجرا می‌شود
  * بدون استفاده از لامبدا.
  */
 public class RescueCoordinator {
@@ -39,12 +51,25 @@ public class RescueCoordinator {
     private final InjuryPrioritySelector prioritySel;  // فعلاً استفاده نمی‌شود
 
     private final AgentController agentController;     // اجرای حرکت‌ها
+    private final DistanceMatrixService distances;     // فاصلهٔ پیاده (مشترک با انتخابگر/برنامه‌ریز)
 
     // Logger اختیاری (نوع عام برای جلوگیری از وابستگی به امضاهای متفاوت)
     private Object logger;
 
     private volatile boolean paused = false;
 
+    /** زیر این تعداد ریسکیور، برنامه‌ریزی روی همین نخ انجام می‌شود (سربار fork بیشتر از سود است). */
+    private static final int PARALLEL_THRESHOLD = 4;
+    /** اندازهٔ هر تکهٔ کار در تقسیم بازگشتی */
+    private static final int PLAN_CHUNK = 2;
+
+    // استخر برنامه‌ریزی (تنبل؛ نخ‌های ForkJoin دیمن‌اند)
+    private ForkJoinPool planningPool;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // ساعت گام‌های حرکت برای جدول رزرو (هر تیک همکارانه یک پنجره جلو می‌رود)
+    private long stepClock = 0L;
+
     public RescueCoordinator(AgentManager agentManager,
                              VictimManager victimManager,
                              List<Hospital> hospitals,
@@ -64,6 +89,12 @@ public class RescueCoordinator {
         this.agentController = new AgentController(cityMap, collisionMap);
         this.agentController.setVictimManager(victimManager);
         this.agentController.setHospitals(this.hospitals);
+
+        this.distances = (cityMap != null)
+                ? new DistanceMatrixService(cityMap, agentController.getWalkProfile())
+                : null;
+        if (prioritySel != null) prioritySel.setDistanceService(distances);
+        if (cityMap != null) setCooperativeWindow(CooperativePathFinder.DEFAULT_WINDOW);
     }
 
     // ---------- Logger اختیاری ----------
@@ -85,6 +116,47 @@ public class RescueCoordinator {
     // ---------- دسترسی AgentController ----------
     public AgentController getAgentController() { return agentController; }
 
+    /** تعداد نخ‌های برنامه‌ریزی موازی؛ 1 یعنی سریالی. استخر قبلی (اگر بود) بسته می‌شود. */
+    public synchronized void setPlanningParallelism(int threads) {
+        int p = Math.max(1, threads);
+        if (p == parallelism) return;
+        parallelism = p;
+        if (planningPool != null) {
+            planningPool.shutdown();
+            planningPool = null;
+        }
+    }
+
+    public synchronized int getPlanningParallelism() { return parallelism; }
+
+    /**
+     * سقف نامزدهای هدف هر ریسکیور (AgentController.setTargetCandidateLimit)؛
+     * 0 (پیش‌فرض) یعنی کم‌زمان‌ترین بین همهٔ مجروح‌های آزاد و در دسترس.
+     */
+    public void setTargetCandidateLimit(int k) { agentController.setTargetCandidateLimit(k); }
+
+    public int getTargetCandidateLimit() { return agentController.getTargetCandidateLimit(); }
+
+    /**
+     * طول پنجرهٔ WHCA* آمبولانس‌ها بر حسب گام؛ 0 یعنی برنامه‌ریزی مستقل هر آمبولانس (رفتار قبلی).
+     * جدول رزرو قبلی کنار گذاشته می‌شود.
+     */
+    public synchronized void setCooperativeWindow(int window) {
+        CooperativePathFinder old = agentController.getCooperativePlanner();
+        if (old != null && old.getWindow() == window) return;
+        agentController.setCooperativePlanner((window > 0 && cityMap != null)
+                ? new CooperativePathFinder(cityMap, agentController.getRoadProfile(), window)
+                : null);
+    }
+
+    public synchronized int getCooperativeWindow() {
+        CooperativePathFinder c = agentController.getCooperativePlanner();
+        return (c != null) ? c.getWindow() : 0;
+    }
+
+    /** سرویس ماتریس فاصله (برای MissionPlanner و استراتژی‌های تصمیم)؛ ممکن است null باشد. */
+    public DistanceMatrixService getDistanceService() { return distances; }
+
     // =========================================================
     // متدهای موردنیاز GameEngine (wrapper روی AgentController)
     // =========================================================
@@ -133,15 +205,155 @@ public class RescueCoordinator {
 
     /**
      * اجرای یک سیکل هماهنگی:
-     * - اگر pause نیست، برای همهٔ نجات‌دهنده‌ها runTickFor اجرا می‌شود.
+     * - اگر pause نیست، برای همهٔ نجات‌دهنده‌ها برنامه ساخته (موازی) و سپس به ترتیب فهرست اعمال می‌شود.
+     * - برنامه‌ها عکس فوری نقشه را نمی‌بینند: نخ‌های AI/Swing ممکن است در حین برنامه‌ریزی نقشه و مجروح‌ها را
+     *   تغییر دهند. هر برنامه نسخهٔ دفترچهٔ تغییرات ابتدای تیک را دارد و commitAction آن را دوباره می‌سنجد
+     *   (تغییر نوع سلول/برخورد روی مسیر یا هدفی که دیگر آزاد نیست)؛ برنامهٔ ردشده روی همین نخ و با
+     *   وضعیت فعلی دوباره ساخته و اعمال می‌شود.
+     * - برخوردهای بین برنامه‌ها (دو نفر یک تایل/یک مجروح) در فاز اعمال رد می‌شوند.
      * GameEngine می‌تواند این متد را در حلقه‌ی بازی صدا بزند.
      */
     public void executeRescueCycle() {
         if (paused) return;
         List<Rescuer> list = getRescuersSafe();
         if (list == null || list.isEmpty()) return;
-        for (int i = 0; i < list.size(); i++) {
-            runTickFor(list.get(i));
+        // یک ماتریس برای کل تیک؛ ردیف ریسکیورهایی که جابه‌جا نشده‌اند از کش می‌آید
+        if (distances != null && victimManager != null) {
+            try {
+                distances.rescuersToVictims(list, victimManager.getAllVictimsSafe());
+            } catch (Throwable ignored) { }
+        }
+        Rescuer[] rescuers = list.toArray(new Rescuer[0]);
+        CooperativePathFinder coop = agentController.getCooperativePlanner();
+        if (coop != null) {
+            long t0 = stepClock;
+            agentController.beginCooperativeStep(t0);
+            // محل فعلی همهٔ آمبولانس‌ها پیش از هر برنامه‌ای ثبت می‌شود
+            for (int i = 0; i < rescuers.length; i++) {
+                Rescuer r = rescuers[i];
+                if (r != null && r.isAmbulanceMode()) coop.claim(r.getId(), r.getPosition(), t0);
+            }
+        }
+        long basis = agentController.planningVersion();
+        AgentController.ActionPlan[] plans = planAll(rescuers, basis);
+        if (coop != null) {
+            commitLockstep(rescuers, plans);
+            stepClock += coop.getWindow();
+            return;
+        }
+        for (int i = 0; i < plans.length; i++) {
+            if (paused) return;
+            try {
+                if (!agentController.commitAction(plans[i]) && plans[i] != null) replanAndCommit(rescuers[i]);
+            } catch (Throwable t) {
+                log("commit failed for rescuer#" + (rescuers[i] != null ? rescuers[i].getId() : -1) + ": " + t);
+            }
+        }
+    }
+
+    /** برنامهٔ کهنه: برنامه‌ریزی دوباره روی نخ اعمال و با نسخهٔ فعلی؛ اگر باز هم کهنه بود، این تیک کاری نمی‌کند. */
+    private void replanAndCommit(Rescuer r) {
+        if (r == null) return;
+        long basis = agentController.planningVersion();
+        agentController.commitAction(agentController.planAction(r, buildCandidateListFor(r), hospitals, basis));
+    }
+
+    /**
+     * فاز اعمال در حالت همکارانه: قدم k همهٔ برنامه‌های زمان‌دار، سپس قدم k+1 (همان فرض جدول رزرو).
+     * آمبولانسی که یک قدمش رد شود تا پایان پنجره می‌ایستد. بعد از حرکت‌ها، بقیهٔ هر اکشن
+     * (تحویل، سوار کردن، راه رفتن پیاده) به ترتیب فهرست اعمال می‌شود.
+     */
+    private void commitLockstep(Rescuer[] rescuers, AgentController.ActionPlan[] plans) {
+        int steps = 0;
+        for (int i = 0; i < plans.length; i++) {
+            if (plans[i] != null && plans[i].isTimed()) steps = Math.max(steps, plans[i].getPath().size());
+        }
+        boolean[] stopped = new boolean[plans.length];
+        for (int i = 0; i < plans.length; i++) {
+            // مسیر زمان‌دارِ کهنه اجرا نمی‌شود (رزروهایش تا پایان پنجره می‌ماند)
+            if (plans[i] != null && plans[i].isTimed() && !agentController.isPlanCurrent(plans[i])) stopped[i] = true;
+        }
+        for (int k = 0; k < steps; k++) {
+            if (paused) return;
+            for (int i = 0; i < plans.length; i++) {
+                AgentController.ActionPlan p = plans[i];
+                if (p == null || !p.isTimed() || stopped[i] || k >= p.getPath().size()) continue;
+                try {
+                    if (!agentController.stepTo(p.getRescuer(), p.getPath().get(k))) stopped[i] = true;
+                } catch (Throwable t) {
+                    stopped[i] = true;
+                }
+            }
+            agentController.stepPause();
+        }
+        for (int i = 0; i < plans.length; i++) {
+            if (paused) return;
+            AgentController.ActionPlan p = plans[i];
+            if (p == null) continue;
+            try {
+                if (p.isTimed()) agentController.completeAction(p);
+                else if (!agentController.commitAction(p)) replanAndCommit(rescuers[i]);
+            } catch (Throwable t) {
+                log("commit failed for rescuer#" + (rescuers[i] != null ? rescuers[i].getId() : -1) + ": " + t);
+            }
+        }
+    }
+
+    /** فاز برنامه‌ریزی: یک برنامه به‌ازای هر ریسکیور (null اگر برنامه‌ریزی‌اش شکست خورد). */
+    private AgentController.ActionPlan[] planAll(Rescuer[] rescuers, long basis) {
+        AgentController.ActionPlan[] plans = new AgentController.ActionPlan[rescuers.length];
+        ForkJoinPool pool = (rescuers.length >= PARALLEL_THRESHOLD) ? pool() : null;
+        if (pool == null) {
+            planRange(rescuers, plans, 0, rescuers.length, basis);
+        } else {
+            pool.invoke(new PlanTask(rescuers, plans, 0, rescuers.length, basis));
+        }
+        return plans;
+    }
+
+    private void planRange(Rescuer[] rescuers, AgentController.ActionPlan[] plans, int from, int to, long basis) {
+        for (int i = from; i < to; i++) {
+            Rescuer r = rescuers[i];
+            if (r == null) continue;
+            try {
+                plans[i] = agentController.planAction(r, buildCandidateListFor(r), hospitals, basis);
+            } catch (Throwable t) {
+                plans[i] = null; // فقط همین ریسکیور در این تیک کاری نمی‌کند
+            }
+        }
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (parallelism <= 1) return null;
+        if (planningPool == null) planningPool = new ForkJoinPool(parallelism);
+        return planningPool;
+    }
+
+    /** تقسیم بازگشتی بازهٔ ریسکیورها بین نخ‌های استخر. */
+    private final class PlanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Rescuer[] rescuers;
+        private final AgentController.ActionPlan[] plans;
+        private final int from, to;
+        private final long basis;
+
+        PlanTask(Rescuer[] rescuers, AgentController.ActionPlan[] plans, int from, int to, long basis) {
+            this.rescuers = rescuers;
+            this.plans = plans;
+            this.from = from;
+            this.to = to;
+            this.basis = basis;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PLAN_CHUNK) {
+                planRange(rescuers, plans, from, to, basis);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PlanTask(rescuers, plans, from, mid, basis), new PlanTask(rescuers, plans, mid, to, basis));
         }
     }
 
@@ -152,6 +364,15 @@ public class RescueCoordinator {
         ArrayList<Injured> out = new ArrayList<Injured>();
         if (rescuer == null || victimManager == null) return out;
 
+        // فقط با سقف صریح: نزدیک‌ترین نامزدهای آزاد و در دسترس از شاخص مکانی (مستقل از تعداد کل مجروح‌ها)
+        int k = agentController.getTargetCandidateLimit();
+        if (k > 0 && rescuer.getPosition() != null) {
+            out.addAll(victimManager.findNearestFree(rescuer.getPosition(), k,
+                    agentController.rescuableFrom(rescuer.getPosition())));
+            sortByUrgency(rescuer, out);
+            return out;
+        }
+
         List<Injured> all = null;
         try {
             all = victimManager.getAllVictimsSafe();
@@ -167,11 +388,25 @@ public class RescueCoordinator {
                 if (v.isRescued()) continue;
                 if (v.isBeingRescued()) continue;
             } catch (Throwable ignored) { continue; }
+            // مجروحی که در مؤلفهٔ دیگری است (مثلاً وسط آوار محصور) اصلاً نامزد نمی‌شود
+            if (rescuer.getPosition() != null
+                    && !agentController.isVictimReachable(rescuer.getPosition(), v.getPosition())) continue;
             out.add(v);
         }
 
-        // مرتب‌سازی: 1) زمان باقیمانده کمتر، 2) فاصله منهتنی کمتر
+        sortByUrgency(rescuer, out);
+        return out;
+    }
+
+    /** مرتب‌سازی: 1) زمان باقیمانده کمتر، 2) فاصلهٔ واقعی پیاده کمتر (در نبود سرویس: منهتنی) */
+    private void sortByUrgency(Rescuer rescuer, List<Injured> out) {
         final Position rp = rescuer.getPosition();
+        final IdentityHashMap<Injured, Integer> walk = new IdentityHashMap<Injured, Integer>();
+        for (int i = 0; i < out.size(); i++) {
+            Injured v = out.get(i);
+            int d = (distances != null) ? distances.distance(rescuer, v) : manhattan(rp, v.getPosition());
+            walk.put(v, Integer.valueOf(d));
+        }
         Collections.sort(out, new Comparator<Injured>() {
             @Override
             public int compare(Injured a, Injured b) {
@@ -179,14 +414,12 @@ public class RescueCoordinator {
                 int tb = (b != null) ? b.getRemainingTime() : Integer.MAX_VALUE;
                 if (ta != tb) return (ta < tb) ? -1 : 1;
 
-                int da = (rp != null && a != null) ? manhattan(rp, a.getPosition()) : Integer.MAX_VALUE;
-                int db = (rp != null && b != null) ? manhattan(rp, b.getPosition()) : Integer.MAX_VALUE;
+                int da = (rp != null && a != null) ? walk.get(a).intValue() : Integer.MAX_VALUE;
+                int db = (rp != null && b != null) ? walk.get(b).intValue() : Integer.MAX_VALUE;
                 if (da != db) return (da < db) ? -1 : 1;
                 return 0;
             }
         });
-
-        return out;
     }
 
     // =========================================================
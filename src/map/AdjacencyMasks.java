@@ -0,0 +1,225 @@
+package map;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * ماسک 4-بیتی همسایه‌های قابل عبور برای هر تایل، روی بخش ایستای یک MovementProfile (isPassable).
+ * - بیت k (k=0..3 به ترتیب پایین، راست، بالا، چپ؛ همان ترتیب CityMap.getWalkableNeighbors):
+ *   همسایهٔ جهت k داخل نقشه و قابل عبور است.
+ * - بیت SELF: خودِ تایل قابل عبور است.
+ * ماسک‌ها در بلوک‌های BLOCK×BLOCK و فقط وقتی اولین بار خوانده شوند ساخته می‌شوند (جست‌وجو فقط ناحیهٔ
+ * پیموده‌شده و در نقشهٔ چانکی فقط چانک‌های همان‌جا را لمس می‌کند). با MapChangeListener فقط تایل تغییرکرده
+ * و چهار همسایه‌اش در بلوک‌های ساخته‌شده به‌روز می‌شوند؛ reset نقشه همهٔ بلوک‌ها را دور می‌ریزد.
+ *
+ * اشغال داخل ماسک ذخیره نمی‌شود (حرکت‌ها بدون قفل روی OccupancyGrid انجام می‌شوند)؛
+ * freeMaskAt و Cursor با skipOccupied بیت‌های اشغال همسایه‌ها را لحظه‌ای از همان بیت‌ست کم می‌کنند،
+ * پس نتیجه همیشه با اشغال فعلی هم‌گام است.
+ *
+ * Cursor پیمایش همسایه‌ها بدون ساخت شیء است (هر نخ Cursor خودش را بسازد):
+ *   cur.reset(x, y); while (cur.next()) { ... cur.x(), cur.y() ... }
+ * نمونهٔ مشترک هر پروفایل را از CityMap.getAdjacencyMasks بگیر.
+ */
+public class AdjacencyMasks implements MapChangeListener {
+
+    /** جابه‌جایی جهت‌ها: پایین، راست، بالا، چپ */
+    public static final int[] DX = { 0, 1, 0, -1 };
+    public static final int[] DY = { 1, 0, -1, 0 };
+
+    /** بیت «خود تایل قابل عبور است» */
+    public static final int SELF = 1 << 4;
+    /** همهٔ بیت‌های جهت */
+    public static final int DIRS = 0xF;
+
+    /** ضلع بلوک (تایل) — هم‌اندازهٔ چانک پیش‌فرض ChunkedCellStorage */
+    public static final int BLOCK = 64;
+    private static final int BLOCK_SHIFT = 6;
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final int width;
+    private final int height;
+    private final int blocksX;
+    private final int blocksY;
+    private volatile AtomicReferenceArray<byte[]> blocks;
+
+    private int built = 0;
+    private int resets = 0;
+
+    public AdjacencyMasks(CityMap cityMap, MovementProfile profile) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        this.blocksX = (width + BLOCK - 1) >> BLOCK_SHIFT;
+        this.blocksY = (height + BLOCK - 1) >> BLOCK_SHIFT;
+        this.blocks = new AtomicReferenceArray<byte[]>(blocksX * blocksY);
+        cityMap.addChangeListener(this);
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    /** جداشدن از نقشه */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    /** تعداد بلوک‌های ساخته‌شده از ابتدا (برای آمار) */
+    public synchronized int getBuiltBlockCount() { return built; }
+
+    /** تعداد reset نقشه که همهٔ بلوک‌ها را دور ریخته (برای آمار) */
+    public synchronized int getResetCount() { return resets; }
+
+    // ------------------------------------------------------------
+    // پرس‌وجو
+    // ------------------------------------------------------------
+
+    /** ماسک ایستای (x,y) شامل SELF و بیت‌های جهت؛ 0 برای بیرون نقشه. */
+    public int maskAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return 0;
+        return block(x >> BLOCK_SHIFT, y >> BLOCK_SHIFT)[((y & (BLOCK - 1)) << BLOCK_SHIFT) | (x & (BLOCK - 1))];
+    }
+
+    /** همان maskAt با اندیس خطی y*width+x */
+    public int maskAtIndex(int i) {
+        return maskAt(i % width, i / width);
+    }
+
+    /** آیا خودِ تایل طبق پروفایل قابل عبور است؟ (بدون اشغال) */
+    public boolean isPassable(int x, int y) {
+        return (maskAt(x, y) & SELF) != 0;
+    }
+
+    /** بیت‌های جهتِ همسایه‌هایی که قابل عبور و همین حالا آزادند. */
+    public int freeMaskAt(int x, int y) {
+        int m = maskAt(x, y) & DIRS;
+        if (m == 0) return 0;
+        OccupancyGrid occ = cityMap.getOccupancy();
+        int i = y * width + x;
+        if ((m & 1) != 0 && occ.isOccupiedIndex(i + width)) m &= ~1;
+        if ((m & 2) != 0 && occ.isOccupiedIndex(i + 1)) m &= ~2;
+        if ((m & 4) != 0 && occ.isOccupiedIndex(i - width)) m &= ~4;
+        if ((m & 8) != 0 && occ.isOccupiedIndex(i - 1)) m &= ~8;
+        return m;
+    }
+
+    /** Cursor تازه روی همین ماسک‌ها؛ skipOccupied=true یعنی همسایه‌های اشغال‌شده رد شوند. */
+    public Cursor cursor(boolean skipOccupied) {
+        return new Cursor(this, skipOccupied);
+    }
+
+    // ------------------------------------------------------------
+    // ساخت و به‌روزرسانی
+    // ------------------------------------------------------------
+
+    private byte[] block(int bx, int by) {
+        AtomicReferenceArray<byte[]> bs = blocks;
+        byte[] b = bs.get(by * blocksX + bx);
+        return (b != null) ? b : buildBlock(bs, bx, by);
+    }
+
+    private synchronized byte[] buildBlock(AtomicReferenceArray<byte[]> bs, int bx, int by) {
+        int bi = by * blocksX + bx;
+        byte[] b = bs.get(bi);
+        if (b != null) return b;
+        int x0 = bx << BLOCK_SHIFT, y0 = by << BLOCK_SHIFT;
+        int bw = Math.min(BLOCK, width - x0), bh = Math.min(BLOCK, height - y0);
+        // عبورپذیری بلوک با حاشیهٔ یک‌تایلی
+        int hw = bw + 2;
+        boolean[] pass = new boolean[hw * (bh + 2)];
+        for (int yy = -1; yy <= bh; yy++) {
+            for (int xx = -1; xx <= bw; xx++) {
+                pass[(yy + 1) * hw + (xx + 1)] = profile.isPassable(cityMap, x0 + xx, y0 + yy);
+            }
+        }
+        b = new byte[BLOCK * BLOCK];
+        for (int yy = 0; yy < bh; yy++) {
+            for (int xx = 0; xx < bw; xx++) {
+                int c = (yy + 1) * hw + (xx + 1);
+                int m = pass[c] ? SELF : 0;
+                for (int k = 0; k < 4; k++) {
+                    if (pass[c + DY[k] * hw + DX[k]]) m |= (1 << k);
+                }
+                b[(yy << BLOCK_SHIFT) | xx] = (byte) m;
+            }
+        }
+        built++;
+        if (blocks == bs) bs.set(bi, b); // اگر وسط ساخت reset شد، نتیجه فقط همین یک بار استفاده می‌شود
+        return b;
+    }
+
+    /** بازمحاسبهٔ ماسک (x,y) اگر بلوکش ساخته شده باشد. */
+    private void refresh(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return;
+        byte[] b = blocks.get((y >> BLOCK_SHIFT) * blocksX + (x >> BLOCK_SHIFT));
+        if (b == null) return;
+        int m = profile.isPassable(cityMap, x, y) ? SELF : 0;
+        for (int k = 0; k < 4; k++) {
+            if (profile.isPassable(cityMap, x + DX[k], y + DY[k])) m |= (1 << k);
+        }
+        b[((y & (BLOCK - 1)) << BLOCK_SHIFT) | (x & (BLOCK - 1))] = (byte) m;
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public synchronized void onTileChanged(CityMap map, int x, int y, int kind) {
+        if ((kind & (CELL | COLLISION)) == 0) return; // اشغال لحظه‌ای از OccupancyGrid خوانده می‌شود
+        if (x < 0 || y < 0 || x >= width || y >= height) return;
+        refresh(x, y);
+        for (int k = 0; k < 4; k++) refresh(x + DX[k], y + DY[k]);
+    }
+
+    @Override
+    public synchronized void onMapReset(CityMap map) {
+        blocks = new AtomicReferenceArray<byte[]>(blocksX * blocksY);
+        resets++;
+    }
+
+    // ------------------------------------------------------------
+    // Cursor
+    // ------------------------------------------------------------
+
+    /** پیمایش همسایه‌ها بدون ساخت شیء؛ thread-safe نیست (یک Cursor برای هر نخ/جست‌وجو). */
+    public static final class Cursor {
+        private final AdjacencyMasks owner;
+        private final boolean skipOccupied;
+        private int cx, cy;
+        private int pending;
+        private int dir = -1;
+
+        Cursor(AdjacencyMasks owner, boolean skipOccupied) {
+            this.owner = owner;
+            this.skipOccupied = skipOccupied;
+        }
+
+        /** شروع پیمایش همسایه‌های (x,y)؛ ترتیب: پایین، راست، بالا، چپ. */
+        public Cursor reset(int x, int y) {
+            cx = x;
+            cy = y;
+            pending = skipOccupied ? owner.freeMaskAt(x, y) : (owner.maskAt(x, y) & DIRS);
+            dir = -1;
+            return this;
+        }
+
+        /** رفتن به همسایهٔ بعدی؛ false اگر تمام شد. */
+        public boolean next() {
+            if (pending == 0) return false;
+            dir = Integer.numberOfTrailingZeros(pending);
+            pending &= pending - 1;
+            return true;
+        }
+
+        public int x() { return cx + DX[dir]; }
+        public int y() { return cy + DY[dir]; }
+        /** اندیس خطی همسایهٔ فعلی */
+        public int index() { return (cy + DY[dir]) * owner.width + (cx + DX[dir]); }
+        /** جهت همسایهٔ فعلی (0..3) */
+        public int direction() { return dir; }
+    }
+}
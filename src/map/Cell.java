@@ -9,6 +9,7 @@ import java.awt.image.BufferedImage;
  * --------------------
  * نمایندهٔ یک خانه (Tile) روی نقشه.
  * می‌تواند جاده، مانع، بیمارستان یا فضای خالی باشد.
+ * هِلپرها از getterها می‌خوانند تا View فلای‌ویت PackedCellGrid بتواند فقط getterها را بازنویسی کند.
  */
 public class Cell {
 
@@ -75,21 +76,21 @@ public class Cell {
     public Type getType() { return type; }
 
     /** عبوری بودن بر اساس نوع سلول. */
-    public boolean isWalkable() { return type.isWalkable(); }
+    public boolean isWalkable() { return getType().isWalkable(); }
 
     /** بلاک بودن با درنظرگرفتن اشغال‌بودن تایل. */
-    public boolean isBlocked() { return type.isBlocked() || occupied; }
+    public boolean isBlocked() { return getType().isBlocked() || isOccupied(); }
 
     public boolean isOccupied() { return occupied; }
     public void setOccupied(boolean occupied) { this.occupied = occupied; }
 
     // ---- هِلپرهای نوع ----
-    public boolean isRoad()      { return type == Type.ROAD; }
-    public boolean isSidewalk()  { return type == Type.SIDEWALK; }
-    public boolean isGround()    { return type == Type.GROUND; }
-    public boolean isObstacle()  { return type == Type.OBSTACLE || type == Type.BUILDING; }
-    public boolean isHospital()  { return type == Type.HOSPITAL; }
-    public boolean isEmpty()     { return type == Type.EMPTY; }
+    public boolean isRoad()      { return getType() == Type.ROAD; }
+    public boolean isSidewalk()  { return getType() == Type.SIDEWALK; }
+    public boolean isGround()    { return getType() == Type.GROUND; }
+    public boolean isObstacle()  { Type t = getType(); return t == Type.OBSTACLE || t == Type.BUILDING; }
+    public boolean isHospital()  { return getType() == Type.HOSPITAL; }
+    public boolean isEmpty()     { return getType() == Type.EMPTY; }
 
     // ---- گرافیک ----
     public BufferedImage getImage() { return image; }
@@ -99,20 +100,20 @@ public class Cell {
     public void setTileId(int tileId) { this.tileId = tileId; }
 
     // ---- ابزار ----
-    public Cell cloneShallow() { return new Cell(position, type, image, tileId); }
+    public Cell cloneShallow() { return new Cell(getPosition(), getType(), getImage(), getTileId()); }
 
     /** کپی با تصویر جدید (برای تغییر تم/ری‌اسکین بدون دست‌زدن به type). */
     public Cell copyWithImage(BufferedImage newImage) {
-        return new Cell(position, type, newImage, tileId);
+        return new Cell(getPosition(), getType(), newImage, getTileId());
     }
 
     @Override
     public String toString() {
         return "Cell{" +
-                "pos=" + position +
-                ", type=" + type +
-                ", tileId=" + tileId +
-                ", occupied=" + occupied +
+                "pos=" + getPosition() +
+                ", type=" + getType() +
+                ", tileId=" + getTileId() +
+                ", occupied=" + isOccupied() +
                 '}';
     }
 }
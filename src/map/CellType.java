@@ -12,6 +12,7 @@ public enum CellType {
 
     // قابل عبور
     ROAD(true, 1.0f, false),
+    SIDEWALK(true, 2.0f, false),                     // پیاده‌رو: قابل عبور ولی کندتر از جاده
     HOSPITAL(true, 1.0f, true),
 
     // غیرقابل عبور
@@ -57,7 +58,7 @@ public enum CellType {
      * - اگر typeStr مشخص و معتبر باشد همان برگردانده می‌شود.
      * - اگر typeStr خالی بود و walkableOpt=true → ROAD
      * - اگر typeStr خالی بود و walkableOpt=false → RUBBLE
-     * - سینونیم‌ها: debris=rubble، car/vehicle/wall=obstacle، clinic=hospital، street=road
+     * - سینونیم‌ها: debris=rubble، car/vehicle/wall=obstacle، clinic=hospital، street=road، pavement=sidewalk
      */
     public static CellType parse(String typeStr, Boolean walkableOpt) {
         String s = (typeStr == null) ? "" : typeStr.trim().toLowerCase();
@@ -68,6 +69,10 @@ public enum CellType {
             case "asphalt":
                 return ROAD;
 
+            case "sidewalk":
+            case "pavement":
+                return SIDEWALK;
+
             case "hospital":
             case "clinic":
                 return HOSPITAL;
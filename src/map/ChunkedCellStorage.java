@@ -0,0 +1,541 @@
+package map;
+
+import util.Position;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * ذخیرهٔ تکه‌تکه (chunked) سلول‌های CityMap برای نقشه‌های خیلی بزرگ یا بی‌کران (TMX infinite):
+ * - نقشه به چانک‌های chunkSize×chunkSize تقسیم می‌شود؛ هر چانک مثل PackedCellGrid آرایهٔ
+ *   types (byte) و gids (int) دارد.
+ * - فقط حدود maxResident چانک در حافظه می‌ماند (LRU تقریبی با «فرصت دوم»)؛ چانک کنارگذاشته اگر کثیف
+ *   باشد اول در ChunkSource نوشته می‌شود (write-back) و دفعهٔ بعد از همان‌جا بارگذاری می‌شود.
+ * - چانک‌هایی که منبع چیزی برایشان ندارد «خالی» ثبت می‌شوند و تا اولین نوشتن حافظه‌ای نمی‌گیرند.
+ *
+ * آنچه محدود می‌شود فقط نوع/gid سلول‌هاست (۵ بایت برای هر تایل مقیم به‌جای هر تایل نقشه). جدول چانک‌ها
+ * یک ارجاع برای هر چانک است. همراه‌های سراسری نقشه همچنان به اندازهٔ کل نقشه‌اند: OccupancyGrid
+ * (یک بیت برای هر تایل)، مهرهای چانک MapChangeJournal، آرایه‌های HospitalDistanceField و ComponentLabels
+ * و بافرهای SearchScratch هر نخ. لودر هم پیش از پرکردن، کل gidهای لایه را از TMX می‌خواند.
+ *
+ * منبع پیش‌فرض DeflateStore است (چانک‌های بیرون از LRU فشرده در حافظه)؛ منبع دلخواه (فایل/شبکه)
+ * با پیاده‌سازی ChunkSource وصل می‌شود.
+ * تصویر مشترک هر gid در جدول جدا نگه داشته می‌شود؛ تصویرهای استثنایی (override) صفحه‌بندی نمی‌شوند.
+ * اشغال در OccupancyGrid مشترک (یک بیت برای هر تایل) است، نه در چانک‌ها.
+ *
+ * هم‌روندی: hasCell/getType/getTileId بدون قفل از جدول چانک‌ها (AtomicReferenceArray) می‌خوانند و فقط
+ * روی چانک غیرمقیم (بارگذاری، LRU) قفل می‌گیرند؛ بقیهٔ متدها synchronized هستند. خواندن بی‌قفل یک
+ * نوشتن هم‌زمان را دیر یا زود می‌بیند و نوع و gid یک تایل ممکن است در همان لحظه از دو نسخه باشند.
+ */
+public final class ChunkedCellStorage {
+
+    /** منبع/مقصد داده‌ی چانک‌های بیرون از حافظه */
+    public interface ChunkSource {
+        /**
+         * پرکردن types/gids چانک (cx,cy)؛ false اگر منبع داده‌ای برای آن ندارد (چانک خالی).
+         * آرایه‌ها پیش از فراخوانی با NO_CELL / -1 پر شده‌اند.
+         */
+        boolean load(int cx, int cy, byte[] types, int[] gids);
+
+        /** نوشتن چانک کثیف؛ empty=true یعنی هیچ سلولی در چانک نیست (منبع می‌تواند آن را حذف کند). */
+        void store(int cx, int cy, byte[] types, int[] gids, boolean empty);
+
+        /** حذف همهٔ داده‌ها (CityMap.clear) */
+        void clear();
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+    public static final int DEFAULT_MAX_RESIDENT = 256;
+
+    private static final byte NO_CELL = PackedCellGrid.NO_CELL;
+    private static final Cell.Type[] TYPES = Cell.Type.values();
+
+    private static final class Chunk {
+        final int cx, cy;
+        final byte[] types;
+        final int[] gids;
+        int cells;        // تعداد سلول‌های ثبت‌شده
+        boolean dirty;
+        volatile boolean referenced; // دسترسی از آخرین دور «فرصت دوم»؛ بدون قفل ست می‌شود
+
+        Chunk(int cx, int cy, int area) {
+            this.cx = cx;
+            this.cy = cy;
+            this.types = new byte[area];
+            this.gids = new int[area];
+            Arrays.fill(types, NO_CELL);
+            Arrays.fill(gids, -1);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int shift;
+    private final int mask;
+    private final int chunksX;
+    private final ChunkSource source;
+    private final OccupancyGrid occupancy;
+
+    /** نشانهٔ «چانک خالی» در جدول (منبع برایش داده‌ای ندارد) */
+    private static final Chunk EMPTY = new Chunk(-1, -1, 0);
+
+    private int maxResident;
+    /** ترتیب ورود چانک‌های مقیم (فقط زیر قفل)؛ کنارگذاشتن با فرصت دوم روی referenced */
+    private final LinkedHashMap<Long, Chunk> resident = new LinkedHashMap<Long, Chunk>(64);
+    /** [cy*chunksX+cx] → چانک مقیم، EMPTY یا null (نامعلوم/غیرمقیم)؛ مسیر خواندن بی‌قفل */
+    private final AtomicReferenceArray<Chunk> table;
+
+    private BufferedImage[] images = new BufferedImage[64];
+    private final Map<Long, BufferedImage> overrides = new HashMap<Long, BufferedImage>();
+
+    // آمار
+    private long loads = 0;
+    private long evictions = 0;
+    private long writeBacks = 0;
+
+    public ChunkedCellStorage(int width, int height, OccupancyGrid occupancy) {
+        this(width, height, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_RESIDENT, null, occupancy);
+    }
+
+    /**
+     * @param chunkSize   ضلع چانک (به توان 2 بالا گرد می‌شود)
+     * @param maxResident حداکثر چانک مقیم (حداقل 4)
+     * @param source      منبع چانک‌ها؛ null → DeflateStore تازه
+     * @param occupancy   لایهٔ اشغال مشترک (هم‌اندازهٔ نقشه)
+     */
+    public ChunkedCellStorage(int width, int height, int chunkSize, int maxResident,
+                              ChunkSource source, OccupancyGrid occupancy) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        if (occupancy == null || occupancy.getWidth() != width || occupancy.getHeight() != height) {
+            throw new IllegalArgumentException("occupancy grid does not match " + width + "x" + height);
+        }
+        int s = 0;
+        while ((1 << s) < Math.max(1, chunkSize)) s++;
+        this.width = width;
+        this.height = height;
+        this.shift = s;
+        this.mask = (1 << s) - 1;
+        this.chunksX = (width + mask) >> s;
+        this.source = (source != null) ? source : new DeflateStore(1 << s);
+        this.occupancy = occupancy;
+        this.maxResident = Math.max(4, maxResident);
+        this.table = new AtomicReferenceArray<Chunk>(chunksX * ((height + mask) >> s));
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getChunkSize() { return 1 << shift; }
+    public OccupancyGrid getOccupancy() { return occupancy; }
+    public ChunkSource getSource() { return source; }
+
+    public synchronized int getMaxResident() { return maxResident; }
+
+    /** تغییر ظرفیت LRU (حداقل 4)؛ چانک‌های اضافه همین حالا کنار گذاشته می‌شوند. */
+    public synchronized void setMaxResident(int max) {
+        maxResident = Math.max(4, max);
+        trimResident();
+    }
+
+    public synchronized int getResidentChunkCount() { return resident.size(); }
+    public synchronized long getLoadCount() { return loads; }
+    public synchronized long getEvictionCount() { return evictions; }
+    public synchronized long getWriteBackCount() { return writeBacks; }
+
+    // ------------------------------------------------------------
+    // دسترسی مستقیم
+    // ------------------------------------------------------------
+
+    public boolean hasCell(int x, int y) {
+        Chunk c = readChunk(x, y);
+        return c != null && c.types[local(x, y)] != NO_CELL;
+    }
+
+    /** نوع سلول (x,y)؛ null اگر سلولی ثبت نشده. بدون قفل وقتی چانک مقیم است. */
+    public Cell.Type getType(int x, int y) {
+        Chunk c = readChunk(x, y);
+        if (c == null) return null;
+        byte t = c.types[local(x, y)];
+        return (t == NO_CELL) ? null : TYPES[t];
+    }
+
+    public int getTileId(int x, int y) {
+        Chunk c = readChunk(x, y);
+        if (c == null) return -1;
+        int i = local(x, y);
+        return (c.types[i] == NO_CELL) ? -1 : c.gids[i];
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return occupancy.isOccupied(x, y);
+    }
+
+    public boolean setOccupied(int x, int y, boolean value) {
+        return occupancy.set(x, y, value);
+    }
+
+    public synchronized BufferedImage getImage(int x, int y) {
+        Chunk c = chunkFor(x, y, false);
+        if (c == null) return null;
+        int i = local(x, y);
+        if (c.types[i] == NO_CELL) return null;
+        if (!overrides.isEmpty()) {
+            BufferedImage o = overrides.get(Long.valueOf(tileKey(x, y)));
+            if (o != null) return o;
+        }
+        int gid = c.gids[i];
+        return (gid >= 0 && gid < images.length) ? images[gid] : null;
+    }
+
+    public synchronized BufferedImage getTileImage(int gid) {
+        return (gid >= 0 && gid < images.length) ? images[gid] : null;
+    }
+
+    public synchronized void setTileImage(int gid, BufferedImage image) {
+        if (gid < 0) return;
+        ensureImageCapacity(gid);
+        images[gid] = image;
+    }
+
+    // ------------------------------------------------------------
+    // سلول کامل
+    // ------------------------------------------------------------
+
+    /** View سبک روی (x,y)؛ null اگر سلولی ثبت نشده. */
+    public Cell getCell(int x, int y) {
+        if (!hasCell(x, y)) return null;
+        return new View(this, x, y);
+    }
+
+    /** نوشتن سلول (خود cell نگه داشته نمی‌شود)؛ null یعنی حذف. */
+    public synchronized void setCell(int x, int y, Cell cell) {
+        if (cell == null) {
+            Chunk c = chunkFor(x, y, false);
+            if (c != null) write(c, local(x, y), NO_CELL, -1);
+            overrides.remove(Long.valueOf(tileKey(x, y)));
+            setOccupied(x, y, false);
+            return;
+        }
+        setTile(x, y, cell.getType(), cell.getTileId(), cell.getImage());
+        setOccupied(x, y, cell.isOccupied());
+    }
+
+    /** مسیر سریع لودر: نوشتن نوع/gid/تصویر بدون ساخت Cell (اشغال دست نمی‌خورد). */
+    public synchronized void setTile(int x, int y, Cell.Type type, int gid, BufferedImage image) {
+        if (type == null) type = Cell.Type.EMPTY;
+        Chunk c = chunkFor(x, y, true);
+        write(c, local(x, y), (byte) type.ordinal(), gid);
+        storeImage(x, y, gid, image);
+    }
+
+    /** نوشتن همهٔ چانک‌های کثیف در منبع (چانک‌ها مقیم می‌مانند). */
+    public synchronized void flush() {
+        for (Chunk c : resident.values()) {
+            if (c.dirty) writeBack(c);
+        }
+    }
+
+    /** حذف همهٔ سلول‌ها و اشغال‌ها (مقیم و منبع)؛ جدول تصویر gid حفظ می‌شود. */
+    public synchronized void clear() {
+        resident.clear();
+        for (int i = 0; i < table.length(); i++) table.set(i, null);
+        overrides.clear();
+        source.clear();
+        occupancy.clear();
+    }
+
+    /** تخمین حافظهٔ چانک‌های مقیم (بایت)، بدون تصاویر و منبع. */
+    public synchronized long estimatedResidentBytes() {
+        return (long) resident.size() * 5L * (1L << (2 * shift));
+    }
+
+    // ------------------------------------------------------------
+    // داخلی
+    // ------------------------------------------------------------
+
+    private int local(int x, int y) {
+        return ((y & mask) << shift) | (x & mask);
+    }
+
+    private long tileKey(int x, int y) {
+        return (long) y * width + x;
+    }
+
+    private int slot(int x, int y) {
+        return (y >> shift) * chunksX + (x >> shift);
+    }
+
+    /** مسیر خواندن: چانک مقیم از جدول بدون قفل؛ فقط وقتی نامعلوم است به chunkFor (با قفل) می‌رود. */
+    private Chunk readChunk(int x, int y) {
+        Chunk c = table.get(slot(x, y));
+        if (c == EMPTY) return null;
+        if (c == null) return loadChunk(x, y);
+        if (!c.referenced) c.referenced = true;
+        return c;
+    }
+
+    private synchronized Chunk loadChunk(int x, int y) {
+        return chunkFor(x, y, false);
+    }
+
+    /** چانک مقیم (x,y) (زیر قفل)؛ اگر create=false و چانک خالی است → null (بدون گرفتن حافظه). */
+    private Chunk chunkFor(int x, int y, boolean create) {
+        int cx = x >> shift, cy = y >> shift;
+        int slot = cy * chunksX + cx;
+        Chunk c = table.get(slot);
+        if (c != null && c != EMPTY) {
+            c.referenced = true;
+            return c;
+        }
+        if (c == EMPTY && !create) return null;
+        c = new Chunk(cx, cy, 1 << (2 * shift));
+        c.referenced = true;
+        if (table.get(slot) == null) {
+            loads++;
+            if (source.load(cx, cy, c.types, c.gids)) {
+                for (int i = 0; i < c.types.length; i++) if (c.types[i] != NO_CELL) c.cells++;
+            }
+        }
+        if (c.cells == 0 && !create) {
+            table.set(slot, EMPTY);
+            return null;
+        }
+        resident.put(Long.valueOf(slot), c);
+        table.set(slot, c); // انتشار بعد از پرشدن آرایه‌ها
+        trimResident();
+        return c;
+    }
+
+    /**
+     * کنارگذاشتن تا رسیدن به maxResident با «فرصت دوم»: قدیمی‌ترین چانک اگر از دور قبل دسترسی داشته،
+     * پرچمش پاک و به ته صف برده می‌شود؛ وگرنه کنار گذاشته می‌شود.
+     */
+    private void trimResident() {
+        while (resident.size() > maxResident) {
+            Iterator<Map.Entry<Long, Chunk>> it = resident.entrySet().iterator();
+            Map.Entry<Long, Chunk> eldest = it.next();
+            Chunk c = eldest.getValue();
+            it.remove();
+            if (c.referenced) {
+                c.referenced = false;
+                resident.put(eldest.getKey(), c);
+                continue;
+            }
+            evict(c);
+        }
+    }
+
+    private void write(Chunk c, int i, byte type, int gid) {
+        byte old = c.types[i];
+        if (old == type && c.gids[i] == gid) return;
+        if (old == NO_CELL && type != NO_CELL) c.cells++;
+        else if (old != NO_CELL && type == NO_CELL) c.cells--;
+        c.types[i] = type;
+        c.gids[i] = gid;
+        c.dirty = true;
+    }
+
+    private void evict(Chunk c) {
+        evictions++;
+        if (c.dirty) writeBack(c);
+        table.set(c.cy * chunksX + c.cx, (c.cells == 0) ? EMPTY : null);
+    }
+
+    private void writeBack(Chunk c) {
+        source.store(c.cx, c.cy, c.types, c.gids, c.cells == 0);
+        c.dirty = false;
+        writeBacks++;
+    }
+
+    private void storeImage(int x, int y, int gid, BufferedImage img) {
+        Long key = Long.valueOf(tileKey(x, y));
+        if (gid >= 0) {
+            ensureImageCapacity(gid);
+            if (images[gid] == null && img != null) images[gid] = img;
+            if (images[gid] == img) {
+                if (!overrides.isEmpty()) overrides.remove(key);
+                return;
+            }
+        }
+        if (img == null && gid < 0) overrides.remove(key);
+        else overrides.put(key, img);
+    }
+
+    private void ensureImageCapacity(int gid) {
+        if (gid < images.length) return;
+        int cap = images.length;
+        while (cap <= gid) cap <<= 1;
+        images = Arrays.copyOf(images, cap);
+    }
+
+    private synchronized void setImageAt(int x, int y, BufferedImage img) {
+        storeImage(x, y, getTileId(x, y), img);
+    }
+
+    private synchronized void setTileIdAt(int x, int y, int gid) {
+        Chunk c = chunkFor(x, y, false);
+        if (c == null) return;
+        BufferedImage img = getImage(x, y);
+        int i = local(x, y);
+        write(c, i, c.types[i], gid);
+        storeImage(x, y, gid, img);
+    }
+
+    // ------------------------------------------------------------
+    // View
+    // ------------------------------------------------------------
+
+    /** Cell فلای‌ویت روی یک تایل (مثل PackedCellGrid.View) */
+    static final class View extends Cell {
+        private final ChunkedCellStorage storage;
+        private final int x;
+        private final int y;
+
+        View(ChunkedCellStorage storage, int x, int y) {
+            super(null, Type.EMPTY);
+            this.storage = storage;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override public Position getPosition() { return new Position(x, y); }
+        @Override public int getX() { return x; }
+        @Override public int getY() { return y; }
+
+        @Override
+        public Type getType() {
+            Type t = storage.getType(x, y);
+            return (t != null) ? t : Type.EMPTY;
+        }
+
+        @Override public boolean isOccupied() { return storage.isOccupied(x, y); }
+        @Override public void setOccupied(boolean occupied) { storage.setOccupied(x, y, occupied); }
+
+        @Override public BufferedImage getImage() { return storage.getImage(x, y); }
+        @Override public void setImage(BufferedImage image) { storage.setImageAt(x, y, image); }
+
+        @Override public int getTileId() { return storage.getTileId(x, y); }
+        @Override public void setTileId(int tileId) { storage.setTileIdAt(x, y, tileId); }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof View)) return false;
+            View v = (View) o;
+            return v.storage == storage && v.x == x && v.y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(storage) + (int) storage.tileKey(x, y);
+        }
+    }
+
+    // ------------------------------------------------------------
+    // منبع پیش‌فرض: چانک‌های فشرده در حافظه
+    // ------------------------------------------------------------
+
+    /**
+     * ChunkSource درون‌حافظه‌ای: هر چانک کنارگذاشته با Deflater فشرده نگه داشته می‌شود
+     * (نقشه‌های شهری معمولاً چند ده برابر کوچک می‌شوند). چانک خالی ذخیره نمی‌شود.
+     */
+    public static final class DeflateStore implements ChunkSource {
+        private final int chunkSize;
+        private final Map<Long, byte[]> blobs = new HashMap<Long, byte[]>();
+        private long storedBytes = 0;
+
+        public DeflateStore(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        private static Long key(int cx, int cy) {
+            return Long.valueOf(((long) cx << 32) | (cy & 0xFFFFFFFFL));
+        }
+
+        @Override
+        public synchronized boolean load(int cx, int cy, byte[] types, int[] gids) {
+            byte[] blob = blobs.get(key(cx, cy));
+            if (blob == null) return false;
+            int n = types.length;
+            byte[] raw = new byte[5 * n];
+            Inflater inf = new Inflater();
+            try {
+                inf.setInput(blob);
+                int off = 0;
+                while (off < raw.length && !inf.finished()) {
+                    int r = inf.inflate(raw, off, raw.length - off);
+                    if (r == 0 && (inf.needsInput() || inf.needsDictionary())) break;
+                    off += r;
+                }
+                if (off != raw.length) throw new IllegalStateException("corrupt chunk " + cx + "," + cy);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("corrupt chunk " + cx + "," + cy, e);
+            } finally {
+                inf.end();
+            }
+            System.arraycopy(raw, 0, types, 0, n);
+            for (int i = 0, p = n; i < n; i++, p += 4) {
+                gids[i] = (raw[p] & 0xFF) | (raw[p + 1] & 0xFF) << 8 | (raw[p + 2] & 0xFF) << 16 | raw[p + 3] << 24;
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void store(int cx, int cy, byte[] types, int[] gids, boolean empty) {
+            Long k = key(cx, cy);
+            byte[] old = empty ? blobs.remove(k) : null;
+            if (empty) {
+                if (old != null) storedBytes -= old.length;
+                return;
+            }
+            int n = types.length;
+            byte[] raw = new byte[5 * n];
+            System.arraycopy(types, 0, raw, 0, n);
+            for (int i = 0, p = n; i < n; i++, p += 4) {
+                int g = gids[i];
+                raw[p] = (byte) g;
+                raw[p + 1] = (byte) (g >>> 8);
+                raw[p + 2] = (byte) (g >>> 16);
+                raw[p + 3] = (byte) (g >>> 24);
+            }
+            Deflater def = new Deflater(Deflater.BEST_SPEED);
+            byte[] buf = new byte[Math.max(64, raw.length / 8)];
+            int len = 0;
+            try {
+                def.setInput(raw);
+                def.finish();
+                while (!def.finished()) {
+                    if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                    len += def.deflate(buf, len, buf.length - len);
+                }
+            } finally {
+                def.end();
+            }
+            byte[] blob = Arrays.copyOf(buf, len);
+            old = blobs.put(k, blob);
+            if (old != null) storedBytes -= old.length;
+            storedBytes += blob.length;
+        }
+
+        @Override
+        public synchronized void clear() {
+            blobs.clear();
+            storedBytes = 0;
+        }
+
+        public int getChunkSize() { return chunkSize; }
+        public synchronized int getStoredChunkCount() { return blobs.size(); }
+        /** حجم فشردهٔ چانک‌های ذخیره‌شده (بایت) */
+        public synchronized long getStoredBytes() { return storedBytes; }
+    }
+}
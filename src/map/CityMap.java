@@ -2,18 +2,27 @@ package map;
 
 import util.Position;
 import util.CollisionMap;
+import util.SpatialHash;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * لایه‌ی دامنه‌ی نقشه‌ی شهر (Tile-based).
  * - پشتیبانی از CollisionMap پیش‌فرض و پروفایل‌ها
  * - پشتیبانی از لایه‌های دودویی از TMX (RoadMask, HospitalMask)
  * - ابزارهای کمکی حرکت/بررسی
- * - پیدا کردن نزدیک‌ترین بیمارستان (از لیست ثبت‌شده یا HospitalMask)
+ * - پیدا کردن نزدیک‌ترین بیمارستان (برچسب میدان فاصلهٔ بیمارستان‌های ثبت‌شده یا HospitalMask)
+ * - اطلاع‌رسانی تغییرات (اشغال، سلول، برخورد) به MapChangeListenerها و ثبت آن‌ها در MapChangeJournal
+ * - سه حالت ذخیرهٔ سلول: Cell[][] (پیش‌فرض)، PackedCellGrid (آرایه‌های پیوسته + View فلای‌ویت
+ *   برای نقشه‌های بزرگ) یا ChunkedCellStorage (چانک‌های صفحه‌بندی‌شده با LRU برای نقشه‌های خیلی
+ *   بزرگ/بی‌کران)؛ در دو حالت آخر getCell هر بار View تازه می‌سازد، پس برای پیمایش
+ *   از getCellType / isWalkable / isOccupied استفاده کن که شیئی نمی‌سازند.
+ * - اشغال تایل‌ها در OccupancyGrid اتمیک است (tryClaim / tryMoveOccupant با CAS)، پس متحرک‌های هم‌زمان
+ *   بدون قفل سراسری هیچ‌وقت یک تایل را دوبار اشغال نمی‌کنند.
  * بدون استفاده از لامبدا.
  */
 public class CityMap {
@@ -22,7 +31,20 @@ public class CityMap {
     private final int height;
     private final int tileWidth;
     private final int tileHeight;
-    private final Cell[][] grid; // grid[y][x]
+    private final Cell[][] grid; // grid[y][x] — در حالت‌های فشرده و چانکی null
+    private final PackedCellGrid packed; // فقط در حالت فشرده
+    private final ChunkedCellStorage chunked; // فقط در حالت چانکی
+    private final OccupancyGrid occupancy; // منبع اصلی اشغال در همهٔ حالت‌ها (CAS، بدون قفل)
+
+    /** از این تعداد تایل به بالا create حالت فشرده را انتخاب می‌کند. */
+    public static final int PACKED_STORAGE_MIN_TILES = 1 << 20;
+
+    /** از این تعداد تایل به بالا (4096×4096) create حالت چانکی را انتخاب می‌کند. */
+    public static final int CHUNKED_STORAGE_MIN_TILES = 1 << 24;
+
+    // مختصات TMX تایل (0,0) (فقط نقشه‌های بی‌کران غیرصفر است)
+    private int originX = 0;
+    private int originY = 0;
 
     // --- برخورد: پیش‌فرض + پروفایل‌ها ---
     private CollisionMap collisionMap; // سازگاری عقب‌رو
@@ -37,34 +59,139 @@ public class CityMap {
     // --- بیمارستان‌ها (اختیاری: اگر ثبت شوند، جست‌وجو اولویتاً از روی این لیست انجام می‌شود) ---
     private final List<Hospital> hospitals = new ArrayList<Hospital>();
 
+    // --- شاخص مکانی تایل‌های HospitalMask (تنبل؛ با تعویض ماسک دور ریخته می‌شود) ---
+    private SpatialHash<Position> hospitalTileIndex;
+
+    // --- میدان نزدیک‌ترین بیمارستان ثبت‌شده به‌ازای هر پروفایل حرکت (تنبل؛ فقط با ثبت بیمارستان بازسازی می‌شود) ---
+    private final Map<MovementProfile, HospitalDistanceField> hospitalFields = new HashMap<MovementProfile, HospitalDistanceField>();
+
+    // --- برچسب مؤلفه‌های همبند به‌ازای هر پروفایل حرکت (تنبل) ---
+    private final Map<MovementProfile, ComponentLabels> componentLabels = new HashMap<MovementProfile, ComponentLabels>();
+
+    // --- ماسک 4-بیتی همسایه‌های قابل عبور به‌ازای هر پروفایل حرکت (تنبل) ---
+    private final Map<MovementProfile, AdjacencyMasks> adjacencyMasks = new HashMap<MovementProfile, AdjacencyMasks>();
+
+    /** ترتیب همسایه‌ها: پایین، راست، بالا، چپ (مثل AdjacencyMasks) */
+    private static final int[][] NEIGHBOR_DELTAS = new int[][] { {0, 1}, {1, 0}, {0, -1}, {-1, 0} };
+
+    // --- شنونده‌های تغییر نقشه ---
+    private final List<MapChangeListener> changeListeners = new CopyOnWriteArrayList<MapChangeListener>();
+
+    // --- دفترچهٔ تغییرات (نسخه + مهر چانک‌ها + تغییرات اخیر) برای کش‌هایی که poll می‌کنند ---
+    private final MapChangeJournal journal;
+
+    /** رویدادهای CollisionMapهای متصل را به شنونده‌های نقشه منتقل می‌کند. */
+    private final CollisionMap.ChangeListener collisionForwarder = new CollisionMap.ChangeListener() {
+        @Override
+        public void onCollisionChanged(CollisionMap source, int x, int y) {
+            if (x < 0 || y < 0) fireMapReset();
+            else fireTileChanged(x, y, MapChangeListener.COLLISION);
+        }
+    };
+
     // --- سازنده‌ها ---
     public CityMap(int width, int height) {
         this(width, height, 32, 32);
     }
 
     public CityMap(int width, int height, int tileWidth, int tileHeight) {
+        this(width, height, tileWidth, tileHeight, false);
+    }
+
+    /** @param packedCells true → ذخیرهٔ SoA با PackedCellGrid به‌جای Cell[][] */
+    public CityMap(int width, int height, int tileWidth, int tileHeight, boolean packedCells) {
         this.width = width;
         this.height = height;
         this.tileWidth = tileWidth;
         this.tileHeight = tileHeight;
-        this.grid = new Cell[height][width];
+        this.occupancy = new OccupancyGrid(width, height);
+        this.journal = new MapChangeJournal(width, height);
+        this.grid = packedCells ? null : new Cell[height][width];
+        this.packed = packedCells ? new PackedCellGrid(width, height, occupancy) : null;
+        this.chunked = null;
     }
 
+    /**
+     * نقشهٔ چانکی: سلول‌ها در چانک‌های chunkSize×chunkSize که فقط maxResident تایشان مقیم‌اند.
+     * @param source منبع چانک‌ها (null → ChunkedCellStorage.DeflateStore در حافظه)
+     */
+    public CityMap(int width, int height, int tileWidth, int tileHeight,
+                   int chunkSize, int maxResidentChunks, ChunkedCellStorage.ChunkSource source) {
+        this.width = width;
+        this.height = height;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.occupancy = new OccupancyGrid(width, height);
+        this.journal = new MapChangeJournal(width, height);
+        this.grid = null;
+        this.packed = null;
+        this.chunked = new ChunkedCellStorage(width, height, chunkSize, maxResidentChunks, source, occupancy);
+    }
+
+    /**
+     * نقشه با حالت ذخیرهٔ متناسب با اندازه: از PACKED_STORAGE_MIN_TILES تایل به بالا فشرده،
+     * از CHUNKED_STORAGE_MIN_TILES به بالا چانکی.
+     */
+    public static CityMap create(int width, int height, int tileWidth, int tileHeight) {
+        long tiles = (long) width * height;
+        if (tiles >= CHUNKED_STORAGE_MIN_TILES) return createChunked(width, height, tileWidth, tileHeight);
+        return new CityMap(width, height, tileWidth, tileHeight, tiles >= PACKED_STORAGE_MIN_TILES);
+    }
+
+    /**
+     * نقشهٔ چانکی با تنظیمات پیش‌فرض؛ ظرفیت LRU دست‌کم دو ردیف چانک است تا پرکردن سطربه‌سطر
+     * (لودر) و پیمایش افقی چانک‌ها را مدام بیرون نیندازد.
+     */
+    public static CityMap createChunked(int width, int height, int tileWidth, int tileHeight) {
+        int cs = ChunkedCellStorage.DEFAULT_CHUNK_SIZE;
+        int chunksX = (width + cs - 1) / cs;
+        int resident = Math.max(ChunkedCellStorage.DEFAULT_MAX_RESIDENT, 2 * chunksX);
+        return new CityMap(width, height, tileWidth, tileHeight, cs, resident, null);
+    }
+
+    public boolean isPackedStorage() { return packed != null; }
+    public boolean isChunkedStorage() { return chunked != null; }
+
+    /** ذخیرهٔ فشرده (یا null در حالت‌های دیگر) */
+    public PackedCellGrid getPackedCells() { return packed; }
+
+    /** ذخیرهٔ چانکی (یا null در حالت‌های دیگر) */
+    public ChunkedCellStorage getChunkedCells() { return chunked; }
+
     // --- عملیات روی سلول‌ها ---
     public void setCell(int x, int y, Cell cell) {
         if (!isValid(x, y)) return;
+        if (packed != null || chunked != null) {
+            if (packed != null) packed.setCell(x, y, cell);
+            else chunked.setCell(x, y, cell);
+            fireTileChanged(x, y, MapChangeListener.CELL);
+            return;
+        }
         grid[y][x] = cell;
+        occupancy.set(x, y, cell != null && cell.isOccupied());
         if (cell != null && cell.getPosition() != null) {
             cell.getPosition().setX(x);
             cell.getPosition().setY(y);
         }
+        fireTileChanged(x, y, MapChangeListener.CELL);
     }
 
     public Cell getCell(int x, int y) {
         if (!isValid(x, y)) return null;
+        if (packed != null) return packed.getCell(x, y);
+        if (chunked != null) return chunked.getCell(x, y);
         return grid[y][x];
     }
 
+    /** نوع سلول (x,y) بدون ساخت View؛ null اگر خارج از نقشه یا سلولی ثبت نشده. */
+    public Cell.Type getCellType(int x, int y) {
+        if (!isValid(x, y)) return null;
+        if (packed != null) return packed.getType(x, y);
+        if (chunked != null) return chunked.getType(x, y);
+        Cell c = grid[y][x];
+        return (c != null) ? c.getType() : null;
+    }
+
     public Cell getCell(Position pos) {
         if (pos == null) return null;
         return getCell(pos.getX(), pos.getY());
@@ -76,6 +203,8 @@ public class CityMap {
     }
 
     public int getTileId(int x, int y) {
+        if (packed != null) return isValid(x, y) ? packed.getTileId(x, y) : -1;
+        if (chunked != null) return isValid(x, y) ? chunked.getTileId(x, y) : -1;
         Cell c = getCell(x, y);
         return c != null ? c.getTileId() : -1;
     }
@@ -86,14 +215,70 @@ public class CityMap {
         return p.get(key);
     }
 
+    // --- اشغال (OccupancyGrid اتمیک) ---
+    // در حالت Cell[][] پرچم occupied خود Cell فقط آینهٔ این لایه برای کدهای قدیمی است؛
+    // تصمیم‌های حرکت باید از isOccupied/tryClaim/tryMoveOccupant نقشه استفاده کنند.
+
+    /** نوشتن مستقیم اشغال (مقداردهی اولیه، اسپاون و ...). false اگر خارج از نقشه یا بی‌سلول. */
     public boolean setOccupied(int x, int y, boolean occupied) {
+        if (!hasCellAt(x, y)) return false;
+        if (occupancy.set(x, y, occupied)) occupancyChanged(x, y);
+        return true;
+    }
+
+    /** true اگر عاملی روی تایل (x,y) ایستاده باشد. خارج از نقشه → false */
+    public boolean isOccupied(int x, int y) {
+        return isValid(x, y) && occupancy.isOccupied(x, y);
+    }
+
+    /** گرفتن تایل آزاد با یک CAS؛ false اگر اشغال است، بی‌سلول است یا خارج از نقشه. */
+    public boolean tryClaim(int x, int y) {
+        if (!hasCellAt(x, y)) return false;
+        if (!occupancy.tryClaim(x, y)) return false;
+        occupancyChanged(x, y);
+        return true;
+    }
+
+    /** آزادکردن تایل؛ true اگر اشغال بود. */
+    public boolean releaseTile(int x, int y) {
         if (!isValid(x, y)) return false;
-        Cell c = grid[y][x];
-        if (c == null) return false;
-        c.setOccupied(occupied);
+        if (!occupancy.release(x, y)) return false;
+        occupancyChanged(x, y);
+        return true;
+    }
+
+    /**
+     * جابه‌جایی اشغال یک عامل از (fx,fy) به (tx,ty) به‌صورت claim-then-release:
+     * اگر مقصد را عامل دیگری زودتر گرفته باشد false و هیچ چیز تغییر نمی‌کند.
+     * مبدأ بیرون از نقشه (مثلاً عامل هنوز جایی ثبت نشده) فقط مقصد را می‌گیرد.
+     */
+    public boolean tryMoveOccupant(int fx, int fy, int tx, int ty) {
+        if (!hasCellAt(tx, ty)) return false;
+        if (!occupancy.tryClaim(tx, ty)) return false;
+        occupancyChanged(tx, ty);
+        if (isValid(fx, fy) && (fx != tx || fy != ty) && occupancy.release(fx, fy)) occupancyChanged(fx, fy);
         return true;
     }
 
+    /** لایهٔ اشغال اتمیک نقشه */
+    public OccupancyGrid getOccupancy() { return occupancy; }
+
+    private boolean hasCellAt(int x, int y) {
+        if (!isValid(x, y)) return false;
+        if (packed != null) return packed.hasCell(x, y);
+        if (chunked != null) return chunked.hasCell(x, y);
+        return grid[y][x] != null;
+    }
+
+    /** هم‌گام‌سازی آینهٔ Cell (حالت Cell[][]) و اعلام رویداد OCCUPANCY */
+    private void occupancyChanged(int x, int y) {
+        if (grid != null) {
+            Cell c = grid[y][x];
+            if (c != null) c.setOccupied(occupancy.isOccupied(x, y));
+        }
+        fireTileChanged(x, y, MapChangeListener.OCCUPANCY);
+    }
+
     // --- محدوده ---
     public boolean isValid(int x, int y) {
         return x >= 0 && x < width && y >= 0 && y < height;
@@ -106,14 +291,7 @@ public class CityMap {
 
     // --- عبورپذیری (پروفایل پیش‌فرض) ---
     public boolean isWalkable(int x, int y) {
-        if (!isValid(x, y)) return false;
-        Cell c = grid[y][x];
-        if (c != null && c.isOccupied()) return false;
-
-        if (collisionMap != null) {
-            return collisionMap.isWalkable(x, y);
-        }
-        return c != null && c.isWalkable();
+        return isWalkable(x, y, collisionMap);
     }
 
     /** برای حالت عادیِ Rescuer وقتی ambulanceMode=false */
@@ -123,9 +301,13 @@ public class CityMap {
 
     public boolean isWalkable(int x, int y, CollisionMap cm) {
         if (!isValid(x, y)) return false;
-        Cell c = grid[y][x];
-        if (c != null && c.isOccupied()) return false;
+        if (occupancy.isOccupied(x, y)) return false;
         if (cm != null) return cm.isWalkable(x, y);
+        if (grid == null) {
+            Cell.Type t = (packed != null) ? packed.getType(x, y) : chunked.getType(x, y);
+            return t != null && t.isWalkable();
+        }
+        Cell c = grid[y][x];
         return c != null && c.isWalkable();
     }
 
@@ -140,19 +322,18 @@ public class CityMap {
     }
 
     // --- همسایه‌ها ---
+    /** همسایه‌های قابل عبور و آزاد (از ماسک پروفایل DEFAULT)؛ در حلقه‌های داغ از AdjacencyMasks.Cursor استفاده کن. */
     public List<Position> getWalkableNeighbors(Position pos) {
-        List<Position> neighbors = new ArrayList<Position>();
-        if (pos == null) return neighbors;
-
+        if (pos == null) return new ArrayList<Position>();
         int x = pos.getX();
         int y = pos.getY();
-        int[][] deltas = new int[][] { {0, 1}, {1, 0}, {0, -1}, {-1, 0} };
+        if (!isValid(x, y)) return getWalkableNeighbors(pos, collisionMap);
 
-        for (int i = 0; i < deltas.length; i++) {
-            int nx = x + deltas[i][0];
-            int ny = y + deltas[i][1];
-            if (isWalkable(nx, ny)) {
-                neighbors.add(new Position(nx, ny));
+        int m = getAdjacencyMasks(MovementProfile.DEFAULT).freeMaskAt(x, y);
+        List<Position> neighbors = new ArrayList<Position>(Integer.bitCount(m));
+        for (int k = 0; k < 4; k++) {
+            if ((m & (1 << k)) != 0) {
+                neighbors.add(new Position(x + AdjacencyMasks.DX[k], y + AdjacencyMasks.DY[k]));
             }
         }
         return neighbors;
@@ -168,11 +349,9 @@ public class CityMap {
 
         int x = pos.getX();
         int y = pos.getY();
-        int[][] deltas = new int[][] { {0, 1}, {1, 0}, {0, -1}, {-1, 0} };
-
-        for (int i = 0; i < deltas.length; i++) {
-            int nx = x + deltas[i][0];
-            int ny = y + deltas[i][1];
+        for (int i = 0; i < NEIGHBOR_DELTAS.length; i++) {
+            int nx = x + NEIGHBOR_DELTAS[i][0];
+            int ny = y + NEIGHBOR_DELTAS[i][1];
             if (isWalkable(nx, ny, cm)) {
                 neighbors.add(new Position(nx, ny));
             }
@@ -187,27 +366,122 @@ public class CityMap {
     public int tileToPixelY(int ty) { return ty * tileHeight; }
 
     // --- CollisionMap (پیش‌فرض + پروفایل‌ها) ---
-    public void setCollisionMap(CollisionMap cm) { this.collisionMap = cm; }
+    public void setCollisionMap(CollisionMap cm) {
+        CollisionMap old = this.collisionMap;
+        this.collisionMap = cm;
+        if (old == cm) return;
+        detachCollision(old);
+        if (cm != null) cm.addChangeListener(collisionForwarder);
+        fireMapReset();
+    }
+
     public CollisionMap getCollisionMap() { return collisionMap; }
 
     public void setCollisionProfile(String name, CollisionMap cm) {
         if (name == null) return;
-        if (cm == null) collisionProfiles.remove(name);
-        else collisionProfiles.put(name, cm);
+        CollisionMap old = (cm == null) ? collisionProfiles.remove(name) : collisionProfiles.put(name, cm);
+        if (old == cm) return;
+        detachCollision(old);
+        if (cm != null) cm.addChangeListener(collisionForwarder);
+        fireMapReset();
+    }
+
+    /** شنوندهٔ نقشه را فقط وقتی جدا می‌کند که cm دیگر جایی (پیش‌فرض/پروفایل) استفاده نشود. */
+    private void detachCollision(CollisionMap cm) {
+        if (cm == null || cm == collisionMap || collisionProfiles.containsValue(cm)) return;
+        cm.removeChangeListener(collisionForwarder);
+    }
+
+    // --- شنونده‌های تغییر ---
+    public void addChangeListener(MapChangeListener l) {
+        if (l != null && !changeListeners.contains(l)) changeListeners.add(l);
+    }
+
+    public void removeChangeListener(MapChangeListener l) {
+        changeListeners.remove(l);
+    }
+
+    /** دفترچهٔ تغییرات نقشه (پیش از شنونده‌ها به‌روز می‌شود). */
+    public MapChangeJournal getChangeJournal() { return journal; }
+
+    /** نسخهٔ فعلی نقشه؛ با هر تغییر تایل یا reset جلو می‌رود. */
+    public long getVersion() { return journal.getVersion(); }
+
+    private void fireTileChanged(int x, int y, int kind) {
+        journal.record(x, y, kind);
+        if (changeListeners.isEmpty()) return;
+        for (int i = 0; i < changeListeners.size(); i++) {
+            changeListeners.get(i).onTileChanged(this, x, y, kind);
+        }
+    }
+
+    private void fireMapReset() {
+        journal.recordReset();
+        for (int i = 0; i < changeListeners.size(); i++) {
+            changeListeners.get(i).onMapReset(this);
+        }
     }
 
     public CollisionMap getCollisionProfile(String name) {
         return collisionProfiles.get(name);
     }
 
+    // --- دسترسی‌پذیری (مؤلفه‌های همبند) ---
+
+    /**
+     * برچسب مؤلفه‌های مشترک برای یک پروفایل؛ بار اول ساخته می‌شود و بعد خودکار به‌روز می‌ماند.
+     * کلید خودِ شیء پروفایل است؛ پروفایل‌های ساخته‌شده با factory را نگه دار و دوباره استفاده کن.
+     */
+    public synchronized ComponentLabels getComponentLabels(MovementProfile profile) {
+        MovementProfile p = (profile != null) ? profile : MovementProfile.DEFAULT;
+        ComponentLabels labels = componentLabels.get(p);
+        if (labels == null) {
+            labels = new ComponentLabels(this, p);
+            componentLabels.put(p, labels);
+        }
+        return labels;
+    }
+
+    /**
+     * ماسک همسایه‌های قابل عبور برای یک پروفایل (ساخت در اولین درخواست، بعد به‌روزرسانی خودکار).
+     * کلید خودِ شیء پروفایل است (مثل getComponentLabels).
+     */
+    public synchronized AdjacencyMasks getAdjacencyMasks(MovementProfile profile) {
+        MovementProfile p = (profile != null) ? profile : MovementProfile.DEFAULT;
+        AdjacencyMasks m = adjacencyMasks.get(p);
+        if (m == null) {
+            m = new AdjacencyMasks(this, p);
+            adjacencyMasks.put(p, m);
+        }
+        return m;
+    }
+
+    /** پیش‌محاسبهٔ برچسب‌ها (معمولاً بلافاصله بعد از بارگذاری نقشه). */
+    public void precomputeComponentLabels(MovementProfile... profiles) {
+        if (profiles == null) return;
+        for (int i = 0; i < profiles.length; i++) {
+            getComponentLabels(profiles[i]).getComponentCount();
+        }
+    }
+
+    /** آیا با پروفایل داده‌شده از from به to راهی هست؟ (O(1)، بدون درنظرگرفتن اشغال) */
+    public boolean isReachable(Position from, Position to, MovementProfile profile) {
+        return getComponentLabels(profile).isReachable(from, to);
+    }
+
     // --- لایه‌های دودویی TMX ---
+    /** ثبت/حذف لایه؛ چون پروفایل‌ها (مثل ROAD_NETWORK روی RoadMask) از آن می‌خوانند، reset اعلام می‌شود. */
     public void setBinaryLayer(String name, boolean[][] grid) {
         if (name == null) return;
+        if ("HospitalMask".equals(name)) {
+            synchronized (this) { hospitalTileIndex = null; }
+        }
         if (grid == null) {
-            binaryLayers.remove(name);
+            if (binaryLayers.remove(name) != null) fireMapReset();
             return;
         }
         binaryLayers.put(name, grid);
+        fireMapReset();
     }
 
     /** فقط برای دسترسی عمومی (مثلاً در لودر). */
@@ -228,8 +502,7 @@ public class CityMap {
         if (!isValid(x, y)) return false;
         boolean[][] m = binaryLayers.get("RoadMask");
         if (m != null) return m[y][x];
-        Cell c = getCell(x, y);
-        return c != null && c.getType() == Cell.Type.ROAD;
+        return getCellType(x, y) == Cell.Type.ROAD;
     }
 
     /** true اگر (x,y) در HospitalMask علامت خورده باشد. */
@@ -255,18 +528,67 @@ public class CityMap {
     public void registerHospital(Hospital h) {
         if (h == null) return;
         hospitals.add(h);
+        hospitalsChanged();
+    }
+
+    /** ثبت یک‌جای چند بیمارستان (میدان‌ها فقط یک بار کثیف می‌شوند). */
+    public void registerHospitals(List<Hospital> list) {
+        if (list == null) return;
+        for (int i = 0; i < list.size(); i++) {
+            Hospital h = list.get(i);
+            if (h != null) hospitals.add(h);
+        }
+        hospitalsChanged();
     }
 
+    /** فهرست زنده؛ برای ثبت از registerHospital استفاده کن تا میدان‌های نزدیک‌ترین بیمارستان به‌روز شوند. */
     public List<Hospital> getHospitals() {
         return hospitals;
     }
 
+    /**
+     * میدان «نزدیک‌ترین بیمارستان ثبت‌شده» برای یک پروفایل: برچسب هر تایل = اندیس نزدیک‌ترین بیمارستان
+     * با فاصلهٔ واقعی (جاده‌ای/پیاده طبق پروفایل). بار اول ساخته می‌شود، با تغییر تایل‌ها ترمیم و فقط با
+     * ثبت بیمارستان بازسازی می‌شود؛ پس هر پرس‌وجو خواندن از آرایه است.
+     * کلید خودِ شیء پروفایل است (مثل getComponentLabels).
+     */
+    public HospitalDistanceField getHospitalField(MovementProfile profile) {
+        MovementProfile p = (profile != null) ? profile : MovementProfile.DEFAULT;
+        synchronized (hospitalFields) {
+            HospitalDistanceField f = hospitalFields.get(p);
+            if (f == null) {
+                f = new HospitalDistanceField(this, hospitals, p);
+                hospitalFields.put(p, f);
+            }
+            return f;
+        }
+    }
+
+    /** پیش‌محاسبهٔ میدان‌های نزدیک‌ترین بیمارستان (معمولاً بعد از بارگذاری نقشه و ثبت بیمارستان‌ها). */
+    public void precomputeHospitalFields(MovementProfile... profiles) {
+        if (profiles == null) return;
+        for (int i = 0; i < profiles.length; i++) {
+            getHospitalField(profiles[i]).distanceAt(0, 0);
+        }
+    }
+
+    private void hospitalsChanged() {
+        HospitalDistanceField[] fields;
+        synchronized (hospitalFields) {
+            fields = hospitalFields.values().toArray(new HospitalDistanceField[hospitalFields.size()]);
+        }
+        for (int i = 0; i < fields.length; i++) fields[i].setHospitals(hospitals);
+    }
+
     // --- نزدیک‌ترین بیمارستان (شیء)؛ اگر Hospital(Position) موجود نباشد، reflection تلاش می‌کند ---
-    public Hospital findNearestHospital(Position from) {
+    /** نزدیک‌ترین بیمارستان با فاصلهٔ واقعی طبق profile؛ اگر راهی نبود، نزدیک‌ترین منهتنی. */
+    public Hospital findNearestHospital(Position from, MovementProfile profile) {
         if (from == null) return null;
 
-        // 1) اگر لیست بیمارستان ثبت شده بود، همان را مرجع بگیر
+        // 1) اگر لیست بیمارستان ثبت شده بود، همان را مرجع بگیر (برچسب میدان؛ بعد منهتنی)
         if (!hospitals.isEmpty()) {
+            Hospital byField = getHospitalField(profile).nearestHospital(from);
+            if (byField != null) return byField;
             Hospital bestH = null;
             int bestD = Integer.MAX_VALUE;
             for (int i = 0; i < hospitals.size(); i++) {
@@ -300,31 +622,32 @@ public class CityMap {
     }
 
     /**
-     * نزدیک‌ترین تایل بیمارستان به نقطه‌ی from (بر اساس HospitalMask).
+     * نزدیک‌ترین تایل بیمارستان به نقطه‌ی from (بر اساس HospitalMask، فاصلهٔ منهتنی).
      * اگر HospitalMask وجود نداشته باشد یا خالی باشد → null.
+     * تایل‌های ماسک یک بار در SpatialHash ثبت می‌شوند و پرس‌وجو فقط سطل‌های اطراف from را می‌گردد.
      */
     public Position findNearestHospitalTile(Position from) {
         if (from == null) return null;
+        SpatialHash<Position> index = hospitalTileIndex();
+        if (index == null) return null;
+        Position p = index.nearest(from, null);
+        return (p != null) ? new Position(p.getX(), p.getY()) : null;
+    }
+
+    private synchronized SpatialHash<Position> hospitalTileIndex() {
+        if (hospitalTileIndex != null) return hospitalTileIndex;
         boolean[][] hm = binaryLayers.get("HospitalMask");
         if (hm == null) return null;
-
-        int bestD = Integer.MAX_VALUE;
-        Position best = null;
-
-        for (int y = 0; y < height; y++) {
+        SpatialHash<Position> index = new SpatialHash<Position>();
+        for (int y = 0; y < height && y < hm.length; y++) {
             boolean[] row = hm[y];
             if (row == null) continue;
-            for (int x = 0; x < width; x++) {
-                if (!row[x]) continue;
-                Position p = new Position(x, y);
-                int d = manhattan(from, p);
-                if (d < bestD) {
-                    bestD = d;
-                    best = p;
-                }
+            for (int x = 0; x < width && x < row.length; x++) {
+                if (row[x]) index.put(new Position(x, y), x, y);
             }
         }
-        return best;
+        hospitalTileIndex = index;
+        return index;
     }
 
     private int manhattan(Position a, Position b) {
@@ -333,12 +656,21 @@ public class CityMap {
 
     // --- مدیریت نقشه ---
     public void clear() {
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                grid[y][x] = null;
+        if (packed != null) {
+            packed.clear();
+        } else if (chunked != null) {
+            chunked.clear();
+        } else {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    grid[y][x] = null;
+                }
             }
+            occupancy.clear();
         }
         hospitals.clear();
+        hospitalsChanged();
+        fireMapReset();
         // عمداً لایه‌های دودویی و خصوصیات را پاک نمی‌کنیم مگر اینکه خودت بخواهی
     }
 
@@ -347,4 +679,16 @@ public class CityMap {
     public int getHeight() { return height; }
     public int getTileWidth() { return tileWidth; }
     public int getTileHeight() { return tileHeight; }
+
+    /**
+     * مختصات TMX تایلِ (0,0) این نقشه؛ در نقشه‌های بی‌کران (چانک‌های با مختصات منفی) لودر گوشهٔ
+     * بالا-چپ را به (0,0) منتقل می‌کند و جابه‌جایی را این‌جا ثبت می‌کند (برای تبدیل مختصات لایهٔ اشیا).
+     */
+    public int getOriginX() { return originX; }
+    public int getOriginY() { return originY; }
+
+    public void setOrigin(int originX, int originY) {
+        this.originX = originX;
+        this.originY = originY;
+    }
 }
@@ -0,0 +1,315 @@
+package map;
+
+import util.Position;
+
+import java.util.Arrays;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * برچسب مؤلفه‌های همبند (4-همسایگی) روی بخش ایستای یک MovementProfile (isPassable).
+ * دو تایل فقط وقتی به هم راه دارند که برچسب یکسان داشته باشند؛ پس پیش از هر جست‌وجو
+ * می‌توان هدف دسترسی‌ناپذیر را در O(1) رد کرد، به‌جای پیمودن کل ناحیهٔ قابل دسترس.
+ *
+ * - اشغال (OCCUPANCY) نادیده گرفته می‌شود: برچسب یکسان شرط لازم است، نه کافی.
+ * - باز شدن یک تایل: مؤلفه‌های همسایه ادغام می‌شوند (مؤلفهٔ کوچک‌تر برچسب بزرگ‌تر را می‌گیرد).
+ * - بسته شدن یک تایل: فقط مؤلفهٔ همان تایل از همسایه‌هایش دوباره پیمایش می‌شود (تقسیم احتمالی).
+ * - reset نقشه: برچسب‌ها «کثیف» می‌شوند و در اولین پرس‌وجو کامل ساخته می‌شوند.
+ *
+ * نمونهٔ مشترک هر پروفایل را از CityMap.getComponentLabels بگیر.
+ */
+public class ComponentLabels implements MapChangeListener {
+
+    /** برچسب تایل غیرقابل عبور */
+    public static final int NONE = -1;
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final int width;
+    private final int height;
+
+    private final int[] label;
+    private int[] size = new int[16];
+    private int nextLabel = 0;
+    private int components = 0;
+
+    // پیمایش (مهر نسل به‌جای پاک‌کردن آرایه)
+    private final int[] queue;
+    private final int[] seen;
+    private int stamp = 0;
+
+    private boolean dirty = true;
+    private int rebuilds = 0;
+
+    public ComponentLabels(CityMap cityMap, MovementProfile profile) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        int n = width * height;
+        this.label = new int[n];
+        this.queue = new int[n];
+        this.seen = new int[n];
+        cityMap.addChangeListener(this);
+        rebuild();
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    /** جداشدن از نقشه */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    /** تعداد ساخت کامل (برای آمار) */
+    public synchronized int getRebuildCount() { return rebuilds; }
+
+    /** تعداد مؤلفه‌های فعلی */
+    public synchronized int getComponentCount() {
+        ensureFresh();
+        return components;
+    }
+
+    /** برچسب تایل؛ NONE اگر غیرقابل عبور یا خارج نقشه باشد. */
+    public synchronized int labelAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return NONE;
+        ensureFresh();
+        return label[y * width + x];
+    }
+
+    /** تعداد تایل‌های مؤلفهٔ شامل (x,y)؛ 0 اگر غیرقابل عبور است. */
+    public synchronized int componentSizeAt(int x, int y) {
+        int l = labelAt(x, y);
+        return (l == NONE) ? 0 : size[l];
+    }
+
+    /**
+     * آیا از from می‌توان به to رسید؟ (بدون درنظرگرفتن اشغال)
+     * from مثل جست‌وجوها بررسی نمی‌شود: اگر خودش غیرقابل عبور باشد، برچسب همسایه‌هایش ملاک است.
+     */
+    public synchronized boolean isReachable(int fx, int fy, int tx, int ty) {
+        if (fx < 0 || fy < 0 || fx >= width || fy >= height) return false;
+        if (fx == tx && fy == ty) return true;
+        int lt = labelAt(tx, ty);
+        if (lt == NONE) return false;
+        int lf = label[fy * width + fx];
+        if (lf != NONE) return lf == lt;
+        for (int k = 0; k < 4; k++) {
+            int nx = fx + DX[k], ny = fy + DY[k];
+            if (nx < 0 || ny < 0 || nx >= width || ny >= height) continue;
+            if (label[ny * width + nx] == lt) return true;
+        }
+        return false;
+    }
+
+    public boolean isReachable(Position from, Position to) {
+        if (from == null || to == null) return false;
+        return isReachable(from.getX(), from.getY(), to.getX(), to.getY());
+    }
+
+    /**
+     * آیا از from می‌توان به یکی از همسایه‌های target رسید؟
+     * (برای هدف‌هایی که خودشان روی آوار/ساختمان‌اند و عامل کنارشان می‌ایستد.)
+     */
+    public synchronized boolean canReachAdjacent(Position from, Position target) {
+        if (from == null || target == null) return false;
+        int tx = target.getX(), ty = target.getY();
+        if (Math.abs(from.getX() - tx) + Math.abs(from.getY() - ty) <= 1) return true;
+        for (int k = 0; k < 4; k++) {
+            if (isReachable(from.getX(), from.getY(), tx + DX[k], ty + DY[k])) return true;
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------
+    // ساخت کامل
+    // ------------------------------------------------------------
+
+    private void ensureFresh() {
+        if (dirty) rebuild();
+    }
+
+    private void rebuild() {
+        Arrays.fill(label, NONE);
+        nextLabel = 0;
+        components = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (label[i] != NONE || !profile.isPassable(cityMap, x, y)) continue;
+                int l = newLabel();
+                size[l] = floodPassable(i, l);
+            }
+        }
+        dirty = false;
+        rebuilds++;
+    }
+
+    /** BFS روی تایل‌های قابل عبور بی‌برچسب از seed؛ تعداد تایل‌ها را برمی‌گرداند. */
+    private int floodPassable(int seed, int l) {
+        int head = 0, tail = 0;
+        label[seed] = l;
+        queue[tail++] = seed;
+        while (head < tail) {
+            int u = queue[head++];
+            int ux = u % width, uy = u / width;
+            for (int k = 0; k < 4; k++) {
+                int vx = ux + DX[k], vy = uy + DY[k];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (label[v] != NONE || !profile.isPassable(cityMap, vx, vy)) continue;
+                label[v] = l;
+                queue[tail++] = v;
+            }
+        }
+        return tail;
+    }
+
+    /** BFS روی تایل‌های با برچسب from از seed و جایگزینی با to؛ تعداد تایل‌ها را برمی‌گرداند. */
+    private int relabel(int seed, int from, int to) {
+        int head = 0, tail = 0;
+        label[seed] = to;
+        queue[tail++] = seed;
+        while (head < tail) {
+            int u = queue[head++];
+            int ux = u % width, uy = u / width;
+            for (int k = 0; k < 4; k++) {
+                int vx = ux + DX[k], vy = uy + DY[k];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (label[v] != from) continue;
+                label[v] = to;
+                queue[tail++] = v;
+            }
+        }
+        return tail;
+    }
+
+    private int newLabel() {
+        if (nextLabel == size.length) size = Arrays.copyOf(size, size.length * 2);
+        size[nextLabel] = 0;
+        components++;
+        return nextLabel++;
+    }
+
+    // ------------------------------------------------------------
+    // به‌روزرسانی افزایشی
+    // ------------------------------------------------------------
+
+    private void tileChanged(int x, int y) {
+        int i = y * width + x;
+        boolean now = profile.isPassable(cityMap, x, y);
+        boolean was = label[i] != NONE;
+        if (now == was) return;
+        if (now) opened(x, y, i);
+        else closed(x, y, i);
+        // برچسب‌ها هرگز بازیافت نمی‌شوند؛ اگر خیلی پراکنده شدند از نو بساز
+        if (nextLabel > 4 * (components + 16)) dirty = true;
+    }
+
+    /** تایل قابل عبور شد: به بزرگ‌ترین مؤلفهٔ همسایه بپیوندد و بقیه در آن ادغام شوند. */
+    private void opened(int x, int y, int i) {
+        int best = NONE;
+        for (int k = 0; k < 4; k++) {
+            int l = neighbourLabel(x + DX[k], y + DY[k]);
+            if (l != NONE && (best == NONE || size[l] > size[best])) best = l;
+        }
+        if (best == NONE) {
+            best = newLabel();
+        }
+        label[i] = best;
+        size[best]++;
+        for (int k = 0; k < 4; k++) {
+            int nx = x + DX[k], ny = y + DY[k];
+            int l = neighbourLabel(nx, ny);
+            if (l == NONE || l == best) continue;
+            size[best] += relabel(ny * width + nx, l, best);
+            size[l] = 0;
+            components--;
+        }
+    }
+
+    /** تایل بسته شد: مؤلفهٔ آن ممکن است تکه شود؛ از هر همسایه یک پیمایش جدا. */
+    private void closed(int x, int y, int i) {
+        int old = label[i];
+        label[i] = NONE;
+        size[old]--;
+        if (size[old] == 0) {
+            components--;
+            return;
+        }
+        // همسایه‌هایی که پیمایش قبلی به آن‌ها رسیده، دوباره شروع نمی‌شوند
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        int[] seeds = new int[4];
+        int seedCount = 0;
+        for (int k = 0; k < 4; k++) {
+            int nx = x + DX[k], ny = y + DY[k];
+            if (neighbourLabel(nx, ny) == old) seeds[seedCount++] = ny * width + nx;
+        }
+        if (seedCount <= 1) return; // بن‌بست یا انتهای راهرو: تقسیمی رخ نمی‌دهد
+
+        boolean first = true;
+        for (int s = 0; s < seedCount; s++) {
+            int seed = seeds[s];
+            if (seen[seed] == stamp || label[seed] != old) continue;
+            if (first) {
+                // پیمایش اول برچسب قبلی را نگه می‌دارد؛ فقط علامت می‌زند
+                size[old] = mark(seed, old);
+                first = false;
+            } else {
+                int l = newLabel();
+                size[l] = relabel(seed, old, l);
+            }
+        }
+    }
+
+    /** BFS روی برچسب l از seed فقط با علامت‌گذاری seen. */
+    private int mark(int seed, int l) {
+        int head = 0, tail = 0;
+        seen[seed] = stamp;
+        queue[tail++] = seed;
+        while (head < tail) {
+            int u = queue[head++];
+            int ux = u % width, uy = u / width;
+            for (int k = 0; k < 4; k++) {
+                int vx = ux + DX[k], vy = uy + DY[k];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (label[v] != l || seen[v] == stamp) continue;
+                seen[v] = stamp;
+                queue[tail++] = v;
+            }
+        }
+        return tail;
+    }
+
+    private int neighbourLabel(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return NONE;
+        return label[y * width + x];
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public synchronized void onTileChanged(CityMap map, int x, int y, int kind) {
+        if ((kind & (CELL | COLLISION)) == 0) return; // اشغال روی برچسب‌ها اثری ندارد
+        if (dirty || x < 0 || y < 0 || x >= width || y >= height) return;
+        tileChanged(x, y);
+    }
+
+    @Override
+    public synchronized void onMapReset(CityMap map) {
+        dirty = true;
+    }
+}
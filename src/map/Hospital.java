@@ -7,7 +7,7 @@ import util.Position;
  * لایه: Domain Layer — map
  * --------------------
  * نمایندهٔ یک بیمارستان روی نقشه + ابزارهای کمکی تحویل مجروح:
- * - یافتن نزدیک‌ترین بیمارستان نسبت به یک نقطه
+ * - یافتن نزدیک‌ترین بیمارستان نسبت به یک نقطه (منهتنی یا با HospitalDistanceField)
  * - تشخیص برد تحویل (پیش‌فرض: مجاورت یک‌تایل)
  * - انتخاب بهترین تایل مجاور برای تحویل روی جاده
  * بدون استفاده از لامبدا و ریفلکشن.
@@ -149,6 +149,18 @@ public class Hospital {
         return best;
     }
 
+    /**
+     * نزدیک‌ترین بیمارستان با فاصلهٔ جاده‌ای واقعی (از روی HospitalDistanceField).
+     * اگر field null باشد یا از from به هیچ بیمارستانی راه نباشد، به فاصلهٔ منهتنی برمی‌گردد.
+     */
+    public static Hospital findNearest(java.util.List<Hospital> list, Position from, HospitalDistanceField field) {
+        if (field != null && from != null) {
+            Hospital h = field.nearestHospital(from);
+            if (h != null) return h;
+        }
+        return findNearest(list, from);
+    }
+
     // -------------------- برابری/نمایش --------------------
     @Override
     public String toString() {
@@ -0,0 +1,398 @@
+package map;
+
+import util.CollisionMap;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * میدان فاصله تا بیمارستان‌ها: BFS چندمبدئی از همهٔ تایل‌های مجاورِ بیمارستان که طبق
+ * پروفایل حرکت قابل عبورند (برای آمبولانس: MovementProfile.roadOnly).
+ * - dist[i]  = کمترین تعداد قدم از تایل i تا نزدیک‌ترین تایل تحویل (UNREACHABLE اگر راهی نیست)
+ * - label[i] = اندیس همان بیمارستان در فهرست (یعنی نزدیک‌ترین بیمارستان با فاصلهٔ جاده‌ای واقعی)
+ * بیمارستان‌ها جابه‌جا نمی‌شوند؛ پس آمبولانس فقط در جهت کاهش dist قدم برمی‌دارد.
+ *
+ * به‌روزرسانی افزایشی: با MapChangeListener تغییر هر تایل فقط ناحیهٔ وابسته به آن
+ * (تایل‌هایی که فاصله‌شان از همین تایل می‌گذرد) دوباره محاسبه می‌شود. تغییرات انبوه
+ * (تعویض CollisionMap، fill، clear) میدان را کثیف می‌کند و در پرس‌وجوی بعدی بازسازی می‌شود.
+ * اشغال تایل‌ها به‌صورت پیش‌فرض در میدان اثر ندارد (فقط هنگام انتخاب قدم بعدی بررسی می‌شود)؛
+ * با respectOccupancy=true تایل اشغال‌شده مثل مانع حساب می‌شود.
+ * توجه: فقط تغییراتی دیده می‌شوند که از مسیر CityMap/CollisionMap انجام شوند (نه Cell.setOccupied مستقیم).
+ */
+public class HospitalDistanceField implements MapChangeListener {
+
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** ترتیب همسایه‌ها: پایین، چپ، راست، بالا (شکستن تساوی شیب میدان) */
+    private static final int[] DX = { 0, -1, 1, 0 };
+    private static final int[] DY = { 1, 0, 0, -1 };
+
+    private final CityMap map;
+    private final MovementProfile profile;
+    private final boolean respectOccupancy;
+    private final int width;
+    private final int height;
+
+    private Hospital[] hospitals = new Hospital[0];
+
+    private final int[] dist;
+    private final int[] label;
+    /** srcLabel[i] = اندیس بیمارستانی که تایل i مجاورش است (-1 اگر مجاور هیچ‌کدام نیست) */
+    private final int[] srcLabel;
+
+    // بافرهای ترمیم
+    private final int[] queue;
+    private final boolean[] inQueue;
+    private final int[] mark;
+    private int stamp = 0;
+
+    private boolean dirty = true;
+    private final List<CollisionMap> watched = new ArrayList<CollisionMap>();
+    private final CollisionMap.ChangeListener collisionListener = new CollisionMap.ChangeListener() {
+        @Override
+        public void onCollisionChanged(CollisionMap source, int x, int y) {
+            if (x < 0 || y < 0) markDirty();
+            else tileChanged(x, y);
+        }
+    };
+
+    // شمارنده‌ها (برای لاگ/پروفایلینگ)
+    private int rebuildCount = 0;
+    private int repairCount = 0;
+
+    public HospitalDistanceField(CityMap map, List<Hospital> hospitals, MovementProfile profile) {
+        this(map, hospitals, profile, false);
+    }
+
+    public HospitalDistanceField(CityMap map, List<Hospital> hospitals, MovementProfile profile, boolean respectOccupancy) {
+        if (map == null) throw new IllegalArgumentException("map is null");
+        this.map = map;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.respectOccupancy = respectOccupancy;
+        this.width = map.getWidth();
+        this.height = map.getHeight();
+        int n = width * height;
+        this.dist = new int[n];
+        this.label = new int[n];
+        this.srcLabel = new int[n];
+        this.queue = new int[Math.max(n, 1)];
+        this.inQueue = new boolean[n];
+        this.mark = new int[n];
+        setHospitals(hospitals);
+        map.addChangeListener(this);
+    }
+
+    // ------------------------------------------------------------
+    // پیکربندی
+    // ------------------------------------------------------------
+
+    /** تعویض فهرست بیمارستان‌ها (میدان در پرس‌وجوی بعدی بازسازی می‌شود). */
+    public synchronized void setHospitals(List<Hospital> list) {
+        ArrayList<Hospital> tmp = new ArrayList<Hospital>();
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                Hospital h = list.get(i);
+                if (h != null && h.getPosition() != null) tmp.add(h);
+            }
+        }
+        hospitals = tmp.toArray(new Hospital[tmp.size()]);
+
+        Arrays.fill(srcLabel, -1);
+        for (int k = 0; k < hospitals.length; k++) {
+            Position[] adj = hospitals[k].getAdjacentTiles();
+            for (int a = 0; a < adj.length; a++) {
+                int x = adj[a].getX(), y = adj[a].getY();
+                if (!map.isValid(x, y)) continue;
+                int i = y * width + x;
+                if (srcLabel[i] < 0) srcLabel[i] = k;
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * گوش‌دادن مستقیم به یک CollisionMap که از طریق CityMap ثبت نشده
+     * (مثلاً CollisionMap داخلیِ AgentController که در پروفایل استفاده شده).
+     */
+    public synchronized void watchCollisionMap(CollisionMap cm) {
+        if (cm == null || watched.contains(cm)) return;
+        watched.add(cm);
+        cm.addChangeListener(collisionListener);
+    }
+
+    /** جداشدن از نقشه و CollisionMapها. */
+    public synchronized void dispose() {
+        map.removeChangeListener(this);
+        for (int i = 0; i < watched.size(); i++) watched.get(i).removeChangeListener(collisionListener);
+        watched.clear();
+    }
+
+    public synchronized void markDirty() { dirty = true; }
+
+    public MovementProfile getProfile() { return profile; }
+    public int getRebuildCount() { return rebuildCount; }
+    public int getRepairCount() { return repairCount; }
+
+    // ------------------------------------------------------------
+    // پرس‌وجو
+    // ------------------------------------------------------------
+
+    /** فاصلهٔ واقعی (قدم) تا نزدیک‌ترین تایل تحویل؛ UNREACHABLE اگر راهی نیست. */
+    public synchronized int distanceAt(int x, int y) {
+        if (!map.isValid(x, y)) return UNREACHABLE;
+        ensureBuilt();
+        return dist[y * width + x];
+    }
+
+    /** نزدیک‌ترین بیمارستان با فاصلهٔ جاده‌ای؛ null اگر از این تایل به هیچ بیمارستانی راه نیست. */
+    public synchronized Hospital nearestHospital(Position from) {
+        if (from == null) return null;
+        int i = bestIndexAround(from.getX(), from.getY());
+        if (i < 0) return null;
+        int k = label[i];
+        return (k >= 0 && k < hospitals.length) ? hospitals[k] : null;
+    }
+
+    /**
+     * قدم بعدی در جهت کاهش فاصله (بدون اشغال).
+     * اگر خودِ from قابل عبور نباشد (مثلاً تایل فعلی اشغال/پیاده‌رو)، بهترین همسایهٔ دارای فاصله انتخاب می‌شود.
+     * null اگر قدمی وجود ندارد (رسیده‌ایم، راهی نیست یا همسایه‌های بهتر اشغال‌اند).
+     */
+    public synchronized Position nextStep(Position from) {
+        if (from == null || !map.isValid(from.getX(), from.getY())) return null;
+        ensureBuilt();
+        int i = stepFrom(from.getX(), from.getY(), true);
+        return (i < 0) ? null : new Position(i % width, i / width);
+    }
+
+    /**
+     * مسیر با پایین‌آمدن از شیب میدان تا تایل تحویل (بدون خودِ from؛ مثل خروجی BFS).
+     * - لیست خالی: همین حالا روی تایل تحویل هستیم.
+     * - null: راهی نیست یا (با avoidOccupied) همهٔ قدم‌های بهتر در جایی از مسیر اشغال‌اند.
+     */
+    public synchronized List<Position> pathFrom(Position from, boolean avoidOccupied) {
+        if (from == null || !map.isValid(from.getX(), from.getY())) return null;
+        ensureBuilt();
+        int x = from.getX(), y = from.getY();
+        int cur = y * width + x;
+        if (dist[cur] == 0) return Collections.<Position>emptyList();
+
+        ArrayList<Position> out = new ArrayList<Position>();
+        while (true) {
+            int nx = stepFrom(cur % width, cur / width, avoidOccupied);
+            if (nx < 0) return null;
+            out.add(new Position(nx % width, nx / width));
+            if (dist[nx] == 0) return out;
+            cur = nx;
+        }
+    }
+
+    /** آیا تایل (x,y) همین حالا تایل تحویل (مبدأ میدان) است؟ */
+    public synchronized boolean isDeliveryTile(int x, int y) {
+        if (!map.isValid(x, y)) return false;
+        ensureBuilt();
+        return dist[y * width + x] == 0;
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public void onTileChanged(CityMap source, int x, int y, int kind) {
+        if (kind == OCCUPANCY && !respectOccupancy) return;
+        tileChanged(x, y);
+    }
+
+    @Override
+    public void onMapReset(CityMap source) {
+        markDirty();
+    }
+
+    private synchronized void tileChanged(int x, int y) {
+        if (dirty || !map.isValid(x, y)) return; // بازسازی کامل در پیش است
+        repair(y * width + x);
+    }
+
+    // ------------------------------------------------------------
+    // ساخت و ترمیم
+    // ------------------------------------------------------------
+
+    private void ensureBuilt() {
+        if (dirty) rebuild();
+    }
+
+    /** BFS چندمبدئی کامل. */
+    private void rebuild() {
+        Arrays.fill(dist, UNREACHABLE);
+        Arrays.fill(label, -1);
+        Arrays.fill(inQueue, false);
+        int head = 0, tail = 0;
+        int n = width * height;
+        for (int i = 0; i < n; i++) {
+            if (srcLabel[i] >= 0 && passable(i)) {
+                dist[i] = 0;
+                label[i] = srcLabel[i];
+                queue[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            int u = queue[head++];
+            int ux = u % width, uy = u / width;
+            int nd = dist[u] + 1;
+            for (int k = 0; k < 4; k++) {
+                int vx = ux + DX[k], vy = uy + DY[k];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (dist[v] != UNREACHABLE || !passable(v)) continue;
+                dist[v] = nd;
+                label[v] = label[u];
+                queue[tail++] = v;
+            }
+        }
+        dirty = false;
+        rebuildCount++;
+    }
+
+    /**
+     * ترمیم پس از تغییر تایل i:
+     * 1) تایل‌هایی که فاصله‌شان ممکن است از i گذشته باشد (زنجیرهٔ dist+1) بی‌اعتبار می‌شوند.
+     * 2) هر تایل بی‌اعتبار از همسایه‌های سالمش مقدار اولیه می‌گیرد.
+     * 3) انتشار FIFO تا وقتی بهبودی هست (شامل حالت بازشدن یک تایل بسته).
+     */
+    private void repair(int i) {
+        repairCount++;
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+        final int n = width * height;
+
+        // 1) ناحیهٔ وابسته
+        int cnt = 0;
+        queue[cnt++] = i;
+        mark[i] = stamp;
+        if (dist[i] != UNREACHABLE) {
+            int head = 0;
+            while (head < cnt) {
+                int u = queue[head++];
+                int ux = u % width, uy = u / width;
+                for (int k = 0; k < 4; k++) {
+                    int vx = ux + DX[k], vy = uy + DY[k];
+                    if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                    int v = vy * width + vx;
+                    if (mark[v] == stamp || dist[v] == UNREACHABLE) continue;
+                    if (dist[v] != dist[u] + 1) continue;
+                    mark[v] = stamp;
+                    queue[cnt++] = v;
+                }
+                if (cnt > (n >> 2)) { // ناحیهٔ بزرگ → بازسازی کامل ارزان‌تر است
+                    rebuild();
+                    return;
+                }
+            }
+        }
+
+        // 2) مقداردهی اولیه از مرز سالم
+        for (int a = 0; a < cnt; a++) {
+            int u = queue[a];
+            dist[u] = UNREACHABLE;
+            label[u] = -1;
+        }
+        for (int a = 0; a < cnt; a++) {
+            int u = queue[a];
+            if (!passable(u)) continue;
+            if (srcLabel[u] >= 0) {
+                dist[u] = 0;
+                label[u] = srcLabel[u];
+                continue;
+            }
+            int ux = u % width, uy = u / width;
+            for (int k = 0; k < 4; k++) {
+                int vx = ux + DX[k], vy = uy + DY[k];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (mark[v] == stamp || dist[v] == UNREACHABLE) continue;
+                if (dist[v] + 1 < dist[u]) {
+                    dist[u] = dist[v] + 1;
+                    label[u] = label[v];
+                }
+            }
+        }
+
+        // 3) انتشار (صف حلقوی؛ هر تایل حداکثر یک‌بار هم‌زمان داخل صف)
+        int head = 0, size = 0;
+        for (int a = 0; a < cnt; a++) {
+            int u = queue[a];
+            if (dist[u] == UNREACHABLE) continue;
+            queue[size++] = u; // size <= a+1 پس روی داده‌های خوانده‌نشده نمی‌نویسد
+            inQueue[u] = true;
+        }
+        int tail = size % queue.length;
+        while (size > 0) {
+            int u = queue[head];
+            head = (head + 1) % queue.length;
+            size--;
+            inQueue[u] = false;
+            int ux = u % width, uy = u / width;
+            int nd = dist[u] + 1;
+            for (int k = 0; k < 4; k++) {
+                int vx = ux + DX[k], vy = uy + DY[k];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (nd >= dist[v] || !passable(v)) continue;
+                dist[v] = nd;
+                label[v] = label[u];
+                if (!inQueue[v]) {
+                    inQueue[v] = true;
+                    queue[tail] = v;
+                    tail = (tail + 1) % queue.length;
+                    size++;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // کمکی‌ها
+    // ------------------------------------------------------------
+
+    private boolean passable(int i) {
+        int x = i % width, y = i / width;
+        if (!profile.isPassable(map, x, y)) return false;
+        return !respectOccupancy || !map.isOccupied(x, y);
+    }
+
+    /** همسایه‌ای با کمترین dist کمتر از dist(x,y)؛ -1 اگر نیست. */
+    private int stepFrom(int x, int y, boolean avoidOccupied) {
+        int cur = dist[y * width + x];
+        int best = -1;
+        int bestD = cur;
+        for (int k = 0; k < 4; k++) {
+            int vx = x + DX[k], vy = y + DY[k];
+            if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+            int v = vy * width + vx;
+            if (dist[v] >= bestD) continue;
+            if (avoidOccupied && map.isOccupied(vx, vy)) continue;
+            best = v;
+            bestD = dist[v];
+        }
+        return best;
+    }
+
+    /** خود تایل یا (اگر بی‌فاصله است) بهترین همسایهٔ دارای فاصله. */
+    private int bestIndexAround(int x, int y) {
+        if (!map.isValid(x, y)) return -1;
+        ensureBuilt();
+        int i = y * width + x;
+        if (dist[i] != UNREACHABLE) return i;
+        return stepFrom(x, y, false);
+    }
+}
@@ -0,0 +1,286 @@
+package map;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * دفترچهٔ تغییرات نقشه برای کش‌هایی که به‌جای شنیدن هر رویداد، هر وقت لازم شد «می‌پرسند».
+ * - version: شمارندهٔ یکنوا؛ هر تغییر تایل یا reset یکی جلو می‌برد.
+ * - مهر هر چانک (chunk×chunk تایل) به‌ازای هر نوع تغییر (OCCUPANCY / CELL / COLLISION):
+ *   نسخهٔ آخرین تغییر آن نوع در آن چانک؛ isDirty با آن فقط ناحیهٔ لازم را می‌سنجد.
+ * - حلقهٔ آخرین تغییرها: changesSince(v) مجموعهٔ تایل‌های تغییرکرده بعد از v را می‌دهد؛
+ *   اگر v قدیمی‌تر از ظرفیت حلقه یا قبل از یک reset باشد، نتیجه «کامل» است (باید کامل بازسازی شود).
+ *
+ * ثبت بدون قفل است (AtomicLong/AtomicLongArray)، چون CityMap از هر نخی (AI، Swing، برنامه‌ریزهای موازی)
+ * اشغال را تغییر می‌دهد. CityMap هر تغییر را پیش از صدا زدن MapChangeListenerها ثبت می‌کند،
+ * پس شنونده‌ها نسخهٔ تازه را می‌بینند.
+ */
+public final class MapChangeJournal {
+
+    /** اندازهٔ پیش‌فرض ضلع چانک (توان 2) */
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+    /** ظرفیت پیش‌فرض حلقهٔ تغییرها */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /** همهٔ انواع تغییر */
+    public static final int ALL = MapChangeListener.OCCUPANCY | MapChangeListener.CELL | MapChangeListener.COLLISION;
+    /** تغییرات ایستا (نوع سلول + برخورد)؛ کش‌هایی که اشغال برایشان مهم نیست */
+    public static final int TERRAIN = MapChangeListener.CELL | MapChangeListener.COLLISION;
+
+    private static final int KINDS = 3; // بیت‌های 1، 2، 4
+
+    private final int width;
+    private final int height;
+    private final int chunkShift;
+    private final int chunksX;
+    private final int chunksY;
+    private final int capacity;
+
+    private final AtomicLong version = new AtomicLong(0);
+    private final AtomicLong resetVersion = new AtomicLong(0);
+    private final AtomicLongArray kindVersion = new AtomicLongArray(KINDS);
+    /** [kind * chunkCount + chunk] */
+    private final AtomicLongArray chunkStamps;
+
+    /** حلقه: slotVersion[s] نسخهٔ ثبت‌شده در خانه، slotData[s] = (tile << 3) | kind */
+    private final AtomicLongArray slotVersion;
+    private final AtomicLongArray slotData;
+
+    public MapChangeJournal(int width, int height) {
+        this(width, height, DEFAULT_CHUNK_SIZE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param chunkSize ضلع چانک؛ به نزدیک‌ترین توان 2 بالا گرد می‌شود
+     * @param capacity  تعداد تغییرهایی که changesSince می‌تواند برگرداند
+     */
+    public MapChangeJournal(int width, int height, int chunkSize, int capacity) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+        int shift = 0;
+        while ((1 << shift) < Math.max(1, chunkSize)) shift++;
+        this.width = width;
+        this.height = height;
+        this.chunkShift = shift;
+        this.chunksX = ((width - 1) >> shift) + 1;
+        this.chunksY = ((height - 1) >> shift) + 1;
+        this.capacity = capacity;
+        this.chunkStamps = new AtomicLongArray(KINDS * chunksX * chunksY);
+        this.slotVersion = new AtomicLongArray(capacity);
+        this.slotData = new AtomicLongArray(capacity);
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getChunkSize() { return 1 << chunkShift; }
+    public int getChunksX() { return chunksX; }
+    public int getChunksY() { return chunksY; }
+    public int getCapacity() { return capacity; }
+
+    // ------------------------------------------------------------
+    // ثبت (از CityMap)
+    // ------------------------------------------------------------
+
+    /** ثبت تغییر تایل (x,y) از نوع kind (ترکیب بیت‌های MapChangeListener)؛ نسخهٔ جدید را برمی‌گرداند. */
+    public long record(int x, int y, int kind) {
+        long v = version.incrementAndGet();
+        int s = (int) (v % capacity);
+        slotData.set(s, ((long) (y * width + x) << 3) | (kind & ALL));
+        slotVersion.set(s, v); // انتشار بعد از داده؛ خواننده اول نسخه را می‌خواند
+        int chunk = (y >> chunkShift) * chunksX + (x >> chunkShift);
+        int chunkCount = chunksX * chunksY;
+        for (int k = 0; k < KINDS; k++) {
+            if ((kind & (1 << k)) == 0) continue;
+            raise(kindVersion, k, v);
+            raise(chunkStamps, k * chunkCount + chunk, v);
+        }
+        return v;
+    }
+
+    /** ثبت تغییر انبوه: همهٔ نسخه‌های قبلی باید کامل بازسازی شوند. */
+    public long recordReset() {
+        long v = version.incrementAndGet();
+        raise(resetVersion, v);
+        return v;
+    }
+
+    private static void raise(AtomicLongArray a, int i, long v) {
+        while (true) {
+            long cur = a.get(i);
+            if (cur >= v || a.compareAndSet(i, cur, v)) return;
+        }
+    }
+
+    private static void raise(AtomicLong a, long v) {
+        while (true) {
+            long cur = a.get();
+            if (cur >= v || a.compareAndSet(cur, v)) return;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // پرس‌وجو
+    // ------------------------------------------------------------
+
+    /** نسخهٔ فعلی (آخرین تغییر از هر نوع) */
+    public long getVersion() { return version.get(); }
+
+    /** نسخهٔ آخرین reset */
+    public long getResetVersion() { return resetVersion.get(); }
+
+    /** نسخهٔ آخرین تغییری که یکی از انواع kindMask را داشت (reset هم حساب می‌شود). */
+    public long getVersion(int kindMask) {
+        long v = resetVersion.get();
+        for (int k = 0; k < KINDS; k++) {
+            if ((kindMask & (1 << k)) != 0) v = Math.max(v, kindVersion.get(k));
+        }
+        return v;
+    }
+
+    /** مهر چانک (cx,cy) برای انواع kindMask (reset هم حساب می‌شود). */
+    public long getChunkStamp(int cx, int cy, int kindMask) {
+        long v = resetVersion.get();
+        if (cx < 0 || cy < 0 || cx >= chunksX || cy >= chunksY) return v;
+        int chunkCount = chunksX * chunksY;
+        int chunk = cy * chunksX + cx;
+        for (int k = 0; k < KINDS; k++) {
+            if ((kindMask & (1 << k)) != 0) v = Math.max(v, chunkStamps.get(k * chunkCount + chunk));
+        }
+        return v;
+    }
+
+    /** مهر چانکی که تایل (x,y) در آن است */
+    public long getTileStamp(int x, int y, int kindMask) {
+        return getChunkStamp(x >> chunkShift, y >> chunkShift, kindMask);
+    }
+
+    /** آیا در مستطیل تایلی [x0..x1]×[y0..y1] بعد از since تغییری از kindMask رخ داده؟ (دقت در حد چانک) */
+    public boolean isDirty(int x0, int y0, int x1, int y1, long since, int kindMask) {
+        if (resetVersion.get() > since) return true;
+        int cx0 = Math.max(0, Math.min(x0, x1)) >> chunkShift;
+        int cy0 = Math.max(0, Math.min(y0, y1)) >> chunkShift;
+        int cx1 = Math.min(width - 1, Math.max(x0, x1)) >> chunkShift;
+        int cy1 = Math.min(height - 1, Math.max(y0, y1)) >> chunkShift;
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                if (getChunkStamp(cx, cy, kindMask) > since) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * تایل‌هایی که بعد از نسخهٔ since با یکی از انواع kindMask تغییر کرده‌اند.
+     * نتیجه تا نسخهٔ ChangeSet.getVersion معتبر است؛ دفعهٔ بعد همان را به‌عنوان since بده.
+     */
+    public ChangeSet changesSince(long since, int kindMask) {
+        long now = version.get();
+        if (since >= now) return new ChangeSet(now, false, new int[0], 0, 0);
+        if (since < resetVersion.get() || now - since > capacity) return ChangeSet.full(now);
+
+        int[] tiles = new int[(int) Math.min(now - since, 64)];
+        int n = 0;
+        int kinds = 0;
+        long upTo = now;
+        for (long v = since + 1; v <= now; v++) {
+            int s = (int) (v % capacity);
+            long sv = slotVersion.get(s);
+            if (sv < v) { upTo = v - 1; break; }       // هنوز منتشر نشده؛ دفعهٔ بعد
+            long data = slotData.get(s);
+            if (sv > v || slotVersion.get(s) != v) return ChangeSet.full(now); // حلقه دور خورده
+            int kind = (int) (data & ALL);
+            if ((kind & kindMask) == 0) continue;
+            if (n == tiles.length) tiles = Arrays.copyOf(tiles, n * 2);
+            tiles[n++] = (int) (data >>> 3);
+            kinds |= kind;
+        }
+        if (resetVersion.get() > since) return ChangeSet.full(now);
+
+        Arrays.sort(tiles, 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || tiles[m - 1] != tiles[i]) tiles[m++] = tiles[i];
+        }
+        return new ChangeSet(upTo, false, tiles, m, kinds);
+    }
+
+    /** دنبال‌کنندهٔ نسخه برای یک کش: هر poll تغییرات از poll قبلی را می‌دهد. */
+    public Tracker newTracker(int kindMask) {
+        return new Tracker(this, kindMask);
+    }
+
+    // ------------------------------------------------------------
+    // انواع کمکی
+    // ------------------------------------------------------------
+
+    /** نتیجهٔ changesSince: تایل‌ها (اندیس y*width+x، مرتب و یکتا) یا «کامل». */
+    public static final class ChangeSet {
+        private final long version;
+        private final boolean full;
+        private final int[] tiles;
+        private final int size;
+        private final int kinds;
+
+        ChangeSet(long version, boolean full, int[] tiles, int size, int kinds) {
+            this.version = version;
+            this.full = full;
+            this.tiles = tiles;
+            this.size = size;
+            this.kinds = kinds;
+        }
+
+        static ChangeSet full(long version) {
+            return new ChangeSet(version, true, new int[0], 0, ALL);
+        }
+
+        /** نسخه‌ای که این مجموعه تا آن معتبر است */
+        public long getVersion() { return version; }
+        /** true یعنی فهرست تایل‌ها در دسترس نیست و باید همه‌چیز بازسازی شود */
+        public boolean isFull() { return full; }
+        public boolean isEmpty() { return !full && size == 0; }
+        public int size() { return size; }
+        /** اندیس خطی تایل i‌ام */
+        public int getTile(int i) { return tiles[i]; }
+        /** انواع تغییرهای دیده‌شده (ترکیب بیت‌ها) */
+        public int getKinds() { return kinds; }
+
+        @Override
+        public String toString() {
+            return full ? "ChangeSet{full, v=" + version + "}" : "ChangeSet{v=" + version + ", tiles=" + size + "}";
+        }
+    }
+
+    /** نسخهٔ دیده‌شدهٔ یک مصرف‌کننده؛ thread-safe نیست (هر کش مال خودش را دارد). */
+    public static final class Tracker {
+        private final MapChangeJournal journal;
+        private final int kindMask;
+        private long seen;
+
+        Tracker(MapChangeJournal journal, int kindMask) {
+            this.journal = journal;
+            this.kindMask = kindMask;
+            this.seen = -1; // اولین poll همیشه کامل است
+        }
+
+        /** تغییرات از poll قبلی (اولین بار: کامل) */
+        public ChangeSet poll() {
+            ChangeSet cs = (seen < 0) ? ChangeSet.full(journal.getVersion()) : journal.changesSince(seen, kindMask);
+            seen = cs.getVersion();
+            return cs;
+        }
+
+        /** آیا از poll قبلی چیزی از kindMask عوض شده؟ (بدون جلو بردن) */
+        public boolean hasChanges() {
+            return seen < 0 || journal.getVersion(kindMask) > seen;
+        }
+
+        public long getSeenVersion() { return seen; }
+
+        /** دفعهٔ بعد poll کامل برگرداند */
+        public void invalidate() { seen = -1; }
+    }
+}
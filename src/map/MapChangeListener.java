@@ -0,0 +1,26 @@
+package map;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * شنوندهٔ تغییرات نقشه. CityMap پس از هر تغییرِ واقعی (نه ست‌کردن مقدار تکراری) خبر می‌دهد.
+ * - onTileChanged: یک تایل عوض شده (نوع تغییر در kind)
+ * - onMapReset:    تغییر انبوه (تعویض CollisionMap/پروفایل، fill، clear) → بازسازی کامل
+ *
+ * فراخوانی روی همان Threadی انجام می‌شود که نقشه را تغییر داده (Timer یا نخ AI)؛
+ * پیاده‌سازی‌ها باید خودشان thread-safe باشند و کار سنگین انجام ندهند.
+ */
+public interface MapChangeListener {
+
+    /** اشغال/آزادشدن تایل (CityMap.setOccupied) */
+    int OCCUPANCY = 1;
+    /** تعویض سلول (CityMap.setCell) */
+    int CELL = 2;
+    /** تغییر عبورپذیری در CollisionMap پیش‌فرض یا یکی از پروفایل‌ها */
+    int COLLISION = 4;
+
+    void onTileChanged(CityMap map, int x, int y, int kind);
+
+    void onMapReset(CityMap map);
+}
@@ -40,15 +40,18 @@ public class MapInitializer {
      *  - پروفایل vehicle از CollisionLayer_Vehicle (0=راه، 1=بلاک)
      *  - پروفایل rescuer از ObstacleMask (+DebrisMask اگر blockDebris=true)
      *  - ورودی بیمارستان از KeyPoints/HospitalEntrance
+     * فایل فقط یک بار خوانده می‌شود (TmxModel) و همهٔ مراحل از همان مدل استفاده می‌کنند.
      */
     public static Result createFromTMX(String tmxPath, boolean blockDebris) throws Exception {
+        TmxModel model = TmxModel.load(tmxPath);
+
         // 1) رندر/گرید اصلی نقشه
-        CityMap cityMap = MapLoader.loadTMX(tmxPath);
+        CityMap cityMap = MapLoader.loadTMX(model);
 
         // 2) پروفایل‌های برخورد
-        CollisionMap colVehicle = safeBinary(tmxPath, "CollisionLayer_Vehicle"); // اجباری برای ماشین
-        CollisionMap colObstacle = safeBinary(tmxPath, "ObstacleMask");          // برای ریسکیور
-        CollisionMap colDebris   = safeBinary(tmxPath, "DebrisMask");            // اختیاری
+        CollisionMap colVehicle = safeBinary(model, "CollisionLayer_Vehicle"); // اجباری برای ماشین
+        CollisionMap colObstacle = safeBinary(model, "ObstacleMask");          // برای ریسکیور
+        CollisionMap colDebris   = safeBinary(model, "DebrisMask");            // اختیاری
 
         CollisionMap colRescuer = (blockDebris && colDebris != null)
                 ? CollisionMap.merge(List.of(colObstacle, colDebris))
@@ -61,17 +64,22 @@ public class MapInitializer {
             cityMap.setCollisionMap(colRescuer); // پیش‌فرض: رفتار قدیمی مبتنی بر ریسکیور
         }
 
+        // 2.1) برچسب مؤلفه‌های همبند برای رد O(1) اهداف دسترسی‌ناپذیر
+        cityMap.precomputeComponentLabels(MovementProfile.RESCUER, MovementProfile.VEHICLE);
+
         // 3) ورودی بیمارستان از KeyPoints
-        Position entrance = MapLoader.findObject(tmxPath, "KeyPoints", "HospitalEntrance");
+        Position entrance = MapLoader.findObject(model, "KeyPoints", "HospitalEntrance");
         int hx = (entrance != null) ? entrance.getX() : -1;
         int hy = (entrance != null) ? entrance.getY() : -1;
 
+        // نقشه و برخوردها ساخته شدند؛ مدل TMX دیگر در کش نگه داشته نمی‌شود
+        TmxModel.release(tmxPath);
         return new Result(cityMap, hx, hy);
     }
 
-    private static CollisionMap safeBinary(String tmxPath, String layer) {
+    private static CollisionMap safeBinary(TmxModel model, String layer) {
         try {
-            return CollisionMap.fromBinaryLayer(tmxPath, layer);
+            return CollisionMap.fromBinaryLayer(model, layer);
         } catch (Exception ex) {
             System.err.println("[MapInitializer] Missing or invalid layer: " + layer + " (" + ex.getMessage() + ")");
             return null;
@@ -2,12 +2,7 @@ package map;
 
 import util.AssetLoader;
 import util.Position;
-import org.w3c.dom.*;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -30,77 +25,76 @@ public final class MapLoader {
         int margin = 0;
         int spacing = 0;
         BufferedImage image;
-        Element tilesetElement;
+        TmxModel.Tileset def;
 
         boolean owns(int gid) { return gid >= firstGid && gid < firstGid + tileCount; }
 
+        /** یک تصویر به‌ازای هر gid (تایل‌های هم‌شناسه یک شیء تصویر مشترک می‌گیرند؛ جدول gid نقشهٔ فشرده به آن تکیه دارد) */
+        final Map<Integer, BufferedImage> subImages = new HashMap<Integer, BufferedImage>();
+
         BufferedImage getSubImage(int gid) {
+            BufferedImage cached = subImages.get(Integer.valueOf(gid));
+            if (cached != null) return cached;
             int localId = gid - firstGid;
             if (localId < 0 || localId >= tileCount) return null;
             int col = localId % columns;
             int row = localId / columns;
             int x = margin + col * (tileWidth + spacing);
             int y = margin + row * (tileHeight + spacing);
-            return image.getSubimage(x, y, tileWidth, tileHeight);
+            BufferedImage sub = image.getSubimage(x, y, tileWidth, tileHeight);
+            subImages.put(Integer.valueOf(gid), sub);
+            return sub;
         }
 
-        Element findTileElement(int localId) {
-            NodeList tileNodes = tilesetElement.getElementsByTagName("tile");
-            for (int i = 0; i < tileNodes.getLength(); i++) {
-                Element t = (Element) tileNodes.item(i);
-                String idAttr = t.getAttribute("id");
-                if (idAttr == null || idAttr.isEmpty()) continue;
-                if (Integer.parseInt(idAttr) == localId) return t;
-            }
-            return null;
+        /** تعریف &lt;tile&gt; با localId (از شاخص ساخته‌شده هنگام خواندن؛ O(1)) */
+        TmxModel.Tile findTile(int localId) {
+            return def.getTile(localId);
         }
     }
 
-    /** لود نقشهٔ اصلی (فقط لایهٔ تصویری اول) برای رندر پایه */
+    /**
+     * لود نقشهٔ اصلی (فقط لایهٔ تصویری اول) برای رندر پایه.
+     * فایل از طریق TmxModel.load یک بار خوانده می‌شود (CSV یا base64 با/بدون zlib/gzip) و بقیهٔ
+     * مصرف‌کننده‌های همان TMX مدل کش‌شده را می‌گیرند.
+     */
     public static CityMap loadTMX(String tmxPath) throws Exception {
-        File tmxFile = new File(tmxPath);
-        File baseDir = tmxFile.getParentFile();
-
-        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
-        DocumentBuilder b = f.newDocumentBuilder();
-        Document doc = b.parse(tmxFile);
-        Element mapElem = doc.getDocumentElement();
+        return loadTMX(TmxModel.load(tmxPath));
+    }
 
-        final int tileWidth  = Integer.parseInt(mapElem.getAttribute("tilewidth"));
-        final int tileHeight = Integer.parseInt(mapElem.getAttribute("tileheight"));
+    /** ساخت CityMap از مدل از پیش خوانده‌شده */
+    public static CityMap loadTMX(TmxModel doc) throws Exception {
+        final String tmxPath = doc.getFile().getPath();
+        final int tileWidth  = doc.getTileWidth();
+        final int tileHeight = doc.getTileHeight();
 
         // ---- tileset ها ----
-        NodeList tsNodes = mapElem.getElementsByTagName("tileset");
         List<TilesetInfo> tilesets = new ArrayList<TilesetInfo>();
 
-        for (int i = 0; i < tsNodes.getLength(); i++) {
-            Element ts = (Element) tsNodes.item(i);
+        for (int i = 0; i < doc.getTilesets().size(); i++) {
+            TmxModel.Tileset ts = doc.getTilesets().get(i);
+            if (ts.getImageSource() == null) continue;
 
             TilesetInfo info = new TilesetInfo();
-            info.tilesetElement = ts;
-            info.firstGid = Integer.parseInt(ts.getAttribute("firstgid"));
+            info.def = ts;
+            info.firstGid = ts.getFirstGid();
 
-            Element img = (Element) ts.getElementsByTagName("image").item(0);
-            if (img == null) continue;
-            String src = img.getAttribute("source");
-            File imgFile = new File(baseDir, src);
-            info.image = AssetLoader.requireImage(imgFile.getPath());
+            info.image = AssetLoader.requireImage(ts.getImagePath());
 
-            if (ts.hasAttribute("margin"))  info.margin  = parseIntOr(ts.getAttribute("margin"), 0);
-            if (ts.hasAttribute("spacing")) info.spacing = parseIntOr(ts.getAttribute("spacing"), 0);
+            info.margin  = ts.getMargin();
+            info.spacing = ts.getSpacing();
 
-            info.tileWidth  = ts.hasAttribute("tilewidth")  ? parseIntOr(ts.getAttribute("tilewidth"),  tileWidth)  : tileWidth;
-            info.tileHeight = ts.hasAttribute("tileheight") ? parseIntOr(ts.getAttribute("tileheight"), tileHeight) : tileHeight;
+            info.tileWidth  = (ts.getTileWidth()  > 0) ? ts.getTileWidth()  : tileWidth;
+            info.tileHeight = (ts.getTileHeight() > 0) ? ts.getTileHeight() : tileHeight;
 
-            if (ts.hasAttribute("columns")) {
-                info.columns = parseIntOr(ts.getAttribute("columns"), 1);
+            if (ts.getColumns() >= 0) {
+                info.columns = ts.getColumns();
             } else {
                 int imgW = info.image.getWidth();
                 info.columns = Math.max(1, (imgW - info.margin + info.spacing) / (info.tileWidth + info.spacing));
             }
 
-            if (ts.hasAttribute("tilecount")) {
-                info.tileCount = parseIntOr(ts.getAttribute("tilecount"), 0);
+            if (ts.getTileCount() >= 0) {
+                info.tileCount = ts.getTileCount();
             } else {
                 int imgH = info.image.getHeight();
                 int rows = Math.max(1, (imgH - info.margin + info.spacing) / (info.tileHeight + info.spacing));
@@ -111,93 +105,134 @@ public final class MapLoader {
         }
 
         // ---- فقط لایهٔ اول تصویری ----
-        Element layer = (Element) mapElem.getElementsByTagName("layer").item(0);
-        int width  = Integer.parseInt(layer.getAttribute("width"));
-        int height = Integer.parseInt(layer.getAttribute("height"));
-
-        String data = layer.getElementsByTagName("data").item(0).getTextContent().trim();
-        String[] tokens = data.split(",");
-
-        CityMap cityMap = new CityMap(width, height, tileWidth, tileHeight);
-
-        // ---- پر کردن نقشه ----
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                String tok = tokens[y * width + x].trim();
-                if (tok.isEmpty()) continue;
-
-                long raw = Long.parseUnsignedLong(tok);
-                int gid = (int) (raw & GID_MASK);
-                if (gid == 0) continue; // خانه خالی
-
-                // tileset مالک
-                TilesetInfo owner = null;
-                for (int i = 0; i < tilesets.size(); i++) {
-                    TilesetInfo ts = tilesets.get(i);
-                    if (ts.owns(gid)) { owner = ts; break; }
-                }
-                if (owner == null) continue;
+        if (doc.getLayers().isEmpty()) throw new IllegalStateException("TMX has no tile layer: " + tmxPath);
+        TmxModel.Layer layer = doc.getLayers().get(0);
+        boolean infinite = doc.isInfinite() || layer.isChunked();
+
+        // نوع/تصویر هر gid فقط یک بار حل می‌شود (نه به‌ازای هر تایل)
+        TileResolver resolver = new TileResolver(tilesets);
+
+        if (!infinite) {
+            int width  = layer.getWidth();
+            int height = layer.getHeight();
+            CityMap cityMap = CityMap.create(width, height, tileWidth, tileHeight);
+            fillFromGids(cityMap, resolver, layer.gids, 0, 0, width, height);
+            return cityMap;
+        }
 
-                BufferedImage tileImage = owner.getSubImage(gid);
+        // ---- نقشهٔ بی‌کران: محدوده از روی <chunk>ها؛ گوشهٔ بالا-چپ به (0,0) منتقل می‌شود ----
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        List<TmxModel.Chunk> chunks = layer.getChunks();
+        for (int i = 0; i < chunks.size(); i++) {
+            TmxModel.Chunk ch = chunks.get(i);
+            if (ch.width <= 0 || ch.height <= 0) continue;
+            minX = Math.min(minX, ch.x);
+            minY = Math.min(minY, ch.y);
+            maxX = Math.max(maxX, ch.x + ch.width);
+            maxY = Math.max(maxY, ch.y + ch.height);
+        }
+        if (minX == Integer.MAX_VALUE) throw new IllegalStateException("infinite map without chunks: " + tmxPath);
+
+        CityMap cityMap = CityMap.createChunked(maxX - minX, maxY - minY, tileWidth, tileHeight);
+        cityMap.setOrigin(minX, minY);
+        for (int i = 0; i < chunks.size(); i++) {
+            TmxModel.Chunk ch = chunks.get(i);
+            if (ch.width <= 0 || ch.height <= 0) continue;
+            fillFromGids(cityMap, resolver, ch.gids, ch.x - minX, ch.y - minY, ch.width, ch.height);
+        }
+        return cityMap;
+    }
 
-                // --- خواندن property ها ---
-                // پیش‌فرض امن: زمین خنثی (غیرقابل عبور)
-                Cell.Type type = Cell.Type.GROUND;
-                boolean walkable = false;
-                Map<String, String> propMap = new HashMap<String,String>();
+    /** حل نوع و تصویر هر gid با کش (property های tileset فقط یک بار برای هر gid خوانده می‌شوند). */
+    private static final class TileResolver {
+        final List<TilesetInfo> tilesets;
+        final Map<Integer, Cell.Type> types = new HashMap<Integer, Cell.Type>();
+        final Map<Integer, Map<String, String>> props = new HashMap<Integer, Map<String, String>>();
 
-                int localId = gid - owner.firstGid;
-                Element tileElem = owner.findTileElement(localId);
+        TileResolver(List<TilesetInfo> tilesets) { this.tilesets = tilesets; }
 
-                // 1) اگر خود <tile> attribute type داشته باشد
-                if (tileElem != null) {
-                    String tileAttrType = tileElem.getAttribute("type");
-                    if (tileAttrType != null && tileAttrType.length() > 0) {
-                        type = resolveType(tileAttrType);
-                    }
-                }
+        TilesetInfo owner(int gid) {
+            for (int i = 0; i < tilesets.size(); i++) {
+                TilesetInfo ts = tilesets.get(i);
+                if (ts.owns(gid)) return ts;
+            }
+            return null;
+        }
 
-                // 2) properties
-                if (tileElem != null) {
-                    NodeList props = tileElem.getElementsByTagName("property");
-                    for (int pi = 0; pi < props.getLength(); pi++) {
-                        Element prop = (Element) props.item(pi);
-                        String name = prop.getAttribute("name");
-                        String value = prop.getAttribute("value");
-                        if (name == null) continue;
-
-                        propMap.put(name, value);
-
-                        if (equalsIgnoreCase(name, "type") || equalsIgnoreCase(name, "category")) {
-                            type = resolveType(value);
-                        } else if (equalsIgnoreCase(name, "walkable")) {
-                            walkable = "true".equalsIgnoreCase(value) || "1".equals(value);
-                        }
-                    }
-                }
+        Cell.Type typeOf(TilesetInfo owner, int gid) {
+            Integer key = Integer.valueOf(gid);
+            Cell.Type cached = types.get(key);
+            if (cached != null) return cached;
+
+            // --- خواندن property ها ---
+            // پیش‌فرض امن: زمین خنثی (غیرقابل عبور)
+            Cell.Type type = Cell.Type.GROUND;
+            boolean walkable = false;
+            Map<String, String> propMap = new HashMap<String,String>();
 
-                // اگر CityMap متد ثبت پراپرتی‌ها را داشت، ذخیره کن (اختیاری)
-                try {
-                    cityMap.getClass()
-                            .getMethod("registerTileProperties", int.class, Map.class)
-                            .invoke(cityMap, Integer.valueOf(gid), propMap);
-                } catch (Throwable ignored) {}
-
-                // --- هماهنگ‌سازی نهایی با walkable ---
-                // فقط اگر نوع ناشناخته/زمین بود و walkable=true → SIDEWALK
-                if (walkable) {
-                    if (type == Cell.Type.GROUND || type == Cell.Type.EMPTY) {
-                        type = Cell.Type.SIDEWALK;
+            int localId = gid - owner.firstGid;
+            TmxModel.Tile tileDef = owner.findTile(localId);
+
+            // 1) اگر خود <tile> attribute type داشته باشد
+            if (tileDef != null && tileDef.getType().length() > 0) {
+                type = resolveType(tileDef.getType());
+            }
+
+            // 2) properties
+            if (tileDef != null) {
+                for (int pi = 0; pi < tileDef.getPropertyCount(); pi++) {
+                    String name = tileDef.getPropertyName(pi);
+                    String value = tileDef.getPropertyValue(pi);
+
+                    propMap.put(name, value);
+
+                    if (equalsIgnoreCase(name, "type") || equalsIgnoreCase(name, "category")) {
+                        type = resolveType(value);
+                    } else if (equalsIgnoreCase(name, "walkable")) {
+                        walkable = "true".equalsIgnoreCase(value) || "1".equals(value);
                     }
-                    // توجه: اگر type قبلاً ROAD/SIDEWALK/HOSPITAL/... شده، دست نمی‌زنیم
                 }
+            }
 
-                Cell cell = new Cell(new Position(x, y), type, tileImage, gid);
-                cityMap.setCell(x, y, cell);
+            // --- هماهنگ‌سازی نهایی با walkable ---
+            // فقط اگر نوع ناشناخته/زمین بود و walkable=true → SIDEWALK
+            if (walkable) {
+                if (type == Cell.Type.GROUND || type == Cell.Type.EMPTY) {
+                    type = Cell.Type.SIDEWALK;
+                }
+                // توجه: اگر type قبلاً ROAD/SIDEWALK/HOSPITAL/... شده، دست نمی‌زنیم
             }
+
+            types.put(key, type);
+            props.put(key, propMap);
+            return type;
         }
+    }
 
-        return cityMap;
+    /**
+     * پرکردن مستطیل (x0,y0,w,h) از gid های خام یک لایه/چانک (ردیفی، w*h خانه).
+     * gid صفر یعنی خانهٔ خالی.
+     */
+    private static void fillFromGids(CityMap cityMap, TileResolver resolver, int[] gids,
+                                     int x0, int y0, int w, int h) {
+        final int total = Math.min(w * h, gids.length);
+        for (int t = 0; t < total; t++) {
+            int gid = (int) (gids[t] & GID_MASK);
+            if (gid == 0) continue; // خانه خالی
+
+            // tileset مالک
+            TilesetInfo owner = resolver.owner(gid);
+            if (owner == null) continue;
+
+            boolean first = !resolver.types.containsKey(Integer.valueOf(gid));
+            Cell.Type type = resolver.typeOf(owner, gid);
+            if (first) cityMap.registerTileProperties(gid, resolver.props.get(Integer.valueOf(gid)));
+
+            int x = x0 + t % w, y = y0 + t / w;
+            Cell cell = new Cell(new Position(x, y), type, owner.getSubImage(gid), gid);
+            cityMap.setCell(x, y, cell);
+        }
     }
 
     /** سازگاری با نسخه‌های قدیمی‌تر. */
@@ -212,30 +247,27 @@ public final class MapLoader {
     /** برگرداندن اولین آبجکت با name دقیق (به مختصات تایل). */
     public static Position findObject(String tmxPath, String groupName, String objectName) {
         try {
-            Document doc = parseXML(tmxPath);
-            Element map = (Element) doc.getElementsByTagName("map").item(0);
-            int tileW = Integer.parseInt(map.getAttribute("tilewidth"));
-            int tileH = Integer.parseInt(map.getAttribute("tileheight"));
-
-            NodeList groups = doc.getElementsByTagName("objectgroup");
-            for (int gi = 0; gi < groups.getLength(); gi++) {
-                Element g = (Element) groups.item(gi);
-                if (!groupName.equals(g.getAttribute("name"))) continue;
-
-                NodeList objs = g.getElementsByTagName("object");
-                for (int oi = 0; oi < objs.getLength(); oi++) {
-                    Element o = (Element) objs.item(oi);
-                    if (objectName.equals(o.getAttribute("name"))) {
-                        int x = (int)Math.round(Double.parseDouble(o.getAttribute("x")) / tileW);
-                        int y = (int)Math.round(Double.parseDouble(o.getAttribute("y")) / tileH);
-                        return new Position(x, y);
-                    }
-                }
-            }
+            return findObject(TmxModel.load(tmxPath), groupName, objectName);
         } catch (Exception ignored) {}
         return null;
     }
 
+    /** همان findObject روی مدل از پیش خوانده‌شده */
+    public static Position findObject(TmxModel model, String groupName, String objectName) {
+        if (model == null) return null;
+        List<TmxModel.ObjectGroup> groups = model.getObjectGroups();
+        for (int gi = 0; gi < groups.size(); gi++) {
+            TmxModel.ObjectGroup g = groups.get(gi);
+            if (!groupName.equals(g.getName())) continue;
+
+            TmxModel.MapObject o = g.findByName(objectName);
+            if (o != null) {
+                return new Position(o.getTileX(model.getTileWidth()), o.getTileY(model.getTileHeight()));
+            }
+        }
+        return null;
+    }
+
     /** اگر نبود، مقدار پیش‌فرض بده. */
     public static Position findObjectOrDefault(String tmxPath, String group, String name, Position def) {
         Position p = findObject(tmxPath, group, name);
@@ -244,30 +276,29 @@ public final class MapLoader {
 
     /** همهٔ آبجکت‌هایی که type مشخص دارند را (در یک objectgroup خاص) برمی‌گرداند. */
     public static List<Position> findObjectsByType(String tmxPath, String groupName, String type) {
-        List<Position> out = new ArrayList<Position>();
         try {
-            Document doc = parseXML(tmxPath);
-            Element map = (Element) doc.getElementsByTagName("map").item(0);
-            int tileW = Integer.parseInt(map.getAttribute("tilewidth"));
-            int tileH = Integer.parseInt(map.getAttribute("tileheight"));
-
-            NodeList groups = doc.getElementsByTagName("objectgroup");
-            for (int gi = 0; gi < groups.getLength(); gi++) {
-                Element g = (Element) groups.item(gi);
-                if (!groupName.equals(g.getAttribute("name"))) continue;
-
-                NodeList objs = g.getElementsByTagName("object");
-                for (int oi = 0; oi < objs.getLength(); oi++) {
-                    Element o = (Element) objs.item(oi);
-                    String t = o.getAttribute("type");
-                    if (type.equals(t)) {
-                        int x = (int)Math.round(Double.parseDouble(o.getAttribute("x")) / tileW);
-                        int y = (int)Math.round(Double.parseDouble(o.getAttribute("y")) / tileH);
-                        out.add(new Position(x, y));
-                    }
+            return findObjectsByType(TmxModel.load(tmxPath), groupName, type);
+        } catch (Exception ignored) {}
+        return new ArrayList<Position>();
+    }
+
+    /** همان findObjectsByType روی مدل از پیش خوانده‌شده */
+    public static List<Position> findObjectsByType(TmxModel model, String groupName, String type) {
+        List<Position> out = new ArrayList<Position>();
+        if (model == null) return out;
+        List<TmxModel.ObjectGroup> groups = model.getObjectGroups();
+        for (int gi = 0; gi < groups.size(); gi++) {
+            TmxModel.ObjectGroup g = groups.get(gi);
+            if (!groupName.equals(g.getName())) continue;
+
+            List<TmxModel.MapObject> objs = g.getObjects();
+            for (int oi = 0; oi < objs.size(); oi++) {
+                TmxModel.MapObject o = objs.get(oi);
+                if (type.equals(o.getType())) {
+                    out.add(new Position(o.getTileX(model.getTileWidth()), o.getTileY(model.getTileHeight())));
                 }
             }
-        } catch (Exception ignored) {}
+        }
         return out;
     }
 
@@ -275,18 +306,6 @@ public final class MapLoader {
        Helpers
        ========================= */
 
-    private static Document parseXML(String path) throws Exception {
-        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
-        f.setNamespaceAware(false);
-        DocumentBuilder b = f.newDocumentBuilder();
-        return b.parse(new File(path));
-    }
-
-    private static int parseIntOr(String s, int def) {
-        try { return Integer.parseInt(s); }
-        catch (Exception e) { return def; }
-    }
-
     private static boolean equalsIgnoreCase(String a, String b) {
         return a != null && b != null && a.equalsIgnoreCase(b);
     }
@@ -0,0 +1,135 @@
+package map;
+
+import util.CollisionMap;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * پروفایل حرکت: قانون «آیا می‌توان وارد تایل (x,y) شد؟» برای یک نوع عامل.
+ * - isPassable: بخش ایستا (نوع سلول + CollisionMap)؛ با حرکت عامل‌ها تغییر نمی‌کند.
+ * - canEnter:   بخش پویا = isPassable + اشغال‌نبودن تایل.
+ * پروفایل‌ها بی‌حالت‌اند و روی هر CityMap قابل استفاده‌اند؛ CollisionMap پروفایل‌های نام‌دار
+ * هنگام پرس‌وجو از خود نقشه خوانده می‌شود (CityMap.getCollisionProfile).
+ * خارج از نقشه همیشه false است. نوع سلول با CityMap.getCellType خوانده می‌شود (بدون ساخت View در حالت فشرده).
+ */
+public abstract class MovementProfile {
+
+    /** رفتار پیش‌فرض CityMap.isWalkable: CollisionMap پیش‌فرض یا در نبود آن نوع سلول. */
+    public static final MovementProfile DEFAULT = new MovementProfile("default") {
+        @Override
+        public boolean isPassable(CityMap map, int x, int y) {
+            if (map == null || !map.isValid(x, y)) return false;
+            return passByCollisionOrCell(map, map.getCollisionMap(), x, y);
+        }
+    };
+
+    /** پروفایل پیاده (نجات‌دهنده) — لایهٔ برخورد ثبت‌شده با نام "rescuer". */
+    public static final MovementProfile RESCUER = forCollisionProfile("rescuer");
+
+    /** پروفایل خودرو — لایهٔ برخورد ثبت‌شده با نام "vehicle". */
+    public static final MovementProfile VEHICLE = forCollisionProfile("vehicle");
+
+    /** شبکهٔ جادهٔ خودرو: RoadMask + لایهٔ برخورد "vehicle" (ورودی گراف جاده و سلسله‌مراتب انقباضی). */
+    public static final MovementProfile ROAD_NETWORK = roadNetwork("vehicle");
+
+    private final String name;
+
+    protected MovementProfile(String name) {
+        this.name = (name != null) ? name : "unnamed";
+    }
+
+    /** نام پروفایل (برای کلید کش، لاگ و ...) */
+    public String getName() { return name; }
+
+    /** بخش ایستا: نوع سلول + CollisionMap (بدون درنظرگرفتن اشغال). */
+    public abstract boolean isPassable(CityMap map, int x, int y);
+
+    /** بخش پویا: قابل عبور و اشغال‌نشده. */
+    public boolean canEnter(CityMap map, int x, int y) {
+        return isPassable(map, x, y) && !map.isOccupied(x, y);
+    }
+
+    /**
+     * پروفایل مبتنی بر یک CollisionMap نام‌دار روی CityMap (مثل CityMap.isWalkableFor).
+     * اگر لایه‌ای با این نام ثبت نشده باشد، به نوع سلول فالبک می‌کند.
+     */
+    public static MovementProfile forCollisionProfile(final String profileName) {
+        return new MovementProfile(profileName) {
+            @Override
+            public boolean isPassable(CityMap map, int x, int y) {
+                if (map == null || !map.isValid(x, y)) return false;
+                return passByCollisionOrCell(map, map.getCollisionProfile(profileName), x, y);
+            }
+        };
+    }
+
+    /** پروفایل روی یک CollisionMap مشخص (مثل CityMap.isWalkable(x,y,cm)). */
+    public static MovementProfile forCollisionMap(String profileName, final CollisionMap cm) {
+        return new MovementProfile(profileName) {
+            @Override
+            public boolean isPassable(CityMap map, int x, int y) {
+                if (map == null || !map.isValid(x, y)) return false;
+                return passByCollisionOrCell(map, cm, x, y);
+            }
+        };
+    }
+
+    /**
+     * حالت آمبولانس (roadProfile در AgentController):
+     * فقط سلول ROAD که بیمارستان نباشد و cm (اگر null نباشد) اجازه بدهد.
+     */
+    public static MovementProfile roadOnly(final CollisionMap cm) {
+        return new MovementProfile("road-only") {
+            @Override
+            public boolean isPassable(CityMap map, int x, int y) {
+                if (map == null || !map.isValid(x, y)) return false;
+                if (map.getCellType(x, y) != Cell.Type.ROAD) return false;
+                return cm == null || cm.isWalkable(x, y);
+            }
+        };
+    }
+
+    /**
+     * شبکهٔ جاده از لایهٔ دودویی: CityMap.isRoad (RoadMask، یا نوع ROAD در نبود ماسک) که بیمارستان نباشد
+     * و لایهٔ برخورد نام‌دار (اگر ثبت شده باشد) اجازه بدهد.
+     */
+    public static MovementProfile roadNetwork(final String collisionProfileName) {
+        return new MovementProfile("road-network:" + collisionProfileName) {
+            @Override
+            public boolean isPassable(CityMap map, int x, int y) {
+                if (map == null || !map.isRoad(x, y)) return false;
+                if (map.getCellType(x, y) == Cell.Type.HOSPITAL) return false;
+                CollisionMap cm = map.getCollisionProfile(collisionProfileName);
+                return cm == null || cm.isWalkable(x, y);
+            }
+        };
+    }
+
+    /**
+     * حالت پیاده (footProfile در AgentController):
+     * سلول walkable که بیمارستان نباشد و cm (اگر null نباشد) اجازه بدهد.
+     */
+    public static MovementProfile onFoot(final CollisionMap cm) {
+        return new MovementProfile("on-foot") {
+            @Override
+            public boolean isPassable(CityMap map, int x, int y) {
+                if (map == null || !map.isValid(x, y)) return false;
+                Cell.Type t = map.getCellType(x, y);
+                if (t == null || t.isHospital() || !t.isWalkable()) return false;
+                return cm == null || cm.isWalkable(x, y);
+            }
+        };
+    }
+
+    static boolean passByCollisionOrCell(CityMap map, CollisionMap cm, int x, int y) {
+        if (cm != null) return cm.isWalkable(x, y);
+        Cell.Type t = map.getCellType(x, y);
+        return t != null && t.isWalkable();
+    }
+
+    @Override
+    public String toString() {
+        return "MovementProfile{" + name + "}";
+    }
+}
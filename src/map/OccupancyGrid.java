@@ -0,0 +1,90 @@
+package map;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * لایهٔ اشغال تایل‌ها به‌صورت بیت‌ست روی AtomicLongArray (اندیس = y*width+x).
+ * - tryClaim: گرفتن تایل با یک CAS؛ اگر عامل دیگری زودتر گرفته باشد false.
+ * - tryMove: اول مقصد گرفته می‌شود و بعد مبدأ آزاد می‌شود (claim-then-release)، پس دو متحرک هم‌زمان
+ *   هیچ‌وقت یک تایل را با هم اشغال نمی‌کنند و قفل سراسری لازم نیست.
+ * لحظه‌ای بین claim و release هر دو تایل اشغال‌اند؛ این برای ایمنی عمداً همین‌طور است.
+ * مختصات بیرون از شبکه را صدا‌زننده (CityMap) رد می‌کند.
+ */
+public final class OccupancyGrid {
+
+    private final int width;
+    private final int height;
+    private final AtomicLongArray words;
+
+    public OccupancyGrid(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.words = new AtomicLongArray((width * height + 63) >>> 6);
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    public boolean isOccupied(int x, int y) {
+        return isOccupiedIndex(y * width + x);
+    }
+
+    /** همان isOccupied با اندیس خطی y*width+x */
+    public boolean isOccupiedIndex(int i) {
+        return (words.get(i >>> 6) & (1L << i)) != 0;
+    }
+
+    /** گرفتن تایل آزاد با CAS؛ false اگر قبلاً اشغال بوده. */
+    public boolean tryClaim(int x, int y) {
+        int i = y * width + x;
+        int w = i >>> 6;
+        long bit = 1L << i;
+        while (true) {
+            long v = words.get(w);
+            if ((v & bit) != 0) return false;
+            if (words.compareAndSet(w, v, v | bit)) return true;
+        }
+    }
+
+    /** آزادکردن تایل؛ true اگر اشغال بود. */
+    public boolean release(int x, int y) {
+        int i = y * width + x;
+        int w = i >>> 6;
+        long bit = 1L << i;
+        while (true) {
+            long v = words.get(w);
+            if ((v & bit) == 0) return false;
+            if (words.compareAndSet(w, v, v & ~bit)) return true;
+        }
+    }
+
+    /** نوشتن مستقیم مقدار (برای مقداردهی/سازگاری)؛ true اگر مقدار عوض شد. */
+    public boolean set(int x, int y, boolean occupied) {
+        return occupied ? tryClaim(x, y) : release(x, y);
+    }
+
+    /**
+     * جابه‌جایی اشغال از (fx,fy) به (tx,ty): اول مقصد با CAS گرفته می‌شود، بعد مبدأ آزاد می‌شود.
+     * false اگر مقصد اشغال بود (مبدأ دست نمی‌خورد). مبدأ لازم نیست قبلاً اشغال بوده باشد.
+     */
+    public boolean tryMove(int fx, int fy, int tx, int ty) {
+        if (!tryClaim(tx, ty)) return false;
+        if (fx != tx || fy != ty) release(fx, fy);
+        return true;
+    }
+
+    /** تعداد تایل‌های اشغال‌شده (تصویر لحظه‌ای، نه اتمیک روی کل شبکه). */
+    public int countOccupied() {
+        int n = 0;
+        for (int w = 0; w < words.length(); w++) n += Long.bitCount(words.get(w));
+        return n;
+    }
+
+    public void clear() {
+        for (int w = 0; w < words.length(); w++) words.set(w, 0L);
+    }
+}
@@ -0,0 +1,243 @@
+package map;
+
+import util.Position;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * ذخیره‌سازی «ساختار آرایه‌ها» (SoA) برای سلول‌های CityMap به‌جای Cell[][]:
+ * - types:  byte[] با ordinal نوع سلول (NO_CELL یعنی سلولی ثبت نشده)
+ * - gids:   int[] شناسهٔ تایل TMX
+ * - occupancy: بیت‌ست اتمیک اشغال (OccupancyGrid؛ در CityMap همان لایهٔ اشغال نقشه است)
+ * - images: جدول مشترک تصویر به‌ازای gid؛ تصویری که با gid جدولش جور نیست (یا gid ندارد)
+ *   جداگانه در overrides نگه داشته می‌شود.
+ * اندیس هر تایل y*width+x است، پس پیمایش BFS/A* روی حافظهٔ پیوسته انجام می‌شود.
+ *
+ * getCell یک View سبک (فلای‌ویت) برمی‌گرداند که همهٔ خواندن/نوشتن‌هایش مستقیم روی آرایه‌هاست؛
+ * دو View از یک تایل equals هستند ولی یک شیء نیستند (مقایسه با == درست نیست).
+ * تغییر اشغال از طریق View رویداد نقشه را اعلام نمی‌کند (مثل Cell.setOccupied در حالت عادی).
+ */
+public final class PackedCellGrid {
+
+    /** نشانهٔ «سلولی ثبت نشده» در types */
+    public static final byte NO_CELL = -1;
+
+    private static final Cell.Type[] TYPES = Cell.Type.values();
+
+    private final int width;
+    private final int height;
+    private final byte[] types;
+    private final int[] gids;
+    private final OccupancyGrid occupancy;
+
+    private BufferedImage[] images = new BufferedImage[64];
+    private final Map<Integer, BufferedImage> overrides = new HashMap<Integer, BufferedImage>();
+
+    public PackedCellGrid(int width, int height) {
+        this(width, height, new OccupancyGrid(width, height));
+    }
+
+    /** @param occupancy لایهٔ اشغال مشترک (هم‌اندازهٔ شبکه) */
+    public PackedCellGrid(int width, int height, OccupancyGrid occupancy) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("bad size: " + width + "x" + height);
+        if (occupancy == null || occupancy.getWidth() != width || occupancy.getHeight() != height) {
+            throw new IllegalArgumentException("occupancy grid does not match " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        int n = width * height;
+        this.types = new byte[n];
+        this.gids = new int[n];
+        this.occupancy = occupancy;
+        clear();
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public OccupancyGrid getOccupancy() { return occupancy; }
+
+    // ------------------------------------------------------------
+    // دسترسی مستقیم (بدون ساخت شیء)
+    // ------------------------------------------------------------
+
+    public boolean hasCell(int x, int y) {
+        return types[y * width + x] != NO_CELL;
+    }
+
+    /** نوع سلول (x,y)؛ null اگر سلولی ثبت نشده. */
+    public Cell.Type getType(int x, int y) {
+        byte t = types[y * width + x];
+        return (t == NO_CELL) ? null : TYPES[t];
+    }
+
+    /** همان getType ولی با اندیس خطی y*width+x */
+    public Cell.Type getTypeAt(int index) {
+        byte t = types[index];
+        return (t == NO_CELL) ? null : TYPES[t];
+    }
+
+    public int getTileId(int x, int y) {
+        int i = y * width + x;
+        return (types[i] == NO_CELL) ? -1 : gids[i];
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return occupancy.isOccupied(x, y);
+    }
+
+    /** @return true اگر مقدار عوض شد */
+    public boolean setOccupied(int x, int y, boolean value) {
+        return occupancy.set(x, y, value);
+    }
+
+    public BufferedImage getImage(int x, int y) {
+        int i = y * width + x;
+        if (types[i] == NO_CELL) return null;
+        if (!overrides.isEmpty()) {
+            BufferedImage o = overrides.get(Integer.valueOf(i));
+            if (o != null) return o;
+        }
+        int gid = gids[i];
+        return (gid >= 0 && gid < images.length) ? images[gid] : null;
+    }
+
+    /** تصویر مشترک یک gid (یا null) */
+    public BufferedImage getTileImage(int gid) {
+        return (gid >= 0 && gid < images.length) ? images[gid] : null;
+    }
+
+    /** ثبت/جایگزینی تصویر مشترک یک gid؛ روی همهٔ تایل‌های آن gid (بدون override) اثر دارد. */
+    public void setTileImage(int gid, BufferedImage image) {
+        if (gid < 0) return;
+        ensureImageCapacity(gid);
+        images[gid] = image;
+    }
+
+    // ------------------------------------------------------------
+    // سلول کامل
+    // ------------------------------------------------------------
+
+    /** View سبک روی (x,y)؛ null اگر سلولی ثبت نشده. */
+    public Cell getCell(int x, int y) {
+        if (types[y * width + x] == NO_CELL) return null;
+        return new View(this, x, y);
+    }
+
+    /**
+     * نوشتن سلول در آرایه‌ها (خود cell نگه داشته نمی‌شود). null یعنی حذف سلول.
+     * اگر gid تصویر مشترک نداشته باشد، تصویر cell برای همهٔ آن gid ثبت می‌شود.
+     */
+    public void setCell(int x, int y, Cell cell) {
+        int i = y * width + x;
+        Integer key = Integer.valueOf(i);
+        if (cell == null) {
+            types[i] = NO_CELL;
+            gids[i] = -1;
+            overrides.remove(key);
+            setOccupied(x, y, false);
+            return;
+        }
+        types[i] = (byte) cell.getType().ordinal();
+        gids[i] = cell.getTileId();
+        setOccupied(x, y, cell.isOccupied());
+        storeImage(i, cell.getTileId(), cell.getImage());
+    }
+
+    private void storeImage(int i, int gid, BufferedImage img) {
+        Integer key = Integer.valueOf(i);
+        if (gid >= 0) {
+            ensureImageCapacity(gid);
+            if (images[gid] == null && img != null) images[gid] = img;
+            if (images[gid] == img) {
+                overrides.remove(key);
+                return;
+            }
+        }
+        if (img == null && gid < 0) overrides.remove(key);
+        else overrides.put(key, img);
+    }
+
+    private void ensureImageCapacity(int gid) {
+        if (gid < images.length) return;
+        int cap = images.length;
+        while (cap <= gid) cap <<= 1;
+        images = Arrays.copyOf(images, cap);
+    }
+
+    /** حذف همهٔ سلول‌ها و اشغال‌ها؛ جدول تصویر gid حفظ می‌شود. */
+    public void clear() {
+        Arrays.fill(types, NO_CELL);
+        Arrays.fill(gids, -1);
+        occupancy.clear();
+        overrides.clear();
+    }
+
+    /** تخمین حافظهٔ آرایه‌ها (بایت)، بدون تصاویر. */
+    public long estimatedBytes() {
+        return (long) types.length + 4L * gids.length + ((types.length + 63L) >>> 6) * 8L + 8L * images.length;
+    }
+
+    // ------------------------------------------------------------
+    // View
+    // ------------------------------------------------------------
+
+    /** Cell فلای‌ویت روی یک تایل؛ فقط x,y و ارجاع به آرایه‌ها را نگه می‌دارد. */
+    static final class View extends Cell {
+        private final PackedCellGrid grid;
+        private final int x;
+        private final int y;
+
+        View(PackedCellGrid grid, int x, int y) {
+            super(null, Type.EMPTY);
+            this.grid = grid;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override public Position getPosition() { return new Position(x, y); }
+        @Override public int getX() { return x; }
+        @Override public int getY() { return y; }
+
+        @Override
+        public Type getType() {
+            Type t = grid.getType(x, y);
+            return (t != null) ? t : Type.EMPTY;
+        }
+
+        @Override public boolean isOccupied() { return grid.isOccupied(x, y); }
+        @Override public void setOccupied(boolean occupied) { grid.setOccupied(x, y, occupied); }
+
+        @Override public BufferedImage getImage() { return grid.getImage(x, y); }
+        @Override public void setImage(BufferedImage image) {
+            int i = y * grid.width + x;
+            grid.storeImage(i, grid.gids[i], image);
+        }
+
+        @Override public int getTileId() { return grid.getTileId(x, y); }
+        @Override public void setTileId(int tileId) {
+            BufferedImage img = getImage();
+            int i = y * grid.width + x;
+            grid.gids[i] = tileId;
+            grid.storeImage(i, tileId, img);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof View)) return false;
+            View v = (View) o;
+            return v.grid == grid && v.x == x && v.y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(grid) + (y * grid.width + x);
+        }
+    }
+}
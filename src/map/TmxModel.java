@@ -0,0 +1,421 @@
+package map;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * مدل تغییرناپذیر یک فایل TMX که یک بار (با TmxStreamReader) خوانده و بین همهٔ مصرف‌کننده‌ها مشترک می‌شود:
+ * MapLoader، CollisionMap، MapInitializer، Main و ui.MapRenderer.
+ * - tileset ها (TSX خارجی هم همان موقع خوانده می‌شود) با تعریف تایل‌ها و شاخص gid → property ها
+ * - لایه‌های تایل به‌صورت int[] (gid خام با پرچم‌های flip) یا چانک‌ها در نقشهٔ بی‌کران
+ * - object group ها با آبجکت‌ها (مختصات پیکسلی)
+ *
+ * load(path) نتیجه را با کلید «مسیر canonical + زمان تغییر + اندازهٔ فایل» کش می‌کند؛
+ * اگر فایل روی دیسک عوض شود، بار بعد دوباره خوانده می‌شود.
+ * کش فقط برای اشتراک بین مصرف‌کننده‌های یک بارگذاری است و مدل را نگه نمی‌دارد: مقدارها SoftReference اند
+ * (زیر فشار حافظه آزاد می‌شوند) و بارگذار بعد از ساختن CityMap/CollisionMap با release(path) ورودی را حذف
+ * می‌کند تا آرایه‌های gid فقط تا وقتی مصرف‌کننده‌ای نگهشان دارد زنده بمانند.
+ * چون مدل تغییرناپذیر است، اشتراکش بین نخ‌ها بی‌خطر است؛ آرایه‌ها بیرون داده نمی‌شوند (فقط کپی).
+ */
+public final class TmxModel {
+
+    /** 28 بیت پایین gid واقعی است (پرچم‌های flip/rotation حذف می‌شوند). */
+    public static final int GID_MASK = 0x0FFFFFFF;
+
+    /** تعداد ورودی‌های کش (LRU)؛ خود مدل‌ها نرم نگه داشته می‌شوند */
+    private static final int MAX_CACHE_ENTRIES = 8;
+
+    private static final Map<String, SoftReference<TmxModel>> CACHE =
+            new LinkedHashMap<String, SoftReference<TmxModel>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SoftReference<TmxModel>> eldest) {
+                    return size() > MAX_CACHE_ENTRIES;
+                }
+            };
+
+    private static int parseCount = 0;
+
+    // ------------------------------------------------------------
+    // داده (فقط TmxStreamReader پر می‌کند)
+    // ------------------------------------------------------------
+
+    File file;
+    long lastModified;
+    long length;
+    int width;
+    int height;
+    int tileWidth;
+    int tileHeight;
+    boolean infinite;
+    List<Tileset> tilesets = new ArrayList<Tileset>();
+    List<Layer> layers = new ArrayList<Layer>();
+    List<ObjectGroup> objectGroups = new ArrayList<ObjectGroup>();
+    private Map<Integer, Map<String, String>> tileProperties = new HashMap<Integer, Map<String, String>>();
+
+    TmxModel() {}
+
+    // ------------------------------------------------------------
+    // کش
+    // ------------------------------------------------------------
+
+    /**
+     * مدل فایل tmxPath؛ از کش اگر فایل از آخرین خواندن تغییر نکرده، وگرنه یک گذر StAX.
+     * @throws IOException اگر فایل نبود یا TMX معتبر نبود
+     */
+    public static TmxModel load(String tmxPath) throws IOException {
+        if (tmxPath == null) throw new IOException("tmx path is null");
+        File f = new File(tmxPath);
+        if (!f.isFile()) throw new IOException("TMX not found: " + tmxPath);
+        String key = f.getCanonicalPath();
+        long mtime = f.lastModified(), len = f.length();
+        synchronized (CACHE) {
+            SoftReference<TmxModel> ref = CACHE.get(key);
+            TmxModel hit = (ref != null) ? ref.get() : null;
+            if (hit != null && hit.lastModified == mtime && hit.length == len) return hit;
+        }
+        TmxModel m;
+        try {
+            m = TmxStreamReader.read(f);
+        } catch (XMLStreamException e) {
+            throw new IOException("bad TMX " + tmxPath + ": " + e.getMessage(), e);
+        }
+        m.lastModified = mtime;
+        m.length = len;
+        m.freeze();
+        synchronized (CACHE) {
+            parseCount++;
+            CACHE.put(key, new SoftReference<TmxModel>(m));
+        }
+        return m;
+    }
+
+    /**
+     * پایان یک بارگذاری: ورودی کش این فایل حذف می‌شود (مصرف‌کننده‌هایی که مدل را دارند همچنان از آن
+     * استفاده می‌کنند؛ load بعدی دوباره پارس می‌کند).
+     */
+    public static void release(String tmxPath) {
+        if (tmxPath == null) return;
+        String key;
+        try {
+            key = new File(tmxPath).getCanonicalPath();
+        } catch (IOException e) {
+            return;
+        }
+        synchronized (CACHE) { CACHE.remove(key); }
+    }
+
+    /** خالی کردن کش (مثلاً بعد از ذخیرهٔ نقشه با ابزار دیگر، اگر زمان تغییر فایل دقیق نیست) */
+    public static void clearCache() {
+        synchronized (CACHE) { CACHE.clear(); }
+    }
+
+    /** تعداد دفعاتی که فایلی واقعاً پارس شده (برای آمار) */
+    public static int getParseCount() {
+        synchronized (CACHE) { return parseCount; }
+    }
+
+    /** بعد از خواندن: لیست‌ها تغییرناپذیر و شاخص property ها ساخته می‌شود. */
+    private void freeze() {
+        for (int i = 0; i < tilesets.size(); i++) {
+            Tileset ts = tilesets.get(i);
+            for (Map.Entry<Integer, Tile> e : ts.tiles.entrySet()) {
+                Tile t = e.getValue();
+                if (t.propNames.isEmpty()) continue;
+                Map<String, String> props = new HashMap<String, String>();
+                for (int p = 0; p < t.propNames.size(); p++) props.put(t.propNames.get(p), t.propValues.get(p));
+                Integer gid = Integer.valueOf(ts.firstGid + e.getKey().intValue());
+                if (!tileProperties.containsKey(gid)) tileProperties.put(gid, Collections.unmodifiableMap(props));
+            }
+            ts.tiles = Collections.unmodifiableMap(ts.tiles);
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).chunks = Collections.unmodifiableList(layers.get(i).chunks);
+        }
+        for (int i = 0; i < objectGroups.size(); i++) {
+            ObjectGroup g = objectGroups.get(i);
+            g.objects = Collections.unmodifiableList(g.objects);
+            for (int k = 0; k < g.objects.size(); k++) {
+                MapObject o = g.objects.get(k);
+                o.properties = Collections.unmodifiableMap(o.properties);
+            }
+        }
+        tilesets = Collections.unmodifiableList(tilesets);
+        layers = Collections.unmodifiableList(layers);
+        objectGroups = Collections.unmodifiableList(objectGroups);
+        tileProperties = Collections.unmodifiableMap(tileProperties);
+    }
+
+    // ------------------------------------------------------------
+    // نقشه
+    // ------------------------------------------------------------
+
+    public File getFile() { return file; }
+    /** پوشهٔ فایل TMX (مسیرهای نسبی تصویر/TSX نسبت به آن) */
+    public File getBaseDir() { return file.getParentFile(); }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getTileWidth() { return tileWidth; }
+    public int getTileHeight() { return tileHeight; }
+    /** نقشهٔ بی‌کران (infinite="1" یا لایه‌ای با &lt;chunk&gt;) */
+    public boolean isInfinite() { return infinite; }
+
+    public List<Tileset> getTilesets() { return tilesets; }
+    public List<Layer> getLayers() { return layers; }
+    public List<ObjectGroup> getObjectGroups() { return objectGroups; }
+
+    /** اولین لایه با همین نام؛ اگر نبود اولین لایه با نام برابر بدون حساسیت به حروف؛ وگرنه null. */
+    public Layer getLayer(String name) {
+        if (name == null) return null;
+        for (int i = 0; i < layers.size(); i++) {
+            if (name.equals(layers.get(i).name)) return layers.get(i);
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            if (name.equalsIgnoreCase(layers.get(i).name)) return layers.get(i);
+        }
+        return null;
+    }
+
+    /** اولین object group با این نام یا null */
+    public ObjectGroup getObjectGroup(String name) {
+        if (name == null) return null;
+        for (int i = 0; i < objectGroups.size(); i++) {
+            if (name.equals(objectGroups.get(i).name)) return objectGroups.get(i);
+        }
+        return null;
+    }
+
+    /** tileset مالک gid (آخرین tileset با firstGid ≤ gid، مثل Tiled) یا null */
+    public Tileset getTilesetFor(int gid) {
+        gid &= GID_MASK;
+        Tileset best = null;
+        for (int i = 0; i < tilesets.size(); i++) {
+            Tileset ts = tilesets.get(i);
+            if (ts.firstGid <= gid && (best == null || ts.firstGid >= best.firstGid)) best = ts;
+        }
+        return best;
+    }
+
+    /** property های تایل gid (از شاخص؛ O(1)). نقشهٔ خالی اگر تایل property نداشت. */
+    public Map<String, String> getTileProperties(int gid) {
+        Map<String, String> p = tileProperties.get(Integer.valueOf(gid & GID_MASK));
+        return (p != null) ? p : Collections.<String, String>emptyMap();
+    }
+
+    /** مقدار یک property تایل gid یا null */
+    public String getTileProperty(int gid, String key) {
+        Map<String, String> p = tileProperties.get(Integer.valueOf(gid & GID_MASK));
+        return (p != null) ? p.get(key) : null;
+    }
+
+    // ------------------------------------------------------------
+    // Tileset
+    // ------------------------------------------------------------
+
+    /** یک &lt;tileset&gt; (یا TSX خارجی آن). مقدار -1 یعنی attribute نبوده؛ tileWidth/tileHeight صفر یعنی از نقشه. */
+    public static final class Tileset {
+        int firstGid;
+        String name = "";
+        String source = "";
+        int tileWidth = 0;
+        int tileHeight = 0;
+        int tileCount = -1;
+        int columns = -1;
+        int margin = 0;
+        int spacing = 0;
+        String imageSource;
+        int imageWidth = -1;
+        int imageHeight = -1;
+        /** پوشه‌ای که imageSource نسبت به آن است (TMX یا TSX) */
+        File baseDir;
+        Map<Integer, Tile> tiles = new HashMap<Integer, Tile>();
+
+        Tileset() {}
+
+        public int getFirstGid() { return firstGid; }
+        public String getName() { return name; }
+        /** مسیر TSX خارجی ("" اگر داخلی بوده) */
+        public String getSource() { return source; }
+        public int getTileWidth() { return tileWidth; }
+        public int getTileHeight() { return tileHeight; }
+        public int getTileCount() { return tileCount; }
+        public int getColumns() { return columns; }
+        public int getMargin() { return margin; }
+        public int getSpacing() { return spacing; }
+        /** source خام &lt;image&gt; یا null اگر تصویر ندارد */
+        public String getImageSource() { return imageSource; }
+        /** مسیر تصویر نسبت به پوشهٔ کاری یا null */
+        public String getImagePath() {
+            if (imageSource == null || imageSource.length() == 0) return null;
+            return new File(baseDir, imageSource).getPath();
+        }
+        public int getImageWidth() { return imageWidth; }
+        public int getImageHeight() { return imageHeight; }
+
+        /** تعریف &lt;tile&gt; با localId یا null */
+        public Tile getTile(int localId) {
+            return tiles.get(Integer.valueOf(localId));
+        }
+
+        /** آیا gid (بدون پرچم) در محدودهٔ tilecount این tileset است؟ */
+        public boolean owns(int gid) {
+            gid &= GID_MASK;
+            return tileCount > 0 && gid >= firstGid && gid < firstGid + tileCount;
+        }
+    }
+
+    /** تعریف یک &lt;tile&gt; داخل tileset؛ property ها به ترتیب سند (تکراری هم می‌ماند). */
+    public static final class Tile {
+        String type = "";
+        final List<String> propNames = new ArrayList<String>(4);
+        final List<String> propValues = new ArrayList<String>(4);
+
+        Tile() {}
+
+        /** attribute type خود &lt;tile&gt; ("" اگر نبود) */
+        public String getType() { return type; }
+        public int getPropertyCount() { return propNames.size(); }
+        public String getPropertyName(int i) { return propNames.get(i); }
+        public String getPropertyValue(int i) { return propValues.get(i); }
+
+        /** مقدار آخرین property با این نام یا null */
+        public String getProperty(String name) {
+            for (int i = propNames.size() - 1; i >= 0; i--) {
+                if (propNames.get(i).equals(name)) return propValues.get(i);
+            }
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Layer
+    // ------------------------------------------------------------
+
+    /** یک &lt;layer&gt;؛ در نقشهٔ محدود gids ردیفی w*h است، در نقشهٔ بی‌کران داده در chunks است. */
+    public static final class Layer {
+        String name = "";
+        int width;
+        int height;
+        boolean visible = true;
+        int[] gids;
+        List<Chunk> chunks = new ArrayList<Chunk>();
+
+        Layer() {}
+
+        public String getName() { return name; }
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+        public boolean isVisible() { return visible; }
+        public boolean isChunked() { return !chunks.isEmpty(); }
+        public List<Chunk> getChunks() { return chunks; }
+
+        /** gid خام (با پرچم‌های flip) در (x,y)؛ 0 برای خانهٔ خالی یا بیرون. در لایهٔ چانکی x,y مختصات Tiled است. */
+        public int gid(int x, int y) {
+            if (gids != null) {
+                if (x < 0 || y < 0 || x >= width || y >= height) return 0;
+                return gids[y * width + x];
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                Chunk c = chunks.get(i);
+                if (x >= c.x && y >= c.y && x < c.x + c.width && y < c.y + c.height) return c.gid(x - c.x, y - c.y);
+            }
+            return 0;
+        }
+
+        /** همان gid بدون پرچم‌ها */
+        public int tileGid(int x, int y) {
+            return gid(x, y) & GID_MASK;
+        }
+
+        /** کپی gid های خام ردیفی (فقط لایهٔ محدود؛ وگرنه آرایهٔ خالی) */
+        public int[] copyGids() {
+            return (gids != null) ? gids.clone() : new int[0];
+        }
+    }
+
+    /** یک &lt;chunk&gt; لایهٔ بی‌کران (مختصات Tiled) */
+    public static final class Chunk {
+        int x;
+        int y;
+        int width;
+        int height;
+        int[] gids;
+
+        Chunk() {}
+
+        public int getX() { return x; }
+        public int getY() { return y; }
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+
+        /** gid خام در مختصات محلی چانک */
+        public int gid(int lx, int ly) {
+            if (lx < 0 || ly < 0 || lx >= width || ly >= height) return 0;
+            int i = ly * width + lx;
+            return (i < gids.length) ? gids[i] : 0;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Objects
+    // ------------------------------------------------------------
+
+    /** یک &lt;objectgroup&gt; */
+    public static final class ObjectGroup {
+        String name = "";
+        List<MapObject> objects = new ArrayList<MapObject>();
+
+        ObjectGroup() {}
+
+        public String getName() { return name; }
+        public List<MapObject> getObjects() { return objects; }
+
+        /** اولین آبجکت با این name یا null */
+        public MapObject findByName(String objectName) {
+            for (int i = 0; i < objects.size(); i++) {
+                if (objects.get(i).name.equals(objectName)) return objects.get(i);
+            }
+            return null;
+        }
+    }
+
+    /** یک &lt;object&gt;؛ x,y,width,height به پیکسل */
+    public static final class MapObject {
+        int id;
+        String name = "";
+        String type = "";
+        double x;
+        double y;
+        double width;
+        double height;
+        Map<String, String> properties = new HashMap<String, String>();
+
+        MapObject() {}
+
+        public int getId() { return id; }
+        public String getName() { return name; }
+        /** attribute type (در Tiled 1.9+ اگر نبود، class) */
+        public String getType() { return type; }
+        public double getX() { return x; }
+        public double getY() { return y; }
+        public double getWidth() { return width; }
+        public double getHeight() { return height; }
+        public Map<String, String> getProperties() { return properties; }
+        public String getProperty(String key) { return properties.get(key); }
+
+        /** ستون تایل: round(x / tileWidth) */
+        public int getTileX(int tileWidth) { return (int) Math.round(x / tileWidth); }
+        /** ردیف تایل: round(y / tileHeight) */
+        public int getTileY(int tileHeight) { return (int) Math.round(y / tileHeight); }
+    }
+}
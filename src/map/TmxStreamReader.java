@@ -0,0 +1,439 @@
+package map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * --------------------
+ * لایه: Domain Layer — map
+ * --------------------
+ * خوانندهٔ تک‌گذر TMX با StAX (بدون ساخت DOM) که TmxModel را پر می‌کند؛ مستقیم صدا نزن، از TmxModel.load استفاده کن.
+ * - tileset ها همراه با شاخص localId → Tile (نوع و property های هر تایل) یک بار ساخته می‌شوند؛
+ *   TSX خارجی (source=...) همان موقع با همین خواننده خوانده می‌شود.
+ * - دادهٔ هر لایه (یا هر &lt;chunk&gt; در نقشهٔ بی‌کران) مستقیم در int[] (gid خام، با پرچم‌های flip) رمزگشایی می‌شود:
+ *   CSV به‌صورت جریانی از بافر کاراکتر پارسر، base64 (بدون فشرده‌سازی، zlib یا gzip) و فرمت قدیمی &lt;tile gid&gt;.
+ * - object group ها با آبجکت‌ها و property هایشان.
+ * - معنای انتخاب‌ها مثل نسخهٔ DOM است: اولین &lt;image&gt; هر tileset، اولین &lt;tile&gt; با هر id،
+ *   همهٔ &lt;property&gt; های زیر یک &lt;tile&gt; به ترتیب سند، لایه‌های داخل &lt;group&gt; هم به ترتیب سند.
+ */
+final class TmxStreamReader {
+
+    private TmxStreamReader() {}
+
+    // ------------------------------------------------------------
+    // خواندن
+    // ------------------------------------------------------------
+
+    static TmxModel read(File file) throws IOException, XMLStreamException {
+        TmxModel model = new TmxModel();
+        model.file = file;
+        XMLStreamReader r = open(file);
+        try {
+            if (!"map".equals(r.getLocalName())) throw new IOException("not a TMX map: <" + r.getLocalName() + ">");
+            readMap(r, model);
+        } finally {
+            close(r);
+        }
+        return model;
+    }
+
+    /** باز کردن فایل و رفتن تا عنصر ریشه */
+    private static XMLStreamReader open(File file) throws IOException, XMLStreamException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        try {
+            XMLInputFactory f = XMLInputFactory.newFactory();
+            f.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            XMLStreamReader r = new ClosingReader(f.createXMLStreamReader(in), in);
+            while (r.hasNext() && r.next() != XMLStreamConstants.START_ELEMENT) { /* تا ریشه */ }
+            if (!r.isStartElement()) throw new IOException("empty XML document: " + file);
+            return r;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        } catch (XMLStreamException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static void close(XMLStreamReader r) {
+        try { r.close(); } catch (XMLStreamException ignored) {}
+    }
+
+    private static void readMap(XMLStreamReader r, TmxModel m) throws IOException, XMLStreamException {
+        m.width = intAttr(r, "width", 0, 0);
+        m.height = intAttr(r, "height", 0, 0);
+        m.tileWidth = Integer.parseInt(attr(r, "tilewidth"));
+        m.tileHeight = Integer.parseInt(attr(r, "tileheight"));
+        m.infinite = "1".equals(attr(r, "infinite"));
+        File baseDir = m.file.getParentFile();
+
+        while (r.hasNext()) {
+            int ev = r.next();
+            if (ev != XMLStreamConstants.START_ELEMENT) continue;
+            String tag = r.getLocalName();
+            if ("tileset".equals(tag)) {
+                m.tilesets.add(readTileset(r, baseDir));
+            } else if ("layer".equals(tag)) {
+                TmxModel.Layer layer = readLayer(r, m);
+                if (layer.isChunked()) m.infinite = true;
+                m.layers.add(layer);
+            } else if ("objectgroup".equals(tag)) {
+                m.objectGroups.add(readObjectGroup(r));
+            }
+            // بقیه (group، imagelayer، properties نقشه، ...) رد می‌شوند؛ فرزندان group در همین حلقه خوانده می‌شوند
+        }
+    }
+
+    /** &lt;tileset&gt; داخل TMX (خواننده روی شروع عنصر است) تا پایانش؛ اگر source داشت TSX خوانده می‌شود. */
+    private static TmxModel.Tileset readTileset(XMLStreamReader r, File baseDir) throws IOException, XMLStreamException {
+        TmxModel.Tileset ts = new TmxModel.Tileset();
+        ts.firstGid = Integer.parseInt(attr(r, "firstgid"));
+        ts.source = attr(r, "source");
+        ts.baseDir = baseDir;
+        if (ts.source.length() == 0) {
+            readTilesetBody(r, ts);
+            return ts;
+        }
+        skipElement(r);
+        File tsx = new File(baseDir, ts.source);
+        XMLStreamReader tr = open(tsx);
+        try {
+            if (!"tileset".equals(tr.getLocalName())) throw new IOException("invalid TSX (no <tileset>): " + tsx);
+            ts.baseDir = tsx.getParentFile();
+            readTilesetBody(tr, ts);
+        } finally {
+            close(tr);
+        }
+        return ts;
+    }
+
+    private static void readTilesetBody(XMLStreamReader r, TmxModel.Tileset ts) throws IOException, XMLStreamException {
+        ts.name = attr(r, "name");
+        ts.tileWidth = intAttr(r, "tilewidth", 0, 0);
+        ts.tileHeight = intAttr(r, "tileheight", 0, 0);
+        ts.tileCount = intAttr(r, "tilecount", -1, 0);
+        ts.columns = intAttr(r, "columns", -1, 1);
+        ts.margin = intAttr(r, "margin", 0, 0);
+        ts.spacing = intAttr(r, "spacing", 0, 0);
+
+        TmxModel.Tile tile = null;
+        int depth = 1;
+        while (depth > 0 && r.hasNext()) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String tag = r.getLocalName();
+                if ("image".equals(tag)) {
+                    if (ts.imageSource == null) {
+                        ts.imageSource = attr(r, "source");
+                        ts.imageWidth = intAttr(r, "width", -1, -1);
+                        ts.imageHeight = intAttr(r, "height", -1, -1);
+                    }
+                } else if ("tile".equals(tag) && tile == null) {
+                    String id = attr(r, "id");
+                    tile = new TmxModel.Tile();
+                    tile.type = attr(r, "type");
+                    if (id.length() > 0) {
+                        Integer key = Integer.valueOf(Integer.parseInt(id));
+                        if (!ts.tiles.containsKey(key)) ts.tiles.put(key, tile);
+                    }
+                } else if ("property".equals(tag) && tile != null) {
+                    tile.propNames.add(attr(r, "name"));
+                    tile.propValues.add(attr(r, "value"));
+                }
+            } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if ("tile".equals(r.getLocalName())) tile = null;
+            }
+        }
+    }
+
+    private static TmxModel.Layer readLayer(XMLStreamReader r, TmxModel m) throws IOException, XMLStreamException {
+        TmxModel.Layer layer = new TmxModel.Layer();
+        layer.name = attr(r, "name");
+        layer.width = intAttr(r, "width", m.width, m.width);
+        layer.height = intAttr(r, "height", m.height, m.height);
+        layer.visible = !"0".equals(attr(r, "visible"));
+
+        DataDecoder data = null;
+        TmxModel.Chunk chunk = null;
+        int depth = 1;
+        while (depth > 0 && r.hasNext()) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String tag = r.getLocalName();
+                if ("data".equals(tag) && data == null) {
+                    data = new DataDecoder(attr(r, "encoding"), attr(r, "compression"));
+                    if (layer.width > 0 && layer.height > 0) data.begin(layer.width * layer.height);
+                } else if ("chunk".equals(tag) && data != null) {
+                    chunk = new TmxModel.Chunk();
+                    chunk.x = intAttr(r, "x", 0, 0);
+                    chunk.y = intAttr(r, "y", 0, 0);
+                    chunk.width = intAttr(r, "width", 0, 0);
+                    chunk.height = intAttr(r, "height", 0, 0);
+                    data.begin(Math.max(0, chunk.width) * Math.max(0, chunk.height));
+                } else if ("tile".equals(tag) && data != null) {
+                    data.xmlTile(attr(r, "gid"));
+                }
+            } else if (ev == XMLStreamConstants.CHARACTERS || ev == XMLStreamConstants.CDATA) {
+                if (data != null) data.text(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+            } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                String tag = r.getLocalName();
+                if ("chunk".equals(tag) && chunk != null) {
+                    chunk.gids = data.finish();
+                    layer.chunks.add(chunk);
+                    chunk = null;
+                } else if ("data".equals(tag) && data != null) {
+                    if (layer.chunks.isEmpty()) layer.gids = data.finish();
+                    data = null;
+                }
+            }
+        }
+        if (layer.gids == null && layer.chunks.isEmpty()) {
+            layer.gids = new int[Math.max(0, layer.width) * Math.max(0, layer.height)];
+        }
+        return layer;
+    }
+
+    private static TmxModel.ObjectGroup readObjectGroup(XMLStreamReader r) throws XMLStreamException {
+        TmxModel.ObjectGroup g = new TmxModel.ObjectGroup();
+        g.name = attr(r, "name");
+
+        TmxModel.MapObject obj = null;
+        int depth = 1;
+        while (depth > 0 && r.hasNext()) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String tag = r.getLocalName();
+                if ("object".equals(tag) && obj == null) {
+                    obj = new TmxModel.MapObject();
+                    obj.id = intAttr(r, "id", 0, 0);
+                    obj.name = attr(r, "name");
+                    obj.type = attr(r, "type");
+                    if (obj.type.length() == 0) obj.type = attr(r, "class");
+                    obj.x = doubleAttr(r, "x");
+                    obj.y = doubleAttr(r, "y");
+                    obj.width = doubleAttr(r, "width");
+                    obj.height = doubleAttr(r, "height");
+                    g.objects.add(obj);
+                } else if ("property".equals(tag) && obj != null) {
+                    obj.properties.put(attr(r, "name"), attr(r, "value"));
+                }
+            } else if (ev == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if ("object".equals(r.getLocalName())) obj = null;
+            }
+        }
+        return g;
+    }
+
+    /** رد کردن عنصر فعلی تا پایانش (خواننده روی شروع عنصر است) */
+    private static void skipElement(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && r.hasNext()) {
+            int ev = r.next();
+            if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+            else if (ev == XMLStreamConstants.END_ELEMENT) depth--;
+        }
+    }
+
+    private static String attr(XMLStreamReader r, String name) {
+        String v = r.getAttributeValue(null, name);
+        return (v != null) ? v : "";
+    }
+
+    /** missing اگر attribute نبود، bad اگر عدد نبود */
+    private static int intAttr(XMLStreamReader r, String name, int missing, int bad) {
+        String v = r.getAttributeValue(null, name);
+        if (v == null) return missing;
+        try { return Integer.parseInt(v.trim()); }
+        catch (NumberFormatException e) { return bad; }
+    }
+
+    private static double doubleAttr(XMLStreamReader r, String name) {
+        String v = r.getAttributeValue(null, name);
+        if (v == null) return 0;
+        try { return Double.parseDouble(v.trim()); }
+        catch (NumberFormatException e) { return 0; }
+    }
+
+    /** XMLStreamReader که با close جریان فایل زیرین را هم می‌بندد */
+    private static final class ClosingReader extends StreamReaderDelegate {
+        private final InputStream in;
+
+        ClosingReader(XMLStreamReader r, InputStream in) {
+            super(r);
+            this.in = in;
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            try {
+                super.close();
+            } finally {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // رمزگشایی داده
+    // ------------------------------------------------------------
+
+    /**
+     * رمزگشای یک &lt;data&gt; (و هر &lt;chunk&gt; آن)؛ برای هر بلوک begin → text/xmlTile → finish.
+     * توکن‌های کم‌تر از اندازه یعنی بقیه 0 (خالی) و توکن‌های اضافه نادیده گرفته می‌شوند.
+     */
+    private static final class DataDecoder {
+        private final boolean csv;
+        private final boolean base64;
+        private final String compression;
+
+        private int[] out = new int[0];
+        private int count;
+        // CSV: عدد در حال خواندن (بین دو رویداد متنی هم ادامه پیدا می‌کند)
+        private long raw;
+        private boolean inNumber;
+        // base64: متن بدون فاصله تا پایان بلوک جمع می‌شود
+        private final StringBuilder b64 = new StringBuilder();
+
+        DataDecoder(String encoding, String compression) throws IOException {
+            this.csv = "csv".equalsIgnoreCase(encoding);
+            this.base64 = "base64".equalsIgnoreCase(encoding);
+            if (!csv && !base64 && encoding.length() > 0) {
+                throw new IOException("unsupported TMX layer encoding: " + encoding);
+            }
+            this.compression = compression;
+            if (base64 && compression.length() > 0
+                    && !"zlib".equalsIgnoreCase(compression) && !"gzip".equalsIgnoreCase(compression)) {
+                throw new IOException("unsupported TMX layer compression: " + compression);
+            }
+        }
+
+        void begin(int size) {
+            out = new int[size];
+            count = 0;
+            raw = 0;
+            inNumber = false;
+            b64.setLength(0);
+        }
+
+        void text(char[] ch, int start, int len) {
+            if (csv) {
+                int end = start + len;
+                for (int p = start; p < end; p++) {
+                    char c = ch[p];
+                    if (c >= '0' && c <= '9') {
+                        raw = raw * 10 + (c - '0');
+                        inNumber = true;
+                    } else if (inNumber) {
+                        emit();
+                    }
+                }
+            } else if (base64) {
+                int end = start + len;
+                for (int p = start; p < end; p++) {
+                    char c = ch[p];
+                    if (c > ' ') b64.append(c);
+                }
+            }
+        }
+
+        /** فرمت قدیمی XML: یک &lt;tile gid="..."/&gt; برای هر خانه */
+        void xmlTile(String gid) {
+            if (csv || base64) return;
+            long v = 0;
+            try { v = (gid.length() > 0) ? Long.parseLong(gid.trim()) : 0; }
+            catch (NumberFormatException ignored) {}
+            if (count < out.length) out[count] = (int) v;
+            count++;
+        }
+
+        private void emit() {
+            if (count < out.length) out[count] = (int) raw;
+            count++;
+            raw = 0;
+            inNumber = false;
+        }
+
+        int[] finish() throws IOException {
+            if (csv && inNumber) emit();
+            if (base64) decodeBase64();
+            int[] result = out;
+            out = new int[0];
+            return result;
+        }
+
+        private void decodeBase64() throws IOException {
+            byte[] bytes;
+            try {
+                bytes = Base64.getDecoder().decode(b64.toString());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("bad base64 layer data", e);
+            }
+            b64.setLength(0);
+            if ("zlib".equalsIgnoreCase(compression)) bytes = inflate(bytes, out.length * 4);
+            else if ("gzip".equalsIgnoreCase(compression)) bytes = gunzip(bytes, out.length * 4);
+
+            int n = Math.min(out.length, bytes.length / 4);
+            for (int i = 0, b = 0; i < n; i++, b += 4) {
+                out[i] = (bytes[b] & 0xFF) | ((bytes[b + 1] & 0xFF) << 8)
+                        | ((bytes[b + 2] & 0xFF) << 16) | ((bytes[b + 3] & 0xFF) << 24);
+            }
+            count = n;
+        }
+
+        private static byte[] inflate(byte[] in, int expected) throws IOException {
+            Inflater inf = new Inflater();
+            try {
+                inf.setInput(in);
+                byte[] buf = new byte[Math.max(64, expected)];
+                int n = 0;
+                while (!inf.finished()) {
+                    if (n == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                    int k = inf.inflate(buf, n, buf.length - n);
+                    if (k == 0 && (inf.needsInput() || inf.needsDictionary())) break;
+                    n += k;
+                }
+                return (n == buf.length) ? buf : Arrays.copyOf(buf, n);
+            } catch (DataFormatException e) {
+                throw new IOException("bad zlib layer data", e);
+            } finally {
+                inf.end();
+            }
+        }
+
+        private static byte[] gunzip(byte[] in, int expected) throws IOException {
+            GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(in));
+            try {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, expected));
+                byte[] buf = new byte[8192];
+                int k;
+                while ((k = gz.read(buf)) > 0) bos.write(buf, 0, k);
+                return bos.toByteArray();
+            } finally {
+                gz.close();
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package strategy;
 
+import map.AdjacencyMasks;
 import map.CityMap;
+import map.MovementProfile;
 import util.Position;
 
 import java.util.*;
@@ -10,7 +12,7 @@ import java.util.*;
  * لایه: Strategy Layer
  * --------------------
  * A* Pathfinding بدون Stream/Lambda
- * - استفاده از CityMap.getWalkableNeighbors(...) برای همسایه‌های قابل عبور
+ * - پیمایش همسایه‌های قابل عبور با AdjacencyMasks.Cursor (همان قاعدهٔ CityMap.getWalkableNeighbors، بدون ساخت لیست)
  * - heuristic بر اساس فاصلهٔ مانهتن (فرض: Position.distanceTo من‌هتن است)
  * - تایی‌بریک روی gScore در صورت برابر بودن fScore
  * - شامل closedSet برای جلوگیری از پردازش تکراری
@@ -19,7 +21,10 @@ import java.util.*;
  * افزوده‌های این نسخه:
  * - debugEnabled برای چاپ جزئیات جستجو (اختیاری)
  * - returnClosestOnFail: در صورت نیافتن مسیر، بهترین تقریب تا نزدیک‌ترین نود به goal را برگردان
- * - گزارش تعداد نودهای گسترش‌یافته
+ * - گزارش تعداد نودهای گسترش‌یافته (findPathDetailed → PathResult.expandedNodes)
+ * - هیوریستیک ALT اختیاری (setLandmarks): max(منهتنی، کران نشانه‌ها) برای دورزدن بلوک‌های ساختمانی؛
+ *   با setLandmarkSource جدول فقط در اولین جست‌وجو از فایل کش map یا ساخته می‌شود
+ * - PathOptions: بودجهٔ زمان (قطع با نزدیک‌ترین تقریب، complete=false) و ضریب هیوریستیک (weighted A*)
  */
 public class AStarPathFinder implements IPathFinder {
 
@@ -34,6 +39,13 @@ public class AStarPathFinder implements IPathFinder {
     /** اگر true: جزئیات در کنسول چاپ می‌شود. */
     private boolean debugEnabled = false;
 
+    /** جدول نشانه‌های ALT (پروفایل DEFAULT، هم‌قاعده با getWalkableNeighbors)؛ null یعنی فقط منهتنی. */
+    private volatile LandmarkTable landmarks;
+
+    // منبع تنبل نشانه‌ها (setLandmarkSource)؛ بعد از اولین تلاش null می‌شود
+    private String landmarkTmxPath;
+    private int landmarkCount;
+
     public AStarPathFinder(CityMap cityMap) {
         this.cityMap = cityMap;
     }
@@ -53,17 +65,81 @@ public class AStarPathFinder implements IPathFinder {
         this.debugEnabled = enabled;
     }
 
+    /** هیوریستیک ALT؛ جدول باید برای MovementProfile.DEFAULT ساخته شده باشد (null = فقط منهتنی). */
+    public void setLandmarks(LandmarkTable table) {
+        if (table != null && table.getProfile() != MovementProfile.DEFAULT) {
+            throw new IllegalArgumentException("AStarPathFinder needs a DEFAULT-profile landmark table");
+        }
+        synchronized (this) {
+            this.landmarkTmxPath = null;
+            this.landmarks = table;
+        }
+    }
+
+    /**
+     * هیوریستیک ALT تنبل: جدول k نشانه برای tmxPath فقط در اولین جست‌وجو با LandmarkTable.loadOrBuild
+     * گرفته می‌شود، پس یابی که هرگز پرس‌وجو نشود هزینه‌ای نمی‌دهد. خطا → فقط منهتنی.
+     */
+    public synchronized void setLandmarkSource(String tmxPath, int k) {
+        this.landmarkTmxPath = tmxPath;
+        this.landmarkCount = k;
+        this.landmarks = null;
+    }
+
+    /** جدول فعلی؛ اگر منبع تنبل ست شده، همین حالا بارگذاری/ساخته می‌شود. */
+    public LandmarkTable getLandmarks() {
+        LandmarkTable t = landmarks;
+        if (t != null) return t;
+        synchronized (this) {
+            if (landmarks == null && landmarkTmxPath != null && cityMap != null) {
+                String path = landmarkTmxPath;
+                landmarkTmxPath = null; // فقط یک تلاش
+                try {
+                    landmarks = LandmarkTable.loadOrBuild(cityMap, MovementProfile.DEFAULT, path, landmarkCount);
+                } catch (RuntimeException ex) {
+                    System.err.println("[AStarPathFinder] landmark table failed: " + ex.getMessage());
+                }
+            }
+            return landmarks;
+        }
+    }
+
     @Override
     public List<Position> findPath(Position start, Position goal) {
+        return search(start, goal, maxExpandedNodes, 0L, 1000).path;
+    }
+
+    @Override
+    public PathResult findPathDetailed(Position from, Position to, PathOptions options) {
+        long t0 = System.nanoTime();
+        int limit = maxExpandedNodes;
+        long deadline = 0L;
+        int weightMilli = 1000;
+        if (options != null) {
+            if (options.getMaxExpandedNodes() > 0) limit = options.getMaxExpandedNodes();
+            if (options.hasTimeBudget()) deadline = t0 + options.getTimeBudgetNanos();
+            weightMilli = options.heuristicWeightMilli();
+        }
+        PathResult r = search(from, to, limit, deadline, weightMilli);
+        r.elapsedNanos = System.nanoTime() - t0;
+        return r;
+    }
+
+    /** deadline=0 یعنی بدون بودجهٔ زمان؛ weightMilli ضریب هیوریستیک به هزارم. */
+    private PathResult search(Position start, Position goal, int maxExpandedNodes, long deadline, int weightMilli) {
         // --- چک‌های ایمنی ---
-        if (cityMap == null || start == null || goal == null) return Collections.emptyList();
+        if (cityMap == null || start == null || goal == null) return result(Collections.<Position>emptyList(), false, 0);
         if (start.equals(goal)) {
             List<Position> single = new ArrayList<Position>();
             single.add(start);
-            return single;
+            return result(single, true, 0);
         }
-        // نکته: اگر CityMap متد isWalkable دارد، می‌توان اینجا چک کرد:
-        // if (!cityMap.isWalkable(start) || !cityMap.isWalkable(goal)) return Collections.emptyList();
+        // مؤلفهٔ جدا (قواعد isWalkable بدون اشغال) → بدون پیمودن کل ناحیه
+        if (!returnClosestOnFail && !cityMap.isReachable(start, goal, MovementProfile.DEFAULT)) {
+            return result(Collections.<Position>emptyList(), false, 0);
+        }
+        final LandmarkTable alt = getLandmarks();
+        if (alt != null) alt.ensureFresh();
 
         // --- ساختارهای A* ---
         final Map<Position, Position> cameFrom = new HashMap<Position, Position>();
@@ -82,8 +158,8 @@ public class AStarPathFinder implements IPathFinder {
                 int gb = getScoreSafe(gScore, b);
                 if (ga != gb) return (ga < gb) ? -1 : 1;
                 // تایی‌بریک دوم: فاصله‌ی heuristic تا مقصد
-                int ha = heuristic(a, goal);
-                int hb = heuristic(b, goal);
+                int ha = heuristic(alt, a, goal);
+                int hb = heuristic(alt, b, goal);
                 if (ha != hb) return (ha < hb) ? -1 : 1;
                 // در نهایت برای ثبات، مختصات
                 if (a.getY() != b.getY()) return (a.getY() < b.getY()) ? -1 : 1;
@@ -97,7 +173,7 @@ public class AStarPathFinder implements IPathFinder {
         Set<Position> closedSet = new HashSet<Position>();
 
         gScore.put(start, 0);
-        fScore.put(start, heuristic(start, goal));
+        fScore.put(start, weighted(heuristic(alt, start, goal), weightMilli));
         openSet.add(start);
         openLookup.add(start);
 
@@ -105,12 +181,15 @@ public class AStarPathFinder implements IPathFinder {
 
         // برای حالت Closest-on-Fail: بهترین تقریبی که تاکنون دیده‌ایم
         Position bestSoFar = start;
-        int bestSoFarH = heuristic(start, goal);
+        int bestSoFarH = start.distanceTo(goal);
 
         if (debugEnabled) {
             System.out.println("[A*] start=" + coord(start) + " goal=" + coord(goal));
         }
 
+        // پیمایش همسایه‌ها: ماسک پروفایل DEFAULT (همان قاعدهٔ getWalkableNeighbors) + اشغال لحظه‌ای
+        AdjacencyMasks.Cursor neighbors = cityMap.getAdjacencyMasks(MovementProfile.DEFAULT).cursor(true);
+
         // --- حلقه‌ی اصلی A* ---
         while (!openSet.isEmpty()) {
             Position current = openSet.poll();
@@ -120,7 +199,9 @@ public class AStarPathFinder implements IPathFinder {
                 if (debugEnabled) {
                     System.out.println("[A*] Reached goal. Expanded=" + expanded);
                 }
-                return reconstructPath(cameFrom, current);
+                PathResult done = result(reconstructPath(cameFrom, current), true, expanded);
+                done.suboptimality = weightMilli / 1000.0;
+                return done;
             }
 
             if (closedSet.contains(current)) {
@@ -129,7 +210,7 @@ public class AStarPathFinder implements IPathFinder {
             closedSet.add(current);
 
             // به‌روزرسانی بهترین تقریب
-            int hCur = heuristic(current, goal);
+            int hCur = current.distanceTo(goal);
             if (hCur < bestSoFarH) {
                 bestSoFar = current;
                 bestSoFarH = hCur;
@@ -141,22 +222,34 @@ public class AStarPathFinder implements IPathFinder {
                 if (debugEnabled) {
                     System.out.println("[A*] Reached node expansion limit (" + maxExpandedNodes + ").");
                 }
+                PathResult cut;
                 if (returnClosestOnFail && bestSoFar != null && !bestSoFar.equals(start)) {
                     if (debugEnabled) {
                         System.out.println("[A*] Return closest-on-fail from " + coord(bestSoFar));
                     }
-                    return reconstructPath(cameFrom, bestSoFar);
+                    cut = result(reconstructPath(cameFrom, bestSoFar), false, expanded);
+                } else {
+                    cut = result(Collections.<Position>emptyList(), false, expanded);
                 }
-                return Collections.emptyList();
+                cut.complete = false;
+                return cut;
+            }
+            if (deadline != 0L && (expanded & 31) == 0 && System.nanoTime() - deadline >= 0) {
+                // بودجهٔ زمان تمام شد: بهترین تقریب تا این لحظه
+                if (debugEnabled) {
+                    System.out.println("[A*] Time budget exhausted. Expanded=" + expanded);
+                }
+                PathResult cut = bestSoFar.equals(start)
+                        ? result(Collections.<Position>emptyList(), false, expanded)
+                        : result(reconstructPath(cameFrom, bestSoFar), false, expanded);
+                cut.complete = false;
+                return cut;
             }
 
-            // همسایه‌های قابل عبور از CityMap
-            List<Position> neighbors = cityMap.getWalkableNeighbors(current);
-            if (neighbors == null || neighbors.isEmpty()) continue;
-
-            for (int i = 0; i < neighbors.size(); i++) {
-                Position nb = neighbors.get(i);
-                if (nb == null) continue;
+            // همسایه‌های قابل عبور و آزاد از ماسک همسایگی (بدون لیست موقت)
+            neighbors.reset(current.getX(), current.getY());
+            while (neighbors.next()) {
+                Position nb = new Position(neighbors.x(), neighbors.y());
                 if (closedSet.contains(nb)) continue;
 
                 int tentativeG = getScoreSafe(gScore, current) + 1; // هزینه‌ی یکنواخت 1 برای هر قدم
@@ -165,7 +258,7 @@ public class AStarPathFinder implements IPathFinder {
                 if (nbG == null || tentativeG < nbG.intValue()) {
                     cameFrom.put(nb, current);
                     gScore.put(nb, tentativeG);
-                    fScore.put(nb, tentativeG + heuristic(nb, goal));
+                    fScore.put(nb, tentativeG + weighted(heuristic(alt, nb, goal), weightMilli));
 
                     if (!openLookup.contains(nb)) {
                         openSet.add(nb);
@@ -187,14 +280,32 @@ public class AStarPathFinder implements IPathFinder {
             if (debugEnabled) {
                 System.out.println("[A*] Return closest-on-fail from " + coord(bestSoFar));
             }
-            return reconstructPath(cameFrom, bestSoFar);
+            return result(reconstructPath(cameFrom, bestSoFar), false, expanded);
         }
-        return Collections.emptyList();
+        return result(Collections.<Position>emptyList(), false, expanded);
+    }
+
+    // --- heuristic: مانهتن، یا max(مانهتن، ALT) اگر جدول نشانه‌ها هست ---
+    private int heuristic(LandmarkTable alt, Position a, Position b) {
+        int h = a.distanceTo(b); // فرض: distanceTo = |dx| + |dy|
+        if (alt == null) return h;
+        int lb = alt.lowerBound(a, b);
+        return (lb > h) ? lb : h;
+    }
+
+    private static int weighted(int h, int weightMilli) {
+        if (weightMilli == 1000) return h;
+        return (int) (((long) h * weightMilli) / 1000L);
     }
 
-    // --- heuristic (مانهتن) ---
-    private int heuristic(Position a, Position b) {
-        return a.distanceTo(b); // فرض: distanceTo = |dx| + |dy|
+    /** success=false با مسیر غیرخالی یعنی تقریب closest-on-fail. */
+    private static PathResult result(List<Position> path, boolean success, int expanded) {
+        PathResult r = new PathResult();
+        r.path = path;
+        r.success = success;
+        r.totalCost = path.isEmpty() ? Integer.MAX_VALUE : path.size() - 1;
+        r.expandedNodes = expanded;
+        return r;
     }
 
     // --- بازسازی مسیر از goal به start ---
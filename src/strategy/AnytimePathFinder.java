@@ -0,0 +1,326 @@
+package strategy;
+
+import map.CityMap;
+import map.MapChangeListener;
+import map.MovementProfile;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * جست‌وجوی anytime (ARA*) با بودجهٔ زمان برای نخ حلقهٔ بازی.
+ * - اولین مسیر با weighted A* (ضریب ε بزرگ) سریع پیدا می‌شود؛ سپس ε پله‌پله تا 1 کم می‌شود و
+ *   هر دور فقط نودهای ناسازگار (OPEN + INCONS) دوباره باز می‌شوند، نه کل جست‌وجو.
+ * - هر فراخوانی findPathDetailed حداکثر به اندازهٔ PathOptions.getTimeBudgetNanos کار می‌کند؛
+ *   اگر بودجه تمام شود وضعیت نگه داشته می‌شود و فراخوانی بعدی با همان (start, goal) از همان‌جا ادامه می‌دهد.
+ * - خروجی: بهترین مسیر کامل تا این لحظه (success=true، complete=false تا وقتی ε به 1 نرسیده و
+ *   getSuboptimalityBound = ε آخرین دور کامل) یا اگر هنوز مسیری نیست، مسیر تا نزدیک‌ترین نود (success=false).
+ *
+ * گراف روی بخش ایستای پروفایل (isPassable) است تا وضعیت بین تیک‌ها معتبر بماند؛ اشغال تایل‌ها با
+ * MoveGuard هنگام حرکت رد می‌شود. هر تغییر CELL/COLLISION یا عوض شدن start/goal جست‌وجو را از نو شروع می‌کند.
+ * هر نمونه یک پرس‌وجوی فعال دارد (مثلاً یک نمونه به‌ازای هر عامل).
+ */
+public class AnytimePathFinder implements IPathFinder, MapChangeListener {
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    /** هر چند گسترش یک‌بار ساعت خوانده می‌شود (توان 2 منهای 1). */
+    private static final int CLOCK_MASK = 31;
+    private static final int INF = Integer.MAX_VALUE;
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final int width;
+    private final int height;
+
+    /** ε اولیه وقتی PathOptions ضریبی بیشتر از 1 نداده باشد. */
+    private double initialWeight = 3.0;
+    /** کاهش ε در هر دور */
+    private double weightStep = 0.5;
+
+    // --- وضعیت پرس‌وجوی فعال ---
+    private int start = -1;
+    private int goal = -1;
+    private int epsMilli;          // ε فعلی به هزارم
+    private double boundEps;       // ε آخرین دور کامل (بی‌نهایت اگر هنوز دوری تمام نشده)
+    private boolean finished;      // ε=1 کامل شد یا نبود راه ثابت شد
+    private int best;              // نزدیک‌ترین نود بسته به goal (برای مسیر جزئی)
+    private int bestH;
+    private int expandedTotal;
+    private int iterations;
+    private boolean stale = true;
+
+    private final int[] g;
+    private final int[] parent;
+    private final int[] seen;      // seen[v] == session یعنی g[v] معتبر است
+    private final int[] closed;    // closed[v] == closedGen یعنی در CLOSED دور فعلی
+    private final int[] incons;    // incons[v] == closedGen یعنی در فهرست INCONS است
+    private int session = 0;
+    private int closedGen = 0;
+    private int[] inconsList = new int[64];
+    private int inconsCount;
+    private final IndexedMinHeap open;
+
+    public AnytimePathFinder(CityMap cityMap) {
+        this(cityMap, MovementProfile.DEFAULT);
+    }
+
+    public AnytimePathFinder(CityMap cityMap, MovementProfile profile) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        int n = width * height;
+        this.g = new int[n];
+        this.parent = new int[n];
+        this.seen = new int[n];
+        this.closed = new int[n];
+        this.incons = new int[n];
+        this.open = new IndexedMinHeap(n);
+        cityMap.addChangeListener(this);
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    /** ε اولیه (≥ 1) برای فراخوانی‌هایی که ضریبی در PathOptions نداده‌اند. */
+    public synchronized void setInitialWeight(double weight) {
+        if (!(weight >= 1.0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("initial weight must be >= 1: " + weight);
+        }
+        this.initialWeight = weight;
+    }
+
+    /** گام کاهش ε بین دورها (> 0). */
+    public synchronized void setWeightStep(double step) {
+        if (!(step > 0.0)) throw new IllegalArgumentException("weight step must be > 0: " + step);
+        this.weightStep = step;
+    }
+
+    /** ε فعلی پرس‌وجوی فعال (1 یعنی دور بهینه). */
+    public synchronized double getCurrentWeight() { return epsMilli / 1000.0; }
+
+    /** تعداد دورهای کامل پرس‌وجوی فعال. */
+    public synchronized int getIterationCount() { return iterations; }
+
+    /** کنار گذاشتن پرس‌وجوی فعال. */
+    public synchronized void reset() { stale = true; }
+
+    /** جداشدن از نقشه. */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    // ------------------------------------------------------------
+    // IPathFinder
+    // ------------------------------------------------------------
+
+    /** بدون بودجه: همهٔ دورها تا ε=1 اجرا می‌شوند (مسیر بهینه). */
+    @Override
+    public List<Position> findPath(Position from, Position to) {
+        return findPathDetailed(from, to, null).path;
+    }
+
+    @Override
+    public synchronized PathResult findPathDetailed(Position from, Position to, PathOptions options) {
+        long t0 = System.nanoTime();
+        PathResult r = new PathResult();
+        r.path = Collections.<Position>emptyList();
+        r.success = false;
+        r.totalCost = Integer.MAX_VALUE;
+        r.expandedNodes = 0;
+
+        if (from == null || to == null
+                || !cityMap.isValid(from.getX(), from.getY()) || !cityMap.isValid(to.getX(), to.getY())) {
+            r.elapsedNanos = System.nanoTime() - t0;
+            return r;
+        }
+        if (from.equals(to)) {
+            List<Position> single = new ArrayList<Position>(1);
+            single.add(from);
+            r.path = single;
+            r.success = true;
+            r.totalCost = 0;
+            r.elapsedNanos = System.nanoTime() - t0;
+            return r;
+        }
+        if (!cityMap.isReachable(from, to, profile)) { // مؤلفهٔ جدا → O(1)
+            r.elapsedNanos = System.nanoTime() - t0;
+            return r;
+        }
+
+        int s = from.getY() * width + from.getX();
+        int t = to.getY() * width + to.getX();
+        long deadline = (options != null && options.hasTimeBudget()) ? t0 + options.getTimeBudgetNanos() : 0L;
+        int limit = (options != null) ? options.getMaxExpandedNodes() : 0;
+        if (stale || s != start || t != goal) {
+            double w = (options != null && options.getHeuristicWeight() > 1.0) ? options.getHeuristicWeight() : initialWeight;
+            begin(s, t, w);
+        }
+
+        int before = expandedTotal;
+        boolean cut = false;
+        while (!finished) {
+            if (!improvePath(deadline, limit > 0 ? before + limit : 0)) {
+                cut = true;
+                break;
+            }
+            iterations++;
+            boundEps = epsMilli / 1000.0;
+            if (epsMilli <= 1000 || !reached(goal)) {
+                finished = true; // دور بهینه تمام شد، یا OPEN خالی شد و راهی نیست
+                break;
+            }
+            nextIteration();
+        }
+        r.expandedNodes = expandedTotal - before;
+
+        if (reached(goal)) {
+            r.path = reconstruct(goal);
+            r.success = true;
+            r.totalCost = g[goal];
+            r.suboptimality = finished ? 1.0 : boundEps;
+        } else if (best != start) {
+            r.path = reconstruct(best);
+            r.totalCost = r.path.size() - 1;
+        }
+        r.complete = finished && !cut;
+        r.elapsedNanos = System.nanoTime() - t0;
+        return r;
+    }
+
+    // ------------------------------------------------------------
+    // ARA*
+    // ------------------------------------------------------------
+
+    private void begin(int s, int t, double weight) {
+        session++;
+        closedGen++;
+        if (session == Integer.MAX_VALUE || closedGen == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            Arrays.fill(incons, 0);
+            session = 1;
+            closedGen = 1;
+        }
+        open.clear();
+        inconsCount = 0;
+        start = s;
+        goal = t;
+        epsMilli = Math.max(1000, (int) Math.round(weight * 1000.0));
+        boundEps = Double.POSITIVE_INFINITY;
+        finished = false;
+        iterations = 0;
+        stale = false;
+        best = s;
+        bestH = heuristic(s);
+        seen[s] = session;
+        g[s] = 0;
+        parent[s] = -1;
+        open.insertOrUpdate(s, key(s));
+    }
+
+    /**
+     * گسترش تا وقتی f(goal) ≤ کمینهٔ OPEN (شرط پایان دور ARA*).
+     * false اگر بودجهٔ زمان یا سقف نودها زودتر تمام شد (وضعیت برای ادامه سالم می‌ماند).
+     */
+    private boolean improvePath(long deadline, int expandLimit) {
+        while (!open.isEmpty()) {
+            if (reached(goal) && (long) g[goal] * 1000L <= (open.peekKey() >>> 32)) return true;
+            if (expandLimit > 0 && expandedTotal >= expandLimit) return false;
+            if (deadline != 0L && (expandedTotal & CLOCK_MASK) == 0 && System.nanoTime() - deadline >= 0) return false;
+
+            int cur = open.poll();
+            closed[cur] = closedGen;
+            expandedTotal++;
+            int hCur = heuristic(cur);
+            if (hCur < bestH) {
+                best = cur;
+                bestH = hCur;
+            }
+
+            int cx = cur % width, cy = cur / width;
+            int ng = g[cur] + 1;
+            for (int k = 0; k < 4; k++) {
+                int nx = cx + DX[k], ny = cy + DY[k];
+                if (!profile.isPassable(cityMap, nx, ny)) continue;
+                int nb = ny * width + nx;
+                if (reached(nb) && g[nb] <= ng) continue;
+                seen[nb] = session;
+                g[nb] = ng;
+                parent[nb] = cur;
+                if (closed[nb] != closedGen) {
+                    open.insertOrUpdate(nb, key(nb));
+                } else if (incons[nb] != closedGen) {
+                    incons[nb] = closedGen;
+                    if (inconsCount == inconsList.length) inconsList = Arrays.copyOf(inconsList, inconsCount * 2);
+                    inconsList[inconsCount++] = nb;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** کاهش ε، انتقال INCONS به OPEN، کلیدگذاری دوباره و خالی‌کردن CLOSED. */
+    private void nextIteration() {
+        epsMilli = Math.max(1000, epsMilli - (int) Math.round(weightStep * 1000.0));
+        int[] keep = new int[open.size() + inconsCount];
+        int n = 0;
+        while (!open.isEmpty()) keep[n++] = open.poll();
+        for (int i = 0; i < inconsCount; i++) keep[n++] = inconsList[i]; // INCONS فقط نودهای بسته است
+        inconsCount = 0;
+        closedGen++; // CLOSED و INCONS هر دو با همین نسل خالی می‌شوند
+        if (closedGen == Integer.MAX_VALUE) {
+            Arrays.fill(closed, 0);
+            Arrays.fill(incons, 0);
+            closedGen = 1;
+        }
+        for (int i = 0; i < n; i++) open.insertOrUpdate(keep[i], key(keep[i]));
+    }
+
+    private boolean reached(int v) {
+        return seen[v] == session;
+    }
+
+    /** کلید: f = g + ε·h (به هزارم) در ۳۲ بیت بالا و g در ۳۲ بیت پایین. */
+    private long key(int v) {
+        long f = (long) g[v] * 1000L + (long) epsMilli * heuristic(v);
+        return (f << 32) | (g[v] & 0xFFFFFFFFL);
+    }
+
+    private int heuristic(int v) {
+        return Math.abs(v % width - goal % width) + Math.abs(v / width - goal / width);
+    }
+
+    private List<Position> reconstruct(int end) {
+        int len = 0;
+        for (int c = end; c != -1; c = parent[c]) len++;
+        Position[] out = new Position[len];
+        int i = len - 1;
+        for (int c = end; c != -1; c = parent[c]) {
+            out[i--] = new Position(c % width, c / width);
+        }
+        return new ArrayList<Position>(Arrays.asList(out));
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public synchronized void onTileChanged(CityMap map, int x, int y, int kind) {
+        if ((kind & (CELL | COLLISION)) != 0) stale = true; // اشغال روی گراف ایستا اثری ندارد
+    }
+
+    @Override
+    public synchronized void onMapReset(CityMap map) {
+        stale = true;
+    }
+}
@@ -0,0 +1,149 @@
+package strategy;
+
+import java.util.Arrays;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * صف اولویت سطلی (Dial / radix) برای کلیدهای صحیح نامنفی و «یکنوا».
+ * - شرط: هر درج کلیدی در بازهٔ [کمینهٔ فعلی، کمینهٔ فعلی + span) دارد (اولین درج بعد از reset مبدأ بازه را تعیین می‌کند)؛
+ *   با هزینهٔ یال حداکثر C (و هیوریستیک سازگار با ضریب حداکثر C) span = 2C+1 کافی است.
+ * - سطل‌ها حلقوی‌اند (key % span) و هر سطل لیست پیوندی دوطرفهٔ «درون‌آرایه‌ای» روی شناسهٔ نود است؛
+ *   پس درج، decrease-key و حذف O(1) و poll سرشکن O(1) است (مکان‌نما فقط جلو می‌رود).
+ * - در یک سطل ترتیب LIFO است (تساوی کلید را آخرین درج می‌برد).
+ * بدون Stream/Lambda و بدون تخصیص در حالت پایدار.
+ */
+public final class BucketQueue {
+
+    private static final int NIL = -1;
+
+    private int[] next;   // next[node] در سطل خودش
+    private int[] prev;   // prev[node] در سطل خودش
+    private int[] keys;   // keys[node] = کلید فعلی؛ NIL یعنی داخل صف نیست
+    private int[] head;   // head[bucket] = اولین نود سطل
+    private int span;
+    private int cursor;   // کمینهٔ ممکن کلید (کلید آخرین poll)
+    private boolean anchored; // آیا cursor از اولین درج تعیین شده است؟
+    private int size;
+
+    public BucketQueue(int capacity, int span) {
+        if (capacity < 1) capacity = 1;
+        if (span < 1) span = 1;
+        this.next = new int[capacity];
+        this.prev = new int[capacity];
+        this.keys = new int[capacity];
+        Arrays.fill(keys, NIL);
+        this.head = new int[span];
+        Arrays.fill(head, NIL);
+        this.span = span;
+        this.cursor = 0;
+        this.anchored = false;
+        this.size = 0;
+    }
+
+    /** ظرفیت فعلی (بیشینهٔ شناسهٔ نود + 1). */
+    public int capacity() { return keys.length; }
+
+    /** تعداد سطل‌های حلقه (بیشینهٔ فاصلهٔ کلید درج‌شده از کمینه + 1). */
+    public int span() { return span; }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    /**
+     * خالی‌کردن صف و تنظیم span برای جست‌وجوی بعدی.
+     * هزینه O(span + نودهای باقی‌مانده)؛ آرایه‌های نودها پاک نمی‌شوند.
+     */
+    public void reset(int newSpan) {
+        if (size > 0) {
+            for (int b = 0; b < span; b++) {
+                int v = head[b];
+                while (v != NIL) {
+                    int nx = next[v];
+                    keys[v] = NIL;
+                    v = nx;
+                }
+                head[b] = NIL;
+            }
+        }
+        if (newSpan > head.length) {
+            head = new int[newSpan];
+            Arrays.fill(head, NIL);
+        }
+        span = Math.max(newSpan, 1);
+        cursor = 0;
+        anchored = false;
+        size = 0;
+    }
+
+    /** آیا نود اکنون داخل صف است؟ */
+    public boolean contains(int node) {
+        return node >= 0 && node < keys.length && keys[node] != NIL;
+    }
+
+    /** کلید فعلی نود (فقط برای نودهای داخل صف معنادار است). */
+    public int keyOf(int node) { return keys[node]; }
+
+    /** کمترین کلید موجود (صف نباید خالی باشد). */
+    public int peekKey() {
+        advance();
+        return cursor;
+    }
+
+    /** درج نود یا تغییر کلید آن (کاهش یا افزایش، تا وقتی در بازهٔ مجاز بماند). */
+    public void insertOrUpdate(int node, int key) {
+        if (!anchored) {
+            cursor = key; // اولین درج: بازه از همین کلید شروع می‌شود
+            anchored = true;
+        }
+        if (key < cursor || key - cursor >= span) {
+            throw new IllegalArgumentException("key " + key + " outside [" + cursor + ", " + (cursor + span) + ")");
+        }
+        if (keys[node] != NIL) {
+            if (keys[node] == key) return;
+            unlink(node);
+        } else {
+            size++;
+        }
+        keys[node] = key;
+        int b = key % span;
+        int h = head[b];
+        prev[node] = NIL;
+        next[node] = h;
+        if (h != NIL) prev[h] = node;
+        head[b] = node;
+    }
+
+    /** برداشتن نود با کمترین کلید (صف نباید خالی باشد). */
+    public int poll() {
+        advance();
+        int b = cursor % span;
+        int v = head[b];
+        unlink(v);
+        keys[v] = NIL;
+        size--;
+        return v;
+    }
+
+    /** حذف نود (اگر داخل صف باشد). */
+    public void remove(int node) {
+        if (!contains(node)) return;
+        unlink(node);
+        keys[node] = NIL;
+        size--;
+    }
+
+    /** مکان‌نما را تا اولین سطل ناخالی جلو می‌برد. */
+    private void advance() {
+        if (size == 0) throw new IllegalStateException("queue is empty");
+        while (head[cursor % span] == NIL) cursor++;
+    }
+
+    private void unlink(int node) {
+        int p = prev[node], n = next[node];
+        if (p != NIL) next[p] = n;
+        else head[keys[node] % span] = n;
+        if (n != NIL) prev[n] = p;
+    }
+}
@@ -0,0 +1,390 @@
+package strategy;
+
+import map.CityMap;
+import map.MapChangeListener;
+import map.MovementProfile;
+import util.CompactPath;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * دکوراتور کش روی هر IPathFinder.
+ * - کلید: (start, goal, نام پروفایل)
+ * - LRU محدود (LinkedHashMap با accessOrder) + آمار hit/miss/eviction
+ * - اعتبار هر مسیر با «مهر ناحیه» سنجیده می‌شود: نقشه به نواحی regionSize×regionSize تقسیم
+ *   می‌شود و هر تغییرِ تایل (از طریق MapChangeListener) مهر ناحیهٔ خودش را جلو می‌برد.
+ *   · تغییر زمین/برخورد در ناحیه‌ای که مسیر از آن می‌گذرد → مسیر دور ریخته می‌شود.
+ *   · تغییر اشغال → فقط تایل‌های مسیر دوباره با canEnter چک می‌شوند (عامل‌ها مدام جابه‌جا می‌شوند
+ *     و اغلب اشغالِ خودِ عامل است، نه مانع روی مسیر).
+ * - استفادهٔ دوباره از پسوند: اگر start روی یک مسیر کش‌شده به همان goal باشد، ادامهٔ همان مسیر برمی‌گردد.
+ * - مسیرها فشرده (CompactPath) نگه داشته و به‌صورت نمای فقط‌خواندنی List برگردانده می‌شوند.
+ *
+ * توجه: بازشدن راهی خارج از نواحی مسیر، مسیر کش‌شده را باطل نمی‌کند؛ پس ممکن است تا بیرون‌رفتن
+ * از کش، مسیر کوتاه‌تر جدید دیده نشود. invalidateAll برای چنین مواقعی است.
+ */
+public class CachingPathFinder implements IPathFinder, MapChangeListener {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_REGION_SIZE = 16;
+
+    private final IPathFinder delegate;
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final String profileName;
+    private final int capacity;
+    private final int regionSize;
+    private final int regionsX;
+
+    // مهرهای نسخه: زمین (سلول/برخورد) و اشغال، جدا
+    private final long[] terrainStamp;
+    private final long[] occupancyStamp;
+    private long globalVersion = 0;
+    /** شمارندهٔ هر تغییر (برای تشخیص تغییر نقشه در حین جست‌وجوی بیرون از قفل) */
+    private long changeCount = 0;
+
+    private final LinkedHashMap<Key, Entry> lru;
+    /** goal → مدخل‌هایی که به آن ختم می‌شوند (برای پسوند) */
+    private final HashMap<Long, ArrayList<Entry>> byGoal = new HashMap<Long, ArrayList<Entry>>();
+
+    // آمار
+    private long hits, suffixHits, misses, evictions, staleDrops, occupancyRechecks;
+
+    /** کلید کش */
+    private static final class Key {
+        final int sx, sy, gx, gy;
+        final String profile;
+
+        Key(int sx, int sy, int gx, int gy, String profile) {
+            this.sx = sx; this.sy = sy; this.gx = gx; this.gy = gy;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return sx == k.sx && sy == k.sy && gx == k.gx && gy == k.gy && profile.equals(k.profile);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = sx;
+            h = 31 * h + sy;
+            h = 31 * h + gx;
+            h = 31 * h + gy;
+            return 31 * h + profile.hashCode();
+        }
+    }
+
+    /** مسیر کش‌شده به‌صورت run-length (Position تغییرپذیر است و نگه داشته نمی‌شود). */
+    private static final class Entry {
+        final Key key;
+        final CompactPath path;
+        final int[] regions;      // نواحی یکتای مسیر
+        final long[] terrainAt;   // مهر زمین هر ناحیه هنگام ذخیره
+        final long[] occAt;       // مهر اشغال هر ناحیه هنگام آخرین بررسی
+        final long version;
+
+        Entry(Key key, CompactPath path, int[] regions, long[] terrainAt, long[] occAt, long version) {
+            this.key = key;
+            this.path = path;
+            this.regions = regions;
+            this.terrainAt = terrainAt;
+            this.occAt = occAt;
+            this.version = version;
+        }
+    }
+
+    public CachingPathFinder(IPathFinder delegate, CityMap cityMap, MovementProfile profile) {
+        this(delegate, cityMap, profile, DEFAULT_CAPACITY, DEFAULT_REGION_SIZE);
+    }
+
+    public CachingPathFinder(IPathFinder delegate, CityMap cityMap, MovementProfile profile,
+                             int capacity, int regionSize) {
+        if (delegate == null) throw new IllegalArgumentException("delegate is null");
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        if (capacity < 1) capacity = 1;
+        if (regionSize < 1) regionSize = 1;
+        this.delegate = delegate;
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.profileName = this.profile.getName();
+        this.capacity = capacity;
+        this.regionSize = regionSize;
+        this.regionsX = (cityMap.getWidth() + regionSize - 1) / regionSize;
+        int regionsY = (cityMap.getHeight() + regionSize - 1) / regionSize;
+        this.terrainStamp = new long[regionsX * regionsY];
+        this.occupancyStamp = new long[regionsX * regionsY];
+
+        final int cap = capacity;
+        this.lru = new LinkedHashMap<Key, Entry>(Math.min(cap, 1024) * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= cap) return false;
+                unindex(eldest.getValue());
+                evictions++;
+                return true;
+            }
+        };
+        cityMap.addChangeListener(this);
+    }
+
+    public IPathFinder getDelegate() { return delegate; }
+
+    /** جداشدن از نقشه. */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    // ------------------------------------------------------------
+    // IPathFinder
+    // ------------------------------------------------------------
+
+    @Override
+    public List<Position> findPath(Position start, Position goal) {
+        return findPathDetailed(start, goal, null).path;
+    }
+
+    /**
+     * جست‌وجوی delegate بیرون از قفل انجام می‌شود تا برنامه‌ریزی موازی چند عامل سریالی نشود؛
+     * اگر نقشه در همان فاصله عوض شده باشد، نتیجه برگردانده می‌شود ولی کش نمی‌شود.
+     */
+    @Override
+    public PathResult findPathDetailed(Position start, Position goal, PathOptions options) {
+        if (start == null || goal == null) return delegate.findPathDetailed(start, goal, options);
+
+        Key key = new Key(start.getX(), start.getY(), goal.getX(), goal.getY(), profileName);
+        long seen;
+        synchronized (this) {
+            PathResult cached = lookup(key, start, goal);
+            if (cached != null) return cached;
+            misses++;
+            seen = changeCount;
+        }
+        PathResult r = delegate.findPathDetailed(start, goal, options);
+        if (r != null && r.success && r.path != null && !r.path.isEmpty()) {
+            synchronized (this) {
+                if (changeCount == seen) store(key, r.path);
+            }
+        }
+        return r;
+    }
+
+    /** مسیر معتبر از کش (کامل یا پسوند)؛ null اگر نیست. */
+    private PathResult lookup(Key key, Position start, Position goal) {
+        Entry e = lru.get(key);
+        if (e != null) {
+            if (isValid(e, 0)) {
+                hits++;
+                return cachedResult(e, 0);
+            }
+            drop(e);
+        }
+
+        // پسوند مسیرهای دیگر به همین goal
+        ArrayList<Entry> same = byGoal.get(goalKey(goal.getX(), goal.getY()));
+        if (same != null) {
+            for (int i = same.size() - 1; i >= 0; i--) {
+                Entry o = same.get(i);
+                int at = o.path.indexOf(start.getX(), start.getY());
+                if (at < 0) continue;
+                if (!isValid(o, at)) {
+                    drop(o);
+                    continue;
+                }
+                suffixHits++;
+                lru.get(o.key); // تازه‌کردن LRU
+                return cachedResult(o, at);
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------
+    // ابطال
+    // ------------------------------------------------------------
+
+    /** حذف مسیر کش‌شدهٔ یک جفت مشخص. */
+    public synchronized void invalidate(Position start, Position goal) {
+        if (start == null || goal == null) return;
+        Entry e = lru.get(new Key(start.getX(), start.getY(), goal.getX(), goal.getY(), profileName));
+        if (e != null) drop(e);
+    }
+
+    /**
+     * گزارش تایلی که حرکت به آن رد شد (مثلاً MoveGuard.tryMoveTo=false):
+     * مهر زمین ناحیه جلو می‌رود تا همهٔ مسیرهای گذرنده از آن دوباره حساب شوند.
+     */
+    public synchronized void reportBlocked(int x, int y) {
+        if (!cityMap.isValid(x, y)) return;
+        terrainStamp[regionOf(x, y)]++;
+        changeCount++;
+    }
+
+    public synchronized void invalidateAll() {
+        globalVersion++;
+        changeCount++;
+        lru.clear();
+        byGoal.clear();
+    }
+
+    @Override
+    public void onTileChanged(CityMap map, int x, int y, int kind) {
+        synchronized (this) {
+            if (!cityMap.isValid(x, y)) return;
+            int r = regionOf(x, y);
+            if (kind == OCCUPANCY) occupancyStamp[r]++;
+            else terrainStamp[r]++;
+            changeCount++;
+        }
+    }
+
+    @Override
+    public void onMapReset(CityMap map) {
+        invalidateAll();
+    }
+
+    // ------------------------------------------------------------
+    // آمار
+    // ------------------------------------------------------------
+
+    public synchronized int size() { return lru.size(); }
+    public int getCapacity() { return capacity; }
+    public synchronized long getHits() { return hits; }
+    public synchronized long getSuffixHits() { return suffixHits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized long getStaleDrops() { return staleDrops; }
+
+    public synchronized void resetStats() {
+        hits = suffixHits = misses = evictions = staleDrops = occupancyRechecks = 0;
+    }
+
+    public synchronized String getStats() {
+        long total = hits + suffixHits + misses;
+        double rate = (total == 0) ? 0.0 : (100.0 * (hits + suffixHits) / total);
+        return "PathCache{" + profileName +
+                " size=" + lru.size() + "/" + capacity +
+                ", hits=" + hits +
+                ", suffixHits=" + suffixHits +
+                ", misses=" + misses +
+                ", hitRate=" + String.format("%.1f", rate) + "%" +
+                ", evictions=" + evictions +
+                ", stale=" + staleDrops +
+                ", occRechecks=" + occupancyRechecks + "}";
+    }
+
+    // ------------------------------------------------------------
+    // داخلی
+    // ------------------------------------------------------------
+
+    private void store(Key key, List<Position> found) {
+        CompactPath path = CompactPath.fromList(found);
+        if (path == null || path.isEmpty()) return; // مسیر ناپیوسته کش نمی‌شود
+        int[] tmpRegions = new int[Math.min(path.size(), terrainStamp.length)];
+        int rc = 0;
+        CompactPath.Cursor c = path.cursor();
+        do {
+            int r = regionOf(c.getX(), c.getY());
+            boolean seen = false;
+            for (int k = rc - 1; k >= 0; k--) { // مسیر پیوسته است؛ ناحیهٔ تکراری معمولاً آخرین است
+                if (tmpRegions[k] == r) { seen = true; break; }
+            }
+            if (!seen) tmpRegions[rc++] = r;
+        } while (c.next() >= 0);
+        int[] regions = new int[rc];
+        long[] terrainAt = new long[rc];
+        long[] occAt = new long[rc];
+        for (int k = 0; k < rc; k++) {
+            regions[k] = tmpRegions[k];
+            terrainAt[k] = terrainStamp[regions[k]];
+            occAt[k] = occupancyStamp[regions[k]];
+        }
+        Entry e = new Entry(key, path, regions, terrainAt, occAt, globalVersion);
+        Entry old = lru.put(key, e);
+        if (old != null) unindex(old);
+        Long gk = goalKey(key.gx, key.gy);
+        ArrayList<Entry> list = byGoal.get(gk);
+        if (list == null) {
+            list = new ArrayList<Entry>(2);
+            byGoal.put(gk, list);
+        }
+        list.add(e);
+    }
+
+    /**
+     * آیا مسیر از اندیس from به بعد هنوز معتبر است؟
+     * زمین تغییر کرده → نامعتبر. فقط اشغال تغییر کرده → بررسی تایل‌های باقی‌مانده با canEnter.
+     */
+    private boolean isValid(Entry e, int from) {
+        if (e.version != globalVersion) return false;
+        boolean occChanged = false;
+        for (int k = 0; k < e.regions.length; k++) {
+            int r = e.regions[k];
+            if (terrainStamp[r] != e.terrainAt[k]) return false;
+            if (occupancyStamp[r] != e.occAt[k]) occChanged = true;
+        }
+        if (!occChanged) return true;
+
+        occupancyRechecks++;
+        CompactPath.Cursor c = e.path.cursor();
+        c.seek(from);
+        while (c.next() >= 0) {
+            if (!profile.canEnter(cityMap, c.getX(), c.getY())) return false;
+        }
+        // تا تغییر بعدی دوباره بررسی نشود (فقط وقتی کل مسیر بررسی شده باشد)
+        if (from == 0) {
+            for (int k = 0; k < e.regions.length; k++) e.occAt[k] = occupancyStamp[e.regions[k]];
+        }
+        return true;
+    }
+
+    private PathResult cachedResult(Entry e, int from) {
+        CompactPath suffix = e.path.subPath(from);
+        int n = suffix.size();
+        PathResult r = new PathResult();
+        r.path = suffix.asList();
+        r.success = true;
+        r.totalCost = n - 1;
+        r.expandedNodes = 0;
+        return r;
+    }
+
+    private void drop(Entry e) {
+        staleDrops++;
+        lru.remove(e.key);
+        unindex(e);
+    }
+
+    private void unindex(Entry e) {
+        Long gk = goalKey(e.key.gx, e.key.gy);
+        ArrayList<Entry> list = byGoal.get(gk);
+        if (list == null) return;
+        Iterator<Entry> it = list.iterator();
+        while (it.hasNext()) {
+            if (it.next() == e) {
+                it.remove();
+                break;
+            }
+        }
+        if (list.isEmpty()) byGoal.remove(gk);
+    }
+
+    private int regionOf(int x, int y) {
+        return (y / regionSize) * regionsX + (x / regionSize);
+    }
+
+    private static Long goalKey(int x, int y) {
+        return Long.valueOf(((long) x << 32) | (y & 0xFFFFFFFFL));
+    }
+}
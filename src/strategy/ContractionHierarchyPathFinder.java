@@ -0,0 +1,545 @@
+package strategy;
+
+import map.CityMap;
+import map.MapChangeListener;
+import map.MovementProfile;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * مسیریابی فقط-جاده با سلسله‌مراتب انقباضی (Contraction Hierarchies) روی RoadGraph.
+ *
+ * ساخت (تنبل، در اولین پرس‌وجو بعد از تغییر):
+ * - RoadGraph از isPassable پروفایل استخراج می‌شود (تقاطع‌ها نود، راهروها یال وزن‌دار).
+ * - نودها به ترتیب «اختلاف یال» (میان‌بر لازم − درجه + همسایه‌های منقبض‌شده) با به‌روزرسانی تنبل منقبض می‌شوند؛
+ *   برای هر جفت همسایه اگر جست‌وجوی شاهد (Dijkstra محدود، بدون نود فعلی) راه کوتاه‌تری نیابد میان‌بر اضافه می‌شود.
+ * - هر میان‌بر دو کمان فرزندش را نگه می‌دارد تا مسیر بازگشایی و به تایل تبدیل شود.
+ *
+ * پرس‌وجو: Dijkstra دوطرفه فقط روی کمان‌های «رو به بالا» (رتبهٔ بیشتر)؛ شروع/مقصد وسط راهرو با
+ * فاصلهٔ اولیه به دو سر یالش وصل می‌شوند. خروجی مثل بقیهٔ یابنده‌ها شامل تایل شروع است و
+ * مستقیم به moveAlongPath می‌رسد.
+ *
+ * فقط عبورپذیری ایستا دیده می‌شود (مثل گراف انتزاعی HPA*)؛ اشغال با رویداد OCCUPANCY نادیده گرفته
+ * می‌شود و بررسی تایل‌های اشغالی مسیر با فراخواننده است. تغییر CELL/COLLISION که عبورپذیری
+ * یک تایل را واقعاً عوض کند، کل ایندکس را کثیف می‌کند (شبکهٔ جاده به‌ندرت عوض می‌شود).
+ */
+public class ContractionHierarchyPathFinder implements IPathFinder, MapChangeListener {
+
+    /** سقف نودهای بسته‌شده در هر جست‌وجوی شاهد؛ بیشتر از آن میان‌بر (شاید زائد ولی درست) اضافه می‌شود. */
+    private static final int WITNESS_SETTLE_LIMIT = 64;
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+
+    private RoadGraph graph;
+    private boolean dirty = true;
+    private int builds = 0;
+
+    // کمان‌ها (یال اصلی یا میان‌بر)؛ بی‌جهت، a→b فقط برای بازگشایی
+    private int arcCount;
+    private int[] arcA = new int[16];
+    private int[] arcB = new int[16];
+    private int[] arcW = new int[16];
+    private int[] arcMid = new int[16];   // -1 = یال اصلی
+    private int[] arcLeft = new int[16];  // یال اصلی: شناسهٔ یال RoadGraph؛ میان‌بر: کمان a..mid
+    private int[] arcRight = new int[16]; // میان‌بر: کمان mid..b
+    private int shortcuts;
+
+    private int[] rank = new int[0];
+    private int[][] up = new int[0][];
+    private int[] upLen = new int[0];
+
+    // بافرهای پرس‌وجو (مهر نسل به‌جای پاک‌کردن)
+    private int[] distF = new int[0], distB = new int[0];
+    private int[] parF = new int[0], parB = new int[0];
+    private int[] stampF = new int[0], stampB = new int[0];
+    private int stamp = 0;
+    private IndexedMinHeap heapF = new IndexedMinHeap(1);
+    private IndexedMinHeap heapB = new IndexedMinHeap(1);
+
+    public ContractionHierarchyPathFinder(CityMap cityMap) {
+        this(cityMap, MovementProfile.ROAD_NETWORK);
+    }
+
+    public ContractionHierarchyPathFinder(CityMap cityMap, MovementProfile profile) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.ROAD_NETWORK;
+        cityMap.addChangeListener(this);
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    /** جداشدن از نقشه. */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    /** ساخت فوری (مثلاً هنگام بارگذاری) به‌جای اولین پرس‌وجو. */
+    public synchronized void precompute() { ensureBuilt(); }
+
+    /** گراف جادهٔ فعلی (پس از ساخت). */
+    public synchronized RoadGraph getGraph() {
+        ensureBuilt();
+        return graph;
+    }
+
+    public synchronized int getBuildCount() { return builds; }
+    public synchronized int getShortcutCount() { return shortcuts; }
+
+    // ------------------------------------------------------------
+    // IPathFinder
+    // ------------------------------------------------------------
+
+    @Override
+    public List<Position> findPath(Position start, Position goal) {
+        return findPathDetailed(start, goal, null).path;
+    }
+
+    @Override
+    public synchronized PathResult findPathDetailed(Position start, Position goal, PathOptions options) {
+        PathResult r = new PathResult();
+        r.path = Collections.<Position>emptyList();
+        r.success = false;
+        r.totalCost = Integer.MAX_VALUE;
+        r.expandedNodes = 0;
+        if (start == null || goal == null) return r;
+
+        ensureBuilt();
+        RoadGraph g = graph;
+        if (!g.isRoad(start.getX(), start.getY()) || !g.isRoad(goal.getX(), goal.getY())) return r;
+        if (start.equals(goal)) {
+            List<Position> single = new ArrayList<Position>(1);
+            single.add(start);
+            r.path = single;
+            r.success = true;
+            r.totalCost = 0;
+            return r;
+        }
+        int s = start.getY() * g.width + start.getX();
+        int t = goal.getY() * g.width + goal.getX();
+
+        // هر دو وسط یک راهرو: مسیر مستقیم روی همان یال یک نامزد است
+        int direct = Integer.MAX_VALUE;
+        int es = g.edgeOfTile[s];
+        if (es >= 0 && es == g.edgeOfTile[t]) {
+            direct = Math.abs(g.offsetOfTile[s] - g.offsetOfTile[t]);
+        }
+
+        begin();
+        int[] seedNodeF = new int[2], seedOffF = new int[2];
+        int[] seedNodeB = new int[2], seedOffB = new int[2];
+        seed(g, s, distF, parF, stampF, heapF, seedNodeF, seedOffF);
+        seed(g, t, distB, parB, stampB, heapB, seedNodeB, seedOffB);
+
+        int best = Integer.MAX_VALUE;
+        int meet = -1;
+        int settled = 0;
+        while (true) {
+            long kf = heapF.isEmpty() ? Long.MAX_VALUE : heapF.peekKey();
+            long kb = heapB.isEmpty() ? Long.MAX_VALUE : heapB.peekKey();
+            if (Math.min(kf, kb) >= Math.min(best, direct)) break;
+            boolean forward = kf <= kb;
+            IndexedMinHeap heap = forward ? heapF : heapB;
+            int[] dist = forward ? distF : distB;
+            int[] par = forward ? parF : parB;
+            int[] st = forward ? stampF : stampB;
+            int[] otherDist = forward ? distB : distF;
+            int[] otherSt = forward ? stampB : stampF;
+
+            int u = heap.poll();
+            settled++;
+            if (otherSt[u] == stamp && dist[u] + otherDist[u] < best) {
+                best = dist[u] + otherDist[u];
+                meet = u;
+            }
+            int[] arcs = up[u];
+            for (int i = 0; i < upLen[u]; i++) {
+                int a = arcs[i];
+                int v = (arcA[a] == u) ? arcB[a] : arcA[a];
+                int nd = dist[u] + arcW[a];
+                if (st[v] != stamp || nd < dist[v]) {
+                    st[v] = stamp;
+                    dist[v] = nd;
+                    par[v] = a;
+                    heap.insertOrUpdate(v, nd);
+                }
+            }
+        }
+        r.expandedNodes = settled;
+
+        ArrayList<Position> out = new ArrayList<Position>();
+        out.add(start);
+        if (direct <= best) {
+            if (direct == Integer.MAX_VALUE) return r;
+            g.appendAlong(es, g.offsetOfTile[s], g.offsetOfTile[t], out);
+        } else {
+            // شروع → نود بذر رو به جلو
+            int[] chainF = chain(meet, parF);
+            int sf = root(meet, parF);
+            if (es >= 0) g.appendAlong(es, g.offsetOfTile[s], offsetOfSeed(sf, seedNodeF, seedOffF), out);
+            int at = sf;
+            for (int i = chainF.length - 1; i >= 0; i--) {
+                unpack(g, chainF[i], at, out);
+                at = other(chainF[i], at);
+            }
+            // meet → نود بذر رو به عقب
+            int[] chainB = chain(meet, parB);
+            for (int i = 0; i < chainB.length; i++) {
+                unpack(g, chainB[i], at, out);
+                at = other(chainB[i], at);
+            }
+            int et = g.edgeOfTile[t];
+            if (et >= 0) g.appendAlong(et, offsetOfSeed(at, seedNodeB, seedOffB), g.offsetOfTile[t], out);
+        }
+        r.path = out;
+        r.success = true;
+        r.totalCost = out.size() - 1;
+        return r;
+    }
+
+    /** تایل شروع/مقصد را به نود(های) گراف وصل می‌کند: خود نود با فاصلهٔ 0 یا دو سر یال راهرو. */
+    private void seed(RoadGraph g, int tile, int[] dist, int[] par, int[] st, IndexedMinHeap heap,
+                      int[] seedNode, int[] seedOff) {
+        int node = g.nodeOfTile[tile];
+        seedNode[0] = seedNode[1] = -1;
+        if (node >= 0) {
+            push(node, 0, dist, par, st, heap);
+            seedNode[0] = node;
+            seedOff[0] = 0;
+            return;
+        }
+        int e = g.edgeOfTile[tile];
+        int k = g.offsetOfTile[tile];
+        int w = g.edgeWeight[e];
+        int from = g.edgeFrom[e], to = g.edgeTo[e];
+        if (from == to) {
+            // خودحلقه: از نزدیک‌ترین طرف به همان نود
+            push(from, Math.min(k, w - k), dist, par, st, heap);
+            seedNode[0] = from;
+            seedOff[0] = (k <= w - k) ? 0 : w;
+            return;
+        }
+        push(from, k, dist, par, st, heap);
+        push(to, w - k, dist, par, st, heap);
+        seedNode[0] = from;
+        seedOff[0] = 0;
+        seedNode[1] = to;
+        seedOff[1] = w;
+    }
+
+    private void push(int node, int d, int[] dist, int[] par, int[] st, IndexedMinHeap heap) {
+        st[node] = stamp;
+        dist[node] = d;
+        par[node] = -1;
+        heap.insertOrUpdate(node, d);
+    }
+
+    private static int offsetOfSeed(int node, int[] seedNode, int[] seedOff) {
+        return (seedNode[0] == node) ? seedOff[0] : seedOff[1];
+    }
+
+    /** کمان‌های مسیر درخت جست‌وجو از node تا بذر (اولی کمان ورودی node). */
+    private int[] chain(int node, int[] par) {
+        int len = 0;
+        int v = node;
+        while (par[v] != -1) {
+            len++;
+            v = other(par[v], v);
+        }
+        int[] out = new int[len];
+        v = node;
+        for (int i = 0; i < len; i++) {
+            out[i] = par[v];
+            v = other(par[v], v);
+        }
+        return out;
+    }
+
+    /** بذری که درخت جست‌وجو از آن به node رسیده است. */
+    private int root(int node, int[] par) {
+        int v = node;
+        while (par[v] != -1) v = other(par[v], v);
+        return v;
+    }
+
+    private int other(int arc, int node) {
+        return (arcA[arc] == node) ? arcB[arc] : arcA[arc];
+    }
+
+    /** افزودن تایل‌های کمان arc از سمت node (بدون تایل خود node). */
+    private void unpack(RoadGraph g, int arc, int node, List<Position> out) {
+        int mid = arcMid[arc];
+        if (mid < 0) {
+            int e = arcLeft[arc];
+            if (g.edgeFrom[e] == node) g.appendAlong(e, 0, g.edgeWeight[e], out);
+            else g.appendAlong(e, g.edgeWeight[e], 0, out);
+            return;
+        }
+        if (arcA[arc] == node) {
+            unpack(g, arcLeft[arc], node, out);
+            unpack(g, arcRight[arc], mid, out);
+        } else {
+            unpack(g, arcRight[arc], node, out);
+            unpack(g, arcLeft[arc], mid, out);
+        }
+    }
+
+    private void begin() {
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(stampF, 0);
+            Arrays.fill(stampB, 0);
+            stamp = 1;
+        }
+        heapF.clear();
+        heapB.clear();
+    }
+
+    // ------------------------------------------------------------
+    // ساخت سلسله‌مراتب
+    // ------------------------------------------------------------
+
+    private void ensureBuilt() {
+        if (!dirty && graph != null) return;
+        RoadGraph g = RoadGraph.extract(cityMap, profile);
+        int n = g.nodeCount;
+
+        arcCount = 0;
+        shortcuts = 0;
+        int[][] adj = new int[n][];
+        int[] adjLen = new int[n];
+        for (int i = 0; i < n; i++) adj[i] = new int[4];
+        for (int e = 0; e < g.edgeCount; e++) {
+            int a = g.edgeFrom[e], b = g.edgeTo[e];
+            if (a == b) continue; // خودحلقه در کوتاه‌ترین مسیر نقشی ندارد
+            int arc = addArc(a, b, g.edgeWeight[e], -1, e, -1);
+            adjLen[a] = addTo(adj, adjLen, a, arc);
+            adjLen[b] = addTo(adj, adjLen, b, arc);
+        }
+
+        Contractor c = new Contractor(n, adj, adjLen);
+        c.run();
+
+        this.rank = c.rank;
+        this.up = new int[n][];
+        this.upLen = new int[n];
+        for (int i = 0; i < n; i++) up[i] = new int[2];
+        for (int a = 0; a < arcCount; a++) {
+            int lo = (rank[arcA[a]] < rank[arcB[a]]) ? arcA[a] : arcB[a];
+            upLen[lo] = addTo(up, upLen, lo, a);
+        }
+
+        distF = new int[n];
+        distB = new int[n];
+        parF = new int[n];
+        parB = new int[n];
+        stampF = new int[n];
+        stampB = new int[n];
+        stamp = 0;
+        heapF = new IndexedMinHeap(n);
+        heapB = new IndexedMinHeap(n);
+
+        graph = g;
+        dirty = false;
+        builds++;
+    }
+
+    private int addArc(int a, int b, int w, int mid, int left, int right) {
+        if (arcCount == arcA.length) {
+            int cap = arcCount * 2;
+            arcA = Arrays.copyOf(arcA, cap);
+            arcB = Arrays.copyOf(arcB, cap);
+            arcW = Arrays.copyOf(arcW, cap);
+            arcMid = Arrays.copyOf(arcMid, cap);
+            arcLeft = Arrays.copyOf(arcLeft, cap);
+            arcRight = Arrays.copyOf(arcRight, cap);
+        }
+        int id = arcCount++;
+        arcA[id] = a;
+        arcB[id] = b;
+        arcW[id] = w;
+        arcMid[id] = mid;
+        arcLeft[id] = left;
+        arcRight[id] = right;
+        return id;
+    }
+
+    private static int addTo(int[][] lists, int[] lens, int node, int value) {
+        int len = lens[node];
+        if (len == lists[node].length) lists[node] = Arrays.copyOf(lists[node], len * 2);
+        lists[node][len] = value;
+        return len + 1;
+    }
+
+    /** حالت موقت انقباض (فقط هنگام ساخت زنده است). */
+    private final class Contractor {
+        final int n;
+        final int[][] adj;
+        final int[] adjLen;
+        final int[] rank;
+        final boolean[] contracted;
+        final int[] deletedNeighbours;
+
+        // همسایه‌های فعال نود جاری: کم‌وزن‌ترین کمان به هر همسایه
+        int[] nbr = new int[8];
+        int[] nbrArc = new int[8];
+        int nbrCount;
+        final int[] nbrMark;
+        int nbrStamp = 0;
+
+        // جست‌وجوی شاهد
+        final int[] wDist;
+        final int[] wMark;
+        int wStamp = 0;
+        final IndexedMinHeap wHeap;
+
+        Contractor(int n, int[][] adj, int[] adjLen) {
+            this.n = n;
+            this.adj = adj;
+            this.adjLen = adjLen;
+            this.rank = new int[n];
+            this.contracted = new boolean[n];
+            this.deletedNeighbours = new int[n];
+            this.nbrMark = new int[n];
+            this.wDist = new int[n];
+            this.wMark = new int[n];
+            this.wHeap = new IndexedMinHeap(Math.max(1, n));
+        }
+
+        void run() {
+            IndexedMinHeap order = new IndexedMinHeap(Math.max(1, n));
+            for (int v = 0; v < n; v++) order.insertOrUpdate(v, priority(v));
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                int p = priority(v);
+                if (!order.isEmpty() && p > order.peekKey()) {
+                    order.insertOrUpdate(v, p); // به‌روزرسانی تنبل
+                    continue;
+                }
+                contract(v, true);
+                contracted[v] = true;
+                rank[v] = next++;
+                for (int i = 0; i < nbrCount; i++) deletedNeighbours[nbr[i]]++;
+            }
+        }
+
+        /** اختلاف یال: میان‌برهای لازم − درجه + همسایه‌های منقبض‌شده. */
+        int priority(int v) {
+            int added = contract(v, false);
+            return added - nbrCount + deletedNeighbours[v];
+        }
+
+        /** شبیه‌سازی یا انجام انقباض v؛ تعداد میان‌برها را برمی‌گرداند. */
+        int contract(int v, boolean apply) {
+            collectNeighbours(v);
+            int added = 0;
+            for (int i = 0; i < nbrCount; i++) {
+                int u = nbr[i];
+                int wu = arcW[nbrArc[i]];
+                int maxW = 0;
+                for (int j = 0; j < nbrCount; j++) {
+                    if (j != i && wu + arcW[nbrArc[j]] > maxW) maxW = wu + arcW[nbrArc[j]];
+                }
+                witness(u, v, maxW);
+                // هر جفت یک بار (j > i)؛ میان‌بر بی‌جهت است
+                for (int j = i + 1; j < nbrCount; j++) {
+                    int w = nbr[j];
+                    int via = wu + arcW[nbrArc[j]];
+                    if (wMark[w] == wStamp && wDist[w] <= via) continue;
+                    added++;
+                    if (apply) {
+                        int arc = addArc(u, w, via, v, nbrArc[i], nbrArc[j]);
+                        adjLen[u] = addTo(adj, adjLen, u, arc);
+                        adjLen[w] = addTo(adj, adjLen, w, arc);
+                        shortcuts++;
+                    }
+                }
+            }
+            return added;
+        }
+
+        /**
+         * کمان‌های فعال v به همسایه‌های منقبض‌نشده؛ از کمان‌های موازی کم‌وزن‌ترین.
+         * کمان a..b باید از سمت u شروع شود تا بازگشایی درست باشد، پس فقط شناسه نگه داشته می‌شود.
+         */
+        void collectNeighbours(int v) {
+            nbrStamp++;
+            nbrCount = 0;
+            int[] list = adj[v];
+            for (int i = 0; i < adjLen[v]; i++) {
+                int a = list[i];
+                int u = (arcA[a] == v) ? arcB[a] : arcA[a];
+                if (contracted[u] || u == v) continue;
+                if (nbrMark[u] == nbrStamp) {
+                    for (int k = 0; k < nbrCount; k++) {
+                        if (nbr[k] == u && arcW[a] < arcW[nbrArc[k]]) nbrArc[k] = a;
+                    }
+                    continue;
+                }
+                nbrMark[u] = nbrStamp;
+                if (nbrCount == nbr.length) {
+                    nbr = Arrays.copyOf(nbr, nbrCount * 2);
+                    nbrArc = Arrays.copyOf(nbrArc, nbrCount * 2);
+                }
+                nbr[nbrCount] = u;
+                nbrArc[nbrCount] = a;
+                nbrCount++;
+            }
+        }
+
+        /** Dijkstra محدود از src روی نودهای فعال به‌جز skip تا فاصلهٔ limit. */
+        void witness(int src, int skip, int limit) {
+            wStamp++;
+            wHeap.clear();
+            wMark[src] = wStamp;
+            wDist[src] = 0;
+            wHeap.insertOrUpdate(src, 0);
+            int settled = 0;
+            while (!wHeap.isEmpty()) {
+                int u = wHeap.poll();
+                if (wDist[u] > limit || ++settled > WITNESS_SETTLE_LIMIT) break;
+                int[] list = adj[u];
+                for (int i = 0; i < adjLen[u]; i++) {
+                    int a = list[i];
+                    int x = (arcA[a] == u) ? arcB[a] : arcA[a];
+                    if (x == skip || contracted[x]) continue;
+                    int nd = wDist[u] + arcW[a];
+                    if (wMark[x] != wStamp || nd < wDist[x]) {
+                        wMark[x] = wStamp;
+                        wDist[x] = nd;
+                        wHeap.insertOrUpdate(x, nd);
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public synchronized void onTileChanged(CityMap map, int x, int y, int kind) {
+        if ((kind & (CELL | COLLISION)) == 0) return; // اشغال روی گراف ایستا اثری ندارد
+        if (dirty || graph == null) return;
+        if (x < 0 || y < 0) {
+            dirty = true;
+            return;
+        }
+        if (profile.isPassable(map, x, y) != graph.isRoad(x, y)) dirty = true;
+    }
+
+    @Override
+    public synchronized void onMapReset(CityMap map) {
+        dirty = true;
+    }
+}
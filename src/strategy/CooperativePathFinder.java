@@ -0,0 +1,228 @@
+package strategy;
+
+import map.CityMap;
+import map.MapChangeJournal;
+import map.MovementProfile;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * A* همکارانهٔ پنجره‌دار (WHCA*) برای چند عامل روی یک شبکه.
+ * - جست‌وجو در فضا-زمان (tile, dt) برای dt ∈ [0, window]؛ هر گام یا حرکت به یکی از چهار همسایه است یا ماندن.
+ * - (tile, t0+dt) که عامل دیگری در ReservationTable گرفته ممنوع است؛ ورود به تایلی که عامل دیگری
+ *   در گام قبل رویش بوده هم ممنوع است (نه دنبال‌کردن، نه جابه‌جایی دوطرفه)، چون قدم‌های یک گام
+ *   یکی‌یکی با MoveGuard اعمال می‌شوند.
+ * - هیوریستیک = فاصلهٔ واقعی تا هدف روی بخش ایستای پروفایل (BFS معکوس از هدف، برای هر نخ کش می‌شود
+ *   و با نسخهٔ TERRAIN دفترچهٔ تغییرات نقشه سنجیده می‌شود؛ اشغال در آن اثری ندارد)؛
+ *   پس نود مرزی (dt = window) با f = window + فاصلهٔ واقعی، ادامهٔ بهینهٔ بیرون پنجره را هم در نظر دارد.
+ * - مسیر پیدا شده همان لحظه تا t0+window رزرو می‌شود (رسیدن به هدف = ماندن روی آن تا آخر پنجره).
+ *   اگر برنامه‌ریز موازی دیگری زودتر یکی از خانه‌ها را گرفته باشد، جست‌وجو با جدول تازه تکرار می‌شود.
+ *
+ * خروجی plan یک برنامهٔ «زمان‌دار» است: عنصر k محل عامل در زمان t0+k+1 (ماندن = تکرار همان تایل).
+ * فرض این است که همهٔ عامل‌های مشترک جدول در هر گام زمانی هم‌گام یک قدم برمی‌دارند
+ * (RescueCoordinator فاز اعمال را به همین شکل اجرا می‌کند) و بعد از پنجره دوباره برنامه‌ریزی می‌کنند.
+ */
+public class CooperativePathFinder {
+
+    public static final int DEFAULT_WINDOW = 8;
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+    /** تعداد تلاش برای رزرو وقتی برنامه‌ریز دیگری هم‌زمان همان خانه‌ها را گرفته است */
+    private static final int RESERVE_ATTEMPTS = 3;
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final ReservationTable table;
+    private final int width;
+    private final int height;
+    private final int window;
+
+    /** میدان فاصلهٔ معکوس آخرین هدفِ هر نخ */
+    private final ThreadLocal<GoalField> fields = new ThreadLocal<GoalField>();
+
+    private static final class GoalField {
+        int goal = -1;
+        long version = -1;
+        final int[] dist;
+        final int[] queue;
+
+        GoalField(int n) {
+            this.dist = new int[n];
+            this.queue = new int[n];
+        }
+    }
+
+    public CooperativePathFinder(CityMap cityMap, MovementProfile profile) {
+        this(cityMap, profile, DEFAULT_WINDOW);
+    }
+
+    public CooperativePathFinder(CityMap cityMap, MovementProfile profile, int window) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        if (window < 1) throw new IllegalArgumentException("window must be >= 1: " + window);
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        this.window = window;
+        this.table = new ReservationTable(width * height, window + 2);
+    }
+
+    public int getWindow() { return window; }
+    public MovementProfile getProfile() { return profile; }
+    public ReservationTable getReservations() { return table; }
+
+    /**
+     * ثبت محل فعلی عامل در زمان t0 (پیش از برنامه‌ریزی همهٔ عامل‌ها، تا کسی برای همان لحظه آن‌جا را نگیرد).
+     * false اگر عامل دیگری همان خانه را گرفته باشد.
+     */
+    public boolean claim(int agent, Position at, long t0) {
+        if (at == null || !cityMap.isValid(at.getX(), at.getY())) return false;
+        return table.reserve(at.getY() * width + at.getX(), t0, agent);
+    }
+
+    /** ماندن در جا برای کل پنجره (وقتی برنامه‌ای پیدا نشد)؛ خانه‌هایی که دیگران گرفته‌اند رد می‌شوند. */
+    public void hold(int agent, Position at, long t0) {
+        if (at == null || !cityMap.isValid(at.getX(), at.getY())) return;
+        int tile = at.getY() * width + at.getX();
+        for (int k = 0; k <= window; k++) table.reserve(tile, t0 + k, agent);
+    }
+
+    /**
+     * برنامهٔ پنجره‌دار عامل از from به سمت goal با شروع در زمان t0 و رزرو آن.
+     * @return محل‌های زمان t0+1.. (حداکثر window عنصر؛ خالی یعنی همین‌جا هدف است)،
+     *         یا null اگر هدف در دسترس نیست یا رزرو ممکن نشد.
+     */
+    public List<Position> plan(int agent, Position from, Position goal, long t0) {
+        if (from == null || goal == null) return null;
+        if (!cityMap.isValid(from.getX(), from.getY()) || !cityMap.isValid(goal.getX(), goal.getY())) return null;
+        int s = from.getY() * width + from.getX();
+        int t = goal.getY() * width + goal.getX();
+        int[] dist = fieldFor(t);
+        if (dist[s] == UNREACHABLE) return null;
+
+        int[] steps = new int[window + 1];
+        for (int attempt = 0; attempt < RESERVE_ATTEMPTS; attempt++) {
+            int len = search(agent, s, t, t0, dist, steps);
+            if (len <= 0) return null;
+            if (table.reservePath(agent, steps, len, t0, window)) {
+                List<Position> out = new ArrayList<Position>(len - 1);
+                for (int k = 1; k < len; k++) out.add(new Position(steps[k] % width, steps[k] / width));
+                return out;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------
+    // جست‌وجوی فضا-زمان
+    // ------------------------------------------------------------
+
+    /**
+     * A* روی حالت‌های dt*n + tile. چون هر گام (حرکت یا ماندن) هزینهٔ 1 دارد، g همان dt است.
+     * @return طول مسیر در out (تعداد تایل‌ها از dt=0)، یا 0 اگر هیچ حالتی پیدا نشد.
+     */
+    private int search(int agent, int s, int t, long t0, int[] dist, int[] out) {
+        int n = width * height;
+        SearchScratch sc = SearchScratch.forThread((window + 1) * n);
+        sc.begin();
+        int[] parent = sc.parent;
+        IndexedMinHeap open = sc.open;
+
+        sc.setSeen(s);
+        parent[s] = -1;
+        open.insertOrUpdate(s, key(0, dist[s]));
+
+        while (!open.isEmpty()) {
+            int cur = open.poll();
+            sc.setClosed(cur);
+            int tile = cur % n;
+            int dt = cur / n;
+
+            if ((tile == t && goalHeld(agent, t, t0, dt)) || dt == window) {
+                int len = dt + 1;
+                for (int c = cur; c != -1; c = parent[c]) out[c / n] = c % n;
+                return len;
+            }
+
+            long time = t0 + dt + 1;
+            int cx = tile % width, cy = tile / width;
+            for (int k = 0; k <= 4; k++) {
+                int nx = cx, ny = cy;
+                if (k < 4) {
+                    nx += DX[k];
+                    ny += DY[k];
+                    if (!profile.isPassable(cityMap, nx, ny)) continue;
+                    // گام اول: اشغال فعلی هم (مثلاً عاملی که در جدول نیست)
+                    if (dt == 0 && !profile.canEnter(cityMap, nx, ny)) continue;
+                }
+                int nb = ny * width + nx;
+                if (dist[nb] == UNREACHABLE) continue;
+                if (table.isReservedByOther(nb, time, agent)) continue;
+                // دنبال‌کردن هم ممنوع است: ورود به خانه‌ای که عامل دیگری همین الان رویش است
+                // (قدم‌های یک گام به ترتیب اعمال می‌شوند و MoveGuard آن را رد می‌کند؛ جابه‌جایی دوطرفه هم همین‌جا حذف می‌شود)
+                if (k < 4 && table.isReservedByOther(nb, time - 1, agent)) continue;
+                int state = (dt + 1) * n + nb;
+                if (sc.isSeen(state)) continue; // g = dt+1 برای همه یکسان است
+                sc.setSeen(state);
+                parent[state] = cur;
+                open.insertOrUpdate(state, key(dt + 1, dist[nb]));
+            }
+        }
+        return 0;
+    }
+
+    /** f = dt + h؛ در تساوی، dt بزرگ‌تر (نزدیک‌تر به هدف) زودتر. */
+    private long key(int dt, int h) {
+        return ((long) dt + h) * (window + 1) + (window - dt);
+    }
+
+    /** آیا عامل می‌تواند از dt تا پایان پنجره روی هدف بماند؟ */
+    private boolean goalHeld(int agent, int t, long t0, int dt) {
+        for (int k = dt + 1; k <= window; k++) {
+            if (table.isReservedByOther(t, t0 + k, agent)) return false;
+        }
+        return true;
+    }
+
+    /** فاصلهٔ ایستا تا goal برای همهٔ تایل‌ها (BFS معکوس؛ گراف چهارجهته متقارن است). */
+    private int[] fieldFor(int goal) {
+        int n = width * height;
+        GoalField f = fields.get();
+        if (f == null || f.dist.length != n) {
+            f = new GoalField(n);
+            fields.set(f);
+        }
+        long v = cityMap.getChangeJournal().getVersion(MapChangeJournal.TERRAIN);
+        if (f.goal == goal && f.version == v) return f.dist;
+
+        int[] dist = f.dist;
+        int[] q = f.queue;
+        Arrays.fill(dist, UNREACHABLE);
+        int head = 0, tail = 0;
+        dist[goal] = 0;
+        q[tail++] = goal;
+        while (head < tail) {
+            int cur = q[head++];
+            int cx = cur % width, cy = cur / width;
+            for (int k = 0; k < 4; k++) {
+                int nx = cx + DX[k], ny = cy + DY[k];
+                if (!profile.isPassable(cityMap, nx, ny)) continue;
+                int nb = ny * width + nx;
+                if (dist[nb] != UNREACHABLE) continue;
+                dist[nb] = dist[cur] + 1;
+                q[tail++] = nb;
+            }
+        }
+        f.goal = goal;
+        f.version = v;
+        return dist;
+    }
+}
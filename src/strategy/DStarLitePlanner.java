@@ -0,0 +1,295 @@
+package strategy;
+
+import map.CityMap;
+import map.MapChangeListener;
+import map.MovementProfile;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * برنامه‌ریز افزایشی D* Lite (نسخهٔ بهینه‌شدهٔ Koenig &amp; Likhachev) برای یک جفت «عامل ← هدف».
+ * جست‌وجو از هدف به سمت عامل انجام می‌شود؛ پس با جابه‌جاشدن عامل، درخت جست‌وجو معتبر می‌ماند
+ * و با تغییر یک تایل فقط همسایه‌های آن دوباره ارزیابی می‌شوند.
+ *
+ * - هزینهٔ ورود به تایل v: 1 اگر profile.canEnter(v)، وگرنه بی‌نهایت (اشغال هم مانع است).
+ * - تغییرات تایل‌ها از MapChangeListener جمع می‌شوند و در فراخوانی بعدی plan اعمال می‌شوند.
+ * - کلید صف: (k1, k2) در یک long بسته‌بندی می‌شود؛ IndexedMinHeap با decrease-key.
+ *
+ * هر نمونه برای یک هدف ثابت است؛ برای هدف جدید نمونهٔ جدید بساز (و قبلی را dispose کن).
+ */
+public class DStarLitePlanner implements MapChangeListener {
+
+    /** «بی‌نهایت» امن در برابر سرریزِ جمع */
+    private static final int INF = Integer.MAX_VALUE / 4;
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final int width;
+    private final int height;
+    private final int goal;
+
+    private final int[] g;
+    private final int[] rhs;
+    private final IndexedMinHeap open;
+
+    private int start = -1;
+    private int lastStart = -1;
+    private int km = 0;
+
+    // تغییرات معلق
+    private final int[] pending;
+    private final boolean[] isPending;
+    private int pendingCount = 0;
+    private boolean resetPending = false;
+
+    // آمار
+    private int lastExpanded = 0;
+    private long totalExpanded = 0;
+    private int replans = 0;
+
+    public DStarLitePlanner(CityMap cityMap, MovementProfile profile, Position goal) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        if (goal == null || !cityMap.isValid(goal.getX(), goal.getY())) {
+            throw new IllegalArgumentException("goal is outside the map: " + goal);
+        }
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        this.goal = goal.getY() * width + goal.getX();
+
+        int n = width * height;
+        this.g = new int[n];
+        this.rhs = new int[n];
+        this.open = new IndexedMinHeap(n);
+        this.pending = new int[n];
+        this.isPending = new boolean[n];
+        reset();
+        cityMap.addChangeListener(this);
+    }
+
+    public Position getGoal() { return new Position(goal % width, goal / width); }
+    public MovementProfile getProfile() { return profile; }
+
+    /** نودهای گسترش‌یافته در آخرین plan */
+    public synchronized int getLastExpanded() { return lastExpanded; }
+    public synchronized long getTotalExpanded() { return totalExpanded; }
+    public synchronized int getReplanCount() { return replans; }
+
+    /** جداشدن از نقشه (بعد از رسیدن یا عوض‌شدن هدف). */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    // ------------------------------------------------------------
+    // برنامه‌ریزی
+    // ------------------------------------------------------------
+
+    /**
+     * کوتاه‌ترین مسیر از from تا هدف (شامل from). لیست خالی اگر راهی نیست.
+     * فقط بخشی از جست‌وجو که تغییرات (جابه‌جایی عامل یا تایل‌های تغییرکرده) به آن رسیده دوباره انجام می‌شود.
+     */
+    public synchronized List<Position> plan(Position from) {
+        if (from == null || !cityMap.isValid(from.getX(), from.getY())) return Collections.<Position>emptyList();
+        int s = from.getY() * width + from.getX();
+        if (!prepare(s)) return Collections.<Position>emptyList();
+
+        ArrayList<Position> out = new ArrayList<Position>();
+        out.add(new Position(s % width, s / width));
+        int cur = s;
+        int guard = width * height;
+        while (cur != goal && guard-- > 0) {
+            int nx = bestSuccessor(cur);
+            if (nx < 0) return Collections.<Position>emptyList();
+            out.add(new Position(nx % width, nx / width));
+            cur = nx;
+        }
+        return (cur == goal) ? out : Collections.<Position>emptyList();
+    }
+
+    /** فقط قدم بعدی (بدون ساخت کل مسیر)؛ null اگر راهی نیست یا from همان هدف است. */
+    public synchronized Position nextStep(Position from) {
+        if (from == null || !cityMap.isValid(from.getX(), from.getY())) return null;
+        int s = from.getY() * width + from.getX();
+        if (s == goal || !prepare(s)) return null;
+        int nx = bestSuccessor(s);
+        return (nx < 0) ? null : new Position(nx % width, nx / width);
+    }
+
+    /** طول کوتاه‌ترین مسیر از from (تعداد قدم)؛ -1 اگر راهی نیست. */
+    public synchronized int costFrom(Position from) {
+        if (from == null || !cityMap.isValid(from.getX(), from.getY())) return -1;
+        int s = from.getY() * width + from.getX();
+        if (!prepare(s)) return -1;
+        return rhs[s];
+    }
+
+    /** به‌روزرسانی start، اعمال تغییرات معلق و ComputeShortestPath. false اگر راهی نیست. */
+    private boolean prepare(int s) {
+        if (resetPending) {
+            reset();
+            resetPending = false;
+        }
+        if (start < 0) {
+            start = s;
+            lastStart = s;
+        } else if (s != start) {
+            start = s;
+            km += h(lastStart, start);
+            lastStart = start;
+        }
+
+        boolean changed = pendingCount > 0;
+        for (int i = 0; i < pendingCount; i++) {
+            int v = pending[i];
+            isPending[v] = false;
+            // هزینهٔ ورود به v عوض شده → rhs همهٔ پیشینیان v (همسایه‌ها) باید دوباره حساب شود
+            int vx = v % width, vy = v / width;
+            for (int k = 0; k < 4; k++) {
+                int ux = vx + DX[k], uy = vy + DY[k];
+                if (ux < 0 || uy < 0 || ux >= width || uy >= height) continue;
+                updateVertex(uy * width + ux);
+            }
+        }
+        pendingCount = 0;
+        if (changed) replans++;
+
+        computeShortestPath();
+        // شرط توقف (rhs(start) > g(start)) ممکن است start را «بیش‌سازگار» بگذارد؛ rhs همان
+        // min(c + g) روی جانشین‌های سازگار است و معیار درست دسترسی‌پذیری است.
+        return rhs[start] < INF;
+    }
+
+    private void reset() {
+        Arrays.fill(g, INF);
+        Arrays.fill(rhs, INF);
+        open.clear();
+        km = 0;
+        start = -1;
+        lastStart = -1;
+        rhs[goal] = 0;
+        open.insertOrUpdate(goal, packKey(h(goal, goal), 0));
+    }
+
+    private void computeShortestPath() {
+        int expanded = 0;
+        while (!open.isEmpty()) {
+            long top = open.peekKey();
+            long ks = calcKey(start);
+            if (top >= ks && rhs[start] <= g[start]) break;
+
+            int u = open.peek();
+            long kNew = calcKey(u);
+            if (top < kNew) {
+                open.insertOrUpdate(u, kNew);
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                open.poll();
+                expanded++;
+                relaxPredecessors(u);
+            } else {
+                g[u] = INF;
+                expanded++;
+                updateVertex(u);
+                relaxPredecessors(u);
+            }
+        }
+        lastExpanded = expanded;
+        totalExpanded += expanded;
+    }
+
+    /** پیشینیان u (همسایه‌هایی که می‌توانند به u بروند) دوباره ارزیابی می‌شوند. */
+    private void relaxPredecessors(int u) {
+        int ux = u % width, uy = u / width;
+        for (int k = 0; k < 4; k++) {
+            int px = ux + DX[k], py = uy + DY[k];
+            if (px < 0 || py < 0 || px >= width || py >= height) continue;
+            updateVertex(py * width + px);
+        }
+    }
+
+    private void updateVertex(int u) {
+        if (u != goal) rhs[u] = minSuccessorCost(u);
+        if (g[u] != rhs[u]) open.insertOrUpdate(u, calcKey(u));
+        else open.remove(u);
+    }
+
+    /** min(c(u,v) + g(v)) روی همسایه‌ها */
+    private int minSuccessorCost(int u) {
+        int ux = u % width, uy = u / width;
+        int best = INF;
+        for (int k = 0; k < 4; k++) {
+            int vx = ux + DX[k], vy = uy + DY[k];
+            if (!enterable(vx, vy)) continue;
+            int gv = g[vy * width + vx];
+            if (gv >= INF) continue;
+            if (gv + 1 < best) best = gv + 1;
+        }
+        return best;
+    }
+
+    /** همسایهٔ قابل ورود با کمترین g (برای استخراج مسیر)؛ -1 اگر نیست. */
+    private int bestSuccessor(int u) {
+        int ux = u % width, uy = u / width;
+        int best = -1;
+        int bestG = INF;
+        for (int k = 0; k < 4; k++) {
+            int vx = ux + DX[k], vy = uy + DY[k];
+            if (!enterable(vx, vy)) continue;
+            int v = vy * width + vx;
+            if (g[v] < bestG) {
+                bestG = g[v];
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    private boolean enterable(int x, int y) {
+        return profile.canEnter(cityMap, x, y);
+    }
+
+    private long calcKey(int u) {
+        int m = Math.min(g[u], rhs[u]);
+        if (m >= INF) return packKey(INF, INF);
+        return packKey(m + h(start < 0 ? u : start, u) + km, m);
+    }
+
+    private int h(int a, int b) {
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+    }
+
+    private static long packKey(int k1, int k2) {
+        return ((long) k1 << 32) | (k2 & 0xFFFFFFFFL);
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public synchronized void onTileChanged(CityMap map, int x, int y, int kind) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return;
+        int v = y * width + x;
+        if (isPending[v]) return;
+        isPending[v] = true;
+        pending[pendingCount++] = v;
+    }
+
+    @Override
+    public synchronized void onMapReset(CityMap map) {
+        for (int i = 0; i < pendingCount; i++) isPending[pending[i]] = false;
+        pendingCount = 0;
+        resetPending = true;
+    }
+}
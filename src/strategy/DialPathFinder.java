@@ -0,0 +1,191 @@
+package strategy;
+
+import map.Cell;
+import map.CityMap;
+import map.MovementProfile;
+import util.CompactPath;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * کوتاه‌ترین مسیر وزن‌دار روی تایل‌ها با هزینهٔ زمین (PathOptions.getTerrainCosts) و صف سطلی (Dial).
+ * - هزینهٔ قدم = هزینهٔ ورود به تایل مقصد بر حسب Cell.Type (صحیح کوچک، 0 = ممنوع).
+ * - عبورپذیری و اشغال مثل بقیهٔ یابنده‌ها از MovementProfile.canEnter می‌آید.
+ * - صف: BucketQueue با span = 2C+1 (C = بیشینهٔ هزینه)؛ هیوریستیک minCost × منهتنی سازگار است،
+ *   پس کلیدها یکنوا می‌مانند و هر پرس‌وجو O(V + E + D) است (D = بیشینهٔ کلید)، بدون مقایسهٔ هیپ.
+ * - totalCost در PathResult مجموع هزینه‌هاست (نه تعداد قدم).
+ *
+ * findPath(from,to) با جدول پیش‌فرض همین نمونه (setTerrainCosts) کار می‌کند.
+ */
+public class DialPathFinder implements IPathFinder {
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+
+    /** سقف نودهای قابل‌گسترش؛ 0 یعنی نامحدود. */
+    private int maxExpandedNodes = 0;
+
+    /** جدول پیش‌فرض این نمونه برای findPath ساده. */
+    private final PathOptions defaults = new PathOptions();
+
+    public DialPathFinder(CityMap cityMap) {
+        this(cityMap, MovementProfile.DEFAULT);
+    }
+
+    public DialPathFinder(CityMap cityMap, MovementProfile profile) {
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    public void setMaxExpandedNodes(int limit) { this.maxExpandedNodes = limit; }
+
+    /** جدول هزینه برای findPath(from,to)؛ null یعنی پیش‌فرض CellType. */
+    public synchronized void setTerrainCosts(int[] costs) { defaults.setTerrainCosts(costs); }
+
+    /** هزینهٔ یک نوع برای findPath(from,to). */
+    public synchronized void setTerrainCost(Cell.Type type, int cost) { defaults.setTerrainCost(type, cost); }
+
+    @Override
+    public List<Position> findPath(Position from, Position to) {
+        int[] table;
+        synchronized (this) {
+            table = defaults.getTerrainCosts().clone();
+        }
+        return search(from, to, table, maxExpandedNodes).path;
+    }
+
+    @Override
+    public PathResult findPathDetailed(Position from, Position to, PathOptions options) {
+        int limit = maxExpandedNodes;
+        int[] table;
+        if (options != null && options.getMaxExpandedNodes() > 0) limit = options.getMaxExpandedNodes();
+        if (options != null && options.hasTerrainCosts()) {
+            table = options.getTerrainCosts();
+        } else {
+            synchronized (this) {
+                table = defaults.getTerrainCosts().clone();
+            }
+        }
+        return search(from, to, table, limit);
+    }
+
+    // ------------------------------------------------------------
+    // هستهٔ جست‌وجو
+    // ------------------------------------------------------------
+    private PathResult search(Position start, Position goal, int[] costs, int limit) {
+        PathResult r = new PathResult();
+        r.path = Collections.<Position>emptyList();
+        r.success = false;
+        r.totalCost = Integer.MAX_VALUE;
+        r.expandedNodes = 0;
+
+        if (cityMap == null || start == null || goal == null) return r;
+        final int w = cityMap.getWidth();
+        final int h = cityMap.getHeight();
+        if (!cityMap.isValid(start.getX(), start.getY()) || !cityMap.isValid(goal.getX(), goal.getY())) return r;
+
+        if (start.equals(goal)) {
+            List<Position> single = new ArrayList<Position>(1);
+            single.add(start);
+            r.path = single;
+            r.success = true;
+            r.totalCost = 0;
+            return r;
+        }
+        if (!cityMap.isReachable(start, goal, profile)) return r; // مؤلفهٔ جدا → O(1)
+        if (costOf(costs, goal.getX(), goal.getY()) <= 0) return r;
+
+        // کمینه/بیشینهٔ هزینه برای هیوریستیک و اندازهٔ حلقهٔ سطل‌ها
+        int minCost = Integer.MAX_VALUE;
+        int maxCost = 0;
+        for (int i = 0; i < costs.length; i++) {
+            int c = costs[i];
+            if (c <= 0) continue;
+            if (c < minCost) minCost = c;
+            if (c > maxCost) maxCost = c;
+        }
+        if (maxCost == 0) return r;
+
+        final int gx = goal.getX();
+        final int gy = goal.getY();
+        final int s = start.getY() * w + start.getX();
+        final int t = gy * w + gx;
+
+        SearchScratch sc = SearchScratch.forThread(w * h);
+        sc.begin();
+        final int[] g = sc.g;
+        final int[] parent = sc.parent;
+        // f(v) - f(u) = c + minCost·(h(v) - h(u)) ∈ [0, 2C]
+        final BucketQueue open = sc.buckets(2 * maxCost + 1);
+
+        g[s] = 0;
+        parent[s] = -1;
+        sc.setSeen(s);
+        open.insertOrUpdate(s, minCost * manhattan(start.getX(), start.getY(), gx, gy));
+
+        int expanded = 0;
+        while (!open.isEmpty()) {
+            int cur = open.poll();
+            if (cur == t) {
+                r.expandedNodes = expanded;
+                r.path = reconstruct(parent, cur, w);
+                r.success = true;
+                r.totalCost = g[cur];
+                return r;
+            }
+            sc.setClosed(cur);
+
+            expanded++;
+            if (limit > 0 && expanded > limit) break;
+
+            int cx = cur % w;
+            int cy = cur / w;
+            for (int k = 0; k < 4; k++) {
+                int nx = cx + DX[k];
+                int ny = cy + DY[k];
+                if (!profile.canEnter(cityMap, nx, ny)) continue;
+                int nb = ny * w + nx;
+                if (sc.isClosed(nb)) continue;
+                int c = costOf(costs, nx, ny);
+                if (c <= 0) continue; // نوع زمین ممنوع
+                int ng = g[cur] + c;
+                if (!sc.isSeen(nb) || ng < g[nb]) {
+                    sc.setSeen(nb);
+                    g[nb] = ng;
+                    parent[nb] = cur;
+                    open.insertOrUpdate(nb, ng + minCost * manhattan(nx, ny, gx, gy));
+                }
+            }
+        }
+
+        r.expandedNodes = expanded;
+        return r;
+    }
+
+    /** هزینهٔ ورود به (x,y)؛ سلول null مثل EMPTY. */
+    private int costOf(int[] costs, int x, int y) {
+        Cell.Type type = cityMap.getCellType(x, y);
+        if (type == null) type = Cell.Type.EMPTY;
+        return costs[type.ordinal()];
+    }
+
+    private static int manhattan(int ax, int ay, int bx, int by) {
+        return Math.abs(ax - bx) + Math.abs(ay - by);
+    }
+
+    /** مسیر به‌صورت نمای فقط‌خواندنی CompactPath (بدون Position برای هر تایل). */
+    private static List<Position> reconstruct(int[] parent, int end, int w) {
+        return CompactPath.fromParents(parent, end, w).asList();
+    }
+}
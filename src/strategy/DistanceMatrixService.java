@@ -0,0 +1,471 @@
+package strategy;
+
+import agent.Rescuer;
+import map.CityMap;
+import map.ComponentLabels;
+import map.MapChangeListener;
+import map.MovementProfile;
+import util.Position;
+import victim.Injured;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * ماتریس فاصلهٔ واقعی پیاده (چندبه‌چند) برای برنامه‌ریزی ریسکیور × مجروح (× بیمارستان).
+ * - فاصله = تعداد قدم روی تایل‌های isPassable پروفایل تا خودِ تایل مقصد؛ مقصد (مثلاً مجروح روی آوار)
+ *   لازم نیست قابل عبور باشد، پس «مجاور» = 1. اشغال نادیده گرفته می‌شود (فاصلهٔ ایستا).
+ * - گراف بی‌جهت است؛ پس از سمت کوچک‌تر (ریسکیورها یا مقصدها) BFS زده می‌شود و نتیجه ترانهاده می‌شود.
+ * - هر BFS با برچسب مؤلفه‌ها (ComponentLabels) تعداد مقصدهای دسترس‌پذیر را از قبل می‌داند و
+ *   به‌محض یافتن همه متوقف می‌شود؛ مقصد دسترس‌ناپذیر هرگز باعث پیمودن کل ناحیه نمی‌شود.
+ *
+ * کش ریسکیور × مجروح: ستون‌ها (فهرست مجروح‌ها و تایل‌شان) تا تغییر فهرست یا نقشه معتبرند و
+ * هر ردیف فقط وقتی ریسکیورش جابه‌جا شده دوباره حساب می‌شود. هماهنگ‌کننده ماتریس را اول تیک
+ * می‌سازد و MissionPlanner/InjuryPrioritySelector با distance(...) از همان استفاده می‌کنند.
+ */
+public class DistanceMatrixService implements MapChangeListener {
+
+    /** فاصلهٔ دسترس‌ناپذیر */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+    private static final int NIL = -1;
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final int width;
+    private final int height;
+
+    // جدول مقصدها: تایل → لیست پیوندی اندیس مقصدها (با مهر نسل)
+    private final int[] targetHead;
+    private final int[] targetStamp;
+    private int targetGen = 0;
+    private int[] targetNext = new int[16];
+    // برچسب‌های مؤلفهٔ هر مقصد (۴ خانه به‌ازای هر مقصد؛ خودش یا همسایه‌های قابل عبورش)
+    private int[] targetLabels = new int[64];
+    private final int[] sourceLabels = new int[4];
+
+    // نسخهٔ نقشه (CELL/COLLISION/reset)
+    private int version = 0;
+
+    // عکس isPassable روی همهٔ تایل‌ها (تک‌تایل با رویداد، کامل بعد از reset)؛ حلقهٔ BFS بدون فراخوانی مجازی
+    private final boolean[] passable;
+    private boolean passableDirty = true;
+
+    // کش ریسکیور × مجروح
+    private Injured[] colOwners = new Injured[0];
+    private int[] colTiles = new int[0];
+    private final Map<Injured, Integer> colIndex = new IdentityHashMap<Injured, Integer>();
+    private int colVersion = -1;
+    private final Map<Rescuer, Row> rows = new IdentityHashMap<Rescuer, Row>();
+
+    // آمار
+    private long searches = 0;
+    private long rowsReused = 0;
+
+    public DistanceMatrixService(CityMap cityMap, MovementProfile profile) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        int n = width * height;
+        this.targetHead = new int[n];
+        this.targetStamp = new int[n];
+        this.passable = new boolean[n];
+        cityMap.addChangeListener(this);
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    /** جداشدن از نقشه */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    /** تعداد BFSهای انجام‌شده (برای آمار) */
+    public synchronized long getSearchCount() { return searches; }
+
+    /** تعداد ردیف‌هایی که بدون جست‌وجو از کش برگشتند */
+    public synchronized long getReusedRowCount() { return rowsReused; }
+
+    // ------------------------------------------------------------
+    // API
+    // ------------------------------------------------------------
+
+    /**
+     * ماتریس فاصلهٔ ریسکیورها × مجروح‌ها (ردیف = ریسکیور، ستون = مجروح).
+     * ردیف‌های ریسکیورهای جابه‌جانشده از کش برمی‌گردند.
+     */
+    public synchronized DistanceMatrix rescuersToVictims(List<Rescuer> rescuers, List<Injured> victims) {
+        Rescuer[] rs = toRescuerArray(rescuers);
+        ensureColumns(victims);
+
+        // ردیف‌های کهنه
+        int staleCount = 0;
+        int[] staleTiles = new int[rs.length];
+        Rescuer[] stale = new Rescuer[rs.length];
+        for (int i = 0; i < rs.length; i++) {
+            Rescuer r = rs[i];
+            if (r == null) continue;
+            int tile = tileOf(r.getPosition());
+            Row row = rows.get(r);
+            if (row != null && row.tile == tile) {
+                rowsReused++;
+                continue;
+            }
+            stale[staleCount] = r;
+            staleTiles[staleCount] = tile;
+            staleCount++;
+        }
+
+        if (staleCount > 0) {
+            int[][] fresh = new int[staleCount][];
+            int[] srcTiles = new int[staleCount];
+            System.arraycopy(staleTiles, 0, srcTiles, 0, staleCount);
+            fill(srcTiles, colTiles, fresh);
+            for (int i = 0; i < staleCount; i++) {
+                rows.put(stale[i], new Row(srcTiles[i], fresh[i]));
+            }
+        }
+
+        int[][] dist = new int[rs.length][];
+        for (int i = 0; i < rs.length; i++) {
+            Row row = (rs[i] != null) ? rows.get(rs[i]) : null;
+            dist[i] = (row != null) ? row.dist : unreachableRow(colTiles.length);
+        }
+        return new DistanceMatrix(rs, colOwners.clone(), dist);
+    }
+
+    /**
+     * فاصلهٔ یک ریسکیور تا یک مجروح.
+     * اگر مجروح در ستون‌های کش باشد، ردیف ریسکیور (در صورت نیاز) حساب و نگه داشته می‌شود؛
+     * وگرنه یک BFS تک‌مقصدی با توقف زودهنگام.
+     */
+    public synchronized int distance(Rescuer rescuer, Injured victim) {
+        if (rescuer == null || victim == null) return UNREACHABLE;
+        int rt = tileOf(rescuer.getPosition());
+        int vt = tileOf(victim.getPosition());
+        if (rt < 0 || vt < 0) return UNREACHABLE;
+
+        Integer col = colIndex.get(victim);
+        if (col != null && colVersion == version && colTiles[col.intValue()] == vt) {
+            Row row = rows.get(rescuer);
+            if (row == null || row.tile != rt) {
+                int[][] fresh = new int[1][];
+                fill(new int[] { rt }, colTiles, fresh);
+                row = new Row(rt, fresh[0]);
+                rows.put(rescuer, row);
+            } else {
+                rowsReused++;
+            }
+            return row.dist[col.intValue()];
+        }
+        int[][] one = new int[1][];
+        fill(new int[] { rt }, new int[] { vt }, one);
+        return one[0][0];
+    }
+
+    /** فاصلهٔ دو موقعیت (BFS تک‌مقصدی با توقف زودهنگام). */
+    public synchronized int distance(Position from, Position to) {
+        int s = tileOf(from), t = tileOf(to);
+        if (s < 0 || t < 0) return UNREACHABLE;
+        int[][] one = new int[1][];
+        fill(new int[] { s }, new int[] { t }, one);
+        return one[0][0];
+    }
+
+    /**
+     * ماتریس چگال from × to برای موقعیت‌های دلخواه (مثلاً مجروح‌ها × بیمارستان‌ها)؛ بدون کش.
+     * موقعیت null یا خارج نقشه → ردیف/ستون UNREACHABLE.
+     */
+    public synchronized int[][] compute(List<Position> from, List<Position> to) {
+        int r = (from != null) ? from.size() : 0;
+        int c = (to != null) ? to.size() : 0;
+        int[] src = new int[r];
+        int[] dst = new int[c];
+        for (int i = 0; i < r; i++) src[i] = tileOf(from.get(i));
+        for (int j = 0; j < c; j++) dst[j] = tileOf(to.get(j));
+        int[][] out = new int[r][];
+        fill(src, dst, out);
+        return out;
+    }
+
+    // ------------------------------------------------------------
+    // هسته
+    // ------------------------------------------------------------
+
+    /**
+     * out[i][j] = فاصلهٔ src[i] تا dst[j]. از سمت کوچک‌تر جست‌وجو می‌کند
+     * (گراف بی‌جهت و قواعد دو سر متقارن‌اند).
+     */
+    private void fill(int[] src, int[] dst, int[][] out) {
+        int r = src.length, c = dst.length;
+        for (int i = 0; i < r; i++) out[i] = unreachableRow(c);
+        if (r == 0 || c == 0) return;
+
+        if (r <= c) {
+            indexTargets(dst);
+            for (int i = 0; i < r; i++) searchFrom(src[i], dst, out[i]);
+        } else {
+            indexTargets(src);
+            int[] col = new int[r];
+            for (int j = 0; j < c; j++) {
+                searchFrom(dst[j], src, col);
+                for (int i = 0; i < r; i++) out[i][j] = col[i];
+            }
+        }
+    }
+
+    /** ساخت جدول تایل → مقصدها برای targets (اندیس‌ها در targetNext). */
+    private void indexTargets(int[] targets) {
+        targetGen++;
+        if (targetGen == Integer.MAX_VALUE) {
+            java.util.Arrays.fill(targetStamp, 0);
+            targetGen = 1;
+        }
+        if (targetNext.length < targets.length) targetNext = new int[Math.max(targets.length, targetNext.length * 2)];
+        if (targetLabels.length < 4 * targets.length) targetLabels = new int[Math.max(4 * targets.length, targetLabels.length * 2)];
+        ComponentLabels labels = cityMap.getComponentLabels(profile);
+        for (int j = 0; j < targets.length; j++) {
+            int t = targets[j];
+            if (t < 0) continue;
+            labelsOf(labels, t, targetLabels, 4 * j);
+            if (targetStamp[t] != targetGen) {
+                targetStamp[t] = targetGen;
+                targetHead[t] = NIL;
+            }
+            targetNext[j] = targetHead[t];
+            targetHead[t] = j;
+        }
+    }
+
+    /** BFS از src تا یافتن همهٔ مقصدهای دسترس‌پذیر؛ result[j] پر می‌شود. */
+    private void searchFrom(int src, int[] targets, int[] result) {
+        for (int j = 0; j < result.length; j++) result[j] = UNREACHABLE;
+        if (src < 0) return;
+
+        labelsOf(cityMap.getComponentLabels(profile), src, sourceLabels, 0);
+        int expected = 0;
+        for (int j = 0; j < targets.length; j++) {
+            if (targets[j] >= 0 && connected(src, targets[j], 4 * j)) expected++;
+        }
+        if (expected == 0) return;
+
+        searches++;
+        refreshPassable();
+        final boolean[] pass = passable;
+        SearchScratch sc = SearchScratch.forThread(width * height);
+        sc.begin();
+        final int[] g = sc.g;
+        final int[] q = sc.queue;
+
+        sc.setSeen(src);
+        g[src] = 0;
+        int found = isTarget(src) ? record(src, 0, result) : 0;
+        if (found >= expected) return;
+
+        int head = 0, tail = 0;
+        q[tail++] = src;
+        while (head < tail) {
+            int u = q[head++];
+            int d = g[u] + 1;
+            int ux = u % width, uy = u / width;
+            for (int k = 0; k < 4; k++) {
+                int vx = ux + DX[k], vy = uy + DY[k];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (sc.isSeen(v)) continue;
+                boolean target = isTarget(v);
+                boolean open = pass[v];
+                if (!target && !open) continue;
+                sc.setSeen(v);
+                g[v] = d;
+                if (target) {
+                    found += record(v, d, result);
+                    if (found >= expected) return;
+                }
+                if (open) q[tail++] = v; // مقصد غیرقابل عبور فقط «رسیدنی» است، نه گذرگاه
+            }
+        }
+    }
+
+    private void refreshPassable() {
+        if (!passableDirty) return;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                passable[y * width + x] = profile.isPassable(cityMap, x, y);
+            }
+        }
+        passableDirty = false;
+    }
+
+    private boolean isTarget(int tile) {
+        return targetStamp[tile] == targetGen && targetHead[tile] != NIL;
+    }
+
+    private int record(int tile, int d, int[] result) {
+        int count = 0;
+        for (int j = targetHead[tile]; j != NIL; j = targetNext[j]) {
+            result[j] = d;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * برچسب‌هایی که تایل از طریقشان به گراف وصل است: خودش اگر قابل عبور باشد،
+     * وگرنه برچسب همسایه‌های قابل عبورش (همان قاعدهٔ BFS برای دو سرِ غیرقابل عبور).
+     */
+    private void labelsOf(ComponentLabels labels, int tile, int[] out, int off) {
+        int x = tile % width, y = tile / width;
+        int own = labels.labelAt(x, y);
+        if (own != ComponentLabels.NONE) {
+            out[off] = own;
+            out[off + 1] = ComponentLabels.NONE;
+            out[off + 2] = ComponentLabels.NONE;
+            out[off + 3] = ComponentLabels.NONE;
+            return;
+        }
+        for (int k = 0; k < 4; k++) out[off + k] = labels.labelAt(x + DX[k], y + DY[k]);
+    }
+
+    /** آیا src به مقصد (با برچسب‌های targetLabels[off..off+3]) راه دارد؟ مجاورت مستقیم همیشه کافی است. */
+    private boolean connected(int a, int b, int off) {
+        if (a == b) return true;
+        if (Math.abs(a % width - b % width) + Math.abs(a / width - b / width) == 1) return true;
+        for (int i = 0; i < 4; i++) {
+            int l1 = sourceLabels[i];
+            if (l1 == ComponentLabels.NONE) continue;
+            for (int k = 0; k < 4; k++) {
+                if (targetLabels[off + k] == l1) return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------
+    // کش ستون‌ها
+    // ------------------------------------------------------------
+
+    private void ensureColumns(List<Injured> victims) {
+        int c = (victims != null) ? victims.size() : 0;
+        boolean same = colVersion == version && colOwners.length == c;
+        for (int j = 0; same && j < c; j++) {
+            Injured v = victims.get(j);
+            same = v == colOwners[j] && tileOf(v != null ? v.getPosition() : null) == colTiles[j];
+        }
+        if (same) return;
+
+        colOwners = new Injured[c];
+        colTiles = new int[c];
+        colIndex.clear();
+        for (int j = 0; j < c; j++) {
+            Injured v = victims.get(j);
+            colOwners[j] = v;
+            colTiles[j] = tileOf(v != null ? v.getPosition() : null);
+            if (v != null && !colIndex.containsKey(v)) colIndex.put(v, Integer.valueOf(j));
+        }
+        colVersion = version;
+        rows.clear();
+    }
+
+    private static Rescuer[] toRescuerArray(List<Rescuer> list) {
+        int n = (list != null) ? list.size() : 0;
+        Rescuer[] out = new Rescuer[n];
+        for (int i = 0; i < n; i++) out[i] = list.get(i);
+        return out;
+    }
+
+    private int tileOf(Position p) {
+        if (p == null || !cityMap.isValid(p.getX(), p.getY())) return NIL;
+        return p.getY() * width + p.getX();
+    }
+
+    private static int[] unreachableRow(int n) {
+        int[] row = new int[n];
+        java.util.Arrays.fill(row, UNREACHABLE);
+        return row;
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public synchronized void onTileChanged(CityMap map, int x, int y, int kind) {
+        if ((kind & (CELL | COLLISION)) == 0) return; // فاصله‌ها ایستا هستند
+        version++;
+        if (!passableDirty && x >= 0 && y >= 0 && x < width && y < height) {
+            passable[y * width + x] = profile.isPassable(cityMap, x, y);
+        }
+    }
+
+    @Override
+    public synchronized void onMapReset(CityMap map) {
+        version++;
+        passableDirty = true;
+    }
+
+    // ------------------------------------------------------------
+    // انواع توکار
+    // ------------------------------------------------------------
+
+    /** ردیف کش‌شدهٔ یک ریسکیور (تایل هنگام محاسبه + فاصله تا ستون‌ها) */
+    private static final class Row {
+        final int tile;
+        final int[] dist;
+
+        Row(int tile, int[] dist) {
+            this.tile = tile;
+            this.dist = dist;
+        }
+    }
+
+    /**
+     * عکس فوری ماتریس ریسکیور × مجروح. ردیف‌ها بین عکس‌ها به‌اشتراک گذاشته می‌شوند؛ تغییرشان نده.
+     */
+    public static final class DistanceMatrix {
+        private final Rescuer[] rescuers;
+        private final Injured[] victims;
+        private final int[][] dist;
+        private final Map<Rescuer, Integer> rowIndex = new IdentityHashMap<Rescuer, Integer>();
+        private final Map<Injured, Integer> colIndex = new IdentityHashMap<Injured, Integer>();
+
+        DistanceMatrix(Rescuer[] rescuers, Injured[] victims, int[][] dist) {
+            this.rescuers = rescuers;
+            this.victims = victims;
+            this.dist = dist;
+            for (int i = 0; i < rescuers.length; i++) {
+                if (rescuers[i] != null && !rowIndex.containsKey(rescuers[i])) rowIndex.put(rescuers[i], Integer.valueOf(i));
+            }
+            for (int j = 0; j < victims.length; j++) {
+                if (victims[j] != null && !colIndex.containsKey(victims[j])) colIndex.put(victims[j], Integer.valueOf(j));
+            }
+        }
+
+        public int rowCount() { return rescuers.length; }
+        public int colCount() { return victims.length; }
+        public Rescuer rescuerAt(int i) { return rescuers[i]; }
+        public Injured victimAt(int j) { return victims[j]; }
+
+        /** فاصله با اندیس؛ UNREACHABLE اگر راهی نیست. */
+        public int get(int i, int j) { return dist[i][j]; }
+
+        /** ردیف ریسکیور i (فقط‌خواندنی). */
+        public int[] row(int i) { return dist[i]; }
+
+        /** فاصله با شیء؛ UNREACHABLE اگر هر کدام در ماتریس نباشد. */
+        public int distance(Rescuer r, Injured v) {
+            Integer i = rowIndex.get(r);
+            Integer j = colIndex.get(v);
+            if (i == null || j == null) return UNREACHABLE;
+            return dist[i.intValue()][j.intValue()];
+        }
+    }
+}
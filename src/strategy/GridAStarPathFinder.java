@@ -0,0 +1,245 @@
+package strategy;
+
+import map.AdjacencyMasks;
+import map.CityMap;
+import map.MovementProfile;
+import util.CompactPath;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * A* روی اندیس تایل‌ها (y*width+x) با آرایه‌های اولیه به‌جای HashMap/HashSet.
+ * - gScore در int[]، والد در int[]، دیده‌شده/بسته با نشانهٔ نسلی (SearchScratch)
+ * - صف باز: هیپ اندیس‌دار با decrease-key واقعی (IndexedMinHeap)
+ * - بافرها برای هر Thread یک‌بار ساخته می‌شوند؛ پرس‌وجوی پایدار فقط مسیر خروجی را تخصیص می‌دهد.
+ *
+ * ترتیب انتخاب دقیقاً مثل AStarPathFinder است: f کمتر، سپس g کمتر، سپس h کمتر
+ * (که با f و g یکسان تعیین می‌شود)، سپس y و در نهایت x (همان ترتیب اندیس تایل).
+ * ترتیب همسایه‌ها هم مثل CityMap.getWalkableNeighbors است: پایین، راست، بالا، چپ.
+ * همسایه‌ها از AdjacencyMasks پروفایل (CityMap.getAdjacencyMasks) با Cursor و skipOccupied خوانده می‌شوند،
+ * یعنی همان profile.canEnter بدون صدا زدن پروفایل برای هر همسایه؛ ماسک‌ها مثل برچسب مؤلفه‌ها
+ * (isReachable) با رویدادهای CityMap به‌روز می‌مانند.
+ * بنابراین با پروفایل DEFAULT روی نقشهٔ فعلی همان مسیرهای AStarPathFinder را برمی‌گرداند.
+ *
+ * با setLandmarks هیوریستیک max(منهتنی، ALT) می‌شود: طول مسیر همان است ولی نودهای کمتری گسترش می‌یابند
+ * (مسیر انتخابی بین هم‌طول‌ها ممکن است فرق کند).
+ *
+ * findPathDetailed از PathOptions بودجهٔ زمان (پایان زودهنگام با مسیر تا نزدیک‌ترین نود، complete=false)
+ * و ضریب هیوریستیک (weighted A*، کران هزینه = همان ضریب) را هم می‌پذیرد.
+ */
+public class GridAStarPathFinder implements IPathFinder {
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+
+    /** سقف نودهای قابل‌گسترش؛ 0 یعنی نامحدود. */
+    private int maxExpandedNodes = 0;
+
+    /** اگر true: در صورت شکست، مسیر تا نزدیک‌ترین نود دیده‌شده به goal برمی‌گردد. */
+    private boolean returnClosestOnFail = false;
+
+    /** جدول نشانه‌های ALT (اختیاری؛ باید برای همین پروفایل ساخته شده باشد) */
+    private volatile LandmarkTable landmarks;
+
+    public GridAStarPathFinder(CityMap cityMap) {
+        this(cityMap, MovementProfile.DEFAULT);
+    }
+
+    public GridAStarPathFinder(CityMap cityMap, MovementProfile profile) {
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    public void setMaxExpandedNodes(int limit) { this.maxExpandedNodes = limit; }
+    public void setReturnClosestOnFail(boolean enabled) { this.returnClosestOnFail = enabled; }
+
+    /** هیوریستیک ALT؛ null یعنی فقط منهتنی. */
+    public void setLandmarks(LandmarkTable table) {
+        if (table != null && table.getProfile() != profile) {
+            throw new IllegalArgumentException("landmark table profile " + table.getProfile() + " != " + profile);
+        }
+        this.landmarks = table;
+    }
+
+    /** هر چند گسترش یک‌بار ساعت خوانده می‌شود (توان 2 منهای 1). */
+    private static final int CLOCK_MASK = 31;
+
+    @Override
+    public List<Position> findPath(Position start, Position goal) {
+        return search(start, goal, maxExpandedNodes, 0L, 1000).path;
+    }
+
+    @Override
+    public PathResult findPathDetailed(Position from, Position to, PathOptions options) {
+        long t0 = System.nanoTime();
+        int limit = maxExpandedNodes;
+        long deadline = 0L;
+        int weightMilli = 1000;
+        if (options != null) {
+            if (options.getMaxExpandedNodes() > 0) limit = options.getMaxExpandedNodes();
+            if (options.hasTimeBudget()) deadline = t0 + options.getTimeBudgetNanos();
+            weightMilli = options.heuristicWeightMilli();
+        }
+        PathResult r = search(from, to, limit, deadline, weightMilli);
+        r.elapsedNanos = System.nanoTime() - t0;
+        return r;
+    }
+
+    // ------------------------------------------------------------
+    // هستهٔ جست‌وجو
+    // ------------------------------------------------------------
+    private PathResult search(Position start, Position goal, int limit, long deadline, int weightMilli) {
+        PathResult r = new PathResult();
+        r.path = Collections.<Position>emptyList();
+        r.success = false;
+        r.totalCost = Integer.MAX_VALUE;
+        r.expandedNodes = 0;
+
+        if (cityMap == null || start == null || goal == null) return r;
+        final int w = cityMap.getWidth();
+        final int h = cityMap.getHeight();
+        if (!cityMap.isValid(start.getX(), start.getY()) || !cityMap.isValid(goal.getX(), goal.getY())) return r;
+
+        if (start.equals(goal)) {
+            List<Position> single = new ArrayList<Position>(1);
+            single.add(start);
+            r.path = single;
+            r.success = true;
+            r.totalCost = 0;
+            return r;
+        }
+        // مؤلفهٔ جدا: بدون پیمودن کل ناحیهٔ قابل دسترس (نزدیک‌ترین تقریب هنوز جست‌وجو لازم دارد)
+        if (!returnClosestOnFail && !cityMap.isReachable(start, goal, profile)) return r;
+
+        final int gx = goal.getX();
+        final int gy = goal.getY();
+        final int s = start.getY() * w + start.getX();
+        final int t = gy * w + gx;
+
+        final LandmarkTable alt = landmarks;
+        if (alt != null) alt.ensureFresh();
+
+        SearchScratch sc = SearchScratch.forThread(w * h);
+        sc.begin();
+        final int[] g = sc.g;
+        final int[] parent = sc.parent;
+        final IndexedMinHeap open = sc.open;
+
+        g[s] = 0;
+        parent[s] = -1;
+        sc.setSeen(s);
+        int hs = manhattan(start.getX(), start.getY(), gx, gy);
+        open.insertOrUpdate(s, key(weighted(estimate(alt, s, t, hs), weightMilli), 0));
+
+        // همسایه‌های قابل ورود (پروفایل + اشغال لحظه‌ای) بدون ساخت شیء در هر گسترش
+        final AdjacencyMasks.Cursor nbrs = cityMap.getAdjacencyMasks(profile).cursor(true);
+
+        int expanded = 0;
+        int best = s;
+        int bestH = hs;
+
+        while (!open.isEmpty()) {
+            int cur = open.poll();
+            if (cur == t) {
+                r.expandedNodes = expanded;
+                r.suboptimality = weightMilli / 1000.0;
+                return finish(r, parent, cur, w);
+            }
+            sc.setClosed(cur);
+
+            int cx = cur % w;
+            int cy = cur / w;
+            int hCur = manhattan(cx, cy, gx, gy);
+            if (hCur < bestH) {
+                best = cur;
+                bestH = hCur;
+            }
+
+            expanded++;
+            if (limit > 0 && expanded > limit) {
+                r.expandedNodes = expanded;
+                r.complete = false;
+                if (returnClosestOnFail && best != s) return finishPartial(r, parent, best, w);
+                return r;
+            }
+            if (deadline != 0L && (expanded & CLOCK_MASK) == 0 && System.nanoTime() - deadline >= 0) {
+                // بودجهٔ زمان تمام شد: بهترین تقریب تا این لحظه
+                r.expandedNodes = expanded;
+                r.complete = false;
+                if (best != s) return finishPartial(r, parent, best, w);
+                return r;
+            }
+
+            int ng = g[cur] + 1; // هزینهٔ یکنواخت
+            nbrs.reset(cx, cy);
+            while (nbrs.next()) {
+                int nx = nbrs.x();
+                int ny = nbrs.y();
+                int nb = nbrs.index();
+                if (sc.isClosed(nb)) continue;
+                if (!sc.isSeen(nb) || ng < g[nb]) {
+                    sc.setSeen(nb);
+                    g[nb] = ng;
+                    parent[nb] = cur;
+                    open.insertOrUpdate(nb, key(ng + weighted(estimate(alt, nb, t, manhattan(nx, ny, gx, gy)), weightMilli), ng));
+                }
+            }
+        }
+
+        r.expandedNodes = expanded;
+        if (returnClosestOnFail && best != s) return finishPartial(r, parent, best, w);
+        return r;
+    }
+
+    /** کلید هیپ: f در ۳۲ بیت بالا و g در ۳۲ بیت پایین؛ تساوی را خود هیپ با اندیس تایل (y,x) می‌شکند. */
+    private static long key(int f, int g) {
+        return ((long) f << 32) | (g & 0xFFFFFFFFL);
+    }
+
+    /** ضریب هیوریستیک به هزارم؛ 1000 دقیقاً همان h (بدون گردکردن). */
+    private static int weighted(int h, int weightMilli) {
+        if (weightMilli == 1000) return h;
+        return (int) (((long) h * weightMilli) / 1000L);
+    }
+
+    /** max(منهتنی، ALT)؛ هر دو سازگارند پس بیشینه هم سازگار است. */
+    private static int estimate(LandmarkTable alt, int v, int t, int manhattan) {
+        if (alt == null) return manhattan;
+        int lb = alt.lowerBound(v, t);
+        return (lb > manhattan) ? lb : manhattan;
+    }
+
+    private static int manhattan(int ax, int ay, int bx, int by) {
+        return Math.abs(ax - bx) + Math.abs(ay - by);
+    }
+
+    private static PathResult finish(PathResult r, int[] parent, int end, int w) {
+        r.path = reconstruct(parent, end, w);
+        r.success = true;
+        r.totalCost = r.path.size() - 1;
+        return r;
+    }
+
+    private static PathResult finishPartial(PathResult r, int[] parent, int end, int w) {
+        r.path = reconstruct(parent, end, w);
+        r.success = false;
+        r.totalCost = r.path.size() - 1;
+        return r;
+    }
+
+    /**
+     * بازسازی مسیر از روی آرایهٔ والد؛ تنها تخصیصِ پرس‌وجو همین است.
+     * خروجی نمای فقط‌خواندنی یک CompactPath است (یک int برای هر پیچ به‌جای یک Position برای هر تایل).
+     */
+    private static List<Position> reconstruct(int[] parent, int end, int w) {
+        return CompactPath.fromParents(parent, end, w).asList();
+    }
+}
@@ -0,0 +1,556 @@
+package strategy;
+
+import map.CityMap;
+import map.MapChangeListener;
+import map.MovementProfile;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * مسیریابی سلسله‌مراتبی (HPA*) برای نقشه‌های بزرگ.
+ *
+ * ساختار:
+ * - نقشه به خوشه‌های clusterSize×clusterSize تقسیم می‌شود.
+ * - روی هر مرز مشترک دو خوشه، بازه‌های پیوستهٔ قابل عبور «ورودی» می‌سازند
+ *   (بازهٔ کوتاه: یک گذرگاه در وسط؛ بازهٔ بلند: دو گذرگاه در دو سر).
+ * - هزینهٔ درون‌خوشه‌ای بین ورودی‌های یک خوشه با BFS محدود به همان خوشه از قبل حساب می‌شود.
+ * - پرس‌وجو: start و goal موقتاً به ورودی‌های خوشهٔ خودشان وصل می‌شوند، A* روی گراف انتزاعی
+ *   اجرا می‌شود و هر قطعه فقط وقتی لازم شد (Route.refineNext) به تایل‌ها پالایش می‌شود.
+ *
+ * گراف انتزاعی فقط روی عبورپذیری ایستای پروفایل (isPassable) ساخته می‌شود؛ اشغال تایل‌ها
+ * هنگام پالایش (canEnter) دیده می‌شود و اگر قطعه‌ای بسته بود، کل پرس‌وجو با A* تخت انجام می‌شود.
+ * با تغییر سلول/برخورد، فقط خوشهٔ همان تایل (و اگر تایل روی مرز است، خوشهٔ آن‌طرف مرز)
+ * کثیف و در پرس‌وجوی بعدی بازسازی می‌شود.
+ *
+ * مسیر نزدیک به بهینه است (ویژگی ذاتی HPA*)، نه لزوماً کوتاه‌ترین.
+ */
+public class HierarchicalPathFinder implements IPathFinder, MapChangeListener {
+
+    public static final int DEFAULT_CLUSTER_SIZE = 10;
+
+    /** بازه‌های کوتاه‌تر از این، یک گذرگاه وسط دارند؛ بلندترها دو گذرگاه در دو سر. */
+    private static final int MAX_ENTRANCE_WIDTH = 6;
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final int clusterSize;
+    private final int width;
+    private final int height;
+    private final int clustersX;
+    private final int clustersY;
+
+    private final Cluster[] clusters;
+    /** localIdOfTile[tile] = اندیس ورودی در خوشهٔ خودش؛ -1 اگر تایل ورودی نیست. */
+    private final int[] localIdOfTile;
+
+    // صف خوشه‌های کثیف
+    private final int[] dirtyStack;
+    private int dirtyCount;
+
+    // بافرهای BFS داخل خوشه
+    private final int[] localA;
+    private final int[] localB;
+    private final int[] localQueue;
+
+    /** برای پرس‌وجوهایی که پالایش‌شان به‌خاطر اشغال شکست می‌خورد. */
+    private final GridAStarPathFinder flat;
+
+    private int rebuiltClusters = 0;
+
+    /** یک خوشه: محدوده + ورودی‌ها + هزینه‌های درونی. */
+    private static final class Cluster {
+        int x0, y0, x1, y1;       // [x0,x1) × [y0,y1)
+        int[] nodes = new int[0]; // اندیس تایل ورودی‌ها
+        int[][] partners;         // partners[i] = تایل‌های آن‌طرف مرز (یال با هزینهٔ 1)
+        int[][] dist;             // dist[i][j] = فاصلهٔ درون‌خوشه‌ای (-1 اگر راهی نیست)
+        boolean dirty = true;
+    }
+
+    public HierarchicalPathFinder(CityMap cityMap) {
+        this(cityMap, MovementProfile.DEFAULT, DEFAULT_CLUSTER_SIZE);
+    }
+
+    public HierarchicalPathFinder(CityMap cityMap, MovementProfile profile) {
+        this(cityMap, profile, DEFAULT_CLUSTER_SIZE);
+    }
+
+    public HierarchicalPathFinder(CityMap cityMap, MovementProfile profile, int clusterSize) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        if (clusterSize < 2) clusterSize = 2;
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.clusterSize = clusterSize;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        this.clustersX = (width + clusterSize - 1) / clusterSize;
+        this.clustersY = (height + clusterSize - 1) / clusterSize;
+
+        int count = clustersX * clustersY;
+        this.clusters = new Cluster[count];
+        this.dirtyStack = new int[count];
+        for (int cy = 0; cy < clustersY; cy++) {
+            for (int cx = 0; cx < clustersX; cx++) {
+                Cluster c = new Cluster();
+                c.x0 = cx * clusterSize;
+                c.y0 = cy * clusterSize;
+                c.x1 = Math.min(width, c.x0 + clusterSize);
+                c.y1 = Math.min(height, c.y0 + clusterSize);
+                int id = cy * clustersX + cx;
+                clusters[id] = c;
+                dirtyStack[dirtyCount++] = id;
+            }
+        }
+        this.localIdOfTile = new int[width * height];
+        Arrays.fill(localIdOfTile, -1);
+
+        int cells = clusterSize * clusterSize;
+        this.localA = new int[cells];
+        this.localB = new int[cells];
+        this.localQueue = new int[cells];
+
+        this.flat = new GridAStarPathFinder(cityMap, this.profile);
+        cityMap.addChangeListener(this);
+    }
+
+    public MovementProfile getProfile() { return profile; }
+    public int getClusterSize() { return clusterSize; }
+
+    /** تعداد کل بازسازی خوشه‌ها از ابتدا (برای لاگ/پروفایلینگ). */
+    public int getRebuiltClusterCount() { return rebuiltClusters; }
+
+    /** جداشدن از نقشه. */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    // ------------------------------------------------------------
+    // IPathFinder
+    // ------------------------------------------------------------
+
+    @Override
+    public List<Position> findPath(Position start, Position goal) {
+        return findPathDetailed(start, goal, null).path;
+    }
+
+    @Override
+    public synchronized PathResult findPathDetailed(Position start, Position goal, PathOptions options) {
+        PathResult r = new PathResult();
+        r.path = Collections.<Position>emptyList();
+        r.success = false;
+        r.totalCost = Integer.MAX_VALUE;
+        r.expandedNodes = 0;
+
+        if (start != null && !start.equals(goal) && !profile.isPassable(cityMap, start.getX(), start.getY())) {
+            // شروع روی تایل غیرقابل‌عبور (مثلاً آمبولانس روی پیاده‌رو): ممکن است تنها راه خروج از
+            // همین تایل به خوشهٔ همسایه باشد که ورودی ثبت‌شده‌ای نیست → A* تخت
+            return flat.findPathDetailed(start, goal, options);
+        }
+        Route route = planRoute(start, goal);
+        if (route == null) return r;
+        r.expandedNodes = route.expandedNodes;
+
+        ArrayList<Position> out = new ArrayList<Position>();
+        out.add(start);
+        while (route.hasNext()) {
+            List<Position> seg = route.refineNext();
+            if (seg == null) {
+                // قطعه‌ای به‌خاطر اشغال بسته است → A* تخت با همان پروفایل
+                PathResult fr = flat.findPathDetailed(start, goal, options);
+                fr.expandedNodes += route.expandedNodes;
+                return fr;
+            }
+            out.addAll(seg);
+        }
+        r.expandedNodes = route.expandedNodes;
+        r.path = out;
+        r.success = true;
+        r.totalCost = out.size() - 1;
+        return r;
+    }
+
+    // ------------------------------------------------------------
+    // مسیر انتزاعی + پالایش تنبل
+    // ------------------------------------------------------------
+
+    /**
+     * مسیر انتزاعی (نقاط عبور روی ورودی‌ها). هر refineNext یک قطعه را به تایل‌ها تبدیل می‌کند
+     * (بدون تایل شروع قطعه). null یعنی قطعه الان (به‌خاطر اشغال) قابل پالایش نیست.
+     */
+    public final class Route {
+        private final int[] waypoints;
+        private int next = 1;
+        int expandedNodes;
+
+        Route(int[] waypoints, int expanded) {
+            this.waypoints = waypoints;
+            this.expandedNodes = expanded;
+        }
+
+        public boolean hasNext() { return next < waypoints.length; }
+
+        /** تعداد قطعه‌های باقی‌مانده */
+        public int remainingSegments() { return waypoints.length - next; }
+
+        /** نقاط عبور انتزاعی (شامل start و goal) */
+        public List<Position> getWaypoints() {
+            ArrayList<Position> out = new ArrayList<Position>(waypoints.length);
+            for (int i = 0; i < waypoints.length; i++) {
+                out.add(new Position(waypoints[i] % width, waypoints[i] / width));
+            }
+            return out;
+        }
+
+        public int getExpandedNodes() { return expandedNodes; }
+
+        public List<Position> refineNext() {
+            if (!hasNext()) return Collections.<Position>emptyList();
+            synchronized (HierarchicalPathFinder.this) {
+                List<Position> seg = refineSegment(waypoints[next - 1], waypoints[next], this);
+                if (seg != null) next++;
+                return seg;
+            }
+        }
+    }
+
+    /**
+     * جست‌وجوی انتزاعی؛ null اگر راهی نیست.
+     * start باید طبق پروفایل قابل عبور باشد (وگرنه خروج مستقیم از مرز خوشه دیده نمی‌شود).
+     */
+    public synchronized Route planRoute(Position start, Position goal) {
+        if (start == null || goal == null) return null;
+        if (!cityMap.isValid(start.getX(), start.getY()) || !cityMap.isValid(goal.getX(), goal.getY())) return null;
+        final int s = start.getY() * width + start.getX();
+        final int t = goal.getY() * width + goal.getX();
+        if (s == t) return new Route(new int[] { s }, 0);
+        if (!profile.isPassable(cityMap, goal.getX(), goal.getY())) return null;
+        if (!cityMap.isReachable(start, goal, profile)) return null; // مؤلفهٔ جدا → بدون جست‌وجوی انتزاعی
+
+        rebuildDirty();
+
+        final int sc = clusterOf(s);
+        final int tc = clusterOf(t);
+        final Cluster sC = clusters[sc];
+        final Cluster tC = clusters[tc];
+        localBfs(sC, s, localA);
+        localBfs(tC, t, localB);
+        final int direct = (sc == tc) ? localB[localIndex(sC, s)] : -1;
+
+        SearchScratch scr = SearchScratch.forThread(width * height);
+        scr.begin();
+        final int[] g = scr.g;
+        final int[] parent = scr.parent;
+        final IndexedMinHeap open = scr.open;
+
+        g[s] = 0;
+        parent[s] = -1;
+        scr.setSeen(s);
+        open.insertOrUpdate(s, key(heuristic(s, t), 0));
+
+        int expanded = 0;
+        while (!open.isEmpty()) {
+            int u = open.poll();
+            if (u == t) {
+                int len = 0;
+                for (int c = u; c != -1; c = parent[c]) len++;
+                int[] wp = new int[len];
+                int i = len - 1;
+                for (int c = u; c != -1; c = parent[c]) wp[i--] = c;
+                return new Route(wp, expanded);
+            }
+            scr.setClosed(u);
+            expanded++;
+
+            int gu = g[u];
+            if (u == s) {
+                // start → ورودی‌های خوشهٔ خودش (و مستقیم به goal اگر هم‌خوشه‌اند)
+                for (int j = 0; j < sC.nodes.length; j++) {
+                    int d = localA[localIndex(sC, sC.nodes[j])];
+                    if (d >= 0) relax(scr, u, sC.nodes[j], gu + d, t);
+                }
+                if (direct >= 0) relax(scr, u, t, gu + direct, t);
+            }
+            int li = localIdOfTile[u];
+            if (li >= 0) {
+                int cu = clusterOf(u);
+                Cluster c = clusters[cu];
+                int[] row = c.dist[li];
+                for (int j = 0; j < row.length; j++) {
+                    if (j == li || row[j] < 0) continue;
+                    relax(scr, u, c.nodes[j], gu + row[j], t);
+                }
+                int[] ps = c.partners[li];
+                for (int j = 0; j < ps.length; j++) relax(scr, u, ps[j], gu + 1, t);
+                if (cu == tc) {
+                    int d = localB[localIndex(tC, u)];
+                    if (d >= 0) relax(scr, u, t, gu + d, t);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void relax(SearchScratch scr, int from, int to, int ng, int t) {
+        if (scr.isClosed(to)) return;
+        if (!scr.isSeen(to) || ng < scr.g[to]) {
+            scr.setSeen(to);
+            scr.g[to] = ng;
+            scr.parent[to] = from;
+            scr.open.insertOrUpdate(to, key(ng + heuristic(to, t), ng));
+        }
+    }
+
+    /**
+     * پالایش یک قطعه: دو سر یا مجاورند (یال بین‌خوشه‌ای) یا داخل یک خوشه‌اند؛
+     * A* محدود به همان خوشه با canEnter (اشغال دیده می‌شود).
+     */
+    private List<Position> refineSegment(int a, int b, Route route) {
+        int ax = a % width, ay = a / width;
+        int bx = b % width, by = b / width;
+        if (Math.abs(ax - bx) + Math.abs(ay - by) == 1) {
+            if (!profile.canEnter(cityMap, bx, by)) return null;
+            List<Position> one = new ArrayList<Position>(1);
+            one.add(new Position(bx, by));
+            return one;
+        }
+        Cluster c = clusters[clusterOf(a)];
+
+        SearchScratch scr = SearchScratch.forThread(width * height);
+        scr.begin();
+        final int[] g = scr.g;
+        final int[] parent = scr.parent;
+        final IndexedMinHeap open = scr.open;
+        g[a] = 0;
+        parent[a] = -1;
+        scr.setSeen(a);
+        open.insertOrUpdate(a, key(heuristic(a, b), 0));
+
+        while (!open.isEmpty()) {
+            int u = open.poll();
+            if (u == b) {
+                int len = 0;
+                for (int p = u; p != a; p = parent[p]) len++;
+                Position[] seg = new Position[len];
+                int i = len - 1;
+                for (int p = u; p != a; p = parent[p]) seg[i--] = new Position(p % width, p / width);
+                return new ArrayList<Position>(Arrays.asList(seg));
+            }
+            scr.setClosed(u);
+            route.expandedNodes++;
+            int ux = u % width, uy = u / width;
+            int ng = g[u] + 1;
+            for (int k = 0; k < 4; k++) {
+                int nx = ux + DX[k], ny = uy + DY[k];
+                if (nx < c.x0 || ny < c.y0 || nx >= c.x1 || ny >= c.y1) continue;
+                if (!profile.canEnter(cityMap, nx, ny)) continue;
+                int v = ny * width + nx;
+                if (scr.isClosed(v)) continue;
+                if (!scr.isSeen(v) || ng < g[v]) {
+                    scr.setSeen(v);
+                    g[v] = ng;
+                    parent[v] = u;
+                    open.insertOrUpdate(v, key(ng + heuristic(v, b), ng));
+                }
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public void onTileChanged(CityMap map, int x, int y, int kind) {
+        if (kind == OCCUPANCY) return; // گراف انتزاعی فقط به عبورپذیری ایستا وابسته است
+        invalidateTile(x, y);
+    }
+
+    @Override
+    public void onMapReset(CityMap map) {
+        invalidateAll();
+    }
+
+    /** کثیف‌کردن خوشهٔ تایل (و خوشهٔ مجاور اگر تایل روی مرز است). */
+    public synchronized void invalidateTile(int x, int y) {
+        if (!cityMap.isValid(x, y)) return;
+        int cx = x / clusterSize, cy = y / clusterSize;
+        markDirty(cx, cy);
+        if (x % clusterSize == 0) markDirty(cx - 1, cy);
+        if (x % clusterSize == clusterSize - 1) markDirty(cx + 1, cy);
+        if (y % clusterSize == 0) markDirty(cx, cy - 1);
+        if (y % clusterSize == clusterSize - 1) markDirty(cx, cy + 1);
+    }
+
+    public synchronized void invalidateAll() {
+        for (int cy = 0; cy < clustersY; cy++) {
+            for (int cx = 0; cx < clustersX; cx++) markDirty(cx, cy);
+        }
+    }
+
+    private void markDirty(int cx, int cy) {
+        if (cx < 0 || cy < 0 || cx >= clustersX || cy >= clustersY) return;
+        int id = cy * clustersX + cx;
+        if (clusters[id].dirty) return;
+        clusters[id].dirty = true;
+        dirtyStack[dirtyCount++] = id;
+    }
+
+    // ------------------------------------------------------------
+    // ساخت خوشه‌ها
+    // ------------------------------------------------------------
+
+    private void rebuildDirty() {
+        while (dirtyCount > 0) {
+            int id = dirtyStack[--dirtyCount];
+            buildCluster(id);
+        }
+    }
+
+    private void buildCluster(int id) {
+        Cluster c = clusters[id];
+        for (int i = 0; i < c.nodes.length; i++) localIdOfTile[c.nodes[i]] = -1;
+
+        ArrayList<int[]> pairs = new ArrayList<int[]>();
+        int cx = id % clustersX, cy = id / clustersX;
+        // مرز چپ/راست: سمت این خوشه اول
+        if (cx > 0)             collectVertical(c.x0 - 1, c.y0, c.y1, false, pairs);
+        if (cx < clustersX - 1) collectVertical(c.x1 - 1, c.y0, c.y1, true, pairs);
+        if (cy > 0)             collectHorizontal(c.y0 - 1, c.x0, c.x1, false, pairs);
+        if (cy < clustersY - 1) collectHorizontal(c.y1 - 1, c.x0, c.x1, true, pairs);
+
+        int[] nodes = new int[pairs.size()];
+        int[] partnerCount = new int[pairs.size()];
+        int count = 0;
+        for (int i = 0; i < pairs.size(); i++) {
+            int own = pairs.get(i)[0];
+            int li = localIdOfTile[own];
+            if (li < 0) {
+                li = count++;
+                nodes[li] = own;
+                localIdOfTile[own] = li;
+            }
+            partnerCount[li]++;
+        }
+        c.nodes = Arrays.copyOf(nodes, count);
+        c.partners = new int[count][];
+        for (int i = 0; i < count; i++) c.partners[i] = new int[partnerCount[i]];
+        Arrays.fill(partnerCount, 0);
+        for (int i = 0; i < pairs.size(); i++) {
+            int li = localIdOfTile[pairs.get(i)[0]];
+            c.partners[li][partnerCount[li]++] = pairs.get(i)[1];
+        }
+
+        c.dist = new int[count][count];
+        for (int i = 0; i < count; i++) {
+            localBfs(c, c.nodes[i], localA);
+            for (int j = 0; j < count; j++) c.dist[i][j] = localA[localIndex(c, c.nodes[j])];
+        }
+        c.dirty = false;
+        rebuiltClusters++;
+    }
+
+    /**
+     * گذرگاه‌های مرز عمودی بین ستون xL و xL+1 در بازهٔ [y0,y1).
+     * ownIsLeft: تایل این خوشه ستون چپ است (در غیر این صورت ستون راست).
+     * خروجی: جفت {تایل این خوشه، تایل خوشهٔ همسایه}.
+     */
+    private void collectVertical(int xL, int y0, int y1, boolean ownIsLeft, List<int[]> out) {
+        int xR = xL + 1;
+        int run = -1;
+        for (int y = y0; y <= y1; y++) {
+            boolean open = y < y1 && profile.isPassable(cityMap, xL, y) && profile.isPassable(cityMap, xR, y);
+            if (open && run < 0) run = y;
+            if (!open && run >= 0) {
+                int len = y - run;
+                if (len < MAX_ENTRANCE_WIDTH) {
+                    addPair(xL, run + len / 2, xR, run + len / 2, ownIsLeft, out);
+                } else {
+                    addPair(xL, run, xR, run, ownIsLeft, out);
+                    addPair(xL, y - 1, xR, y - 1, ownIsLeft, out);
+                }
+                run = -1;
+            }
+        }
+    }
+
+    /** مشابه collectVertical برای مرز افقی بین ردیف yT و yT+1. */
+    private void collectHorizontal(int yT, int x0, int x1, boolean ownIsTop, List<int[]> out) {
+        int yB = yT + 1;
+        int run = -1;
+        for (int x = x0; x <= x1; x++) {
+            boolean open = x < x1 && profile.isPassable(cityMap, x, yT) && profile.isPassable(cityMap, x, yB);
+            if (open && run < 0) run = x;
+            if (!open && run >= 0) {
+                int len = x - run;
+                if (len < MAX_ENTRANCE_WIDTH) {
+                    addPair(run + len / 2, yT, run + len / 2, yB, ownIsTop, out);
+                } else {
+                    addPair(run, yT, run, yB, ownIsTop, out);
+                    addPair(x - 1, yT, x - 1, yB, ownIsTop, out);
+                }
+                run = -1;
+            }
+        }
+    }
+
+    private void addPair(int ax, int ay, int bx, int by, boolean ownIsA, List<int[]> out) {
+        int a = ay * width + ax, b = by * width + bx;
+        out.add(ownIsA ? new int[] { a, b } : new int[] { b, a });
+    }
+
+    /** BFS ایستا محدود به خوشه از تایل src؛ out[localIndex] = فاصله یا -1. */
+    private void localBfs(Cluster c, int src, int[] out) {
+        int cw = c.x1 - c.x0;
+        int ch = c.y1 - c.y0;
+        Arrays.fill(out, 0, cw * ch, -1);
+        int head = 0, tail = 0;
+        int sl = localIndex(c, src);
+        out[sl] = 0;
+        localQueue[tail++] = sl;
+        while (head < tail) {
+            int u = localQueue[head++];
+            int ux = u % cw, uy = u / cw;
+            for (int k = 0; k < 4; k++) {
+                int nx = ux + DX[k], ny = uy + DY[k];
+                if (nx < 0 || ny < 0 || nx >= cw || ny >= ch) continue;
+                int v = ny * cw + nx;
+                if (out[v] >= 0) continue;
+                if (!profile.isPassable(cityMap, c.x0 + nx, c.y0 + ny)) continue;
+                out[v] = out[u] + 1;
+                localQueue[tail++] = v;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // کمکی‌ها
+    // ------------------------------------------------------------
+
+    private int clusterOf(int tile) {
+        int x = tile % width, y = tile / width;
+        return (y / clusterSize) * clustersX + (x / clusterSize);
+    }
+
+    private int localIndex(Cluster c, int tile) {
+        int x = tile % width, y = tile / width;
+        return (y - c.y0) * (c.x1 - c.x0) + (x - c.x0);
+    }
+
+    private int heuristic(int a, int b) {
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+    }
+
+    private static long key(int f, int g) {
+        return ((long) f << 32) | (g & 0xFFFFFFFFL);
+    }
+}
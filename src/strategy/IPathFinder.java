@@ -1,5 +1,8 @@
 package strategy;
 
+import map.Cell;
+import map.CellType;
+import util.CompactPath;
 import util.Position;
 
 import java.util.Collections;
@@ -36,6 +39,7 @@ public interface IPathFinder {
      */
     default PathResult findPathDetailed(Position from, Position to, PathOptions options) {
         // پیاده‌سازی‌های کنونی که فقط findPath(from,to) دارند، از این مسیر می‌آیند:
+        long t0 = System.nanoTime();
         List<Position> path = findPath(from, to);
         boolean success = path != null && !path.isEmpty();
         PathResult r = new PathResult();
@@ -43,9 +47,20 @@ public interface IPathFinder {
         r.success = success;
         r.totalCost = success ? (r.path.size() > 1 ? r.path.size() - 1 : 0) : Integer.MAX_VALUE;
         r.expandedNodes = -1; // نامشخص (پیاده‌سازیِ ساده این مقدار را ست نمی‌کند)
+        r.elapsedNanos = System.nanoTime() - t0;
         return r;
     }
 
+    /**
+     * مسیر فشرده (run-length) برای نگه‌داشتن طولانی‌مدت، مثلاً مسیر آمبولانس یا کش.
+     * پیش‌فرض: فشرده‌سازی خروجی findPath؛ اگر آن خروجی خودش نمای CompactPath باشد کپی‌ای ساخته نمی‌شود.
+     * مسیر ناموفق یا ناپیوسته → CompactPath.EMPTY.
+     */
+    default CompactPath findCompactPath(Position from, Position to) {
+        CompactPath p = CompactPath.fromList(findPath(from, to));
+        return (p != null) ? p : CompactPath.EMPTY;
+    }
+
     /**
      * نسخه‌ی راحت‌تر: بدون options.
      */
@@ -65,16 +80,33 @@ public interface IPathFinder {
         boolean success;       // آیا مقصد قابل دسترس بود؟
         int totalCost;         // هزینه‌ی مسیر (معمولاً تعداد قدم‌ها). اگر ناموفق: Integer.MAX_VALUE
         int expandedNodes;     // تعداد نودهای گسترش‌داده‌شده (اگر پیاده‌سازی مقداردهی کند، وگرنه -1)
+        long elapsedNanos = -1;   // زمان دیواری این فراخوانی (-1 = اندازه‌گیری نشده)
+        boolean complete = true;  // false: بودجهٔ زمان/سقف نودها جست‌وجو را قطع کرد (مسیر جزئی یا قابل بهبود)
+        double suboptimality = 1.0; // کران ضریب هزینه نسبت به بهینه (1 = بهینه)
 
         public List<Position> getPath() { return path; }
         public boolean isSuccess() { return success; }
         public int getTotalCost() { return totalCost; }
         public int getExpandedNodes() { return expandedNodes; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        /**
+         * آیا نتیجه نهایی است؟ true یعنی جست‌وجو به نتیجه رسید (مسیر یا اثبات نبود راه).
+         * false یعنی قطع شد: با success=false مسیر تا نزدیک‌ترین نقطه است و با success=true مسیر کامل
+         * ولی هنوز در حال بهبود (یابندهٔ anytime در فراخوانی بعدی ادامه می‌دهد).
+         */
+        public boolean isComplete() { return complete; }
+
+        /** totalCost ≤ suboptimality × بهینه (فقط وقتی success)؛ بی‌نهایت یعنی کرانی هنوز ثابت نشده. */
+        public double getSuboptimalityBound() { return suboptimality; }
 
         public String toString() {
             return "PathResult{success=" + success +
+                    ", complete=" + complete +
                     ", totalCost=" + totalCost +
                     ", expandedNodes=" + expandedNodes +
+                    ", elapsedNanos=" + elapsedNanos +
+                    (suboptimality != 1.0 ? ", bound=" + suboptimality : "") +
                     ", pathLen=" + (path != null ? path.size() : 0) + "}";
         }
     }
@@ -90,10 +122,110 @@ public interface IPathFinder {
         /** اجازه حرکت مورب (اگر پشتیبانی شد). */
         private boolean allowDiagonals = false;
 
+        /** هزینهٔ ورود به تایل به‌ازای Cell.Type (اندیس = ordinal)؛ null یعنی پیش‌فرض‌ها. */
+        private int[] terrainCosts = null;
+
+        /** بودجهٔ زمان دیواری هر فراخوانی (نانوثانیه)؛ <=0 یعنی بدون محدودیت. */
+        private long timeBudgetNanos = 0;
+
+        /** ضریب هیوریستیک (weighted A*)؛ 1 = بهینه، بزرگ‌تر = سریع‌تر با کران هزینهٔ همین ضریب. */
+        private double heuristicWeight = 1.0;
+
         public int getMaxExpandedNodes() { return maxExpandedNodes; }
         public void setMaxExpandedNodes(int maxExpandedNodes) { this.maxExpandedNodes = maxExpandedNodes; }
 
         public boolean isAllowDiagonals() { return allowDiagonals; }
         public void setAllowDiagonals(boolean allowDiagonals) { this.allowDiagonals = allowDiagonals; }
+
+        // ---------------- بودجهٔ زمان / anytime ----------------
+
+        public boolean hasTimeBudget() { return timeBudgetNanos > 0; }
+        public long getTimeBudgetNanos() { return timeBudgetNanos; }
+        public void setTimeBudgetNanos(long nanos) { this.timeBudgetNanos = nanos; }
+        public void setTimeBudgetMillis(long millis) { this.timeBudgetNanos = millis * 1000000L; }
+
+        public double getHeuristicWeight() { return heuristicWeight; }
+
+        /** ضریب ≥ 1؛ مقدار کمتر یا NaN پذیرفته نمی‌شود. */
+        public void setHeuristicWeight(double weight) {
+            if (!(weight >= 1.0) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("heuristic weight must be >= 1: " + weight);
+            }
+            this.heuristicWeight = weight;
+        }
+
+        /** ضریب به‌صورت هزارم (برای کلیدهای صحیح)؛ 1000 یعنی ضریب 1. */
+        int heuristicWeightMilli() {
+            return (int) Math.round(heuristicWeight * 1000.0);
+        }
+
+        // ---------------- هزینهٔ زمین ----------------
+
+        /** بیشینهٔ هزینهٔ یک قدم (اندازهٔ صف سطلی با آن تعیین می‌شود). */
+        public static final int MAX_TERRAIN_COST = 255;
+
+        /** آیا جدول هزینه صریحاً تنظیم شده است؟ (یابنده‌های یکنواخت آن را نادیده می‌گیرند) */
+        public boolean hasTerrainCosts() { return terrainCosts != null; }
+
+        /** جدول مؤثر (کپی نشده؛ تغییر نده). */
+        public int[] getTerrainCosts() {
+            return (terrainCosts != null) ? terrainCosts : DEFAULT_TERRAIN_COSTS;
+        }
+
+        /** هزینهٔ ورود به نوع t؛ 0 یعنی آن نوع ممنوع است. */
+        public int getTerrainCost(Cell.Type t) {
+            if (t == null) return 1;
+            return getTerrainCosts()[t.ordinal()];
+        }
+
+        /** هزینهٔ یک نوع (0 = ممنوع، 1..MAX_TERRAIN_COST). */
+        public void setTerrainCost(Cell.Type t, int cost) {
+            if (t == null) return;
+            if (cost < 0 || cost > MAX_TERRAIN_COST) {
+                throw new IllegalArgumentException("terrain cost out of range [0, " + MAX_TERRAIN_COST + "]: " + cost);
+            }
+            if (terrainCosts == null) terrainCosts = DEFAULT_TERRAIN_COSTS.clone();
+            terrainCosts[t.ordinal()] = cost;
+        }
+
+        /** کل جدول (طول = Cell.Type.values().length)؛ null یعنی برگشت به پیش‌فرض. */
+        public void setTerrainCosts(int[] costs) {
+            if (costs == null) {
+                terrainCosts = null;
+                return;
+            }
+            if (costs.length != Cell.Type.values().length) {
+                throw new IllegalArgumentException("terrain table needs " + Cell.Type.values().length + " entries");
+            }
+            for (int i = 0; i < costs.length; i++) {
+                if (costs[i] < 0 || costs[i] > MAX_TERRAIN_COST) {
+                    throw new IllegalArgumentException("terrain cost out of range [0, " + MAX_TERRAIN_COST + "]: " + costs[i]);
+                }
+            }
+            terrainCosts = costs.clone();
+        }
+
+        private static final int[] DEFAULT_TERRAIN_COSTS = defaultTerrainCosts();
+
+        /**
+         * جدول پیش‌فرض از CellType.getMoveCost (هم‌نام با Cell.Type، گرد به بالا).
+         * نوع‌هایی که در CellType نیستند یا هزینه‌شان بی‌نهایت است 1 می‌گیرند؛
+         * عبورپذیری را MovementProfile تعیین می‌کند (مثلاً CollisionMap ممکن است OBSTACLE را باز بداند).
+         */
+        public static int[] defaultTerrainCosts() {
+            Cell.Type[] types = Cell.Type.values();
+            int[] out = new int[types.length];
+            for (int i = 0; i < types.length; i++) {
+                int cost = 1;
+                try {
+                    float f = CellType.valueOf(types[i].name()).getMoveCost();
+                    if (!Float.isInfinite(f) && !Float.isNaN(f)) {
+                        cost = Math.max(1, Math.min(MAX_TERRAIN_COST, (int) Math.ceil(f)));
+                    }
+                } catch (IllegalArgumentException ignored) { }
+                out[i] = cost;
+            }
+            return out;
+        }
     }
 }
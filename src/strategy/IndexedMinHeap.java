@@ -0,0 +1,150 @@
+package strategy;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * هیپ کمینهٔ دودویی «اندیس‌دار» روی شناسهٔ عددی نودها (مثلاً اندیس تایل y*width+x).
+ * - کلید هر نود یک long است؛ در تساوی کلید، شناسهٔ کوچک‌تر جلوتر است (ترتیب پایدار).
+ * - decrease-key واقعی (بدون درج تکراری) با نگه‌داشتن جای هر نود در آرایهٔ pos.
+ * - آرایه‌ها یک‌بار ساخته می‌شوند و بین جست‌وجوها با clear() دوباره استفاده می‌شوند.
+ * بدون Stream/Lambda و بدون تخصیص در حالت پایدار.
+ */
+public final class IndexedMinHeap {
+
+    private int[] heap;   // heap[i] = شناسهٔ نود در خانهٔ i
+    private int[] pos;    // pos[node] = جای نود در heap (فقط وقتی معتبر است که heap[pos[node]] == node)
+    private long[] keys;  // keys[node] = کلید فعلی نود
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        if (capacity < 1) capacity = 1;
+        this.heap = new int[capacity];
+        this.pos = new int[capacity];
+        this.keys = new long[capacity];
+        this.size = 0;
+    }
+
+    /** ظرفیت فعلی (بیشینهٔ شناسهٔ نود + 1). */
+    public int capacity() { return pos.length; }
+
+    /** اطمینان از ظرفیت کافی؛ در صورت نیاز آرایه‌ها بزرگ می‌شوند (محتوا پاک می‌شود). */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= pos.length) return;
+        int n = Math.max(capacity, pos.length + (pos.length >> 1));
+        heap = new int[n];
+        pos = new int[n];
+        keys = new long[n];
+        size = 0;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    /** خالی‌کردن هیپ بدون پاک‌کردن آرایه‌ها (O(1)). */
+    public void clear() { size = 0; }
+
+    /** آیا نود اکنون داخل هیپ است؟ (بدون نیاز به پاک‌سازی pos بین جست‌وجوها) */
+    public boolean contains(int node) {
+        if (node < 0 || node >= pos.length) return false;
+        int p = pos[node];
+        return p >= 0 && p < size && heap[p] == node;
+    }
+
+    /** کلید فعلی نود (فقط برای نودهای داخل هیپ معنادار است). */
+    public long keyOf(int node) { return keys[node]; }
+
+    /** شناسهٔ نود با کمترین کلید (بدون حذف). */
+    public int peek() { return heap[0]; }
+
+    /** کمترین کلید (بدون حذف). */
+    public long peekKey() { return keys[heap[0]]; }
+
+    /** درج نود جدید یا به‌روزرسانی کلید (کاهش یا افزایش) اگر از قبل داخل هیپ باشد. */
+    public void insertOrUpdate(int node, long key) {
+        if (contains(node)) {
+            long old = keys[node];
+            keys[node] = key;
+            if (less(key, node, old, node)) siftUp(pos[node]);
+            else siftDown(pos[node]);
+            return;
+        }
+        keys[node] = key;
+        heap[size] = node;
+        pos[node] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    /** حذف و برگرداندن نود با کمترین کلید. */
+    public int poll() {
+        int top = heap[0];
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        pos[top] = -1;
+        return top;
+    }
+
+    /** حذف یک نود دلخواه از هیپ (اگر داخل باشد). */
+    public void remove(int node) {
+        if (!contains(node)) return;
+        int p = pos[node];
+        size--;
+        if (p != size) {
+            heap[p] = heap[size];
+            pos[heap[p]] = p;
+            siftDown(p);
+            siftUp(pos[heap[p]]);
+        }
+        pos[node] = -1;
+    }
+
+    // --- مقایسه: کلید کمتر، سپس شناسهٔ کوچک‌تر ---
+    private static boolean less(long ka, int a, long kb, int b) {
+        if (ka != kb) return ka < kb;
+        return a < b;
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        long k = keys[node];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int pn = heap[parent];
+            if (!less(k, node, keys[pn], pn)) break;
+            heap[i] = pn;
+            pos[pn] = i;
+            i = parent;
+        }
+        heap[i] = node;
+        pos[node] = i;
+    }
+
+    private void siftDown(int i) {
+        int node = heap[i];
+        long k = keys[node];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int cn = heap[child];
+            int right = child + 1;
+            if (right < size) {
+                int rn = heap[right];
+                if (less(keys[rn], rn, keys[cn], cn)) {
+                    child = right;
+                    cn = rn;
+                }
+            }
+            if (!less(keys[cn], cn, k, node)) break;
+            heap[i] = cn;
+            pos[cn] = i;
+            i = child;
+        }
+        heap[i] = node;
+        pos[node] = i;
+    }
+}
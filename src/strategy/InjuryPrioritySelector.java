@@ -19,12 +19,20 @@ import java.util.List;
  * 1) اگر severity == CRITICAL → وزن = 0 (همیشه اولویت اول)
  * 2) برای MEDIUM و LOW وزن = distance + offset ثابت
  * 3) لاگ‌ها به‌صورت اختیاری با setDebugEnabled(true) فعال می‌شوند
+ * 4) اگر DistanceMatrixService تزریق شده باشد، distance فاصلهٔ واقعی پیاده است (وگرنه منهتنی)
  */
 public class InjuryPrioritySelector implements IAgentDecision {
 
     /** اگر true باشد، اطلاعات انتخاب روی کنسول چاپ می‌شود. پیش‌فرض: خاموش */
     private boolean debugEnabled = false;
 
+    /** سرویس فاصلهٔ پیاده (اختیاری؛ مشترک با RescueCoordinator) */
+    private DistanceMatrixService distances;
+
+    public void setDistanceService(DistanceMatrixService service) {
+        this.distances = service;
+    }
+
     /** فعال/غیرفعال کردن لاگ کنسولی */
     public void setDebugEnabled(boolean enabled) {
         this.debugEnabled = enabled;
@@ -70,7 +78,10 @@ public class InjuryPrioritySelector implements IAgentDecision {
             }
 
             Position vp = v.getPosition();
-            int dist = (vp != null) ? rescuerPos.distanceTo(vp) : Integer.MAX_VALUE;
+            int dist;
+            if (vp == null) dist = Integer.MAX_VALUE;
+            else if (distances != null) dist = distances.distance(rescuer, v); // UNREACHABLE == MAX_VALUE
+            else dist = rescuerPos.distanceTo(vp);
             InjurySeverity sev = v.getSeverity();
             int w = weight(sev, dist);
 
@@ -0,0 +1,232 @@
+package strategy;
+
+import map.CityMap;
+import map.MovementProfile;
+import util.Position;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * Jump Point Search برای شبکهٔ چهارجهتهٔ با هزینهٔ یکنواخت.
+ * روی راهروهای پهن ROAD، A* همهٔ مسیرهای هم‌طولِ متقارن را گسترش می‌دهد؛ JPS فقط
+ * «نقاط پرش» را داخل صف باز می‌گذارد و خانه‌های میانیِ خط مستقیم را رد می‌کند.
+ *
+ * قواعد پرش (نسخهٔ چهارجهته):
+ * - حرکت افقی: در خانه‌ای می‌ایستد که همسایهٔ عمودیِ آن اجباری باشد
+ *   (همسایه باز است ولی خانهٔ پشتِ آن در ستون قبلی بسته است).
+ * - حرکت عمودی: علاوه بر همسایهٔ افقیِ اجباری، در هر گام یک پرش افقی به دو طرف
+ *   امتحان می‌شود و اگر نقطهٔ پرشی پیدا شد، همین خانه نقطهٔ پرش است.
+ * - جانشین‌های هر نقطه: سه جهت غیر از جهت برگشت (در شروع: هر چهار جهت).
+ * مسیر بهینه می‌ماند؛ expandedNodes تعداد نقاط پرشِ گسترش‌یافته است.
+ *
+ * عبورپذیری از MovementProfile خوانده می‌شود (پیش‌فرض: rescuer؛ برای خودرو: VEHICLE).
+ */
+public class JumpPointSearchPathFinder implements IPathFinder {
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+
+    /** سقف نقاط پرشِ قابل‌گسترش؛ 0 یعنی نامحدود. */
+    private int maxExpandedNodes = 0;
+
+    // هدف جاری (فقط در طول یک جست‌وجو معتبر است)
+    private int goalX, goalY;
+
+    public JumpPointSearchPathFinder(CityMap cityMap) {
+        this(cityMap, MovementProfile.RESCUER);
+    }
+
+    public JumpPointSearchPathFinder(CityMap cityMap, MovementProfile profile) {
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.RESCUER;
+    }
+
+    public MovementProfile getProfile() { return profile; }
+
+    public void setMaxExpandedNodes(int limit) { this.maxExpandedNodes = limit; }
+
+    @Override
+    public List<Position> findPath(Position from, Position to) {
+        return findPathDetailed(from, to, null).path;
+    }
+
+    @Override
+    public synchronized PathResult findPathDetailed(Position start, Position goal, PathOptions options) {
+        int limit = maxExpandedNodes;
+        if (options != null && options.getMaxExpandedNodes() > 0) limit = options.getMaxExpandedNodes();
+
+        PathResult r = new PathResult();
+        r.path = Collections.<Position>emptyList();
+        r.success = false;
+        r.totalCost = Integer.MAX_VALUE;
+        r.expandedNodes = 0;
+
+        if (cityMap == null || start == null || goal == null) return r;
+        if (!cityMap.isValid(start.getX(), start.getY()) || !cityMap.isValid(goal.getX(), goal.getY())) return r;
+
+        if (start.equals(goal)) {
+            List<Position> single = new ArrayList<Position>(1);
+            single.add(start);
+            r.path = single;
+            r.success = true;
+            r.totalCost = 0;
+            return r;
+        }
+        if (!cityMap.isReachable(start, goal, profile)) return r; // مؤلفهٔ جدا → O(1)
+
+        final int w = cityMap.getWidth();
+        final int h = cityMap.getHeight();
+        goalX = goal.getX();
+        goalY = goal.getY();
+        final int s = start.getY() * w + start.getX();
+        final int t = goalY * w + goalX;
+
+        SearchScratch sc = SearchScratch.forThread(w * h);
+        sc.begin();
+        final int[] g = sc.g;
+        final int[] parent = sc.parent;
+        final IndexedMinHeap open = sc.open;
+
+        g[s] = 0;
+        parent[s] = -1;
+        sc.setSeen(s);
+        open.insertOrUpdate(s, key(manhattan(start.getX(), start.getY(), goalX, goalY), 0));
+
+        int expanded = 0;
+        while (!open.isEmpty()) {
+            int cur = open.poll();
+            if (cur == t) {
+                r.expandedNodes = expanded;
+                r.path = expand(parent, cur, w);
+                r.success = true;
+                r.totalCost = g[cur];
+                return r;
+            }
+            sc.setClosed(cur);
+
+            expanded++;
+            if (limit > 0 && expanded > limit) break;
+
+            int cx = cur % w;
+            int cy = cur / w;
+            int p = parent[cur];
+
+            for (int k = 0; k < 4; k++) {
+                int dx = DX[k], dy = DY[k];
+                if (p >= 0 && isBackward(cx, cy, p % w, p / w, dx, dy)) continue;
+
+                int jp = jump(cx + dx, cy + dy, dx, dy, w);
+                if (jp < 0 || sc.isClosed(jp)) continue;
+
+                int ng = g[cur] + manhattan(cx, cy, jp % w, jp / w);
+                if (!sc.isSeen(jp) || ng < g[jp]) {
+                    sc.setSeen(jp);
+                    g[jp] = ng;
+                    parent[jp] = cur;
+                    open.insertOrUpdate(jp, key(ng + manhattan(jp % w, jp / w, goalX, goalY), ng));
+                }
+            }
+        }
+        r.expandedNodes = expanded;
+        return r;
+    }
+
+    // ------------------------------------------------------------
+    // پرش
+    // ------------------------------------------------------------
+
+    /** پرش از (x,y) در جهت (dx,dy)؛ خروجی اندیس نقطهٔ پرش یا -1. */
+    private int jump(int x, int y, int dx, int dy, int w) {
+        while (true) {
+            if (!open(x, y)) return -1;
+            if (x == goalX && y == goalY) return y * w + x;
+
+            if (dx != 0) {
+                // افقی: همسایهٔ عمودیِ اجباری
+                if ((open(x, y - 1) && !open(x - dx, y - 1)) ||
+                        (open(x, y + 1) && !open(x - dx, y + 1))) {
+                    return y * w + x;
+                }
+            } else {
+                // عمودی: همسایهٔ افقیِ اجباری
+                if ((open(x - 1, y) && !open(x - 1, y - dy)) ||
+                        (open(x + 1, y) && !open(x + 1, y - dy))) {
+                    return y * w + x;
+                }
+                // پرش افقی به دو طرف
+                if (jumpHorizontal(x + 1, y, 1) || jumpHorizontal(x - 1, y, -1)) {
+                    return y * w + x;
+                }
+            }
+            x += dx;
+            y += dy;
+        }
+    }
+
+    /** پرش افقی خالص؛ true اگر به هدف یا خانه‌ای با همسایهٔ اجباری برسد. */
+    private boolean jumpHorizontal(int x, int y, int dx) {
+        while (true) {
+            if (!open(x, y)) return false;
+            if (x == goalX && y == goalY) return true;
+            if ((open(x, y - 1) && !open(x - dx, y - 1)) ||
+                    (open(x, y + 1) && !open(x - dx, y + 1))) {
+                return true;
+            }
+            x += dx;
+        }
+    }
+
+    private boolean open(int x, int y) {
+        return profile.canEnter(cityMap, x, y);
+    }
+
+    /** آیا جهت (dx,dy) از (cx,cy) به سمت والد (px,py) برمی‌گردد؟ */
+    private static boolean isBackward(int cx, int cy, int px, int py, int dx, int dy) {
+        int bx = Integer.signum(px - cx);
+        int by = Integer.signum(py - cy);
+        return bx == dx && by == dy;
+    }
+
+    // ------------------------------------------------------------
+    // کمکی‌ها
+    // ------------------------------------------------------------
+
+    private static long key(int f, int g) {
+        return ((long) f << 32) | (g & 0xFFFFFFFFL);
+    }
+
+    private static int manhattan(int ax, int ay, int bx, int by) {
+        return Math.abs(ax - bx) + Math.abs(ay - by);
+    }
+
+    /** نقاط پرش متوالی هم‌راستا هستند؛ فاصلهٔ بینشان خانه‌به‌خانه پر می‌شود. */
+    private static List<Position> expand(int[] parent, int end, int w) {
+        int jumps = 0;
+        for (int c = end; c != -1; c = parent[c]) jumps++;
+        int[] pts = new int[jumps];
+        int i = jumps - 1;
+        for (int c = end; c != -1; c = parent[c]) pts[i--] = c;
+
+        List<Position> out = new ArrayList<Position>();
+        out.add(new Position(pts[0] % w, pts[0] / w));
+        for (int k = 1; k < pts.length; k++) {
+            int x = pts[k - 1] % w, y = pts[k - 1] / w;
+            int tx = pts[k] % w, ty = pts[k] / w;
+            int sx = Integer.signum(tx - x), sy = Integer.signum(ty - y);
+            while (x != tx || y != ty) {
+                x += sx;
+                y += sy;
+                out.add(new Position(x, y));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,402 @@
+package strategy;
+
+import map.CityMap;
+import map.ComponentLabels;
+import map.MapChangeListener;
+import map.MovementProfile;
+import util.Position;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * جدول نشانه‌ها (Landmarks) برای هیوریستیک ALT: K تایل نشانه و فاصلهٔ BFS هر تایل تا هر نشانه
+ * روی isPassable یک پروفایل. کران پایین با نامساوی مثلث (گراف بی‌جهت):
+ *   h(v, t) = max_L |d(L, t) - d(L, v)|
+ * که سازگار است و با max(منهتنی، ALT) در A* استفاده می‌شود.
+ *
+ * - انتخاب نشانه‌ها: «دورترین نقطه» روی بزرگ‌ترین مؤلفهٔ همبند (مؤلفه‌های دیگر به منهتنی برمی‌گردند).
+ * - ذخیره در پوشهٔ کش (نه کنار TMX در assets؛ پیش‌فرض java.io.tmpdir/city_rescue_ops، قابل تغییر با
+ *   -Dcityrescue.cache.dir) و بارگذاری با MappedByteBuffer (بدون کپی روی heap).
+ *   نوشتن در فایل موقت و سپس rename، تا خواننده‌ای که هم‌زمان map می‌کند هرگز فایل نیمه‌نوشته نبیند.
+ *   سرآیند فایل CRC عبورپذیری را دارد؛ اگر نقشه عوض شده باشد فایل نادیده گرفته و بازسازی می‌شود.
+ * - بسته‌شدن تایل فاصله‌ها را فقط بزرگ می‌کند (کران هنوز معتبر است)؛ باز شدن تایل می‌تواند کران را
+ *   نامعتبر کند، پس جدول «کهنه» می‌شود: تا بازسازی (تنبل، در ensureFresh) کران 0 برمی‌گردد.
+ * - فاصله‌ها char (۱۶ بیتی بی‌علامت) هستند؛ UNREACHABLE = 0xFFFF.
+ */
+public class LandmarkTable implements MapChangeListener {
+
+    /** پسوند فایل ذخیره‌شده */
+    public static final String FILE_SUFFIX = ".alt";
+
+    /** system property پوشهٔ کش؛ اگر نبود java.io.tmpdir/city_rescue_ops */
+    public static final String CACHE_DIR_PROPERTY = "cityrescue.cache.dir";
+
+    private static final int MAGIC = 0x414C5431; // "ALT1"
+    private static final int HEADER_INTS = 6;    // magic, width, height, k, crc(hi), crc(lo)
+    private static final char UNREACHABLE = 0xFFFF;
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    private final CityMap cityMap;
+    private final MovementProfile profile;
+    private final int width;
+    private final int height;
+    private final int k;
+
+    private int[] landmarks;
+    private volatile CharBuffer[] dist;   // dist[i].get(tile) — روی heap یا نگاشت‌شده از فایل
+    private boolean mapped = false;
+
+    private volatile boolean stale = false;
+    private int rebuilds = 0;
+
+    private LandmarkTable(CityMap cityMap, MovementProfile profile, int k) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        this.cityMap = cityMap;
+        this.profile = (profile != null) ? profile : MovementProfile.DEFAULT;
+        this.width = cityMap.getWidth();
+        this.height = cityMap.getHeight();
+        this.k = Math.max(1, k);
+    }
+
+    /** ساخت جدول در حافظه (K بار BFS). */
+    public static LandmarkTable build(CityMap cityMap, MovementProfile profile, int k) {
+        LandmarkTable t = new LandmarkTable(cityMap, profile, k);
+        t.rebuild();
+        cityMap.addChangeListener(t);
+        return t;
+    }
+
+    /**
+     * بارگذاری نگاشت‌شده از فایل کش همین TMX؛ اگر نبود یا با نقشه نمی‌خواند، ساخت و ذخیره.
+     * خطای نوشتن (مثلاً پوشهٔ فقط‌خواندنی) نادیده گرفته می‌شود و جدول در حافظه می‌ماند.
+     */
+    public static LandmarkTable loadOrBuild(CityMap cityMap, MovementProfile profile, String tmxPath, int k) {
+        File file = fileFor(tmxPath, profile);
+        if (file != null && file.isFile()) {
+            try {
+                LandmarkTable t = load(cityMap, profile, file);
+                if (t != null && t.k == Math.max(1, k)) return t;
+                if (t != null) t.dispose();
+            } catch (IOException ex) {
+                System.err.println("[LandmarkTable] Cannot read " + file + " (" + ex.getMessage() + ")");
+            }
+        }
+        LandmarkTable t = build(cityMap, profile, k);
+        if (file != null) {
+            try {
+                t.save(file);
+            } catch (IOException ex) {
+                System.err.println("[LandmarkTable] Cannot write " + file + " (" + ex.getMessage() + ")");
+            }
+        }
+        return t;
+    }
+
+    /** پوشهٔ کش فایل‌های جدول (CACHE_DIR_PROPERTY یا java.io.tmpdir/city_rescue_ops) */
+    public static File cacheDir() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null && dir.trim().length() > 0) return new File(dir.trim());
+        return new File(System.getProperty("java.io.tmpdir"), "city_rescue_ops");
+    }
+
+    /**
+     * مسیر فایل جدول برای یک TMX و پروفایل در پوشهٔ کش:
+     * assets/maps/rescue_city.tmx → &lt;cacheDir&gt;/rescue_city-&lt;hash مسیر&gt;.&lt;profile&gt;.alt
+     * (hash مسیر canonical تا دو TMX هم‌نام در پوشه‌های مختلف یک فایل مشترک نگیرند).
+     */
+    public static File fileFor(String tmxPath, MovementProfile profile) {
+        if (tmxPath == null) return null;
+        File tmx = new File(tmxPath);
+        String path;
+        try {
+            path = tmx.getCanonicalPath();
+        } catch (IOException ex) {
+            path = tmx.getAbsolutePath();
+        }
+        String base = tmx.getName();
+        int dot = base.lastIndexOf('.');
+        if (dot > 0) base = base.substring(0, dot);
+        String name = (profile != null) ? profile.getName() : MovementProfile.DEFAULT.getName();
+        return new File(cacheDir(), safeName(base) + "-" + Integer.toHexString(path.hashCode())
+                + "." + safeName(name) + FILE_SUFFIX);
+    }
+
+    private static String safeName(String name) {
+        StringBuilder safe = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            safe.append(Character.isLetterOrDigit(c) || c == '-' ? c : '_');
+        }
+        return safe.toString();
+    }
+
+    /**
+     * بارگذاری نگاشت‌شده؛ null اگر ابعاد یا CRC عبورپذیری با نقشهٔ فعلی نخواند.
+     */
+    public static LandmarkTable load(CityMap cityMap, MovementProfile profile, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.capacity() < HEADER_INTS * 4 || buf.getInt(0) != MAGIC) return null;
+            int w = buf.getInt(4), h = buf.getInt(8), k = buf.getInt(12);
+            long crc = ((long) buf.getInt(16) << 32) | (buf.getInt(20) & 0xFFFFFFFFL);
+            if (w != cityMap.getWidth() || h != cityMap.getHeight() || k < 1) return null;
+
+            LandmarkTable t = new LandmarkTable(cityMap, profile, k);
+            if (crc != t.passabilityCrc()) return null;
+            int n = w * h;
+            long expected = HEADER_INTS * 4L + k * 4L + (long) k * n * 2L;
+            if (buf.capacity() < expected) return null;
+
+            t.landmarks = new int[k];
+            int off = HEADER_INTS * 4;
+            for (int i = 0; i < k; i++) {
+                t.landmarks[i] = buf.getInt(off);
+                off += 4;
+            }
+            t.dist = new CharBuffer[k];
+            for (int i = 0; i < k; i++) {
+                ByteBuffer view = buf.duplicate();
+                view.position(off);
+                view.limit(off + n * 2);
+                t.dist[i] = view.slice().asCharBuffer();
+                off += n * 2;
+            }
+            t.mapped = true;
+            cityMap.addChangeListener(t);
+            return t;
+        } finally {
+            raf.close(); // نگاشت بعد از بستن کانال هم معتبر می‌ماند
+        }
+    }
+
+    /**
+     * ذخیرهٔ جدول (big-endian، همان قالب load).
+     * اول در file.tmp نوشته و بعد جایگزین file می‌شود؛ load هم‌زمان یا فایل قبلی را می‌بیند یا فایل کامل را.
+     */
+    public synchronized void save(File file) throws IOException {
+        ensureFresh();
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        long crc = passabilityCrc();
+        File tmp = new File(file.getPath() + ".tmp");
+        boolean done = false;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(k);
+            out.writeInt((int) (crc >>> 32));
+            out.writeInt((int) crc);
+            for (int i = 0; i < k; i++) out.writeInt(landmarks[i]);
+            int n = width * height;
+            for (int i = 0; i < k; i++) {
+                CharBuffer row = dist[i];
+                for (int v = 0; v < n; v++) out.writeChar(row.get(v));
+            }
+            out.close();
+            // rename روی همان پوشه اتمیک است؛ اگر سیستم‌عامل جایگزینی را رد کرد، فایل قدیمی حذف و دوباره تلاش
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Cannot replace " + file);
+            }
+            done = true;
+        } finally {
+            out.close();
+            if (!done) tmp.delete();
+        }
+    }
+
+    public MovementProfile getProfile() { return profile; }
+    public int getLandmarkCount() { return k; }
+    public boolean isMapped() { return mapped; }
+    public boolean isStale() { return stale; }
+    public synchronized int getRebuildCount() { return rebuilds; }
+
+    /** موقعیت نشانه‌ها */
+    public synchronized Position[] getLandmarks() {
+        ensureFresh();
+        Position[] out = new Position[landmarks.length];
+        for (int i = 0; i < landmarks.length; i++) {
+            out[i] = new Position(landmarks[i] % width, landmarks[i] / width);
+        }
+        return out;
+    }
+
+    /** جداشدن از نقشه */
+    public void dispose() {
+        cityMap.removeChangeListener(this);
+    }
+
+    /** اگر جدول کهنه است (تایلی باز شده) از نو بساز؛ یک‌بار پیش از هر جست‌وجو صدا بزن. */
+    public synchronized void ensureFresh() {
+        if (stale) rebuild();
+    }
+
+    // ------------------------------------------------------------
+    // کران پایین
+    // ------------------------------------------------------------
+
+    /**
+     * کران پایین ALT بین دو تایل (اندیس y*width+x)؛ 0 اگر جدول کهنه است یا نشانه‌ای هر دو را نمی‌بیند.
+     * در حلقهٔ داغ A* صدا زده می‌شود؛ قفل نمی‌گیرد (ردیف‌ها بعد از ساخت فقط‌خواندنی‌اند).
+     */
+    public int lowerBound(int v, int t) {
+        if (stale) return 0;
+        CharBuffer[] rows = dist;
+        int best = 0;
+        for (int i = 0; i < rows.length; i++) {
+            char dv = rows[i].get(v);
+            char dt = rows[i].get(t);
+            if (dv == UNREACHABLE || dt == UNREACHABLE) continue;
+            int d = dt - dv;
+            if (d < 0) d = -d;
+            if (d > best) best = d;
+        }
+        return best;
+    }
+
+    public int lowerBound(Position a, Position b) {
+        if (a == null || b == null) return 0;
+        if (!cityMap.isValid(a.getX(), a.getY()) || !cityMap.isValid(b.getX(), b.getY())) return 0;
+        return lowerBound(a.getY() * width + a.getX(), b.getY() * width + b.getX());
+    }
+
+    // ------------------------------------------------------------
+    // ساخت
+    // ------------------------------------------------------------
+
+    private synchronized void rebuild() {
+        int n = width * height;
+        boolean[] pass = new boolean[n];
+        for (int i = 0; i < n; i++) pass[i] = profile.isPassable(cityMap, i % width, i / width);
+
+        // بزرگ‌ترین مؤلفه
+        ComponentLabels labels = cityMap.getComponentLabels(profile);
+        int seed = -1, bestSize = 0;
+        for (int i = 0; i < n; i++) {
+            if (!pass[i]) continue;
+            int size = labels.componentSizeAt(i % width, i / width);
+            if (size > bestSize) {
+                bestSize = size;
+                seed = i;
+            }
+        }
+
+        int[] lm = new int[k];
+        CharBuffer[] rows = new CharBuffer[k];
+        int[] queue = new int[n];
+        if (seed < 0) {
+            // نقشهٔ بدون تایل قابل عبور: همه دسترس‌ناپذیر
+            for (int i = 0; i < k; i++) {
+                char[] row = new char[n];
+                java.util.Arrays.fill(row, UNREACHABLE);
+                rows[i] = CharBuffer.wrap(row);
+                lm[i] = 0;
+            }
+        } else {
+            // دورترین نقطه: اولی دورترین از seed، بعدی بیشینهٔ «کمینهٔ فاصله تا نشانه‌های قبلی»
+            char[] probe = new char[n];
+            bfs(seed, pass, probe, queue);
+            int[] minDist = new int[n];
+            int first = argMax(probe, null);
+            for (int i = 0; i < k; i++) {
+                int l = (i == 0) ? first : argMax(null, minDist);
+                char[] row = new char[n];
+                bfs(l, pass, row, queue);
+                lm[i] = l;
+                rows[i] = CharBuffer.wrap(row);
+                for (int v = 0; v < n; v++) {
+                    int d = (row[v] == UNREACHABLE) ? -1 : row[v];
+                    if (i == 0 || d < minDist[v]) minDist[v] = d;
+                }
+            }
+        }
+
+        this.landmarks = lm;
+        this.dist = rows;
+        this.mapped = false;
+        this.stale = false;
+        rebuilds++;
+    }
+
+    /** اندیس بیشینه (فقط تایل‌های دسترس‌پذیر): یا روی فاصلهٔ char یا روی minDist. */
+    private static int argMax(char[] d, int[] minDist) {
+        int best = 0, bestVal = -1;
+        int n = (d != null) ? d.length : minDist.length;
+        for (int i = 0; i < n; i++) {
+            int val = (d != null) ? (d[i] == UNREACHABLE ? -1 : d[i]) : minDist[i];
+            if (val > bestVal) {
+                bestVal = val;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void bfs(int src, boolean[] pass, char[] out, int[] queue) {
+        java.util.Arrays.fill(out, UNREACHABLE);
+        int head = 0, tail = 0;
+        out[src] = 0;
+        queue[tail++] = src;
+        while (head < tail) {
+            int u = queue[head++];
+            int du = out[u];
+            if (du + 1 >= UNREACHABLE) continue; // سقف ۱۶ بیتی
+            int ux = u % width, uy = u / width;
+            for (int dir = 0; dir < 4; dir++) {
+                int vx = ux + DX[dir], vy = uy + DY[dir];
+                if (vx < 0 || vy < 0 || vx >= width || vy >= height) continue;
+                int v = vy * width + vx;
+                if (!pass[v] || out[v] != UNREACHABLE) continue;
+                out[v] = (char) (du + 1);
+                queue[tail++] = v;
+            }
+        }
+    }
+
+    /** CRC عبورپذیری پروفایل روی کل نقشه (برای تشخیص فایل کهنه). */
+    private long passabilityCrc() {
+        CRC32 crc = new CRC32();
+        byte[] row = new byte[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) row[x] = (byte) (profile.isPassable(cityMap, x, y) ? 1 : 0);
+            crc.update(row, 0, width);
+        }
+        return crc.getValue();
+    }
+
+    // ------------------------------------------------------------
+    // MapChangeListener
+    // ------------------------------------------------------------
+
+    @Override
+    public void onTileChanged(CityMap map, int x, int y, int kind) {
+        if ((kind & (CELL | COLLISION)) == 0) return;
+        // بسته‌شدن فقط فاصله‌ها را زیاد می‌کند (کران معتبر می‌ماند)؛ باز شدن نه
+        if (profile.isPassable(map, x, y)) stale = true;
+    }
+
+    @Override
+    public void onMapReset(CityMap map) {
+        stale = true;
+    }
+}
@@ -0,0 +1,103 @@
+package strategy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * جدول رزرو فضا-زمان (tile, time) برای برنامه‌ریزی همکارانهٔ چندعاملی (WHCA*).
+ * - هر خانه یک long در AtomicLongArray است: ۳۲ بیت بالا = زمان، ۳۲ بیت پایین = شناسهٔ عامل + 1.
+ *   رزرو با CAS انجام می‌شود، پس برنامه‌ریزهای موازی بدون قفل از آن استفاده می‌کنند.
+ * - زمان‌ها حلقوی در span برش نگه داشته می‌شوند (اندیس = time mod span)؛ خانه‌ای که زمان ذخیره‌شده‌اش
+ *   با زمان پرسیده‌شده فرق کند آزاد حساب می‌شود، پس رزروهای گذشته خودبه‌خود منقضی می‌شوند و پاک‌کردن لازم نیست.
+ * - فرض: در هر لحظه فقط زمان‌های [now, now + span) پرسیده یا رزرو می‌شوند.
+ *
+ * رزرو یک عامل روی خانه‌ای که قبلاً خودش گرفته موفق است (جایگزینی برنامهٔ قبلی همان عامل).
+ */
+public final class ReservationTable {
+
+    private static final long AGENT_MASK = 0xFFFFFFFFL;
+
+    private final int tiles;
+    private final int span;
+    private final AtomicLongArray slots;
+
+    /**
+     * @param tiles تعداد تایل‌ها (width*height)
+     * @param span  تعداد گام‌های زمانی که هم‌زمان نگه داشته می‌شوند (حداقل پنجره + 2)
+     */
+    public ReservationTable(int tiles, int span) {
+        if (tiles <= 0) throw new IllegalArgumentException("tiles must be > 0: " + tiles);
+        if (span <= 0) throw new IllegalArgumentException("span must be > 0: " + span);
+        this.tiles = tiles;
+        this.span = span;
+        this.slots = new AtomicLongArray(tiles * span);
+    }
+
+    public int getTileCount() { return tiles; }
+    public int getSpan() { return span; }
+
+    private int index(int tile, long time) {
+        return (int) (time % span) * tiles + tile;
+    }
+
+    private static long encode(long time, int agent) {
+        return (time << 32) | ((agent + 1L) & AGENT_MASK);
+    }
+
+    /** عامل دارندهٔ (tile, time)؛ -1 اگر آزاد است. */
+    public int ownerAt(int tile, long time) {
+        if (time < 0) return -1;
+        long v = slots.get(index(tile, time));
+        if ((v >>> 32) != time) return -1;
+        return (int) (v & AGENT_MASK) - 1;
+    }
+
+    /** آیا (tile, time) توسط عاملی غیر از agent گرفته شده است؟ */
+    public boolean isReservedByOther(int tile, long time, int agent) {
+        int o = ownerAt(tile, time);
+        return o >= 0 && o != agent;
+    }
+
+    /** رزرو (tile, time) برای agent؛ false اگر عامل دیگری زودتر گرفته باشد. */
+    public boolean reserve(int tile, long time, int agent) {
+        if (time < 0) return false;
+        int i = index(tile, time);
+        long want = encode(time, agent);
+        while (true) {
+            long v = slots.get(i);
+            if (v == want) return true;
+            if ((v >>> 32) == time && (v & AGENT_MASK) != 0) return false; // عامل دیگر
+            if (slots.compareAndSet(i, v, want)) return true;
+        }
+    }
+
+    /** آزادکردن (tile, time) اگر هنوز متعلق به agent است. */
+    public void release(int tile, long time, int agent) {
+        if (time < 0) return;
+        slots.compareAndSet(index(tile, time), encode(time, agent), 0L);
+    }
+
+    /**
+     * رزرو همه‌جانبهٔ یک مسیر: path[k] در زمان t0+k (k &lt; len) و سپس ماندن روی path[len-1] تا t0+until.
+     * اگر یکی از خانه‌ها گرفته باشد، رزروهای همین فراخوانی پس گرفته می‌شوند و false برمی‌گردد.
+     */
+    public boolean reservePath(int agent, int[] path, int len, long t0, int until) {
+        if (path == null || len <= 0) return false;
+        int last = Math.max(len - 1, until);
+        for (int k = 0; k <= last; k++) {
+            int tile = path[Math.min(k, len - 1)];
+            if (!reserve(tile, t0 + k, agent)) {
+                for (int j = 0; j < k; j++) release(path[Math.min(j, len - 1)], t0 + j, agent);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** پاک‌کردن همهٔ رزروها (مثلاً پس از تغییر کلی نقشه). */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) slots.set(i, 0L);
+    }
+}
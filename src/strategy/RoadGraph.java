@@ -0,0 +1,208 @@
+package strategy;
+
+import map.CityMap;
+import map.MovementProfile;
+import util.Position;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * گراف فشردهٔ شبکهٔ جاده (تصویر ایستا از isPassable یک پروفایل، معمولاً MovementProfile.ROAD_NETWORK).
+ * - نود: تایل جاده‌ای با درجهٔ ≠ 2 (تقاطع، بن‌بست، تایل تنها). تایل‌های درجهٔ 2 «راهرو» هستند.
+ * - یال: زنجیرهٔ راهروی بین دو نود با وزن = تعداد قدم‌ها؛ تایل‌های میانی به ترتیب from→to نگه داشته می‌شوند.
+ * - حلقهٔ بسته بدون هیچ نود: یکی از تایل‌هایش نود می‌شود (یال خودحلقه).
+ * - هر تایل راهرو می‌داند روی کدام یال و در کدام offset است (0 = from، weight = to)، پس
+ *   پرس‌وجو از وسط راهرو به دو سر همان یال وصل می‌شود و مسیر با appendAlong دوباره تایل‌به‌تایل می‌شود.
+ *
+ * در جاده‌های چندخطه بیشتر تایل‌ها درجهٔ 3 یا 4 دارند و گراف به خود شبکه نزدیک می‌ماند؛
+ * فشرده‌سازی اصلی آن‌جا کار سلسله‌مراتب انقباضی (ContractionHierarchyPathFinder) است.
+ * اشغال تایل‌ها در گراف نیست.
+ */
+public final class RoadGraph {
+
+    private static final int[] DX = { 0, 1, 0, -1 };
+    private static final int[] DY = { 1, 0, -1, 0 };
+
+    final int width;
+    final int height;
+    final boolean[] passable;
+
+    int nodeCount;
+    int[] nodeTile = new int[16];
+    /** nodeOfTile[tile] = شناسهٔ نود؛ -1 اگر تایل نود نیست. */
+    final int[] nodeOfTile;
+
+    int edgeCount;
+    int[] edgeFrom = new int[16];
+    int[] edgeTo = new int[16];
+    int[] edgeWeight = new int[16];
+    int[][] edgeTiles = new int[16][];
+    /** edgeOfTile[tile] = یال راهروی شامل تایل؛ -1 برای نودها و غیرجاده. */
+    final int[] edgeOfTile;
+    /** offsetOfTile[tile] = جای تایل روی یالش (1..weight-1). */
+    final int[] offsetOfTile;
+
+    private int roadTiles;
+
+    private RoadGraph(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int n = width * height;
+        this.passable = new boolean[n];
+        this.nodeOfTile = new int[n];
+        this.edgeOfTile = new int[n];
+        this.offsetOfTile = new int[n];
+        Arrays.fill(nodeOfTile, -1);
+        Arrays.fill(edgeOfTile, -1);
+    }
+
+    /** استخراج گراف از وضعیت فعلی نقشه (O(تعداد تایل‌ها)). */
+    public static RoadGraph extract(CityMap cityMap, MovementProfile profile) {
+        if (cityMap == null) throw new IllegalArgumentException("cityMap is null");
+        if (profile == null) profile = MovementProfile.DEFAULT;
+        RoadGraph g = new RoadGraph(cityMap.getWidth(), cityMap.getHeight());
+        g.build(cityMap, profile);
+        return g;
+    }
+
+    public int getNodeCount() { return nodeCount; }
+    public int getEdgeCount() { return edgeCount; }
+    public int getRoadTileCount() { return roadTiles; }
+
+    /** آیا (x,y) در تصویر ایستای گراف جاده است؟ */
+    public boolean isRoad(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height && passable[y * width + x];
+    }
+
+    /** آیا (x,y) نود گراف (تقاطع/بن‌بست) است؟ */
+    public boolean isNode(int x, int y) {
+        return isRoad(x, y) && nodeOfTile[y * width + x] >= 0;
+    }
+
+    public Position getNodePosition(int node) {
+        int t = nodeTile[node];
+        return new Position(t % width, t / width);
+    }
+
+    // ------------------------------------------------------------
+    // ساخت
+    // ------------------------------------------------------------
+
+    private void build(CityMap cityMap, MovementProfile profile) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (profile.isPassable(cityMap, x, y)) {
+                    passable[y * width + x] = true;
+                    roadTiles++;
+                }
+            }
+        }
+        int n = width * height;
+        for (int t = 0; t < n; t++) {
+            if (passable[t] && degree(t) != 2) addNode(t);
+        }
+        for (int u = 0; u < nodeCount; u++) trace(u);
+        // حلقه‌های بستهٔ بدون نود
+        for (int t = 0; t < n; t++) {
+            if (!passable[t] || nodeOfTile[t] >= 0 || edgeOfTile[t] >= 0) continue;
+            trace(addNode(t));
+        }
+    }
+
+    private int degree(int t) {
+        int x = t % width, y = t / width, d = 0;
+        for (int k = 0; k < 4; k++) {
+            if (isRoad(x + DX[k], y + DY[k])) d++;
+        }
+        return d;
+    }
+
+    /** همهٔ راهروهای خروجی از نود u را تا نود بعدی دنبال می‌کند (هر راهرو یک بار). */
+    private void trace(int u) {
+        int ut = nodeTile[u];
+        int ux = ut % width, uy = ut / width;
+        int[] interior = new int[8];
+        for (int k = 0; k < 4; k++) {
+            int nx = ux + DX[k], ny = uy + DY[k];
+            if (!isRoad(nx, ny)) continue;
+            int nt = ny * width + nx;
+            if (nodeOfTile[nt] >= 0) {
+                if (nodeOfTile[nt] > u) addEdge(u, nodeOfTile[nt], interior, 0); // دو نود چسبیده
+                continue;
+            }
+            if (edgeOfTile[nt] >= 0) continue; // از سر دیگر پیموده شده
+            int len = 0;
+            int prev = ut, cur = nt;
+            while (nodeOfTile[cur] < 0) {
+                if (len == interior.length) interior = Arrays.copyOf(interior, len * 2);
+                interior[len++] = cur;
+                int next = nextInCorridor(cur, prev);
+                prev = cur;
+                cur = next;
+            }
+            addEdge(u, nodeOfTile[cur], interior, len);
+        }
+    }
+
+    /** همسایهٔ جاده‌ای تایل راهرو (درجهٔ 2) به‌جز prev. */
+    private int nextInCorridor(int t, int prev) {
+        int x = t % width, y = t / width;
+        for (int k = 0; k < 4; k++) {
+            int nx = x + DX[k], ny = y + DY[k];
+            if (!isRoad(nx, ny)) continue;
+            int nt = ny * width + nx;
+            if (nt != prev) return nt;
+        }
+        return prev; // غیرممکن برای درجهٔ 2
+    }
+
+    private int addNode(int tile) {
+        if (nodeCount == nodeTile.length) nodeTile = Arrays.copyOf(nodeTile, nodeCount * 2);
+        nodeTile[nodeCount] = tile;
+        nodeOfTile[tile] = nodeCount;
+        return nodeCount++;
+    }
+
+    private void addEdge(int from, int to, int[] interior, int len) {
+        if (edgeCount == edgeFrom.length) {
+            int cap = edgeCount * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, cap);
+            edgeTo = Arrays.copyOf(edgeTo, cap);
+            edgeWeight = Arrays.copyOf(edgeWeight, cap);
+            edgeTiles = Arrays.copyOf(edgeTiles, cap);
+        }
+        int e = edgeCount++;
+        edgeFrom[e] = from;
+        edgeTo[e] = to;
+        edgeWeight[e] = len + 1;
+        edgeTiles[e] = Arrays.copyOf(interior, len);
+        for (int i = 0; i < len; i++) {
+            edgeOfTile[interior[i]] = e;
+            offsetOfTile[interior[i]] = i + 1;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // بازگرداندن به تایل‌ها
+    // ------------------------------------------------------------
+
+    /** تایل در offset داده‌شده روی یال e (0 = نود from، weight = نود to). */
+    int tileAt(int e, int offset) {
+        if (offset <= 0) return nodeTile[edgeFrom[e]];
+        if (offset >= edgeWeight[e]) return nodeTile[edgeTo[e]];
+        return edgeTiles[e][offset - 1];
+    }
+
+    /** افزودن تایل‌های یال e از offset «بعد از» fromOffset تا toOffset (شامل) به out. */
+    void appendAlong(int e, int fromOffset, int toOffset, List<Position> out) {
+        int step = (toOffset >= fromOffset) ? 1 : -1;
+        for (int o = fromOffset + step; o != toOffset + step; o += step) {
+            int t = tileAt(e, o);
+            out.add(new Position(t % width, t / width));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package strategy;
+
+/**
+ * --------------------
+ * لایه: Strategy Layer
+ * --------------------
+ * بافرهای موقت جست‌وجو روی اندیس تایل (y*width+x) که برای هر Thread یک‌بار ساخته
+ * و بین پرس‌وجوها دوباره استفاده می‌شوند.
+ *
+ * نشانه‌گذاری نسلی (generation stamp):
+ * - mark[i] &lt; base  → نود در این جست‌وجو دیده نشده (g و parent نامعتبرند)
+ * - mark[i] == base → نود دیده شده (g و parent معتبرند)
+ * - mark[i] == base+1 → نود بسته شده (closed)
+ * با هر جست‌وجوی جدید base دو واحد جلو می‌رود؛ پس نیازی به پاک‌کردن آرایه‌ها نیست.
+ */
+public final class SearchScratch {
+
+    private static final ThreadLocal<SearchScratch> LOCAL = new ThreadLocal<SearchScratch>();
+
+    public int[] g;
+    public int[] parent;
+    public int[] mark;
+    public int base;
+    public final IndexedMinHeap open;
+
+    /** صف سادهٔ FIFO برای BFS (اندیس تایل) */
+    public int[] queue;
+
+    /** صف سطلی برای هزینه‌های صحیح کوچک (تنبل؛ فقط جست‌وجوهای وزن‌دار) */
+    private BucketQueue buckets;
+
+    private SearchScratch(int capacity) {
+        this.g = new int[capacity];
+        this.parent = new int[capacity];
+        this.mark = new int[capacity];
+        this.queue = new int[capacity];
+        this.open = new IndexedMinHeap(capacity);
+        this.base = 0;
+    }
+
+    /** بافر Thread جاری با ظرفیت حداقل capacity. */
+    public static SearchScratch forThread(int capacity) {
+        SearchScratch s = LOCAL.get();
+        if (s == null || s.g.length < capacity) {
+            s = new SearchScratch(Math.max(capacity, 1));
+            LOCAL.set(s);
+        }
+        return s;
+    }
+
+    /** شروع جست‌وجوی جدید: نسل را جلو می‌برد و هیپ را خالی می‌کند. */
+    public void begin() {
+        base += 2;
+        if (base < 0 || base >= Integer.MAX_VALUE - 2) {
+            java.util.Arrays.fill(mark, 0);
+            base = 2;
+        }
+        open.clear();
+    }
+
+    /** صف سطلی خالی با span داده‌شده (بعد از begin صدا بزن). */
+    public BucketQueue buckets(int span) {
+        if (buckets == null) buckets = new BucketQueue(g.length, span);
+        else buckets.reset(span);
+        return buckets;
+    }
+
+    public boolean isSeen(int i)   { return mark[i] >= base; }
+    public boolean isClosed(int i) { return mark[i] == base + 1; }
+    public void setSeen(int i)     { mark[i] = base; }
+    public void setClosed(int i)   { mark[i] = base + 1; }
+}
@@ -3,6 +3,7 @@ package ui;
 
 import map.CityMap;
 import map.Cell;
+import map.TmxModel;
 import util.AssetLoader;
 import util.Position;
 
@@ -10,22 +11,19 @@ import javax.swing.JPanel;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 
-import org.w3c.dom.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * MapRenderer: خواندن یک TMX و رندر روی JPanel
- * - همهٔ tileset ها و همهٔ layer های نوع "tilelayer" با encoding=CSV را می‌خواند (به‌ترتیب).
+ * - همهٔ tileset ها و همهٔ layer های نوع "tilelayer" را از TmxModel مشترک می‌گیرد (به‌ترتیب؛ CSV یا base64).
  * - TSX خارجی، firstgid، margin/spacing، columns و tilecount پشتیبانی می‌شود.
  * - فلگ‌های Flip افقی/عمودی هندل می‌شوند (diagonal اگر وجود داشت، اخطار چاپ می‌شود).
  *
@@ -84,13 +82,23 @@ public class MapRenderer extends JPanel {
         final int tw = map.getTileWidth();
         final int th = map.getTileHeight();
 
+        // فقط تایل‌های داخل ناحیهٔ clip (بخش دیده‌شدهٔ پنل داخل JScrollPane)
+        int startX = 0, startY = 0, endX = map.getWidth(), endY = map.getHeight();
+        Rectangle clip = g.getClipBounds();
+        if (clip != null) {
+            startX = Math.max(0, clip.x / tw);
+            startY = Math.max(0, clip.y / th);
+            endX = Math.min(map.getWidth(), (clip.x + clip.width + tw - 1) / tw);
+            endY = Math.min(map.getHeight(), (clip.y + clip.height + th - 1) / th);
+        }
+
         // به ترتیب لایه‌ها رندر کن
         for (TileLayer layer : layers) {
             if (!layer.visible) continue;
 
-            for (int y = 0; y < map.getHeight(); y++) {
-                for (int x = 0; x < map.getWidth(); x++) {
-                    long raw = layer.gid[y][x];
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    long raw = layer.data.gid(x, y) & 0xFFFFFFFFL;
                     if (raw == 0) continue;
 
                     // فلگ‌های flip را جدا کن
@@ -148,9 +156,13 @@ public class MapRenderer extends JPanel {
         int margin;
         int spacing;
         BufferedImage image;
-        File baseDir; // برای TSX های جداگانه
+
+        /** یک تصویر به‌ازای هر gid (تایل‌های هم‌شناسه یک شیء تصویر مشترک می‌گیرند؛ جدول gid نقشهٔ فشرده به آن تکیه دارد) */
+        final Map<Integer, BufferedImage> subImages = new HashMap<Integer, BufferedImage>();
 
         BufferedImage getSubImage(int gid) {
+            BufferedImage cached = subImages.get(Integer.valueOf(gid));
+            if (cached != null) return cached;
             int localId = gid - firstGid;
             if (localId < 0 || localId >= tileCount) return null;
             int col = localId % columns;
@@ -158,7 +170,9 @@ public class MapRenderer extends JPanel {
             int sx = margin + col * (tileWidth + spacing);
             int sy = margin + row * (tileHeight + spacing);
             if (sx + tileWidth > image.getWidth() || sy + tileHeight > image.getHeight()) return null;
-            return image.getSubimage(sx, sy, tileWidth, tileHeight);
+            BufferedImage sub = image.getSubimage(sx, sy, tileWidth, tileHeight);
+            subImages.put(Integer.valueOf(gid), sub);
+            return sub;
         }
 
         boolean owns(int gid) {
@@ -169,7 +183,7 @@ public class MapRenderer extends JPanel {
     private static class TileLayer {
         String name;
         boolean visible = true;
-        long[][] gid; // [y][x] شامل فلگ‌های flip
+        TmxModel.Layer data; // gid خام شامل فلگ‌های flip
     }
 
     private static class LoaderResult {
@@ -179,93 +193,74 @@ public class MapRenderer extends JPanel {
     }
 
     // ====== Load TMX (همهٔ tileset/layer) ======
+    /** از مدل مشترک TmxModel (همان پارسی که MapLoader/CollisionMap استفاده می‌کنند) */
     private LoaderResult loadTMXAll(String tmxPath, String tilesetOverride, TileTypeResolver resolver) throws Exception {
-        Document doc = parseXML(new File(tmxPath));
-        Element mapElem = doc.getDocumentElement();
-        File baseDir = new File(tmxPath).getParentFile();
+        TmxModel model = TmxModel.load(tmxPath);
 
-        int tileWidth  = parseInt(mapElem.getAttribute("tilewidth"));
-        int tileHeight = parseInt(mapElem.getAttribute("tileheight"));
+        int tileWidth  = model.getTileWidth();
+        int tileHeight = model.getTileHeight();
 
-        // ---- tilesets ----
-        NodeList tsNodes = mapElem.getElementsByTagName("tileset");
+        // ---- tilesets (TSX خارجی را خود مدل خوانده است) ----
+        List<TmxModel.Tileset> tsList = model.getTilesets();
         List<TilesetInfo> tilesets = new ArrayList<>();
 
-        for (int i = 0; i < tsNodes.getLength(); i++) {
-            Element ts = (Element) tsNodes.item(i);
+        for (int i = 0; i < tsList.size(); i++) {
+            TmxModel.Tileset ts = tsList.get(i);
+            boolean external = ts.getSource().length() > 0;
 
             TilesetInfo info = new TilesetInfo();
-            info.firstGid   = parseInt(ts.getAttribute("firstgid"));
-            info.margin     = ts.hasAttribute("margin")  ? parseInt(ts.getAttribute("margin"))  : 0;
-            info.spacing    = ts.hasAttribute("spacing") ? parseInt(ts.getAttribute("spacing")) : 0;
-
-            // TSX خارجی؟
-            String tsxSource = ts.getAttribute("source");
-            if (tsxSource != null && !tsxSource.isEmpty()) {
-                File tsxFile = new File(baseDir, tsxSource);
-                parseTSX(tsxFile, info);
+            info.firstGid   = ts.getFirstGid();
+            info.margin     = ts.getMargin();
+            info.spacing    = ts.getSpacing();
+            info.tileWidth  = (ts.getTileWidth()  > 0) ? ts.getTileWidth()  : tileWidth;
+            info.tileHeight = (ts.getTileHeight() > 0) ? ts.getTileHeight() : tileHeight;
+
+            if (ts.getImageSource() == null) {
+                if (external) throw new IllegalStateException("Invalid TSX: no <image> (" + ts.getSource() + ")");
+                continue;
+            }
+
+            String imagePath = ts.getImagePath();
+            BufferedImage tilesetImage;
+            if (imagePath != null) {
+                tilesetImage = AssetLoader.requireImage(imagePath);
+            } else if (tilesetOverride != null) {
+                tilesetImage = AssetLoader.requireImage(tilesetOverride);
             } else {
-                // از خود TMX بخوان
-                info.tileWidth  = ts.hasAttribute("tilewidth")  ? parseInt(ts.getAttribute("tilewidth"))  : tileWidth;
-                info.tileHeight = ts.hasAttribute("tileheight") ? parseInt(ts.getAttribute("tileheight")) : tileHeight;
-                Element img = (Element) ts.getElementsByTagName("image").item(0);
-                if (img == null) continue;
-
-                String src = img.getAttribute("source");
-                BufferedImage tilesetImage;
-                if (src != null && !src.isEmpty()) {
-                    tilesetImage = AssetLoader.requireImage(new File(baseDir, src).getPath());
-                } else if (tilesetOverride != null) {
-                    tilesetImage = AssetLoader.requireImage(tilesetOverride);
-                } else {
-                    throw new IllegalStateException("Tileset image source missing");
-                }
-                info.image = tilesetImage;
+                throw new IllegalStateException("Tileset image source missing");
+            }
+            info.image = tilesetImage;
 
-                // columns/tilecount
-                if (ts.hasAttribute("columns")) {
-                    info.columns = parseInt(ts.getAttribute("columns"));
-                } else {
-                    info.columns = Math.max(1, (tilesetImage.getWidth() - info.margin + info.spacing) / (info.tileWidth + info.spacing));
-                }
+            // columns/tilecount
+            if (ts.getColumns() >= 0) {
+                info.columns = ts.getColumns();
+            } else {
+                info.columns = Math.max(1, (tilesetImage.getWidth() - info.margin + info.spacing) / (info.tileWidth + info.spacing));
+            }
 
-                if (ts.hasAttribute("tilecount")) {
-                    info.tileCount = parseInt(ts.getAttribute("tilecount"));
-                } else {
-                    int rows = Math.max(1, (tilesetImage.getHeight() - info.margin + info.spacing) / (info.tileHeight + info.spacing));
-                    info.tileCount = info.columns * rows;
-                }
+            if (ts.getTileCount() >= 0) {
+                info.tileCount = ts.getTileCount();
+            } else {
+                int rows = Math.max(1, (tilesetImage.getHeight() - info.margin + info.spacing) / (info.tileHeight + info.spacing));
+                info.tileCount = info.columns * rows;
             }
             tilesets.add(info);
         }
 
         // ---- tile layers ----
         List<TileLayer> layers = new ArrayList<>();
-        NodeList layerNodes = mapElem.getElementsByTagName("layer");
+        List<TmxModel.Layer> layerList = model.getLayers();
         int mapW = -1, mapH = -1;
 
-        for (int i = 0; i < layerNodes.getLength(); i++) {
-            Element layer = (Element) layerNodes.item(i);
-            String name = layer.getAttribute("name");
-            int w = parseInt(layer.getAttribute("width"));
-            int h = parseInt(layer.getAttribute("height"));
-            if (mapW < 0) { mapW = w; mapH = h; }
-
-            boolean visible = !layer.hasAttribute("visible") || !"0".equals(layer.getAttribute("visible"));
-
-            Element data = (Element) layer.getElementsByTagName("data").item(0);
-            if (data == null) continue;
-            String enc = data.getAttribute("encoding");
-            if (!"csv".equalsIgnoreCase(enc)) {
-                throw new IllegalStateException("Only CSV-encoded tile layers are supported (layer: " + name + ")");
-            }
-
-            long[][] grid = readCsvToGridLong(data.getTextContent(), w, h);
+        for (int i = 0; i < layerList.size(); i++) {
+            TmxModel.Layer layer = layerList.get(i);
+            String name = layer.getName();
+            if (mapW < 0) { mapW = layer.getWidth(); mapH = layer.getHeight(); }
 
             TileLayer tl = new TileLayer();
             tl.name = (name == null || name.isEmpty()) ? ("Layer" + i) : name;
-            tl.visible = visible;
-            tl.gid = grid;
+            tl.visible = layer.isVisible();
+            tl.data = layer;
             layers.add(tl);
         }
 
@@ -273,14 +268,14 @@ public class MapRenderer extends JPanel {
             throw new IllegalStateException("No tile layer found in TMX");
         }
 
-        CityMap cityMap = new CityMap(mapW, mapH, tileWidth, tileHeight);
+        CityMap cityMap = CityMap.create(mapW, mapH, tileWidth, tileHeight);
 
         // برای سازگاری، لایهٔ اول را به‌صورت «تصویر پایه» وارد CityMap می‌کنیم
         if (!layers.isEmpty()) {
             TileLayer base = layers.get(0);
             for (int y = 0; y < mapH; y++) {
                 for (int x = 0; x < mapW; x++) {
-                    int gid = (int) (base.gid[y][x] & 0x0FFFFFFFL);
+                    int gid = base.data.tileGid(x, y);
                     if (gid == 0) continue;
                     BufferedImage tileImg = getTileImage(tilesets, gid);
                     if (tileImg == null) continue;
@@ -308,63 +303,6 @@ public class MapRenderer extends JPanel {
         return null;
     }
 
-    // ====== TSX Parser (کمینه) ======
-    private static void parseTSX(File tsxFile, TilesetInfo out) throws Exception {
-        Document doc = parseXML(tsxFile);
-        Element ts = (Element) doc.getElementsByTagName("tileset").item(0);
-        if (ts == null) throw new IllegalStateException("Invalid TSX: no <tileset>");
-
-        out.tileWidth  = parseInt(ts.getAttribute("tilewidth"));
-        out.tileHeight = parseInt(ts.getAttribute("tileheight"));
-        out.margin     = ts.hasAttribute("margin")  ? parseInt(ts.getAttribute("margin"))  : 0;
-        out.spacing    = ts.hasAttribute("spacing") ? parseInt(ts.getAttribute("spacing")) : 0;
-        out.columns    = parseInt(ts.getAttribute("columns"));
-        out.tileCount  = parseInt(ts.getAttribute("tilecount"));
-
-        Element img = (Element) ts.getElementsByTagName("image").item(0);
-        if (img == null) throw new IllegalStateException("Invalid TSX: no <image>");
-        String src = img.getAttribute("source");
-        out.image = AssetLoader.requireImage(new File(tsxFile.getParentFile(), src).getPath());
-    }
-
-    // ====== CSV و XML Helpers ======
-    private static long[][] readCsvToGridLong(String csv, int w, int h) {
-        String[] lines = csv.trim().split("\\R+");
-        List<Long> flat = new ArrayList<>(w * h);
-        for (String line : lines) {
-            String t = line.trim();
-            if (t.isEmpty()) continue;
-            String[] toks = t.split(",");
-            for (String s : toks) {
-                String ss = s.trim();
-                if (!ss.isEmpty()) {
-                    // مقدار می‌تواند از نوع long باشد (به‌خاطر بیت‌های flip)
-                    long v = Long.decode(ss);
-                    flat.add(v);
-                }
-            }
-        }
-        if (flat.size() != w * h)
-            throw new IllegalStateException("CSV size mismatch: expected " + (w * h) + " got " + flat.size());
-        long[][] out = new long[h][w];
-        int idx = 0;
-        for (int y = 0; y < h; y++)
-            for (int x = 0; x < w; x++)
-                out[y][x] = flat.get(idx++);
-        return out;
-    }
-
-    private static Document parseXML(File f) throws Exception {
-        DocumentBuilderFactory fac = DocumentBuilderFactory.newInstance();
-        fac.setNamespaceAware(false);
-        DocumentBuilder b = fac.newDocumentBuilder();
-        return b.parse(f);
-    }
-
-    private static int parseInt(String s) {
-        try { return Integer.parseInt(s); } catch (Exception e) { return 0; }
-    }
-
     // نمونهٔ ساده از resolver برای نگاشت GID به نوع سلول (دلخواه)
     public static TileTypeResolver sampleResolver(Map<Integer, Cell.Type> gidToType) {
         Map<Integer, Cell.Type> mapCopy = new LinkedHashMap<>(gidToType);
@@ -1,13 +1,13 @@
 package util;
 
-import org.w3c.dom.*;
+import map.TmxModel;
+
 import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * --------------------
@@ -19,6 +19,11 @@ import java.util.*;
  *  - در لایه‌های باینری CSV (مثلاً CollisionLayer_Vehicle): مقدار 0 = قابل عبور، مقدار 1 = مسدود.
  *  - isWalkable(x,y) => true اگر تایل قابل عبور باشد.
  *  - isBlocked(x,y)  => true اگر تایل خارج از نقشه یا مسدود باشد.
+ *
+ * ذخیره‌سازی: بیت‌ست سطری در long[] (هر ردیف wordsPerRow کلمهٔ ۶۴بیتی؛ بیت 1 = عبوری).
+ * بیت‌های اضافهٔ انتهای هر ردیف همیشه صفرند، پس عملیات کلمه‌ای (and/or/andNot، شمارش، پویش)
+ * بدون ماسک‌گذاری جداگانه درست کار می‌کنند. حجم: یک بیت برای هر تایل به‌جای یک بایت boolean.
+ * نوشتن (set) خواندن-تغییر-نوشتن روی کلمه است؛ تغییرها باید از یک نخ انجام شوند (مثل قبل: نخ بازی).
  */
 public final class CollisionMap {
 
@@ -27,8 +32,37 @@ public final class CollisionMap {
 
     private final int width;
     private final int height;
-    // walkable[y][x] = true => عبوری
-    private final boolean[][] walkable;
+    /** تعداد کلمه‌های هر ردیف */
+    private final int wordsPerRow;
+    /** بیت (x & 63) از کلمهٔ y*wordsPerRow + (x >>> 6) = عبوری بودن (x,y) */
+    private final long[] bits;
+    /** ماسک بیت‌های معتبر آخرین کلمهٔ هر ردیف */
+    private final long lastWordMask;
+
+    /** شنونده‌های تغییر عبورپذیری (در copy() منتقل نمی‌شوند) */
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+
+    /**
+     * شنوندهٔ تغییر عبورپذیری.
+     * x,y مختصات تایل تغییرکرده است؛ برای تغییر انبوه (fill) هر دو -1 هستند.
+     */
+    public interface ChangeListener {
+        void onCollisionChanged(CollisionMap source, int x, int y);
+    }
+
+    public void addChangeListener(ChangeListener l) {
+        if (l != null && !listeners.contains(l)) listeners.add(l);
+    }
+
+    public void removeChangeListener(ChangeListener l) {
+        listeners.remove(l);
+    }
+
+    private void fireChanged(int x, int y) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onCollisionChanged(this, x, y);
+        }
+    }
 
     public int getWidth()  { return width; }
     public int getHeight() { return height; }
@@ -36,29 +70,51 @@ public final class CollisionMap {
     private CollisionMap(int width, int height) {
         this.width = width;
         this.height = height;
-        this.walkable = new boolean[height][width];
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.bits = new long[wordsPerRow * height];
+        int tail = width & 63;
+        this.lastWordMask = (tail == 0) ? -1L : (1L << tail) - 1;
     }
 
     /** کپی عمیق */
     public CollisionMap copy() {
         CollisionMap c = new CollisionMap(width, height);
-        for (int y = 0; y < height; y++) {
-            System.arraycopy(this.walkable[y], 0, c.walkable[y], 0, width);
-        }
+        System.arraycopy(this.bits, 0, c.bits, 0, bits.length);
         return c;
     }
 
     /** پرکردن کل نقشه با مقدار عبوری/مسدود */
     public void fill(boolean canPass) {
-        for (int y = 0; y < height; y++) {
-            Arrays.fill(walkable[y], canPass);
+        if (canPass) {
+            Arrays.fill(bits, -1L);
+            clearPadding();
+        } else {
+            Arrays.fill(bits, 0L);
         }
+        if (!listeners.isEmpty()) fireChanged(-1, -1);
+    }
+
+    /** صفر کردن بیت‌های بیرون از عرض نقشه در آخرین کلمهٔ هر ردیف. */
+    private void clearPadding() {
+        if (lastWordMask == -1L) return;
+        for (int y = 0; y < height; y++) bits[y * wordsPerRow + wordsPerRow - 1] &= lastWordMask;
     }
 
     /** آیا مختصات تایل‌محور (x,y) قابل عبور است؟  خارج مرز => false */
     public boolean isWalkable(int x, int y) {
         if (x < 0 || y < 0 || x >= width || y >= height) return false;
-        return walkable[y][x];
+        return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /** نوشتن بیت بدون بررسی مرز/شنونده؛ true اگر مقدار عوض شد. */
+    private boolean putBit(int x, int y, boolean canPass) {
+        int i = y * wordsPerRow + (x >>> 6);
+        long m = 1L << x;
+        long old = bits[i];
+        long nw = canPass ? (old | m) : (old & ~m);
+        if (nw == old) return false;
+        bits[i] = nw;
+        return true;
     }
 
     /** آیا مختصات تایل‌محور (x,y) مسدود است؟  خارج مرز => true */
@@ -69,13 +125,135 @@ public final class CollisionMap {
     /** تنظیم عبوری/مسدود بودن برحسب "blocked". */
     public void set(int x, int y, boolean blocked) {
         if (x < 0 || y < 0 || x >= width || y >= height) return;
-        walkable[y][x] = !blocked;
+        if (!putBit(x, y, !blocked)) return;
+        if (!listeners.isEmpty()) fireChanged(x, y);
     }
 
     /** صراحتاً ستِ عبوری. */
     public void setWalkable(int x, int y, boolean canPass) {
         if (x < 0 || y < 0 || x >= width || y >= height) return;
-        walkable[y][x] = canPass;
+        if (!putBit(x, y, canPass)) return;
+        if (!listeners.isEmpty()) fireChanged(x, y);
+    }
+
+    /* =========================
+       عملیات کلمه‌ای (۶۴ تایل در هر قدم)
+       ========================= */
+
+    /** تعداد کلمه‌های ۶۴بیتی هر ردیف. */
+    public int getWordsPerRow() { return wordsPerRow; }
+
+    /**
+     * کلمهٔ word از ردیف y: بیت i یعنی تایل (word*64 + i, y) عبوری است.
+     * بیت‌های بیرون از عرض نقشه صفرند؛ ردیف/کلمهٔ خارج از محدوده → 0.
+     */
+    public long getRowWord(int y, int word) {
+        if (y < 0 || y >= height || word < 0 || word >= wordsPerRow) return 0L;
+        return bits[y * wordsPerRow + word];
+    }
+
+    /**
+     * ۶۴ تایل پشت‌سرهم از (x,y) به راست: بیت i یعنی (x+i, y) عبوری است (x لازم نیست مضرب ۶۴ باشد).
+     * تایل‌های بیرون از نقشه صفرند.
+     */
+    public long getBits(int x, int y) {
+        if (y < 0 || y >= height || x >= width || x <= -64) return 0L;
+        if (x < 0) return getBits(0, y) << -x;
+        int base = y * wordsPerRow;
+        int w = x >>> 6, off = x & 63;
+        long lo = bits[base + w] >>> off;
+        if (off == 0 || w + 1 >= wordsPerRow) return lo;
+        return lo | (bits[base + w + 1] << (64 - off));
+    }
+
+    /** اولین x' ≥ x در ردیف y که عبوری است؛ -1 اگر نیست. */
+    public int nextWalkable(int x, int y) {
+        if (y < 0 || y >= height || x >= width) return -1;
+        if (x < 0) x = 0;
+        int base = y * wordsPerRow;
+        int w = x >>> 6;
+        long word = bits[base + w] & (-1L << x);
+        while (true) {
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w >= wordsPerRow) return -1;
+            word = bits[base + w];
+        }
+    }
+
+    /** اولین x' ≥ x در ردیف y که مسدود است؛ width اگر تا انتهای ردیف همه عبوری‌اند. */
+    public int nextBlocked(int x, int y) {
+        if (y < 0 || y >= height || x >= width) return width;
+        if (x < 0) x = 0;
+        int base = y * wordsPerRow;
+        int w = x >>> 6;
+        long word = ~bits[base + w] & (-1L << x);
+        while (true) {
+            if (word != 0) return Math.min(width, (w << 6) + Long.numberOfTrailingZeros(word));
+            if (++w >= wordsPerRow) return width;
+            word = ~bits[base + w];
+        }
+    }
+
+    /**
+     * اولین تایل عبوری با اندیس ≥ index به ترتیب سطری (اندیس = y*width + x)؛ -1 اگر نیست.
+     * برای پیمایش همهٔ تایل‌های عبوری: for (i = next(0); i >= 0; i = next(i + 1)).
+     */
+    public int nextWalkableIndex(int index) {
+        if (index < 0) index = 0;
+        for (int y = index / width, x = index % width; y < height; y++, x = 0) {
+            int nx = nextWalkable(x, y);
+            if (nx >= 0) return y * width + nx;
+        }
+        return -1;
+    }
+
+    /** تعداد تایل‌های عبوری (popcount کلمه‌ای). */
+    public int countWalkable() {
+        int n = 0;
+        for (int i = 0; i < bits.length; i++) n += Long.bitCount(bits[i]);
+        return n;
+    }
+
+    /** عبوری فقط جایی که هر دو عبوری‌اند (اشتراک، درجا). */
+    public CollisionMap and(CollisionMap other) {
+        checkSameSize(other);
+        boolean changed = false;
+        for (int i = 0; i < bits.length; i++) {
+            long nw = bits[i] & other.bits[i];
+            if (nw != bits[i]) { bits[i] = nw; changed = true; }
+        }
+        if (changed && !listeners.isEmpty()) fireChanged(-1, -1);
+        return this;
+    }
+
+    /** عبوری جایی که یکی از دو نقشه عبوری است (اجتماع، درجا). */
+    public CollisionMap or(CollisionMap other) {
+        checkSameSize(other);
+        boolean changed = false;
+        for (int i = 0; i < bits.length; i++) {
+            long nw = bits[i] | other.bits[i];
+            if (nw != bits[i]) { bits[i] = nw; changed = true; }
+        }
+        if (changed && !listeners.isEmpty()) fireChanged(-1, -1);
+        return this;
+    }
+
+    /** عبوری جایی که این نقشه عبوری و other مسدود است (تفاضل، درجا). */
+    public CollisionMap andNot(CollisionMap other) {
+        checkSameSize(other);
+        boolean changed = false;
+        for (int i = 0; i < bits.length; i++) {
+            long nw = bits[i] & ~other.bits[i];
+            if (nw != bits[i]) { bits[i] = nw; changed = true; }
+        }
+        if (changed && !listeners.isEmpty()) fireChanged(-1, -1);
+        return this;
+    }
+
+    private void checkSameSize(CollisionMap other) {
+        if (other == null) throw new IllegalArgumentException("other is null");
+        if (other.width != width || other.height != height)
+            throw new IllegalArgumentException("All maps must have the same size");
     }
 
     /* =========================
@@ -88,7 +266,7 @@ public final class CollisionMap {
      */
     public static CollisionMap autoFromTMX(String tmxPath, Mode mode) {
         try {
-            Document doc = parseXML(tmxPath);
+            TmxModel model = TmxModel.load(tmxPath);
             String[] veh = new String[] {
                     "CollisionLayer_Vehicle", "VehicleCollision", "Collision_Vehicle",
                     "vehicle", "VEHICLE"
@@ -101,10 +279,9 @@ public final class CollisionMap {
 
             for (int i = 0; i < names.length; i++) {
                 String name = names[i];
-                Element layer = findLayerByName(doc, name);
-                if (layer != null) {
-                    // این یک لایهٔ باینری CSV است: 0=عبوری, غیرصفر=مسدود
-                    return fromBinaryLayerParsed(doc, name);
+                if (model.getLayer(name) != null) {
+                    // این یک لایهٔ باینری است: 0=عبوری, غیرصفر=مسدود
+                    return fromBinaryLayer(model, name);
                 }
             }
         } catch (Exception ignored) { }
@@ -118,44 +295,36 @@ public final class CollisionMap {
     }
 
     /* =========================
-       1) ساخت از لایه‌ی باینری CSV در TMX
+       1) ساخت از لایه‌ی باینری در TMX
        ========================= */
 
     /**
-     * یک لایه‌ی CSV با name مشخص را از TMX می‌خواند.
+     * یک لایه با name مشخص را از TMX می‌خواند (مدل کش‌شدهٔ TmxModel؛ فایل دوباره پارس نمی‌شود).
      * قرارداد: 0 = عبوری، غیر صفر = مسدود.
      */
     public static CollisionMap fromBinaryLayer(String tmxPath, String layerName) {
         try {
-            Document doc = parseXML(tmxPath);
-            return fromBinaryLayerParsed(doc, layerName);
+            return fromBinaryLayer(TmxModel.load(tmxPath), layerName);
+        } catch (RuntimeException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new RuntimeException("fromBinaryLayer failed: " + ex.getMessage(), ex);
         }
     }
 
-    /** نسخه‌ای که Document آماده دارد (برای autoFromTMX) */
-    private static CollisionMap fromBinaryLayerParsed(Document doc, String layerName) throws Exception {
-        Element map = (Element) doc.getElementsByTagName("map").item(0);
-        int w = Integer.parseInt(map.getAttribute("width"));
-        int h = Integer.parseInt(map.getAttribute("height"));
+    /** همان fromBinaryLayer روی مدل از پیش خوانده‌شده */
+    public static CollisionMap fromBinaryLayer(TmxModel model, String layerName) {
+        int w = model.getWidth();
+        int h = model.getHeight();
         CollisionMap cm = new CollisionMap(w, h);
 
-        Element layer = findLayerByName(doc, layerName);
+        TmxModel.Layer layer = requireLayer(model, layerName, w, h);
         if (layer == null) {
             throw new IllegalStateException("Layer not found: " + layerName);
         }
-        Element data = (Element) layer.getElementsByTagName("data").item(0);
-        String encoding = data.getAttribute("encoding");
-        if (!"csv".equalsIgnoreCase(encoding)) {
-            throw new IllegalStateException("Only CSV encoding is supported for layer: " + layerName);
-        }
-
-        int[][] vals = readCsvGrid(data.getTextContent(), w, h);
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
-                int v = vals[y][x];
-                cm.set(x, y, v != 0); // 0 => عبوری, غیر صفر => مسدود
+                cm.putBit(x, y, layer.gid(x, y) == 0); // 0 => عبوری, غیر صفر => مسدود
             }
         }
         return cm;
@@ -175,28 +344,21 @@ public final class CollisionMap {
                                        List<String> walkableLayers,
                                        List<String> blockedLayers) {
         try {
-            Document doc = parseXML(tmxPath);
-            Element map = (Element) doc.getElementsByTagName("map").item(0);
-            int w = Integer.parseInt(map.getAttribute("width"));
-            int h = Integer.parseInt(map.getAttribute("height"));
+            TmxModel model = TmxModel.load(tmxPath);
+            int w = model.getWidth();
+            int h = model.getHeight();
             CollisionMap cm = new CollisionMap(w, h);
 
-            // پیش‌فرض: همه غیرعبوری
-            for (int y = 0; y < h; y++) Arrays.fill(cm.walkable[y], false);
+            // پیش‌فرض: همه غیرعبوری (بیت‌ست تازه صفر است)
 
             // 2-1) عبوری‌ها
             List<String> wl = (walkableLayers == null) ? Collections.<String>emptyList() : walkableLayers;
             for (int i = 0; i < wl.size(); i++) {
-                String ln = wl.get(i);
-                Element layer = findLayerByName(doc, ln);
+                TmxModel.Layer layer = requireLayer(model, wl.get(i), w, h);
                 if (layer == null) continue;
-                Element data = (Element) layer.getElementsByTagName("data").item(0);
-                if (!"csv".equalsIgnoreCase(data.getAttribute("encoding")))
-                    throw new IllegalStateException("Only CSV encoding supported for: " + ln);
-                int[][] vals = readCsvGrid(data.getTextContent(), w, h);
                 for (int y = 0; y < h; y++) {
                     for (int x = 0; x < w; x++) {
-                        if (vals[y][x] != 0) cm.setWalkable(x, y, true);
+                        if (layer.gid(x, y) != 0) cm.putBit(x, y, true);
                     }
                 }
             }
@@ -204,16 +366,11 @@ public final class CollisionMap {
             // 2-2) مسدودی‌ها (ارجحیت)
             List<String> bl = (blockedLayers == null) ? Collections.<String>emptyList() : blockedLayers;
             for (int i = 0; i < bl.size(); i++) {
-                String ln = bl.get(i);
-                Element layer = findLayerByName(doc, ln);
+                TmxModel.Layer layer = requireLayer(model, bl.get(i), w, h);
                 if (layer == null) continue;
-                Element data = (Element) layer.getElementsByTagName("data").item(0);
-                if (!"csv".equalsIgnoreCase(data.getAttribute("encoding")))
-                    throw new IllegalStateException("Only CSV encoding supported for: " + ln);
-                int[][] vals = readCsvGrid(data.getTextContent(), w, h);
                 for (int y = 0; y < h; y++) {
                     for (int x = 0; x < w; x++) {
-                        if (vals[y][x] != 0) cm.set(x, y, true); // true => مسدود
+                        if (layer.gid(x, y) != 0) cm.putBit(x, y, false); // مسدود
                     }
                 }
             }
@@ -233,79 +390,55 @@ public final class CollisionMap {
      * در پروژه‌ی فعلی توصیه می‌شود از fromBinaryLayer یا fromTMX(walkable,blocked) استفاده کنید.
      */
     public static CollisionMap fromTMX(String tmxPath) throws Exception {
-        File tmxFile = new File(tmxPath);
-        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
-        DocumentBuilder b = f.newDocumentBuilder();
-        Document doc = b.parse(tmxFile);
-
-        Element mapElem = doc.getDocumentElement();
-        int width = Integer.parseInt(mapElem.getAttribute("width"));
-        int height = Integer.parseInt(mapElem.getAttribute("height"));
+        TmxModel model = TmxModel.load(tmxPath);
+        int width = model.getWidth();
+        int height = model.getHeight();
 
         CollisionMap cm = new CollisionMap(width, height);
 
-        // --- نگاشت GID به walkable ---
-        NodeList tilesetNodes = mapElem.getElementsByTagName("tileset");
-
-        class TilesetInfo {
-            int firstGid;
-            Set<Integer> walkableIds = new HashSet<Integer>();
-            boolean isWalkableGid(int gid) {
-                int local = gid - firstGid;
-                return walkableIds.contains(local);
-            }
-        }
-
-        List<TilesetInfo> tilesets = new ArrayList<TilesetInfo>();
-        for (int i = 0; i < tilesetNodes.getLength(); i++) {
-            Element ts = (Element) tilesetNodes.item(i);
-            TilesetInfo info = new TilesetInfo();
-            info.firstGid = Integer.parseInt(ts.getAttribute("firstgid"));
-
-            NodeList tileNodes = ts.getElementsByTagName("tile");
-            for (int t = 0; t < tileNodes.getLength(); t++) {
-                Element tileElem = (Element) tileNodes.item(t);
-                int id = Integer.parseInt(tileElem.getAttribute("id"));
-                NodeList propNodes = tileElem.getElementsByTagName("property");
-                for (int p = 0; p < propNodes.getLength(); p++) {
-                    Element prop = (Element) propNodes.item(p);
-                    if ("walkable".equalsIgnoreCase(prop.getAttribute("name")) &&
-                            "true".equalsIgnoreCase(prop.getAttribute("value"))) {
-                        info.walkableIds.add(id);
-                    }
-                }
-            }
-            tilesets.add(info);
-        }
-
         // اولین لایه‌ی تایل
-        Element layer = (Element) mapElem.getElementsByTagName("layer").item(0);
-        Element data = (Element) layer.getElementsByTagName("data").item(0);
-        String encoding = data.getAttribute("encoding");
-        if (!"csv".equalsIgnoreCase(encoding))
-            throw new IllegalStateException("Only CSV encoding supported in legacy fromTMX");
+        if (model.getLayers().isEmpty()) throw new IllegalStateException("No tile layer in TMX: " + tmxPath);
+        TmxModel.Layer layer = model.getLayers().get(0);
+        List<TmxModel.Tileset> tilesets = model.getTilesets();
 
-        String[] rawLines = data.getTextContent().trim().split("\\R+");
+        // --- نگاشت GID به walkable (هر gid یک بار) ---
+        Map<Integer, Boolean> walkableGids = new HashMap<Integer, Boolean>();
         for (int y = 0; y < height; y++) {
-            String[] toks = rawLines[y].trim().split(",");
             for (int x = 0; x < width; x++) {
-                int gid = Integer.parseInt(toks[x].trim());
+                int gid = layer.gid(x, y);
                 boolean walk = false;
                 if (gid != 0) {
-                    for (int j = 0; j < tilesets.size(); j++) {
-                        TilesetInfo ts = tilesets.get(j);
-                        if (gid >= ts.firstGid && ts.isWalkableGid(gid)) {
-                            walk = true;
-                            break;
-                        }
+                    Integer key = Integer.valueOf(gid);
+                    Boolean cached = walkableGids.get(key);
+                    if (cached == null) {
+                        cached = Boolean.valueOf(isWalkableGid(tilesets, gid));
+                        walkableGids.put(key, cached);
                     }
+                    walk = cached.booleanValue();
                 }
-                cm.walkable[y][x] = walk;
+                cm.putBit(x, y, walk);
             }
         }
         return cm;
     }
 
+    /** آیا تایل gid در یکی از tileset ها property walkable=true دارد؟ */
+    private static boolean isWalkableGid(List<TmxModel.Tileset> tilesets, int gid) {
+        for (int j = 0; j < tilesets.size(); j++) {
+            TmxModel.Tileset ts = tilesets.get(j);
+            if (gid < ts.getFirstGid()) continue;
+            TmxModel.Tile tile = ts.getTile(gid - ts.getFirstGid());
+            if (tile == null) continue;
+            for (int p = 0; p < tile.getPropertyCount(); p++) {
+                if ("walkable".equalsIgnoreCase(tile.getPropertyName(p)) &&
+                        "true".equalsIgnoreCase(tile.getPropertyValue(p))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /* =========================
        4) ساخت از ماسک تصویری (PNG)
        ========================= */
@@ -376,21 +509,13 @@ public final class CollisionMap {
             throw new IllegalArgumentException("maps is empty");
         CollisionMap base = maps.get(0);
         int w = base.width, h = base.height;
-        CollisionMap out = new CollisionMap(w, h);
-
-        // شروع: همه عبوری
-        for (int y = 0; y < h; y++) Arrays.fill(out.walkable[y], true);
-
-        for (int i = 0; i < maps.size(); i++) {
+        CollisionMap out = base.copy();
+        // اگر هر کدام مسدود کند => خروجی مسدود (AND کلمه‌ای)
+        for (int i = 1; i < maps.size(); i++) {
             CollisionMap m = maps.get(i);
             if (m.width != w || m.height != h)
                 throw new IllegalArgumentException("All maps must have the same size");
-            for (int y = 0; y < h; y++) {
-                for (int x = 0; x < w; x++) {
-                    // اگر هر کدام مسدود کند => خروجی مسدود
-                    if (!m.walkable[y][x]) out.walkable[y][x] = false;
-                }
-            }
+            out.and(m);
         }
         return out;
     }
@@ -412,7 +537,7 @@ public final class CollisionMap {
 
         for (int ty = 0; ty < height; ty++) {
             for (int tx = 0; tx < width; tx++) {
-                int color = walkable[ty][tx] ? white : black;
+                int color = isWalkable(tx, ty) ? white : black;
                 for (int oy = 0; oy < tileH; oy++) {
                     for (int ox = 0; ox < tileW; ox++) {
                         img.setRGB(tx * tileW + ox, ty * tileH + oy, color);
@@ -427,52 +552,17 @@ public final class CollisionMap {
        کمک‌متدهای داخلی
        ========================= */
 
-    private static Document parseXML(String path) throws Exception {
-        DocumentBuilderFactory f = DocumentBuilderFactory.newInstance();
-        f.setNamespaceAware(false);
-        DocumentBuilder b = f.newDocumentBuilder();
-        return b.parse(new File(path));
-    }
-
-    private static Element findLayerByName(Document doc, String name) {
-        NodeList layers = doc.getElementsByTagName("layer");
-        for (int i = 0; i < layers.getLength(); i++) {
-            Element e = (Element) layers.item(i);
-            if (name.equals(e.getAttribute("name")) || name.equalsIgnoreCase(e.getAttribute("name"))) return e;
+    /** لایهٔ name (یا null اگر نبود)؛ لایهٔ چانکی یا ناهم‌اندازه با نقشه خطا است. */
+    private static TmxModel.Layer requireLayer(TmxModel model, String name, int w, int h) {
+        TmxModel.Layer layer = model.getLayer(name);
+        if (layer == null) return null;
+        if (layer.isChunked()) {
+            throw new IllegalStateException("Infinite (chunked) layers are not supported: " + name);
         }
-        return null;
-    }
-
-    /** خواندن CSV به ماتریس [y][x] با حذف فضا و خطوط خالی. */
-    private static int[][] readCsvGrid(String csvText, int w, int h) {
-        String trimmed = csvText == null ? "" : csvText.trim();
-        String[] rawLines = trimmed.split("\\R+");
-
-        // مسیر امن در صورت وجود خطوط خالی/اضافی
-        List<Integer> flat = new ArrayList<Integer>(w * h);
-        for (int i = 0; i < rawLines.length; i++) {
-            String line = rawLines[i];
-            if (line == null) continue;
-            String t = line.trim();
-            if (t.length() == 0) continue;
-            String[] parts = t.split(",");
-            for (int j = 0; j < parts.length; j++) {
-                String ss = parts[j].trim();
-                if (ss.length() == 0) continue;
-                flat.add(Integer.valueOf(Integer.parseInt(ss)));
-            }
-        }
-        if (flat.size() != w * h) {
-            throw new IllegalStateException("CSV size mismatch: expected " + (w * h) + " got " + flat.size());
+        if (layer.getWidth() != w || layer.getHeight() != h) {
+            throw new IllegalStateException("Layer size mismatch: " + name + " is " + layer.getWidth() + "x"
+                    + layer.getHeight() + ", map is " + w + "x" + h);
         }
-
-        int[][] out = new int[h][w];
-        int idx = 0;
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                out[y][x] = flat.get(idx++).intValue();
-            }
-        }
-        return out;
+        return layer;
     }
 }
@@ -0,0 +1,355 @@
+package util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * --------------------
+ * لایه: Utility Layer
+ * --------------------
+ * مسیر فشرده روی شبکهٔ تایل: خانهٔ شروع + «دنباله‌های هم‌جهت» (run-length).
+ * - هر run یک int است: (طول &lt;&lt; 3) | کد. کدهای 0..3 همان جهت‌های Position هستند
+ *   (0=DOWN, 1=LEFT, 2=RIGHT, 3=UP) و کد 4 یعنی ماندن در جا (برای مسیرهای زمان‌دار).
+ * - به‌جای یک Position برای هر تایل، یک int برای هر پیچ؛ روی جاده‌های صاف چند ده برابر کم‌حجم‌تر.
+ * - پیمایش بدون ساخت شیء با Cursor؛ برای کدهای قدیمی asList() یک نمای فقط‌خواندنی List&lt;Position&gt;
+ *   می‌دهد که Positionها را هنگام get می‌سازد (دسترسی ترتیبی O(1)).
+ *
+ * تغییرناپذیر است و بین نخ‌ها قابل اشتراک.
+ */
+public final class CompactPath implements Iterable<Position>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** کد «ماندن» در run (کنار جهت‌های 0..3 در Position) */
+    public static final int WAIT = 4;
+
+    private static final int CODE_BITS = 3;
+    private static final int CODE_MASK = (1 << CODE_BITS) - 1;
+    private static final int MAX_RUN = Integer.MAX_VALUE >>> CODE_BITS;
+
+    // dx/dy به‌ازای کد (DOWN, LEFT, RIGHT, UP, WAIT)
+    private static final int[] DX = { 0, -1, 1, 0, 0 };
+    private static final int[] DY = { 1, 0, 0, -1, 0 };
+
+    public static final CompactPath EMPTY = new CompactPath(0, 0, new int[0], 0);
+
+    private final int startX;
+    private final int startY;
+    private final int[] runs;
+    private final int size;       // تعداد خانه‌ها (شروع + قدم‌ها)؛ 0 فقط برای EMPTY
+    private final int endX;
+    private final int endY;
+
+    private CompactPath(int startX, int startY, int[] runs, int size) {
+        this.startX = startX;
+        this.startY = startY;
+        this.runs = runs;
+        this.size = size;
+        int x = startX, y = startY;
+        for (int i = 0; i < runs.length; i++) {
+            int len = runs[i] >>> CODE_BITS, c = runs[i] & CODE_MASK;
+            x += DX[c] * len;
+            y += DY[c] * len;
+        }
+        this.endX = x;
+        this.endY = y;
+    }
+
+    // ------------------------------------------------------------
+    // ساخت
+    // ------------------------------------------------------------
+
+    /**
+     * فشرده‌سازی فهرست خانه‌ها. اگر دو خانهٔ پشت‌سرهم نه مجاور چهارضلعی باشند و نه یکسان
+     * (مسیر پیوسته نیست)، null برمی‌گردد. فهرست null یا خالی → EMPTY.
+     * اگر فهرست خودش نمای asList() یک CompactPath باشد، همان برگردانده می‌شود (بدون کپی).
+     */
+    public static CompactPath fromList(List<Position> path) {
+        if (path == null || path.isEmpty()) return EMPTY;
+        if (path instanceof View) return ((View) path).owner;
+        Position first = path.get(0);
+        if (first == null) return null;
+        RunBuffer b = new RunBuffer();
+        int px = first.getX(), py = first.getY();
+        for (int i = 1; i < path.size(); i++) {
+            Position p = path.get(i);
+            if (p == null) return null;
+            int c = code(p.getX() - px, p.getY() - py);
+            if (c < 0) return null;
+            b.add(c);
+            px = p.getX();
+            py = p.getY();
+        }
+        return new CompactPath(first.getX(), first.getY(), b.toArray(), path.size());
+    }
+
+    /** فشرده‌سازی len اندیس تایل (y*width+x) از offset به بعد؛ null اگر مسیر پیوسته نیست. */
+    public static CompactPath fromTiles(int[] tiles, int offset, int len, int width) {
+        if (tiles == null || len <= 0) return EMPTY;
+        RunBuffer b = new RunBuffer();
+        int prev = tiles[offset];
+        for (int i = 1; i < len; i++) {
+            int t = tiles[offset + i];
+            int c = code(t % width - prev % width, t / width - prev / width);
+            if (c < 0) return null;
+            b.add(c);
+            prev = t;
+        }
+        return new CompactPath(tiles[offset] % width, tiles[offset] / width, b.toArray(), len);
+    }
+
+    /**
+     * مسیر از ریشهٔ زنجیرهٔ والد تا end (parent[root] == -1، اندیس‌ها y*width+x) بدون ساخت Position.
+     * زنجیره از انتها پیموده می‌شود و runها در پایان برعکس می‌شوند.
+     */
+    public static CompactPath fromParents(int[] parent, int end, int width) {
+        if (parent == null || end < 0) return EMPTY;
+        RunBuffer b = new RunBuffer();
+        int count = 1;
+        int c = end;
+        while (parent[c] != -1) {
+            int p = parent[c];
+            int code = code(c % width - p % width, c / width - p / width);
+            if (code < 0) throw new IllegalArgumentException("parent chain is not 4-connected at " + c);
+            b.add(code);
+            c = p;
+            count++;
+        }
+        int[] r = b.toArray();
+        for (int i = 0, j = r.length - 1; i < j; i++, j--) {
+            int tmp = r[i];
+            r[i] = r[j];
+            r[j] = tmp;
+        }
+        return new CompactPath(c % width, c / width, r, count);
+    }
+
+    /** کد قدم (dx,dy)؛ -1 اگر قدم یک‌خانه‌ای نیست. */
+    private static int code(int dx, int dy) {
+        if (dx == 0 && dy == 1)  return Position.DIR_DOWN;
+        if (dx == -1 && dy == 0) return Position.DIR_LEFT;
+        if (dx == 1 && dy == 0)  return Position.DIR_RIGHT;
+        if (dx == 0 && dy == -1) return Position.DIR_UP;
+        if (dx == 0 && dy == 0)  return WAIT;
+        return -1;
+    }
+
+    /** بافر رشدکنندهٔ runها */
+    private static final class RunBuffer {
+        int[] data = new int[8];
+        int count;
+        int lastCode = -1;
+
+        void add(int c) {
+            if (c == lastCode && (data[count - 1] >>> CODE_BITS) < MAX_RUN) {
+                data[count - 1] += 1 << CODE_BITS;
+                return;
+            }
+            if (count == data.length) data = Arrays.copyOf(data, count * 2);
+            data[count++] = (1 << CODE_BITS) | c;
+            lastCode = c;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, count);
+        }
+    }
+
+    // ------------------------------------------------------------
+    // دسترسی
+    // ------------------------------------------------------------
+
+    /** تعداد خانه‌ها (شامل شروع). */
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    /** تعداد قدم‌ها (size-1). */
+    public int getStepCount() { return Math.max(0, size - 1); }
+
+    public int getStartX() { return startX; }
+    public int getStartY() { return startY; }
+    public int getEndX() { return endX; }
+    public int getEndY() { return endY; }
+    public Position getStart() { return isEmpty() ? null : new Position(startX, startY); }
+    public Position getEnd() { return isEmpty() ? null : new Position(endX, endY); }
+
+    public int getRunCount() { return runs.length; }
+    /** کد run (جهت Position یا WAIT). */
+    public int getRunCode(int run) { return runs[run] & CODE_MASK; }
+    public int getRunLength(int run) { return runs[run] >>> CODE_BITS; }
+
+    /** حجم تقریبی داده (بایت) برای گزارش/پروفایل. */
+    public long estimatedBytes() {
+        return 40L + 16L + 4L * runs.length;
+    }
+
+    /** خانهٔ شمارهٔ index (O(تعداد run)). */
+    public Position get(int index) {
+        Cursor c = cursor();
+        c.seek(index);
+        return new Position(c.getX(), c.getY());
+    }
+
+    /** اولین اندیس خانهٔ (x,y)؛ -1 اگر روی مسیر نیست. */
+    public int indexOf(int x, int y) {
+        if (isEmpty()) return -1;
+        Cursor c = cursor();
+        do {
+            if (c.getX() == x && c.getY() == y) return c.getIndex();
+        } while (c.next() >= 0);
+        return -1;
+    }
+
+    /** پسوند مسیر از خانهٔ from (شامل). */
+    public CompactPath subPath(int from) {
+        if (from <= 0) return this;
+        if (from >= size) return EMPTY;
+        Cursor c = cursor();
+        c.seek(from);
+        int[] r = Arrays.copyOfRange(runs, c.run, runs.length);
+        if (r.length > 0) r[0] -= c.offset << CODE_BITS; // قدم‌های مصرف‌شدهٔ run جاری (offset < طول run)
+        return new CompactPath(c.getX(), c.getY(), r, size - from);
+    }
+
+    /** پیمایشگر بدون شیء؛ در ابتدا روی خانهٔ شروع است. */
+    public Cursor cursor() {
+        return new Cursor(this);
+    }
+
+    /** نمای فقط‌خواندنی List&lt;Position&gt; (تبدیل تنبل). */
+    public List<Position> asList() {
+        return new View(this);
+    }
+
+    @Override
+    public Iterator<Position> iterator() {
+        final Cursor c = cursor();
+        return new Iterator<Position>() {
+            private boolean first = !isEmpty();
+
+            @Override
+            public boolean hasNext() {
+                return first || c.hasNext();
+            }
+
+            @Override
+            public Position next() {
+                if (first) {
+                    first = false;
+                } else if (c.next() < 0) {
+                    throw new NoSuchElementException();
+                }
+                return new Position(c.getX(), c.getY());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) return "CompactPath[]";
+        StringBuilder sb = new StringBuilder("CompactPath[(").append(startX).append(',').append(startY).append(')');
+        for (int i = 0; i < runs.length; i++) {
+            int c = getRunCode(i);
+            sb.append(' ').append(c == WAIT ? 'W' : "DLRU".charAt(c)).append(getRunLength(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    // ------------------------------------------------------------
+    // Cursor
+    // ------------------------------------------------------------
+
+    /** پیمایشگر گام‌به‌گام. next() جهت قدم (یا WAIT) را برمی‌گرداند و -1 در انتهای مسیر. */
+    public static final class Cursor {
+        private final CompactPath path;
+        private int x, y;
+        private int index;
+        private int run;      // run جاری
+        private int offset;   // قدم‌های مصرف‌شده از run جاری
+
+        private Cursor(CompactPath path) {
+            this.path = path;
+            reset();
+        }
+
+        public void reset() {
+            x = path.startX;
+            y = path.startY;
+            index = 0;
+            run = 0;
+            offset = 0;
+        }
+
+        public int getX() { return x; }
+        public int getY() { return y; }
+        /** اندیس خانهٔ جاری در مسیر (0 = شروع). */
+        public int getIndex() { return index; }
+
+        public boolean hasNext() {
+            return index + 1 < path.size;
+        }
+
+        public int next() {
+            if (!hasNext()) return -1;
+            int r = path.runs[run];
+            int c = r & CODE_MASK;
+            x += DX[c];
+            y += DY[c];
+            index++;
+            if (++offset == (r >>> CODE_BITS)) {
+                run++;
+                offset = 0;
+            }
+            return c;
+        }
+
+        /** رفتن به خانهٔ target (به جلو با پرش روی runها؛ به عقب از شروع). */
+        public void seek(int target) {
+            if (target < 0 || target >= path.size) throw new IndexOutOfBoundsException("index " + target + ", size " + path.size);
+            if (target < index) reset();
+            while (index < target) {
+                int r = path.runs[run];
+                int c = r & CODE_MASK;
+                int k = Math.min((r >>> CODE_BITS) - offset, target - index);
+                x += DX[c] * k;
+                y += DY[c] * k;
+                index += k;
+                offset += k;
+                if (offset == (r >>> CODE_BITS)) {
+                    run++;
+                    offset = 0;
+                }
+            }
+        }
+    }
+
+    /** نمای List با Cursor داخلی: get(i) پشت‌سرهم O(1) است. */
+    private static final class View extends AbstractList<Position> {
+        private final CompactPath owner;
+        private final Cursor cursor;
+
+        View(CompactPath owner) {
+            this.owner = owner;
+            this.cursor = owner.cursor();
+        }
+
+        @Override
+        public synchronized Position get(int index) {
+            cursor.seek(index);
+            return new Position(cursor.getX(), cursor.getY());
+        }
+
+        @Override
+        public int size() {
+            return owner.size;
+        }
+    }
+}
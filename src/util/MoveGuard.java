@@ -14,6 +14,8 @@ import util.Position;
  * - Rescuer (پیاده): آزاد کامل؛ فقط مرز نقشه چک می‌شود. occupied/collision دست نمی‌زنیم.
  * - Vehicle/آمبولانس: فقط روی «جاده» (ترجیحاً از RoadMask/CityMap.isRoad) + ممنوعیت ورود به خودِ بیمارستان
  *   و رعایت occupied. CollisionMap اگر داده شود اعمال می‌شود.
+ *   اشغال با CityMap.tryMoveOccupant جابه‌جا می‌شود: مقصد با یک CAS گرفته و بعد مبدأ آزاد می‌شود،
+ *   پس دو متحرک هم‌زمان (نخ AI و نخ Swing) هیچ‌وقت یک تایل را با هم نمی‌گیرند و قفلی لازم نیست.
  */
 public final class MoveGuard {
 
@@ -46,7 +48,7 @@ public final class MoveGuard {
         // از اینجا به بعد: محدودیت‌های آمبولانس (مثل قبل ولی با تشخیص جاده از RoadMask/CityMap)
         Cell dest = map.getCell(nx, ny);
         if (dest == null) return false;
-        if (dest.isOccupied()) return false;
+        if (map.isOccupied(nx, ny)) return false; // ردّ سریع؛ تصمیم نهایی با CAS پایین
         if (dest.isHospital()) return false;
 
         boolean onRoad = isRoad(map, nx, ny, dest);
@@ -55,10 +57,9 @@ public final class MoveGuard {
         boolean passByCollision = (collisionMap == null) || collisionMap.isWalkable(nx, ny);
         if (!passByCollision) return false;
 
-        // آزادسازی قبلی و ثبت اشغال مقصد
-        map.setOccupied(cur.getX(), cur.getY(), false);
+        // گرفتن مقصد (CAS) و سپس آزادسازی مبدأ
+        if (!map.tryMoveOccupant(cur.getX(), cur.getY(), nx, ny)) return false;
         safeMove(rescuer, nx, ny, dir);
-        map.setOccupied(nx, ny, true);
         return true;
     }
 
@@ -75,7 +76,7 @@ public final class MoveGuard {
 
         Cell dest = map.getCell(nx, ny);
         if (dest == null) return false;
-        if (dest.isOccupied()) return false;
+        if (map.isOccupied(nx, ny)) return false; // ردّ سریع؛ تصمیم نهایی با CAS پایین
         if (dest.isHospital()) return false;
 
         // تشخیص جاده: اولویت با CityMap.isRoad/RoadMask، بعد نوع سلول
@@ -85,18 +86,11 @@ public final class MoveGuard {
         boolean passByCollision = (vehicleCM == null) || vehicleCM.isWalkable(nx, ny);
         if (!passByCollision) return false;
 
-        // آزاد کردن قبلی
-        map.setOccupied(cur.getX(), cur.getY(), false);
+        // گرفتن مقصد (CAS) و سپس آزادسازی مبدأ
+        if (!map.tryMoveOccupant(cur.getX(), cur.getY(), nx, ny)) return false;
 
         // حرکت
         vehicle.move(nx - cur.getX(), ny - cur.getY());
-
-        // اشغال جدید
-        Position after = vehicle.getTile();
-        if (after != null) {
-            map.setOccupied(after.getX(), after.getY(), true);
-        }
-
         return true;
     }
 
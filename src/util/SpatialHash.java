@@ -0,0 +1,249 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * --------------------
+ * لایه: Utility Layer
+ * --------------------
+ * شاخص مکانی با شبکهٔ یکنواخت (spatial hash) برای اشیای نقطه‌ای روی تایل‌ها (مجروح، بیمارستان، ...).
+ * - هر سطل cellSize×cellSize تایل است و فقط سطل‌های غیرخالی در HashMap نگه داشته می‌شوند (نقشهٔ بی‌کران).
+ * - put / remove / move در O(1)؛ هر شیء یک بار (با هویت، نه equals) ثبت می‌شود.
+ * - nearest / kNearest: جست‌وجوی حلقه‌ای از سطل مبدأ به بیرون با فاصلهٔ منهتنی؛ وقتی کران پایین حلقهٔ بعد
+ *   از بهترین فاصلهٔ پیدا شده بیشتر شد متوقف می‌شود، پس هزینه به تراکم نزدیک مبدأ بستگی دارد نه به تعداد کل.
+ * - withinRadius: همهٔ اشیای با فاصلهٔ منهتنی ≤ r.
+ * فیلتر اختیاری (مثلاً «قابل نجات») هنگام پرس‌وجو اعمال می‌شود.
+ * همهٔ متدها synchronized هستند؛ فیلترها نباید خودشان شاخص را تغییر دهند.
+ */
+public final class SpatialHash<T> {
+
+    /** فیلتر نتیجه‌ها */
+    public interface Filter<T> {
+        boolean accept(T item);
+    }
+
+    /** اندازهٔ پیش‌فرض ضلع سطل (تایل) */
+    public static final int DEFAULT_CELL_SIZE = 8;
+
+    private static final class Entry<T> {
+        final T item;
+        int x, y;
+        Bucket<T> bucket;
+        int slot;
+
+        Entry(T item) { this.item = item; }
+    }
+
+    private static final class Bucket<T> {
+        final ArrayList<Entry<T>> entries = new ArrayList<Entry<T>>(4);
+    }
+
+    private final int shift;
+    private final Map<Long, Bucket<T>> buckets = new HashMap<Long, Bucket<T>>();
+    private final IdentityHashMap<T, Entry<T>> entries = new IdentityHashMap<T, Entry<T>>();
+
+    // محدودهٔ سطل‌هایی که تا حالا پر شده‌اند (فقط بزرگ می‌شود؛ برای پایان جست‌وجوی حلقه‌ای)
+    private int minBx = Integer.MAX_VALUE, minBy = Integer.MAX_VALUE;
+    private int maxBx = Integer.MIN_VALUE, maxBy = Integer.MIN_VALUE;
+
+    public SpatialHash() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /** @param cellSize ضلع سطل؛ به نزدیک‌ترین توان 2 بالا گرد می‌شود */
+    public SpatialHash(int cellSize) {
+        int s = 0;
+        while ((1 << s) < Math.max(1, cellSize)) s++;
+        this.shift = s;
+    }
+
+    public int getCellSize() { return 1 << shift; }
+    public synchronized int size() { return entries.size(); }
+    public synchronized boolean isEmpty() { return entries.isEmpty(); }
+    public synchronized boolean contains(T item) { return item != null && entries.containsKey(item); }
+
+    // ------------------------------------------------------------
+    // به‌روزرسانی
+    // ------------------------------------------------------------
+
+    /** ثبت یا جابه‌جایی item به (x,y). */
+    public synchronized void put(T item, int x, int y) {
+        if (item == null) return;
+        Entry<T> e = entries.get(item);
+        if (e == null) {
+            e = new Entry<T>(item);
+            entries.put(item, e);
+        } else if ((e.x >> shift) == (x >> shift) && (e.y >> shift) == (y >> shift)) {
+            e.x = x;
+            e.y = y;
+            return; // همان سطل
+        } else {
+            unlink(e);
+        }
+        e.x = x;
+        e.y = y;
+        link(e);
+    }
+
+    public void put(T item, Position p) {
+        if (p != null) put(item, p.getX(), p.getY());
+    }
+
+    /** حذف item؛ true اگر ثبت شده بود. */
+    public synchronized boolean remove(T item) {
+        if (item == null) return false;
+        Entry<T> e = entries.remove(item);
+        if (e == null) return false;
+        unlink(e);
+        return true;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        buckets.clear();
+        minBx = minBy = Integer.MAX_VALUE;
+        maxBx = maxBy = Integer.MIN_VALUE;
+    }
+
+    /** مختصات ثبت‌شدهٔ item یا null */
+    public synchronized Position positionOf(T item) {
+        Entry<T> e = (item != null) ? entries.get(item) : null;
+        return (e != null) ? new Position(e.x, e.y) : null;
+    }
+
+    private void link(Entry<T> e) {
+        int bx = e.x >> shift, by = e.y >> shift;
+        Long key = Long.valueOf(key(bx, by));
+        Bucket<T> b = buckets.get(key);
+        if (b == null) {
+            b = new Bucket<T>();
+            buckets.put(key, b);
+        }
+        e.bucket = b;
+        e.slot = b.entries.size();
+        b.entries.add(e);
+        if (bx < minBx) minBx = bx;
+        if (by < minBy) minBy = by;
+        if (bx > maxBx) maxBx = bx;
+        if (by > maxBy) maxBy = by;
+    }
+
+    /** حذف O(1) با جابه‌جایی آخرین عنصر سطل به جای خالی */
+    private void unlink(Entry<T> e) {
+        Bucket<T> b = e.bucket;
+        ArrayList<Entry<T>> list = b.entries;
+        Entry<T> last = list.remove(list.size() - 1);
+        if (last != e) {
+            list.set(e.slot, last);
+            last.slot = e.slot;
+        }
+        if (list.isEmpty()) buckets.remove(Long.valueOf(key(e.x >> shift, e.y >> shift)));
+        e.bucket = null;
+    }
+
+    private static long key(int bx, int by) {
+        return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+    }
+
+    // ------------------------------------------------------------
+    // پرس‌وجو
+    // ------------------------------------------------------------
+
+    /** نزدیک‌ترین شیء (منهتنی) که filter قبول کند؛ null اگر نبود. */
+    public T nearest(int x, int y, Filter<T> filter) {
+        List<T> one = kNearest(x, y, 1, filter);
+        return one.isEmpty() ? null : one.get(0);
+    }
+
+    public T nearest(Position p, Filter<T> filter) {
+        return (p == null) ? null : nearest(p.getX(), p.getY(), filter);
+    }
+
+    /**
+     * k شیء نزدیک (منهتنی)، مرتب از نزدیک به دور (در تساوی ترتیب دلخواه).
+     * حلقهٔ r سطل‌هایی است که فاصلهٔ چبیشفِ سطلی‌شان از سطل مبدأ r است؛ هیچ نقطه‌ای در آن‌ها
+     * از (r-1)*cellSize+1 نزدیک‌تر نیست.
+     */
+    public synchronized List<T> kNearest(int x, int y, int k, Filter<T> filter) {
+        ArrayList<T> out = new ArrayList<T>();
+        if (k <= 0 || entries.isEmpty()) return out;
+        int[] dist = new int[k];
+        int n = 0;
+        int qbx = x >> shift, qby = y >> shift;
+        int maxRing = Math.max(Math.max(qbx - minBx, maxBx - qbx), Math.max(qby - minBy, maxBy - qby));
+        int cs = 1 << shift;
+        for (int r = 0; r <= maxRing; r++) {
+            if (n == k && r > 0 && dist[k - 1] <= (r - 1) * cs) break;
+            int byLo = Math.max(qby - r, minBy), byHi = Math.min(qby + r, maxBy);
+            int bxLo = Math.max(qbx - r, minBx), bxHi = Math.min(qbx + r, maxBx);
+            for (int by = byLo; by <= byHi; by++) {
+                boolean edgeRow = (by == qby - r || by == qby + r);
+                for (int bx = bxLo; bx <= bxHi; bx++) {
+                    // سطرهای میانی فقط دو سطل کناری حلقه را دارند
+                    if (!edgeRow && bx != qbx - r && bx != qbx + r) {
+                        if (bx < qbx + r) bx = qbx + r - 1;
+                        continue;
+                    }
+                    Bucket<T> b = buckets.get(Long.valueOf(key(bx, by)));
+                    if (b == null) continue;
+                    for (int i = 0; i < b.entries.size(); i++) {
+                        Entry<T> e = b.entries.get(i);
+                        int d = Math.abs(e.x - x) + Math.abs(e.y - y);
+                        if (n == k && d >= dist[k - 1]) continue;
+                        if (filter != null && !filter.accept(e.item)) continue;
+                        // درج مرتب در k بهترین
+                        int pos = (n < k) ? n++ : k - 1;
+                        while (pos > 0 && dist[pos - 1] > d) {
+                            dist[pos] = dist[pos - 1];
+                            if (pos < out.size()) out.set(pos, out.get(pos - 1));
+                            else out.add(out.get(pos - 1));
+                            pos--;
+                        }
+                        dist[pos] = d;
+                        if (pos < out.size()) out.set(pos, e.item);
+                        else out.add(e.item);
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    public List<T> kNearest(Position p, int k, Filter<T> filter) {
+        return (p == null) ? new ArrayList<T>() : kNearest(p.getX(), p.getY(), k, filter);
+    }
+
+    /** همهٔ اشیای با فاصلهٔ منهتنی ≤ radius از (x,y) که filter قبول کند (بدون ترتیب). */
+    public synchronized List<T> withinRadius(int x, int y, int radius, Filter<T> filter) {
+        ArrayList<T> out = new ArrayList<T>();
+        if (radius < 0 || entries.isEmpty()) return out;
+        int bx0 = Math.max(minBx, (x - radius) >> shift), bx1 = Math.min(maxBx, (x + radius) >> shift);
+        int by0 = Math.max(minBy, (y - radius) >> shift), by1 = Math.min(maxBy, (y + radius) >> shift);
+        for (int by = by0; by <= by1; by++) {
+            for (int bx = bx0; bx <= bx1; bx++) {
+                Bucket<T> b = buckets.get(Long.valueOf(key(bx, by)));
+                if (b == null) continue;
+                for (int i = 0; i < b.entries.size(); i++) {
+                    Entry<T> e = b.entries.get(i);
+                    if (Math.abs(e.x - x) + Math.abs(e.y - y) > radius) continue;
+                    if (filter != null && !filter.accept(e.item)) continue;
+                    out.add(e.item);
+                }
+            }
+        }
+        return out;
+    }
+
+    public List<T> withinRadius(Position p, int radius, Filter<T> filter) {
+        return (p == null) ? new ArrayList<T>() : withinRadius(p.getX(), p.getY(), radius, filter);
+    }
+
+    /** کپی همهٔ اشیای ثبت‌شده */
+    public synchronized List<T> items() {
+        return new ArrayList<T>(entries.keySet());
+    }
+}
@@ -3,6 +3,9 @@ package victim;
 import util.Position;
 import util.Timer;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * --------------------
  * لایه: Domain Layer
@@ -13,6 +16,8 @@ import util.Timer;
  * - پشتیبانی از ناپدید شدن پس از مرگ/نجات (visible=false)
  * - نگهداری "زمان اولیهٔ تایمر" برای محاسبهٔ جریمهٔ مرگ (۲×زمان اولیه)
  * - سازگار با Save/Load/Restart (pause/resume/setRemainingTime/markAsAlive/markAsCritical)
+ * - StateListener: خبر تغییر موقعیت یا وضعیت (مرده/نجات/درحال‌نجات/زنده) برای شاخص‌های بیرونی
+ *   (مثل شاخص مکانی VictimManager). خبر بیرون از قفل این شیء داده می‌شود تا شنونده بتواند قفل خودش را بگیرد.
  */
 public class Injured {
 
@@ -33,6 +38,13 @@ public class Injured {
     private boolean visible;               // کنترل رندر (بعد از مرگ/نجات false)
     private boolean critical;              // وضعیت بحرانی (مجزا از enum شدت برای همسویی با اسنپ‌شات)
 
+    /** شنوندهٔ تغییر موقعیت/وضعیت */
+    public interface StateListener {
+        void onInjuredChanged(Injured injured);
+    }
+
+    private final List<StateListener> listeners = new CopyOnWriteArrayList<StateListener>();
+
     // --- سازنده با زمان مشخص ---
     public Injured(int id, Position position, InjurySeverity severity, int timeLimit) {
         this.id = id;
@@ -69,14 +81,14 @@ public class Injured {
      * یک تیک کم می‌کند و اگر زمان تمام شده باشد، مجروح را "مرده" علامت می‌زند.
      * @return اگر همین حالا به مرگ رسید، true
      */
-    public synchronized boolean updateAndCheckDeath() {
-        if (isRescued || isDead) return false;
-        rescueTimer.tick();
-        if (rescueTimer.isFinished()) {
-            markAsDead(); // ناپدید هم می‌شود
-            return true;
+    public boolean updateAndCheckDeath() {
+        synchronized (this) {
+            if (isRescued || isDead) return false;
+            rescueTimer.tick();
+            if (!rescueTimer.isFinished()) return false;
         }
-        return false;
+        markAsDead(); // ناپدید هم می‌شود
+        return true;
     }
 
     // ===================== Getter ها =====================
@@ -114,7 +126,13 @@ public class Injured {
     public synchronized boolean isAlive() { return !isDead; }
 
     public synchronized boolean isBeingRescued() { return beingRescued; }
-    public synchronized void setBeingRescued(boolean beingRescued) { this.beingRescued = beingRescued; }
+    public void setBeingRescued(boolean beingRescued) {
+        synchronized (this) {
+            if (this.beingRescued == beingRescued) return;
+            this.beingRescued = beingRescued;
+        }
+        fireChanged();
+    }
     public synchronized boolean isVisible() { return visible; }
 
     /** وضعیت بحرانی (مجزا از enum شدت جراحت) */
@@ -125,38 +143,51 @@ public class Injured {
      * هم‌نام با استفادهٔ Rescuer: هنگام سوار شدن، قربانی در هر گام با Rescuer جابجا می‌شود.
      * چون Position خودش setX/setY دارد، فقط مختصات را کپی می‌کنیم.
      */
-    public synchronized void setPosition(Position p) {
+    public void setPosition(Position p) {
         if (p == null) return;
-        this.position.setX(p.getX());
-        this.position.setY(p.getY());
+        synchronized (this) {
+            if (position.getX() == p.getX() && position.getY() == p.getY()) return;
+            this.position.setX(p.getX());
+            this.position.setY(p.getY());
+        }
+        fireChanged();
     }
 
     // ===================== وضعیت‌ها =====================
     /** علامت‌گذاری به‌عنوان نجات‌یافته + ناپدید شدن از صحنه */
-    public synchronized void markAsRescued() {
-        if (isDead) return;
-        isRescued = true;
-        beingRescued = false;
-        visible = false;     // ناپدید شود
-        rescueTimer.stop();
+    public void markAsRescued() {
+        synchronized (this) {
+            if (isDead) return;
+            isRescued = true;
+            beingRescued = false;
+            visible = false;     // ناپدید شود
+            rescueTimer.stop();
+        }
+        fireChanged();
     }
 
     /** علامت‌گذاری به‌عنوان مرده + ناپدید شدن از صحنه */
-    public synchronized void markAsDead() {
-        if (isRescued) return;
-        isDead = true;
-        beingRescued = false;
-        visible = false;     // ناپدید شود
-        rescueTimer.stop();
+    public void markAsDead() {
+        synchronized (this) {
+            if (isRescued) return;
+            isDead = true;
+            beingRescued = false;
+            visible = false;     // ناپدید شود
+            rescueTimer.stop();
+        }
+        fireChanged();
     }
 
     /** بازگردانی به وضعیت زنده (برای Load از اسنپ‌شات که alive=true دارد) */
-    public synchronized void markAsAlive() {
-        isDead = false;
-        isRescued = false;
-        // beingRescued را دست نمی‌زنیم تا از بیرون تنظیم شود
-        visible = true;
-        // تایمر را استارت نمی‌کنیم؛ کنترل باقی‌مانده با setRemainingTime انجام می‌شود
+    public void markAsAlive() {
+        synchronized (this) {
+            isDead = false;
+            isRescued = false;
+            // beingRescued را دست نمی‌زنیم تا از بیرون تنظیم شود
+            visible = true;
+            // تایمر را استارت نمی‌کنیم؛ کنترل باقی‌مانده با setRemainingTime انجام می‌شود
+        }
+        fireChanged();
     }
 
     /** علامت‌گذاری به‌عنوان بحرانی (مجزا از enum) */
@@ -169,6 +200,23 @@ public class Injured {
         this.critical = critical;
     }
 
+    // ===================== شنونده‌ها =====================
+
+    public void addStateListener(StateListener l) {
+        if (l != null && !listeners.contains(l)) listeners.add(l);
+    }
+
+    public void removeStateListener(StateListener l) {
+        listeners.remove(l);
+    }
+
+    /** بیرون از قفل صدا زده می‌شود */
+    private void fireChanged() {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onInjuredChanged(this);
+        }
+    }
+
     // ===================== محاسبات امتیاز =====================
     /**
      * جریمهٔ مرگ بر مبنای قانون پروژه:
@@ -1,6 +1,8 @@
 package victim;
 
 import controller.ScoreManager;
+import util.Position;
+import util.SpatialHash;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -11,11 +13,24 @@ import java.util.List;
  * --------------------
  * مدیریت لیست مجروح‌ها + اعمال جریمه/پاداش از طریق ScoreManager (سراسری).
  * پشتیبانی از Pause/Resume سراسری (برای Save/Load) و ReplaceAll (برای Load).
+ * شاخص مکانی مجروح‌های آزاد (زنده، نجات‌نشده، درحال‌نجات‌نبودن) با Injured.StateListener به‌روز می‌ماند:
+ * اسپاون، سوار شدن، مرگ و تحویل خودکار در آن اعمال می‌شوند؛ پرس‌وجوی نزدیک‌ترین/k-نزدیک/شعاع
+ * به تعداد کل مجروح‌ها بستگی ندارد.
  */
 public class VictimManager {
 
     private final List<Injured> injuredList;
 
+    /** مجروح‌های آزاد بر اساس موقعیت */
+    private final SpatialHash<Injured> freeIndex = new SpatialHash<Injured>();
+
+    private final Injured.StateListener indexUpdater = new Injured.StateListener() {
+        @Override
+        public void onInjuredChanged(Injured injured) {
+            reindex(injured);
+        }
+    };
+
     public VictimManager() {
         this.injuredList = new ArrayList<Injured>();
     }
@@ -26,6 +41,7 @@ public class VictimManager {
     public void addInjured(Injured injured) {
         if (injured == null) return;
         injuredList.add(injured);
+        track(injured);
     }
 
     /** همهٔ مجروح‌ها (کپی دفاعی) */
@@ -83,6 +99,7 @@ public class VictimManager {
             Injured v = injuredList.get(i);
             if (v != null && v.getId() == id) {
                 injuredList.remove(i);
+                untrack(v);
                 return true;
             }
         }
@@ -91,22 +108,71 @@ public class VictimManager {
 
     /** پاک‌سازی کامل لیست (مثلاً ریست بازی) */
     public void clear() {
+        for (int i = 0; i < injuredList.size(); i++) {
+            Injured v = injuredList.get(i);
+            if (v != null) v.removeStateListener(indexUpdater);
+        }
         injuredList.clear();
+        freeIndex.clear();
     }
 
     /** جایگزینی کامل لیست مجروح‌ها (مثلاً بعد از Load) */
     public void replaceAll(List<Injured> newList) {
-        injuredList.clear();
+        clear();
         if (newList != null) {
             for (int i = 0; i < newList.size(); i++) {
                 Injured v = newList.get(i);
                 if (v != null) {
                     injuredList.add(v);
+                    track(v);
                 }
             }
         }
     }
 
+    // -------------------- شاخص مکانی --------------------
+
+    /** شاخص مکانی مجروح‌های آزاد (فقط‌خواندنی نگهش دار؛ به‌روزرسانی خودکار است) */
+    public SpatialHash<Injured> getFreeVictimIndex() {
+        return freeIndex;
+    }
+
+    /** نزدیک‌ترین مجروح آزاد به from (منهتنی) که filter (اختیاری) قبول کند. */
+    public Injured findNearestFree(Position from, SpatialHash.Filter<Injured> filter) {
+        return freeIndex.nearest(from, filter);
+    }
+
+    /** k مجروح آزاد نزدیک به from، مرتب از نزدیک به دور. */
+    public List<Injured> findNearestFree(Position from, int k, SpatialHash.Filter<Injured> filter) {
+        return freeIndex.kNearest(from, k, filter);
+    }
+
+    /** مجروح‌های آزاد با فاصلهٔ منهتنی ≤ radius از from. */
+    public List<Injured> findFreeWithin(Position from, int radius, SpatialHash.Filter<Injured> filter) {
+        return freeIndex.withinRadius(from, radius, filter);
+    }
+
+    private void track(Injured v) {
+        v.addStateListener(indexUpdater);
+        reindex(v);
+    }
+
+    private void untrack(Injured v) {
+        v.removeStateListener(indexUpdater);
+        freeIndex.remove(v);
+    }
+
+    /**
+     * آزاد بودن با همان فیلتر getAliveAndFree. خواندن وضعیت و نوشتن در شاخص زیر قفل شاخص است و Injured
+     * بعد از هر تغییر (بیرون از قفل خودش) دوباره این را صدا می‌زند، پس آخرین وضعیت همیشه در شاخص می‌نشیند.
+     */
+    private void reindex(Injured v) {
+        synchronized (freeIndex) {
+            if (v.isAlive() && !v.isRescued() && !v.isBeingRescued()) freeIndex.put(v, v.getPosition());
+            else freeIndex.remove(v);
+        }
+    }
+
     /** شمارش مجروح‌های فوت‌شده (بدون Stream) */
     public long countDead() {
         long c = 0;
@@ -80,8 +80,7 @@ public final class VictimSpawner {
             Position p = candidates.get(i);
 
             // اگر سلول اشغال باشد، رد کن
-            Cell c = map.getCell(p.getX(), p.getY());
-            if (c != null && c.isOccupied()) continue;
+            if (map.isOccupied(p.getX(), p.getY())) continue;
 
             // شدت جراحت را می‌توان بر اساس RNG تعیین کرد
             InjurySeverity sev = randomSeverity(random);
@@ -95,7 +94,7 @@ public final class VictimSpawner {
             manager.addInjured(inj);
 
             // اگر خواستی سلول را اشغال علامت بزنی
-            if (c != null) c.setOccupied(true);
+            map.setOccupied(p.getX(), p.getY(), true);
 
             placed++;
         }